@@ -0,0 +1,76 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * 性能测试使用的样例数据，属性数量和长度接近线上的 Sugo event
+ */
+final class BenchmarkEvents {
+
+    static final int BATCH_SIZE = SugoConfig.MAX_MESSAGE_SIZE;
+
+    private BenchmarkEvents() {
+    }
+
+    static JSONObject properties(int i) {
+        JSONObject properties = new JSONObject();
+        properties.put("app_version", "3.2.1");
+        properties.put("host", "web-node-17.example.internal");
+        properties.put("region", "cn-shanghai");
+        properties.put("page", "/product/detail");
+        properties.put("referrer", "https://www.example.com/search?q=hat");
+        properties.put("item_id", 100000 + i);
+        properties.put("price", 59.9);
+        properties.put("quantity", 2);
+        properties.put("logged_in", true);
+        return properties;
+    }
+
+    /**
+     * properties(i) 中每条 event 都相同的部分，用作 super properties
+     */
+    static JSONObject staticProperties() {
+        JSONObject properties = new JSONObject();
+        properties.put("app_version", "3.2.1");
+        properties.put("host", "web-node-17.example.internal");
+        properties.put("region", "cn-shanghai");
+        properties.put("page", "/product/detail");
+        properties.put("referrer", "https://www.example.com/search?q=hat");
+        return properties;
+    }
+
+    /**
+     * properties(i) 中每条 event 不同的部分
+     */
+    static JSONObject eventProperties(int i) {
+        JSONObject properties = new JSONObject();
+        properties.put("item_id", 100000 + i);
+        properties.put("price", 59.9);
+        properties.put("quantity", 2);
+        properties.put("logged_in", true);
+        return properties;
+    }
+
+    static MessagePackage batch() {
+        MessageBuilder builder = new MessageBuilder();
+        MessagePackage messagePackage = new MessagePackage();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            messagePackage.addMessage(builder.event("user-" + i, "view_item", properties(i)));
+        }
+        return messagePackage;
+    }
+
+    static String batchString() {
+        List<JSONObject> messages = batch().getEventsMessages();
+        EventWriter writer = new EventWriter();
+        writer.beginArray();
+        for (JSONObject message : messages) {
+            writer.writeMessage(message);
+        }
+        writer.endArray();
+        return writer.toString();
+    }
+
+}
@@ -0,0 +1,169 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * 一批 event 的序列化和编码开销，结果按单条 event 归一化（OperationsPerInvocation = 一批的条数）
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(BenchmarkEvents.BATCH_SIZE)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodingBenchmark {
+
+    @State(Scope.Thread)
+    public static class Batch {
+
+        List<JSONObject> mMessages;
+        String mDataString;
+        byte[] mUtf8;
+        byte[] mEncoded;
+        EventWriter mWriter;
+        BatchWriter mMessagePack;
+        BatchWriter mColumnar;
+        Deflater mDeflater;
+        byte[] mDeflated;
+
+        @Setup
+        public void setUp() throws Exception {
+            mMessages = BenchmarkEvents.batch().getEventsMessages();
+            mDataString = BenchmarkEvents.batchString();
+            mUtf8 = mDataString.getBytes("utf-8");
+            mEncoded = new byte[Base64.formEscapedMaxLength(mUtf8.length)];
+            mWriter = new EventWriter();
+            mMessagePack = BatchCodec.MESSAGE_PACK.newWriter();
+            mColumnar = BatchCodec.COLUMNAR.newWriter();
+            mDeflater = new Deflater();
+            mDeflated = new byte[mUtf8.length];
+        }
+
+    }
+
+    /**
+     * 旧的实现：JSONArray.toString()
+     */
+    @Benchmark
+    public String jsonArrayToString(Batch batch) {
+        JSONArray array = new JSONArray();
+        for (JSONObject message : batch.mMessages) {
+            array.put(message);
+        }
+        return array.toString();
+    }
+
+    @Benchmark
+    public int eventWriter(Batch batch) {
+        EventWriter writer = batch.mWriter;
+        writer.reset();
+        writer.beginArray();
+        for (JSONObject message : batch.mMessages) {
+            writer.writeMessage(message);
+        }
+        writer.endArray();
+        return writer.size();
+    }
+
+    @Benchmark
+    public int messagePackWriter(Batch batch) {
+        BatchWriter writer = batch.mMessagePack;
+        writer.begin();
+        for (JSONObject message : batch.mMessages) {
+            writer.write(message);
+        }
+        writer.end();
+        return writer.size();
+    }
+
+    @Benchmark
+    public int columnarWriter(Batch batch) {
+        BatchWriter writer = batch.mColumnar;
+        writer.begin();
+        for (JSONObject message : batch.mMessages) {
+            writer.write(message);
+        }
+        writer.end();
+        return writer.size();
+    }
+
+    /**
+     * 按行的 JSON 再压缩（HttpSender.Encoding.DEFLATE），与 columnarWriter 对比
+     */
+    @Benchmark
+    public int jsonDeflate(Batch batch) {
+        eventWriter(batch);
+        Deflater deflater = batch.mDeflater;
+        deflater.reset();
+        deflater.setInput(batch.mWriter.buffer(), 0, batch.mWriter.size());
+        deflater.finish();
+        int size = 0;
+        while (!deflater.finished()) {
+            size += deflater.deflate(batch.mDeflated);
+        }
+        return size;
+    }
+
+    /**
+     * JSON 编码的完整请求体：EventWriter 写出 JSON，再转成 Base64 的 FORM 请求体
+     * MessagePack 的请求体就是 messagePackWriter 的结果，不需要这一步
+     */
+    @Benchmark
+    public int jsonFormRequestBody(Batch batch) {
+        eventWriter(batch);
+        return new FormBody(batch.mWriter.toString()).length();
+    }
+
+    /**
+     * 旧的实现：逐字符查表，每次分配新的 char[]
+     */
+    @Benchmark
+    public char[] base64Encode(Batch batch) {
+        return Base64.encode(batch.mUtf8);
+    }
+
+    /**
+     * 每次查表写两个字符，写入复用的 byte[]
+     */
+    @Benchmark
+    public int base64EncodeIntoBuffer(Batch batch) {
+        return Base64.encode(batch.mUtf8, 0, batch.mUtf8.length, batch.mEncoded, 0);
+    }
+
+    @Benchmark
+    public int base64EncodeFormEscaped(Batch batch) {
+        return Base64.encodeFormEscaped(batch.mUtf8, 0, batch.mUtf8.length, batch.mEncoded, 0);
+    }
+
+    /**
+     * 旧的 FORM 请求体：getBytes、Base64 char[]、String、URLEncoder、"data=" 拼接、getBytes
+     */
+    @Benchmark
+    public byte[] formBodyUrlEncoder(Batch batch) throws Exception {
+        String base64 = new String(Base64.encode(batch.mDataString.getBytes("utf-8")));
+        return ("data=" + URLEncoder.encode(base64, "utf8")).getBytes("utf-8");
+    }
+
+    @Benchmark
+    public int formBody(Batch batch) {
+        return new FormBody(batch.mDataString).length();
+    }
+
+}
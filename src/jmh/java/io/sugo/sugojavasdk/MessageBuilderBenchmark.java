@@ -0,0 +1,83 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MessageBuilder.event() 以及 MessagePackage 的开销（每个 op 一条 event）
+ * buildAndWrite* 比较每条 event 都带上全部属性和使用 super properties 时，生成并序列化一条 event 的开销
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageBuilderBenchmark {
+
+    private MessageBuilder mBuilder;
+    private JSONObject mProperties;
+    private JSONObject mMessage;
+    private MessageBuilder mTemplatedBuilder;
+    private JSONObject mEventProperties;
+
+    @Setup
+    public void setUp() {
+        mBuilder = new MessageBuilder();
+        mProperties = BenchmarkEvents.properties(1);
+        mMessage = mBuilder.event("user-1", "view_item", mProperties);
+        mTemplatedBuilder = new MessageBuilder().setSuperProperties(BenchmarkEvents.staticProperties());
+        mEventProperties = BenchmarkEvents.eventProperties(1);
+    }
+
+    @Benchmark
+    public JSONObject buildEvent() {
+        return mBuilder.event("user-1", "view_item", mProperties);
+    }
+
+    @Benchmark
+    public int buildAndWriteFullProperties(WriterState state) {
+        state.mWriter.reset();
+        return state.mWriter.writeMessage(mBuilder.event("user-1", "view_item", mProperties)).size();
+    }
+
+    @Benchmark
+    public int buildAndWriteSuperProperties(WriterState state) {
+        state.mWriter.reset();
+        return state.mWriter.writeMessage(mTemplatedBuilder.templatedEvent("user-1", "view_item", mEventProperties)).size();
+    }
+
+    @Benchmark
+    public boolean isValidMessage() {
+        return new MessagePackage().isValidMessage(mMessage);
+    }
+
+    @Benchmark
+    public MessagePackage addMessage() {
+        MessagePackage messagePackage = new MessagePackage();
+        messagePackage.addMessage(mMessage);
+        return messagePackage;
+    }
+
+    /**
+     * EventWriter 不是线程安全的，每个线程一个
+     */
+    @State(Scope.Thread)
+    public static class WriterState {
+
+        final EventWriter mWriter = new EventWriter();
+
+    }
+
+}
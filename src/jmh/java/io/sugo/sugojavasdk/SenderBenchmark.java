@@ -0,0 +1,211 @@
+package io.sugo.sugojavasdk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每种 Sender 发送一批 event 的开销，HttpSender 发送到本地的 HTTP 桩服务，UnixSocketSender 和 UdpSender 发送到只读掉数据的本机 agent
+ * 用 -t 指定生产者线程数，例如 -t 1、-t 16、-t 64
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@OperationsPerInvocation(BenchmarkEvents.BATCH_SIZE)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SenderBenchmark {
+
+    @Param({"file", "console", "http", "http-gzip", "unix", "udp"})
+    public String mSenderType;
+
+    private HttpServer mServer;
+    private Closeable mAgent;
+    private File mDir;
+    private SugoAPI.Sender mSender;
+    private String mDataString;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDataString = BenchmarkEvents.batchString();
+        if ("file".equals(mSenderType)) {
+            mDir = Files.createTempDirectory("sugo-bench").toFile();
+            mSender = new SugoAPI.FileSender(new File(mDir, "message").getPath(), "10", "100MB");
+        } else if ("console".equals(mSenderType)) {
+            mSender = new SugoAPI.ConsoleSender();
+        } else if ("unix".equals(mSenderType)) {
+            mDir = Files.createTempDirectory("sugo-bench").toFile();
+            String path = new File(mDir, "agent.sock").getPath();
+            mAgent = startUnixAgent(path);
+            mSender = new UnixSocketSender(path);
+        } else if ("udp".equals(mSenderType)) {
+            DatagramChannel agent = startUdpAgent();
+            mAgent = agent;
+            mSender = new UdpSender("127.0.0.1", ((InetSocketAddress) agent.getLocalAddress()).getPort());
+        } else {
+            mServer = startStub();
+            String endpoint = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/post";
+            mSender = new SugoAPI.HttpSender(endpoint, 64,
+                    "http-gzip".equals(mSenderType) ? SugoAPI.HttpSender.Encoding.GZIP : SugoAPI.HttpSender.Encoding.FORM);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (mSender instanceof Closeable) {
+            ((Closeable) mSender).close();
+        }
+        if (mServer != null) {
+            mServer.stop(0);
+        }
+        if (mAgent != null) {
+            mAgent.close();
+        }
+        if (mDir != null) {
+            File[] files = mDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            mDir.delete();
+        }
+    }
+
+    @Benchmark
+    public boolean sendBatch() {
+        return mSender.sendData(mDataString);
+    }
+
+    /**
+     * 只读掉数据的本机 agent，监听 Unix domain socket
+     */
+    static Closeable startUnixAgent(String path) throws IOException {
+        final ServerSocketChannel server;
+        try {
+            server = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+                    .invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+        } catch (Exception e) {
+            throw new IOException("Unix domain sockets require JDK 16 or later", e);
+        }
+        server.bind(UnixSocketSender.address(path));
+        startDaemon(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final SocketChannel client = server.accept();
+                        startDaemon(new Runnable() {
+                            @Override
+                            public void run() {
+                                drain(client);
+                            }
+                        });
+                    }
+                } catch (IOException e) {
+                    // 已关闭
+                }
+            }
+        });
+        return server;
+    }
+
+    /**
+     * 只读掉 datagram 的本机 agent
+     */
+    static DatagramChannel startUdpAgent() throws IOException {
+        final DatagramChannel agent = DatagramChannel.open();
+        agent.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+        agent.bind(new InetSocketAddress("127.0.0.1", 0));
+        startDaemon(new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer buffer = ByteBuffer.allocate(65536);
+                try {
+                    while (true) {
+                        buffer.clear();
+                        agent.receive(buffer);
+                    }
+                } catch (IOException e) {
+                    // 已关闭
+                }
+            }
+        });
+        return agent;
+    }
+
+    private static void drain(ByteChannel channel) {
+        ByteBuffer buffer = ByteBuffer.allocate(65536);
+        try {
+            while (channel.read(buffer) != -1) {
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            // 已关闭
+        }
+    }
+
+    private static void startDaemon(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 只读掉请求体并返回 "1" 的 HTTP 服务
+     */
+    static HttpServer startStub() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/post", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                    // discard
+                }
+                exchange.sendResponseHeaders(200, 1);
+                OutputStream out = exchange.getResponseBody();
+                out.write('1');
+                out.close();
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(16));
+        server.start();
+        return server;
+    }
+
+}
@@ -0,0 +1,74 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 按 distinct_id 分片后的发送吞吐量：Sender 每次调用耗时 1ms（模拟网络往返），队列很小且满时阻塞，
+ * 所以 event() 的吞吐量等于发送的吞吐量。shards = 0 是不分片、一个 consumer 的基准，保证全局顺序
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardBenchmark {
+
+    private static final int USERS = 1000;
+
+    @Param({"0", "2", "8"})
+    public int shards;
+
+    private SugoAPI mSugoAPI;
+    private JSONObject mProperties;
+    private String[] mDistinctIds;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mSugoAPI = new SugoAPI(new SugoAPI.Sender() {
+            @Override
+            public boolean sendData(String dataString) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                return true;
+            }
+        }, new WorkerConfig()
+                .setConsumerCount(1)
+                .setShards(shards)
+                .setBatchSize(10)
+                .setLingerMillis(0)
+                .setQueueCapacity(256));
+        mProperties = BenchmarkEvents.properties(1);
+        mDistinctIds = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            mDistinctIds[i] = "user-" + i;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mSugoAPI.close(0, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    public void event() {
+        mSugoAPI.event(mDistinctIds[mNext++ % USERS], "view_item", mProperties);
+    }
+
+}
@@ -0,0 +1,70 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 大量 consumer 同时阻塞在 Sender 上时，普通线程和虚拟线程的发送吞吐量：Sender 每次调用耗时 1ms（模拟网络往返），
+ * 每批一条 event，队列满时阻塞，所以 event() 的吞吐量等于发送的吞吐量，理想值为 consumers 条/ms。
+ * 虚拟线程需要 JDK 21 以上，更低版本的 JDK 上 virtual = true 退回普通线程（日志中有警告）
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VirtualThreadBenchmark {
+
+    @Param({"false", "true"})
+    public boolean virtual;
+
+    @Param({"16", "256", "2048"})
+    public int consumers;
+
+    private SugoAPI mSugoAPI;
+    private JSONObject mProperties;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mSugoAPI = new SugoAPI(new SugoAPI.Sender() {
+            @Override
+            public boolean sendData(String dataString) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                return true;
+            }
+        }, new WorkerConfig()
+                .setConsumerCount(consumers)
+                .setVirtualThreads(virtual)
+                .setBatchSize(1)
+                .setLingerMillis(0)
+                .setQueueCapacity(4096));
+        mProperties = BenchmarkEvents.properties(1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mSugoAPI.close(0, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    public void event() {
+        mSugoAPI.event("user", "view_item", mProperties);
+    }
+
+}
@@ -0,0 +1,56 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SugoAPI.event() 在调用线程上的开销（生成 message 并放入队列），Sender 不做任何事
+ * 用 -t 指定生产者线程数，观察多线程下的扩展性；waitStrategy 比较 consumer 的不同等待方式
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WorkerBenchmark {
+
+    @Param({"PARK", "YIELD", "BUSY_SPIN"})
+    public WorkerConfig.WaitStrategy waitStrategy;
+
+    private SugoAPI mSugoAPI;
+    private JSONObject mProperties;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mSugoAPI = new SugoAPI(new SugoAPI.Sender() {
+            @Override
+            public boolean sendData(String dataString) {
+                return true;
+            }
+        }, new WorkerConfig()
+                .setQueueCapacity(1 << 16)
+                .setWaitStrategy(waitStrategy)
+                .setOverflowPolicy(WorkerConfig.OverflowPolicy.DROP_OLDEST));
+        mProperties = BenchmarkEvents.properties(1);
+    }
+
+    @Benchmark
+    public void event() {
+        mSugoAPI.event("view_item", mProperties);
+    }
+
+}
@@ -0,0 +1,21 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONObject;
+
+/**
+ * 默认 worker 接收 event 之前的准入判断，见 WorkerConfig#addAdmissionPolicy(AdmissionPolicy)
+ * 被拒绝的 event 不会生成 message，只计入 MetricsSnapshot#getEventsShed()
+ * <p>
+ * 在调用 event() 的线程上执行，实现应该很快并且线程安全
+ */
+public interface AdmissionPolicy {
+
+    /**
+     * @param eventName  event 名称
+     * @param properties 调用者传入的属性，可能为 null，不应修改
+     * @param load       队列的负载：0 为空，1 为满，取条数（queueCapacity）和内存（memoryBudgetBytes）中较高的一个
+     * @return false 丢弃这条 event
+     */
+    boolean admit(String eventName, JSONObject properties, double load);
+
+}
@@ -0,0 +1,133 @@
+package io.sugo.sugojavasdk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 在本地聚合的 event，见 WorkerConfig#addAggregation(AggregationRule)
+ * 同名的 event 不再逐条发送，每个时间窗口按 groupBy 的属性值分组，每组发送一条汇总 event：
+ * 条数（count），以及每个数值属性的 count、sum、min、max 和可选的直方图
+ */
+public class AggregationRule {
+
+    private final String mEventName;
+    private long mWindowMillis = SugoConfig.DEFAULT_AGGREGATION_WINDOW_MILLIS;
+    private int mMaxGroups = SugoConfig.DEFAULT_AGGREGATION_MAX_GROUPS;
+    private final List<String> mGroupBy = new ArrayList<String>();
+    /**
+     * 数值属性 -> 直方图的桶边界，没有直方图时为 null
+     */
+    private final Map<String, double[]> mValues = new LinkedHashMap<String, double[]>();
+
+    /**
+     * @param eventName 要聚合的 event 名称
+     */
+    public AggregationRule(String eventName) {
+        if (eventName == null) {
+            throw new IllegalArgumentException("eventName can not be null");
+        }
+        mEventName = eventName;
+    }
+
+    /**
+     * @param windowMillis 时间窗口的长度，窗口按整点对齐，默认 60 秒
+     */
+    public AggregationRule setWindowMillis(long windowMillis) {
+        if (windowMillis < 1) {
+            throw new IllegalArgumentException("windowMillis must be positive: " + windowMillis);
+        }
+        mWindowMillis = windowMillis;
+        return this;
+    }
+
+    /**
+     * 每个窗口最多的分组数，超出后新的分组合并到属性值为 "__other__" 的一组
+     */
+    public AggregationRule setMaxGroups(int maxGroups) {
+        if (maxGroups < 1) {
+            throw new IllegalArgumentException("maxGroups must be positive: " + maxGroups);
+        }
+        mMaxGroups = maxGroups;
+        return this;
+    }
+
+    /**
+     * @param properties 分组的属性，汇总 event 中带有这些属性的值
+     */
+    public AggregationRule groupBy(String... properties) {
+        for (String property : properties) {
+            if (property == null) {
+                throw new IllegalArgumentException("property can not be null");
+            }
+            mGroupBy.add(property);
+        }
+        return this;
+    }
+
+    /**
+     * 统计数值属性的 count、sum、min、max，汇总 event 中的属性名是 property_count 等
+     * 不是数值的属性值被忽略
+     */
+    public AggregationRule addValue(String property) {
+        return addValue(property, null);
+    }
+
+    /**
+     * 和 addValue 相同，另外统计直方图，汇总 event 中的 property_histogram 是
+     * {"bounds": [...], "counts": [...]}，counts[i] 是 (bounds[i - 1], bounds[i]] 中的个数，最后一个是大于所有边界的个数
+     *
+     * @param bounds 递增的桶边界
+     */
+    public AggregationRule addHistogram(String property, double... bounds) {
+        if (bounds == null || bounds.length == 0) {
+            throw new IllegalArgumentException("bounds can not be empty");
+        }
+        for (int i = 1; i < bounds.length; i++) {
+            if (!(bounds[i] > bounds[i - 1])) {
+                throw new IllegalArgumentException("bounds must be increasing: " + Arrays.toString(bounds));
+            }
+        }
+        return addValue(property, bounds.clone());
+    }
+
+    private AggregationRule addValue(String property, double[] bounds) {
+        if (property == null) {
+            throw new IllegalArgumentException("property can not be null");
+        }
+        mValues.put(property, bounds);
+        return this;
+    }
+
+    public String getEventName() {
+        return mEventName;
+    }
+
+    public long getWindowMillis() {
+        return mWindowMillis;
+    }
+
+    public int getMaxGroups() {
+        return mMaxGroups;
+    }
+
+    public List<String> getGroupBy() {
+        return Collections.unmodifiableList(mGroupBy);
+    }
+
+    public List<String> getValues() {
+        return Collections.unmodifiableList(new ArrayList<String>(mValues.keySet()));
+    }
+
+    /**
+     * @return property 的直方图桶边界，没有直方图时为 null
+     */
+    public double[] getHistogramBounds(String property) {
+        double[] bounds = mValues.get(property);
+        return bounds == null ? null : bounds.clone();
+    }
+
+}
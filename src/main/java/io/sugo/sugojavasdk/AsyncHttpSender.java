@@ -0,0 +1,564 @@
+package io.sugo.sugojavasdk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 基于 NIO 的非阻塞 HttpSender：一个 I/O 线程管理到终端的所有连接，
+ * 每个连接上最多同时有 maxInFlight 个请求（HTTP/1.1 pipelining），响应按顺序返回后完成对应的 SendFuture。
+ * 增加连接数或 maxInFlight 不需要增加线程。
+ * <p>
+ * 请求体在调用 sendAsync 的线程上编码。等待发送和正在发送的请求总数达到上限（connections * maxInFlight * 2）时，
+ * sendAsync 最多等待 connectTimeoutMillis，之后以 SendFailure.OVERLOADED 失败。
+ * 连接失败（包括超时）时，还没有写出的请求换一个连接重发一次；已经写出的请求可能已被服务端处理，不会重发。
+ * 只支持 http，https 请使用 HttpSender。
+ */
+public class AsyncHttpSender implements SugoAPI.AsyncSender, SugoAPI.ClassifyingSender, Closeable, MetricsAware {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final String mEventsEndpoint;
+    private final String mHost;
+    private final int mPort;
+    private final String mPath;
+    private final String mHostHeader;
+    private final SugoAPI.HttpSender.Encoding mEncoding;
+    private final int mConnections;
+    private final int mMaxInFlight;
+    private final int mConnectTimeoutMillis;
+    private final long mConnectTimeoutNanos;
+    private final long mReadTimeoutNanos;
+
+    private final Semaphore mPermits;
+    private final Queue<Request> mPending = new ConcurrentLinkedQueue<Request>();
+    private final Selector mSelector;
+    private final AtomicBoolean mWakeup = new AtomicBoolean();
+    private final Thread mIoThread;
+    private volatile boolean mClosed = false;
+    private final ThreadLocal<SendFailure> mLastFailure = new ThreadLocal<SendFailure>();
+    private volatile Metrics mMetrics;
+
+    /**
+     * 以下字段只在 I/O 线程上访问
+     */
+    private final ArrayDeque<Request> mRetries = new ArrayDeque<Request>();
+    private final List<Connection> mOpen = new ArrayList<Connection>();
+    private final ByteBuffer mReadBuffer = ByteBuffer.allocate(SugoConfig.BUFFER_SIZE * 64);
+
+    public AsyncHttpSender(String eventsEndpoint) {
+        this(eventsEndpoint, SugoConfig.DEFAULT_ASYNC_HTTP_CONNECTIONS, SugoConfig.DEFAULT_ASYNC_HTTP_MAX_IN_FLIGHT,
+                SugoConfig.CONNECT_TIMEOUT_MILLIS, SugoConfig.READ_TIMEOUT_MILLIS, SugoAPI.HttpSender.Encoding.FORM);
+    }
+
+    /**
+     * @param eventsEndpoint       接收数据的地址（http）
+     * @param connections          最多同时打开的连接数
+     * @param maxInFlight          每个连接上最多同时等待响应的请求数，为 1 则不使用 pipelining
+     * @param connectTimeoutMillis 建立连接的超时时间
+     * @param readTimeoutMillis    请求分配到连接后等待响应的超时时间
+     * @param encoding             请求体的编码方式
+     */
+    public AsyncHttpSender(String eventsEndpoint, int connections, int maxInFlight, int connectTimeoutMillis,
+                           int readTimeoutMillis, SugoAPI.HttpSender.Encoding encoding) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("connections must be positive: " + connections);
+        }
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        if (encoding == null) {
+            throw new IllegalArgumentException("encoding can not be null");
+        }
+        URL endpoint;
+        try {
+            endpoint = new URL(eventsEndpoint);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid events endpoint: " + eventsEndpoint, e);
+        }
+        if (!"http".equalsIgnoreCase(endpoint.getProtocol())) {
+            throw new IllegalArgumentException("Unsupported protocol, use HttpSender for https: " + eventsEndpoint);
+        }
+        mEventsEndpoint = eventsEndpoint;
+        mHost = endpoint.getHost();
+        mPort = endpoint.getPort() != -1 ? endpoint.getPort() : endpoint.getDefaultPort();
+        mPath = endpoint.getFile().length() == 0 ? "/" : endpoint.getFile();
+        mHostHeader = endpoint.getPort() != -1 ? mHost + ":" + mPort : mHost;
+        mEncoding = encoding;
+        mConnections = connections;
+        mMaxInFlight = maxInFlight;
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mConnectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis);
+        mReadTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(readTimeoutMillis);
+        mPermits = new Semaphore(connections * maxInFlight * 2);
+        try {
+            mSelector = Selector.open();
+        } catch (IOException e) {
+            throw new IllegalStateException("fail open selector", e);
+        }
+        mIoThread = new Thread(new IoLoop(), "sugo-async-http");
+        mIoThread.setDaemon(true);
+        mIoThread.start();
+    }
+
+    @Override
+    public SendFuture sendAsync(String dataString) {
+        if (dataString == null) {
+            return SendFuture.completed(false, SendFailure.UNKNOWN);
+        }
+        if (mClosed) {
+            return SendFuture.completed(false, SendFailure.NETWORK);
+        }
+        byte[] request;
+        try {
+            request = encode(dataString);
+        } catch (IOException e) {
+            SugoConfig.log.warning("fail encode data :" + e);
+            return SendFuture.completed(false, SendFailure.UNKNOWN);
+        }
+        try {
+            // 在 I/O 线程上（例如回调中）不能等待，否则不会有请求完成
+            boolean acquired = Thread.currentThread() == mIoThread
+                    ? mPermits.tryAcquire()
+                    : mPermits.tryAcquire(mConnectTimeoutMillis, TimeUnit.MILLISECONDS);
+            if (!acquired) {
+                return SendFuture.completed(false, SendFailure.OVERLOADED);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return SendFuture.completed(false, SendFailure.OVERLOADED);
+        }
+        Request pending = new Request(request);
+        mPending.add(pending);
+        if (mClosed) {
+            failPending();
+        } else if (mWakeup.compareAndSet(false, true)) {
+            mSelector.wakeup();
+        }
+        return pending.mFuture;
+    }
+
+    /**
+     * 阻塞直到收到响应
+     */
+    @Override
+    public boolean sendData(String dataString) {
+        SendFuture future = sendAsync(dataString);
+        boolean accepted;
+        try {
+            accepted = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mLastFailure.set(SendFailure.UNKNOWN);
+            return false;
+        }
+        if (accepted) {
+            mLastFailure.remove();
+        } else {
+            mLastFailure.set(future.getFailure());
+        }
+        return accepted;
+    }
+
+    @Override
+    public SendFailure getLastFailure() {
+        return mLastFailure.get();
+    }
+
+    @Override
+    public void setMetrics(Metrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * 关闭所有连接，未完成的请求以 SendFailure.NETWORK 失败
+     */
+    @Override
+    public void close() {
+        mClosed = true;
+        mSelector.wakeup();
+        try {
+            mIoThread.join(mConnectTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 在调用线程上把数据编码为完整的 HTTP 请求
+     */
+    private byte[] encode(String dataString) throws IOException {
+        byte[] body;
+        int bodyLength;
+        String contentType;
+        String contentEncoding = null;
+        if (mEncoding == SugoAPI.HttpSender.Encoding.FORM) {
+            // 编码在按线程复用的缓冲区中完成，只拷贝一次到请求中
+            FormBody form = new FormBody(dataString);
+            body = form.buffer();
+            bodyLength = form.length();
+            contentType = form.contentType();
+        } else {
+            CompressedBody compressed = new CompressedBody(dataString, mEncoding == SugoAPI.HttpSender.Encoding.GZIP);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(dataString.length() / 4 + 64);
+            compressed.writeTo(out);
+            body = out.toByteArray();
+            bodyLength = body.length;
+            contentType = compressed.contentType();
+            contentEncoding = compressed.contentEncoding();
+        }
+        StringBuilder head = new StringBuilder(160);
+        head.append("POST ").append(mPath).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(mHostHeader).append("\r\n");
+        head.append("Content-Type: ").append(contentType).append("\r\n");
+        if (contentEncoding != null) {
+            head.append("Content-Encoding: ").append(contentEncoding).append("\r\n");
+        }
+        head.append("Content-Length: ").append(bodyLength).append("\r\n\r\n");
+        byte[] headBytes = head.toString().getBytes(ASCII);
+        byte[] request = new byte[headBytes.length + bodyLength];
+        System.arraycopy(headBytes, 0, request, 0, headBytes.length);
+        System.arraycopy(body, 0, request, headBytes.length, bodyLength);
+        Metrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.recordEncodedBytes(bodyLength);
+        }
+        return request;
+    }
+
+    private void failPending() {
+        Request request;
+        while ((request = mPending.poll()) != null) {
+            request.complete(false, SendFailure.NETWORK);
+        }
+    }
+
+    private class IoLoop implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                while (!mClosed) {
+                    mSelector.select(selectTimeoutMillis());
+                    mWakeup.set(false);
+                    Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        ((Connection) key.attachment()).handle(key);
+                    }
+                    expire(System.nanoTime());
+                    dispatch();
+                }
+            } catch (IOException e) {
+                SugoConfig.log.warning("AsyncHttpSender I/O thread stopped :" + e);
+            } catch (RuntimeException e) {
+                SugoConfig.log.warning("AsyncHttpSender I/O thread stopped :" + e);
+            } finally {
+                mClosed = true;
+                for (Connection connection : new ArrayList<Connection>(mOpen)) {
+                    connection.fail(SendFailure.NETWORK, "sender closed", false);
+                }
+                Request request;
+                while ((request = mRetries.poll()) != null) {
+                    request.complete(false, SendFailure.NETWORK);
+                }
+                failPending();
+                try {
+                    mSelector.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        /**
+         * 把等待中的请求分配给连接：优先使用请求最少的连接，所有连接都有请求时打开新连接
+         */
+        private void dispatch() {
+            while (!mRetries.isEmpty() || !mPending.isEmpty()) {
+                Connection target = null;
+                for (Connection connection : mOpen) {
+                    if (connection.mInFlight.size() < mMaxInFlight
+                            && (target == null || connection.mInFlight.size() < target.mInFlight.size())) {
+                        target = connection;
+                    }
+                }
+                if ((target == null || !target.mInFlight.isEmpty()) && mOpen.size() < mConnections) {
+                    try {
+                        target = open();
+                    } catch (IOException e) {
+                        Request request = mRetries.isEmpty() ? mPending.poll() : mRetries.poll();
+                        if (request != null) {
+                            SugoConfig.log.warning("fail connect to " + mEventsEndpoint + " :" + e);
+                            request.complete(false, SendFailure.CONNECT);
+                        }
+                        continue;
+                    }
+                }
+                if (target == null) {
+                    return;
+                }
+                Request request = mRetries.isEmpty() ? mPending.poll() : mRetries.poll();
+                if (request == null) {
+                    return;
+                }
+                target.send(request);
+            }
+        }
+
+        private void expire(long now) {
+            for (Connection connection : new ArrayList<Connection>(mOpen)) {
+                if (!connection.mConnected) {
+                    if (now - connection.mConnectDeadline >= 0) {
+                        connection.fail(SendFailure.CONNECT, "connect timed out", true);
+                    }
+                } else if (!connection.mInFlight.isEmpty() && now - connection.mInFlight.peek().mDeadline >= 0) {
+                    connection.fail(SendFailure.TIMEOUT, "read timed out", true);
+                }
+            }
+        }
+
+        /**
+         * @return 到最近的超时时间的毫秒数，0 表示没有需要等待的超时
+         */
+        private long selectTimeoutMillis() {
+            long now = System.nanoTime();
+            long nearest = Long.MAX_VALUE;
+            for (Connection connection : mOpen) {
+                if (!connection.mConnected) {
+                    nearest = Math.min(nearest, connection.mConnectDeadline - now);
+                } else if (!connection.mInFlight.isEmpty()) {
+                    nearest = Math.min(nearest, connection.mInFlight.peek().mDeadline - now);
+                }
+            }
+            if (nearest == Long.MAX_VALUE) {
+                return 0;
+            }
+            return Math.max(1, TimeUnit.NANOSECONDS.toMillis(nearest) + 1);
+        }
+
+        private Connection open() throws IOException {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().setKeepAlive(true);
+                boolean connected;
+                try {
+                    connected = channel.connect(new InetSocketAddress(mHost, mPort));
+                } catch (UnresolvedAddressException e) {
+                    throw new IOException("Unknown host: " + mHost);
+                }
+                Connection connection = new Connection(channel, connected);
+                mOpen.add(connection);
+                return connection;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+    }
+
+    /**
+     * 一个到终端的连接，只在 I/O 线程上访问
+     */
+    private class Connection {
+
+        final SocketChannel mChannel;
+        final SelectionKey mKey;
+        final long mConnectDeadline;
+        final HttpResponseParser mParser = new HttpResponseParser();
+        /**
+         * 已分配到这个连接、还没有收到响应的请求，按发送顺序
+         */
+        final ArrayDeque<Request> mInFlight = new ArrayDeque<Request>();
+        final ArrayDeque<Request> mUnwritten = new ArrayDeque<Request>();
+        ByteBuffer mWriting;
+        boolean mConnected;
+        boolean mClosed;
+
+        Connection(SocketChannel channel, boolean connected) throws IOException {
+            mChannel = channel;
+            mConnected = connected;
+            mConnectDeadline = System.nanoTime() + mConnectTimeoutNanos;
+            mKey = channel.register(mSelector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+        }
+
+        void send(Request request) {
+            request.mDeadline = System.nanoTime() + mReadTimeoutNanos + (mConnected ? 0 : mConnectTimeoutNanos);
+            mInFlight.add(request);
+            mUnwritten.add(request);
+            if (mConnected) {
+                try {
+                    write();
+                } catch (IOException e) {
+                    fail(SendFailure.NETWORK, e.toString(), true);
+                }
+            }
+        }
+
+        void handle(SelectionKey key) {
+            try {
+                if (key.isConnectable() && mChannel.finishConnect()) {
+                    mConnected = true;
+                    write();
+                }
+                if (!mClosed && key.isReadable()) {
+                    read();
+                }
+                if (!mClosed && key.isWritable()) {
+                    write();
+                }
+            } catch (CancelledKeyException e) {
+                fail(SendFailure.NETWORK, e.toString(), true);
+            } catch (IOException e) {
+                fail(mConnected ? SendFailure.NETWORK : SendFailure.CONNECT, e.toString(), true);
+            }
+        }
+
+        private void write() throws IOException {
+            while (true) {
+                if (mWriting == null) {
+                    Request next = mUnwritten.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    next.mWritten = true;
+                    mWriting = ByteBuffer.wrap(next.mBytes);
+                }
+                mChannel.write(mWriting);
+                if (mWriting.hasRemaining()) {
+                    break;
+                }
+                mWriting = null;
+            }
+            int ops = SelectionKey.OP_READ;
+            if (mWriting != null) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            mKey.interestOps(ops);
+        }
+
+        private void read() throws IOException {
+            while (true) {
+                mReadBuffer.clear();
+                int read = mChannel.read(mReadBuffer);
+                if (read < 0) {
+                    HttpConnectionPool.Response last = mParser.finish();
+                    if (last != null) {
+                        onResponse(last);
+                    }
+                    if (!mClosed) {
+                        fail(SendFailure.NETWORK, "connection closed by server", true);
+                    }
+                    return;
+                }
+                if (read == 0) {
+                    return;
+                }
+                mReadBuffer.flip();
+                HttpConnectionPool.Response response;
+                while ((response = mParser.parse(mReadBuffer)) != null) {
+                    onResponse(response);
+                    if (mClosed) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void onResponse(HttpConnectionPool.Response response) {
+            Request request = mInFlight.poll();
+            if (request == null) {
+                fail(SendFailure.NETWORK, "unexpected response HTTP " + response.mStatus, true);
+                return;
+            }
+            SendFailure failure = response.failure();
+            if (failure != null) {
+                SugoConfig.log.warning("fail send data to " + mEventsEndpoint + " : HTTP " + response.mStatus
+                        + " " + response.mBody);
+            }
+            request.complete(failure == null, failure);
+            if (!response.mKeepAlive) {
+                // 服务端不再处理这个连接上的请求，还没有写出的请求换一个连接重发
+                fail(SendFailure.NETWORK, "connection closed by server", true);
+            }
+        }
+
+        /**
+         * 关闭连接，没有收到响应的请求失败或者重新排队
+         *
+         * @param retry 是否重发还没有写出的请求（各一次），已经写出的请求总是以 failure 失败
+         */
+        void fail(SendFailure failure, String reason, boolean retry) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mOpen.remove(this);
+            mKey.cancel();
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            boolean logged = false;
+            Request request;
+            while ((request = mInFlight.poll()) != null) {
+                if (retry && !request.mWritten && !request.mRetried) {
+                    request.mRetried = true;
+                    mRetries.add(request);
+                } else {
+                    if (!logged) {
+                        SugoConfig.log.warning("fail send data to " + mEventsEndpoint + " : " + reason);
+                        logged = true;
+                    }
+                    request.complete(false, failure);
+                }
+            }
+        }
+
+    }
+
+    private class Request {
+
+        final byte[] mBytes;
+        final SendFuture mFuture = new SendFuture();
+        long mDeadline;
+        boolean mWritten;
+        boolean mRetried;
+
+        Request(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        void complete(boolean accepted, SendFailure failure) {
+            // 先释放 permit，回调中可以立即发送新的请求
+            mPermits.release();
+            mFuture.complete(accepted, failure);
+        }
+
+    }
+
+}
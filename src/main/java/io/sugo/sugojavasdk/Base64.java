@@ -1,5 +1,8 @@
 package io.sugo.sugojavasdk;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 class Base64 {
 
     // Mapping table from 6-bit nibbles to Base64 characters.
@@ -22,6 +25,32 @@ class Base64 {
         for (int i = 0; i < 64; i++) map2[map1[i]] = (byte) i;
     }
 
+    // Standard and URL-safe (RFC 4648 section 5) alphabets as ASCII bytes.
+    private static final byte[] STANDARD = alphabet('+', '/');
+    private static final byte[] URL_SAFE = alphabet('-', '_');
+
+    // Mapping tables from 12-bit values to two Base64 characters (first character in the high byte),
+    // so each 3-byte group is encoded with two lookups instead of four.
+    private static final char[] STANDARD_PAIRS = pairs(STANDARD);
+    private static final char[] URL_SAFE_PAIRS = pairs(URL_SAFE);
+
+    // Input chunk for ByteBuffers without an accessible array, a multiple of 3 so that only the last chunk is padded.
+    private static final int CHUNK = 3 * 1024;
+
+    private static byte[] alphabet(char c62, char c63) {
+        byte[] alphabet = new byte[64];
+        for (int i = 0; i < 64; i++) alphabet[i] = (byte) map1[i];
+        alphabet[62] = (byte) c62;
+        alphabet[63] = (byte) c63;
+        return alphabet;
+    }
+
+    private static char[] pairs(byte[] alphabet) {
+        char[] pairs = new char[4096];
+        for (int i = 0; i < pairs.length; i++) pairs[i] = (char) (alphabet[i >>> 6] << 8 | alphabet[i & 0x3f]);
+        return pairs;
+    }
+
     /**
      * Encodes a string into Base64 format.
      * No blanks or line breaks are inserted.
@@ -76,6 +105,216 @@ class Base64 {
         return out;
     }
 
+    /**
+     * Returns the length of the Base64 encoding of <code>length</code> bytes.
+     *
+     * @param length  number of bytes to encode.
+     * @param padding whether the output is padded with '=' to a multiple of 4.
+     * @return The number of encoded characters.
+     */
+    public static int encodedLength(int length, boolean padding) {
+        return padding ? ((length + 2) / 3) * 4 : (length * 4 + 2) / 3;
+    }
+
+    /**
+     * Returns an upper bound of the length of {@link #encodeFormEscaped(byte[], int, int, byte[], int)},
+     * reached when every character has to be escaped.
+     *
+     * @param length number of bytes to encode.
+     * @return The maximum number of bytes written.
+     */
+    public static int formEscapedMaxLength(int length) {
+        return encodedLength(length, true) * 3;
+    }
+
+    /**
+     * Encodes a slice of a byte array into Base64 format, with the same output as {@link #encode(byte[], int)}.
+     * No blanks or line breaks are inserted.
+     *
+     * @param src    an array containing the data bytes to be encoded.
+     * @param off    offset of the first byte in <code>src</code>.
+     * @param len    number of bytes to process in <code>src</code>.
+     * @param dst    the array the ASCII characters are written to.
+     * @param dstOff offset in <code>dst</code> to start writing at.
+     * @return The number of bytes written, {@link #encodedLength(int, boolean) encodedLength(len, true)}.
+     * @throws IndexOutOfBoundsException if the slice is out of bounds or <code>dst</code> is too small.
+     */
+    public static int encode(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        return encode(src, off, len, dst, dstOff, STANDARD, STANDARD_PAIRS, true);
+    }
+
+    /**
+     * Encodes a slice of a byte array into the URL and filename safe Base64 format of RFC 4648,
+     * which uses '-' and '_' instead of '+' and '/' and is not padded.
+     *
+     * @return The number of bytes written, {@link #encodedLength(int, boolean) encodedLength(len, false)}.
+     * @throws IndexOutOfBoundsException if the slice is out of bounds or <code>dst</code> is too small.
+     * @see #encode(byte[], int, int, byte[], int)
+     */
+    public static int encodeUrlSafe(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        return encode(src, off, len, dst, dstOff, URL_SAFE, URL_SAFE_PAIRS, false);
+    }
+
+    /**
+     * Encodes a slice of a byte array into Base64 format and escapes it for an
+     * application/x-www-form-urlencoded value in the same pass: the output is byte for byte the same as
+     * <code>URLEncoder.encode(new String(encode(in)), "utf8")</code>, that is '+', '/' and '=' are written
+     * as %2B, %2F and %3D.
+     *
+     * @param dst the array the ASCII characters are written to, with room for
+     *            {@link #formEscapedMaxLength(int)} bytes.
+     * @return The number of bytes written.
+     * @throws IndexOutOfBoundsException if the slice is out of bounds or <code>dst</code> is too small.
+     * @see #encode(byte[], int, int, byte[], int)
+     */
+    public static int encodeFormEscaped(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        checkSlice(src.length, off, len);
+        int end = off + len - len % 3;
+        int ip = off;
+        int op = dstOff;
+        while (ip < end) {
+            int bits = (src[ip] & 0xff) << 16 | (src[ip + 1] & 0xff) << 8 | (src[ip + 2] & 0xff);
+            ip += 3;
+            int o0 = bits >>> 18;
+            int o1 = (bits >>> 12) & 0x3f;
+            int o2 = (bits >>> 6) & 0x3f;
+            int o3 = bits & 0x3f;
+            if (o0 < 62 && o1 < 62 && o2 < 62 && o3 < 62) {
+                char p0 = STANDARD_PAIRS[bits >>> 12];
+                char p1 = STANDARD_PAIRS[bits & 0xfff];
+                dst[op] = (byte) (p0 >>> 8);
+                dst[op + 1] = (byte) p0;
+                dst[op + 2] = (byte) (p1 >>> 8);
+                dst[op + 3] = (byte) p1;
+                op += 4;
+            } else {
+                op = putFormEscaped(dst, op, o0);
+                op = putFormEscaped(dst, op, o1);
+                op = putFormEscaped(dst, op, o2);
+                op = putFormEscaped(dst, op, o3);
+            }
+        }
+        int remaining = off + len - ip;
+        if (remaining > 0) {
+            int i0 = src[ip] & 0xff;
+            int i1 = remaining == 2 ? src[ip + 1] & 0xff : 0;
+            op = putFormEscaped(dst, op, i0 >>> 2);
+            op = putFormEscaped(dst, op, ((i0 & 3) << 4) | (i1 >>> 4));
+            op = remaining == 2 ? putFormEscaped(dst, op, (i1 & 0xf) << 2) : putFormEscaped(dst, op, 64);
+            op = putFormEscaped(dst, op, 64);
+        }
+        return op - dstOff;
+    }
+
+    /**
+     * Encodes the remaining bytes of <code>src</code> into Base64 format, with the same output as
+     * {@link #encode(byte[], int)}. The positions of both buffers are advanced.
+     *
+     * @param src the bytes to be encoded.
+     * @param dst the buffer the ASCII characters are written to.
+     * @throws BufferOverflowException if <code>dst</code> has less than
+     *                                 {@link #encodedLength(int, boolean) encodedLength(src.remaining(), true)} bytes remaining.
+     */
+    public static void encode(ByteBuffer src, ByteBuffer dst) {
+        encode(src, dst, STANDARD, STANDARD_PAIRS, true);
+    }
+
+    /**
+     * Encodes the remaining bytes of <code>src</code> into the URL and filename safe Base64 format of RFC 4648,
+     * without padding. The positions of both buffers are advanced.
+     *
+     * @throws BufferOverflowException if <code>dst</code> has less than
+     *                                 {@link #encodedLength(int, boolean) encodedLength(src.remaining(), false)} bytes remaining.
+     * @see #encodeUrlSafe(byte[], int, int, byte[], int)
+     */
+    public static void encodeUrlSafe(ByteBuffer src, ByteBuffer dst) {
+        encode(src, dst, URL_SAFE, URL_SAFE_PAIRS, false);
+    }
+
+    private static void encode(ByteBuffer src, ByteBuffer dst, byte[] alphabet, char[] pairs, boolean padding) {
+        int length = src.remaining();
+        if (dst.remaining() < encodedLength(length, padding)) throw new BufferOverflowException();
+        if (src.hasArray() && dst.hasArray() && !dst.isReadOnly()) {
+            int written = encode(src.array(), src.arrayOffset() + src.position(), length,
+                    dst.array(), dst.arrayOffset() + dst.position(), alphabet, pairs, padding);
+            src.position(src.limit());
+            dst.position(dst.position() + written);
+            return;
+        }
+        byte[] in = new byte[Math.min(length, CHUNK)];
+        byte[] out = new byte[encodedLength(in.length, padding)];
+        while (src.hasRemaining()) {
+            int n = Math.min(src.remaining(), in.length);
+            src.get(in, 0, n);
+            dst.put(out, 0, encode(in, 0, n, out, 0, alphabet, pairs, padding));
+        }
+    }
+
+    private static int encode(byte[] src, int off, int len, byte[] dst, int dstOff, byte[] alphabet, char[] pairs, boolean padding) {
+        checkSlice(src.length, off, len);
+        if (dstOff < 0 || dst.length - dstOff < encodedLength(len, padding))
+            throw new IndexOutOfBoundsException("Base64 output does not fit at offset " + dstOff + " of " + dst.length + " bytes.");
+        int end = off + len - len % 3;
+        int ip = off;
+        int op = dstOff;
+        // 6 bytes per iteration while possible
+        for (int end6 = end - 3; ip < end6; ip += 6, op += 8) {
+            int bits0 = (src[ip] & 0xff) << 16 | (src[ip + 1] & 0xff) << 8 | (src[ip + 2] & 0xff);
+            int bits1 = (src[ip + 3] & 0xff) << 16 | (src[ip + 4] & 0xff) << 8 | (src[ip + 5] & 0xff);
+            char p0 = pairs[bits0 >>> 12];
+            char p1 = pairs[bits0 & 0xfff];
+            char p2 = pairs[bits1 >>> 12];
+            char p3 = pairs[bits1 & 0xfff];
+            dst[op] = (byte) (p0 >>> 8);
+            dst[op + 1] = (byte) p0;
+            dst[op + 2] = (byte) (p1 >>> 8);
+            dst[op + 3] = (byte) p1;
+            dst[op + 4] = (byte) (p2 >>> 8);
+            dst[op + 5] = (byte) p2;
+            dst[op + 6] = (byte) (p3 >>> 8);
+            dst[op + 7] = (byte) p3;
+        }
+        while (ip < end) {
+            int bits = (src[ip] & 0xff) << 16 | (src[ip + 1] & 0xff) << 8 | (src[ip + 2] & 0xff);
+            ip += 3;
+            char p0 = pairs[bits >>> 12];
+            char p1 = pairs[bits & 0xfff];
+            dst[op] = (byte) (p0 >>> 8);
+            dst[op + 1] = (byte) p0;
+            dst[op + 2] = (byte) (p1 >>> 8);
+            dst[op + 3] = (byte) p1;
+            op += 4;
+        }
+        int remaining = off + len - ip;
+        if (remaining > 0) {
+            int i0 = src[ip] & 0xff;
+            int i1 = remaining == 2 ? src[ip + 1] & 0xff : 0;
+            dst[op++] = alphabet[i0 >>> 2];
+            dst[op++] = alphabet[((i0 & 3) << 4) | (i1 >>> 4)];
+            if (remaining == 2) dst[op++] = alphabet[(i1 & 0xf) << 2];
+            else if (padding) dst[op++] = '=';
+            if (padding) dst[op++] = '=';
+        }
+        return op - dstOff;
+    }
+
+    // Writes the character for a 6-bit value, or '=' for 64, escaped for a form value.
+    private static int putFormEscaped(byte[] dst, int op, int value) {
+        if (value < 62) {
+            dst[op] = STANDARD[value];
+            return op + 1;
+        }
+        dst[op] = '%';
+        dst[op + 1] = (byte) (value == 64 ? '3' : '2');
+        dst[op + 2] = (byte) (value == 62 ? 'B' : value == 63 ? 'F' : 'D');
+        return op + 3;
+    }
+
+    private static void checkSlice(int length, int off, int len) {
+        if (off < 0 || len < 0 || off > length - len)
+            throw new IndexOutOfBoundsException("Slice [" + off + ", " + off + " + " + len + ") out of " + length + " bytes.");
+    }
+
     /**
      * Decodes a string from Base64 format.
      *
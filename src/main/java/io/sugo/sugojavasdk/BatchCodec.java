@@ -0,0 +1,36 @@
+package io.sugo.sugojavasdk;
+
+/**
+ * 一批 message 在发送时的编码方式，由 WorkerConfig#setCodec 选择，默认 worker 和 SugoAPI#sendMessages 都使用它
+ * JSON 以外的编码通过 SugoAPI.BinarySender#sendBinary 发送，Content-Type 为 getContentType()，终端据此选择解码方式
+ */
+public interface BatchCodec {
+
+    /**
+     * JSON 数组，和之前的格式相同，通过 Sender#sendData 发送，所有 Sender 都支持
+     */
+    BatchCodec JSON = new JsonCodec();
+
+    /**
+     * MessagePack 数组，每条 message 是一个 map；数字以二进制写入（time 占 9 字节），比 JSON 小，编码更快
+     * 需要 SugoAPI.BinarySender，例如 HttpSender
+     */
+    BatchCodec MESSAGE_PACK = new MessagePackCodec();
+
+    /**
+     * 按列编码：同一个 key 的值放在一列，key 和字符串值只写字典序号，time 等整数列写成差值
+     * 一批中重复的 key 和值越多越小，需要 SugoAPI.BinarySender，格式见 ColumnarWriter
+     */
+    BatchCodec COLUMNAR = new ColumnarCodec();
+
+    /**
+     * @return 编码后数据的 Content-Type
+     */
+    String getContentType();
+
+    /**
+     * @return 新的 BatchWriter，每个发送线程使用自己的实例并复用
+     */
+    BatchWriter newWriter();
+
+}
@@ -0,0 +1,46 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONObject;
+
+/**
+ * 把一批 message 按 BatchCodec 编码写入可复用的缓冲区，不是线程安全的
+ * <pre>
+ * writer.begin();
+ * writer.write(message);
+ * writer.end();
+ * sender.sendBinary(writer.buffer(), 0, writer.size(), codec.getContentType());
+ * </pre>
+ */
+public interface BatchWriter {
+
+    /**
+     * 清空缓冲区（不释放内存），开始写新的一批
+     */
+    void begin();
+
+    /**
+     * 写入一条 MessageBuilder 生成的 message
+     */
+    void write(JSONObject message);
+
+    /**
+     * 撤销最后一次 write，用于把超过字节上限的 message 留到下一批，只能在 write 之后调用一次
+     */
+    void undoLast();
+
+    /**
+     * 结束这一批，之后 buffer() 中是完整的数据
+     */
+    void end();
+
+    /**
+     * @return 已写入的字节数；在 end() 时才生成数据的 BatchWriter（例如按列编码）在 end() 之前返回不小于实际大小的估计值
+     */
+    int size();
+
+    /**
+     * @return 内部缓冲区，有效数据为 [0, size())，会在之后的写入中被修改或替换
+     */
+    byte[] buffer();
+
+}
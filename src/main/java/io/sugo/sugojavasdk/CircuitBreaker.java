@@ -0,0 +1,70 @@
+package io.sugo.sugojavasdk;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 熔断器：连续失败 failureThreshold 次后打开，openMillis 之后进入半开状态，
+ * 只放行一次探测请求，探测成功则关闭，失败则重新打开
+ */
+class CircuitBreaker {
+
+    private final String mName;
+    private final int mFailureThreshold;
+    private final long mOpenNanos;
+    private final AtomicInteger mFailures = new AtomicInteger();
+    private final AtomicReference<RetryingSender.CircuitState> mState =
+            new AtomicReference<RetryingSender.CircuitState>(RetryingSender.CircuitState.CLOSED);
+    private volatile long mOpenedAt;
+
+    CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        mName = name;
+        mFailureThreshold = failureThreshold;
+        mOpenNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * @return true 如果可以发送；半开状态下只有一个调用者会得到 true
+     */
+    boolean allowRequest() {
+        switch (mState.get()) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return System.nanoTime() - mOpenedAt >= mOpenNanos
+                        && mState.compareAndSet(RetryingSender.CircuitState.OPEN, RetryingSender.CircuitState.HALF_OPEN);
+            default:
+                // 已经有一个探测请求在进行
+                return false;
+        }
+    }
+
+    void onSuccess() {
+        mFailures.set(0);
+        if (mState.getAndSet(RetryingSender.CircuitState.CLOSED) != RetryingSender.CircuitState.CLOSED) {
+            SugoConfig.log.info("Circuit to " + mName + " closed, endpoint recovered");
+        }
+    }
+
+    void onFailure() {
+        if (mState.get() == RetryingSender.CircuitState.HALF_OPEN) {
+            mOpenedAt = System.nanoTime();
+            mState.set(RetryingSender.CircuitState.OPEN);
+            return;
+        }
+        if (mFailures.incrementAndGet() >= mFailureThreshold
+                && mState.get() == RetryingSender.CircuitState.CLOSED) {
+            mOpenedAt = System.nanoTime();
+            if (mState.compareAndSet(RetryingSender.CircuitState.CLOSED, RetryingSender.CircuitState.OPEN)) {
+                SugoConfig.log.warning("Circuit to " + mName + " opened after " + mFailureThreshold
+                        + " consecutive failures");
+            }
+        }
+    }
+
+    RetryingSender.CircuitState getState() {
+        return mState.get();
+    }
+
+}
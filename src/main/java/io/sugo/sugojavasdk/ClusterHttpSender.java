@@ -0,0 +1,310 @@
+package io.sugo.sugojavasdk;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 把数据分散发送到多个终端节点的 HttpSender，不需要在 SDK 和终端之间再部署负载均衡
+ * <p>
+ * 每个节点有自己的 HttpSender（连接池），按 LoadBalancing 选择节点。
+ * 节点连续失败（连接失败、超时、5xx）达到阈值后被摘除，摘除时间过后重新参与选择，
+ * 再次失败则摘除时间加倍；一次发送失败时会换一个节点重试，所有节点都被摘除时使用最早恢复的节点。
+ * 数据被拒绝（响应不是 "1"、4xx）时不会换节点。
+ */
+public class ClusterHttpSender implements SugoAPI.ClassifyingSender, SugoAPI.AcknowledgingSender, Closeable,
+        MetricsAware {
+
+    /**
+     * 选择节点的方式
+     */
+    public enum LoadBalancing {
+        /**
+         * 选择正在进行的请求最少的节点，自动避开响应慢的节点
+         */
+        LEAST_OUTSTANDING,
+        /**
+         * 按权重轮流选择（平滑加权轮询）
+         */
+        WEIGHTED_ROUND_ROBIN
+    }
+
+    private final Node[] mNodes;
+    private final LoadBalancing mLoadBalancing;
+    private final AtomicInteger mNext = new AtomicInteger();
+    private final ThreadLocal<SendFailure> mLastFailure = new ThreadLocal<SendFailure>();
+    private final ThreadLocal<SendOutcome> mLastOutcome = new ThreadLocal<SendOutcome>();
+    private volatile int mEjectFailures = SugoConfig.DEFAULT_CLUSTER_EJECT_FAILURES;
+    private volatile long mEjectMillis = SugoConfig.DEFAULT_CLUSTER_EJECT_MILLIS;
+
+    public ClusterHttpSender(List<String> endpoints) {
+        this(endpoints, LoadBalancing.LEAST_OUTSTANDING);
+    }
+
+    public ClusterHttpSender(List<String> endpoints, LoadBalancing loadBalancing) {
+        this(equalWeights(endpoints), loadBalancing, SugoConfig.DEFAULT_HTTP_POOL_SIZE,
+                SugoAPI.HttpSender.Encoding.FORM);
+    }
+
+    /**
+     * @param weightedEndpoints   终端地址及其权重（正整数，只在 WEIGHTED_ROUND_ROBIN 时使用）
+     * @param loadBalancing       选择节点的方式
+     * @param poolSizePerEndpoint 每个节点的连接池大小
+     * @param encoding            请求体的编码方式
+     */
+    public ClusterHttpSender(Map<String, Integer> weightedEndpoints, LoadBalancing loadBalancing,
+                             int poolSizePerEndpoint, SugoAPI.HttpSender.Encoding encoding) {
+        if (weightedEndpoints == null || weightedEndpoints.isEmpty()) {
+            throw new IllegalArgumentException("endpoints can not be empty");
+        }
+        if (loadBalancing == null) {
+            throw new IllegalArgumentException("loadBalancing can not be null");
+        }
+        mLoadBalancing = loadBalancing;
+        List<Node> nodes = new ArrayList<Node>(weightedEndpoints.size());
+        try {
+            for (Map.Entry<String, Integer> entry : weightedEndpoints.entrySet()) {
+                Integer weight = entry.getValue();
+                if (weight == null || weight < 1) {
+                    throw new IllegalArgumentException("weight must be positive: " + entry);
+                }
+                nodes.add(new Node(entry.getKey(), weight, new SugoAPI.HttpSender(entry.getKey(), poolSizePerEndpoint,
+                        encoding)));
+            }
+        } catch (RuntimeException e) {
+            for (Node node : nodes) {
+                node.mSender.close();
+            }
+            throw e;
+        }
+        mNodes = nodes.toArray(new Node[nodes.size()]);
+    }
+
+    @Override
+    public boolean sendData(String dataString) {
+        SendFailure failure = SendFailure.UNKNOWN;
+        // 一批数据最多尝试每个节点一次
+        List<Node> tried = new ArrayList<Node>(2);
+        for (int attempt = 0; attempt < mNodes.length; attempt++) {
+            Node node = select(tried);
+            if (node == null) {
+                break;
+            }
+            tried.add(node);
+            node.mOutstanding.incrementAndGet();
+            boolean sent;
+            try {
+                sent = node.mSender.sendData(dataString);
+            } finally {
+                node.mOutstanding.decrementAndGet();
+            }
+            if (sent) {
+                node.onSuccess();
+                mLastFailure.remove();
+                mLastOutcome.set(attempt > 0 ? SendOutcome.RETRIED : SendOutcome.ACCEPTED);
+                return true;
+            }
+            failure = node.mSender.getLastFailure();
+            if (failure == SendFailure.REJECTED || failure == SendFailure.CLIENT_ERROR) {
+                // 节点正常，只是不接受这批数据，换节点也没有用
+                node.onSuccess();
+                break;
+            }
+            node.onFailure();
+        }
+        mLastFailure.set(failure);
+        mLastOutcome.remove();
+        return false;
+    }
+
+    /**
+     * @param consecutiveFailures 节点连续失败多少次后被摘除
+     * @param ejectMillis         第一次摘除的时间，重新加入后再次失败时加倍，最长 SugoConfig.MAX_CLUSTER_EJECT_MILLIS
+     */
+    public ClusterHttpSender setEjection(int consecutiveFailures, long ejectMillis) {
+        if (consecutiveFailures < 1) {
+            throw new IllegalArgumentException("consecutiveFailures must be positive: " + consecutiveFailures);
+        }
+        if (ejectMillis < 0) {
+            throw new IllegalArgumentException("ejectMillis can not be negative: " + ejectMillis);
+        }
+        mEjectFailures = consecutiveFailures;
+        mEjectMillis = ejectMillis;
+        return this;
+    }
+
+    @Override
+    public SendFailure getLastFailure() {
+        return mLastFailure.get();
+    }
+
+    /**
+     * @return 当前线程上一次 sendData 成功时的结果，换节点后才成功时为 RETRIED
+     */
+    @Override
+    public SendOutcome getLastOutcome() {
+        return mLastOutcome.get();
+    }
+
+    /**
+     * @return 当前没有被摘除的节点地址
+     */
+    public List<String> getHealthyEndpoints() {
+        long now = System.nanoTime();
+        List<String> healthy = new ArrayList<String>(mNodes.length);
+        for (Node node : mNodes) {
+            if (node.isHealthy(now)) {
+                healthy.add(node.mEndpoint);
+            }
+        }
+        return Collections.unmodifiableList(healthy);
+    }
+
+    @Override
+    public void setMetrics(Metrics metrics) {
+        for (Node node : mNodes) {
+            node.mSender.setMetrics(metrics);
+        }
+    }
+
+    /**
+     * 关闭所有节点的连接池
+     */
+    @Override
+    public void close() {
+        for (Node node : mNodes) {
+            node.mSender.close();
+        }
+    }
+
+    /**
+     * @param exclude 这次发送已经尝试过的节点
+     * @return 下一个要尝试的节点，没有可用的节点时为 null
+     */
+    private Node select(List<Node> exclude) {
+        long now = System.nanoTime();
+        Node selected = mLoadBalancing == LoadBalancing.LEAST_OUTSTANDING
+                ? leastOutstanding(exclude, now)
+                : weightedRoundRobin(exclude, now);
+        if (selected != null) {
+            return selected;
+        }
+        // 所有节点都被摘除，使用最早恢复的节点
+        for (Node node : mNodes) {
+            if (!exclude.contains(node) && (selected == null || node.mEjectedUntil < selected.mEjectedUntil)) {
+                selected = node;
+            }
+        }
+        return selected;
+    }
+
+    private Node leastOutstanding(List<Node> exclude, long now) {
+        // 从轮转的位置开始找，请求数相同时把数据分散到各个节点
+        int start = (mNext.getAndIncrement() & Integer.MAX_VALUE) % mNodes.length;
+        Node best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+        for (int i = 0; i < mNodes.length; i++) {
+            Node node = mNodes[(start + i) % mNodes.length];
+            if (exclude.contains(node) || !node.isHealthy(now)) {
+                continue;
+            }
+            int outstanding = node.mOutstanding.get();
+            if (outstanding < bestOutstanding) {
+                best = node;
+                bestOutstanding = outstanding;
+            }
+        }
+        return best;
+    }
+
+    private synchronized Node weightedRoundRobin(List<Node> exclude, long now) {
+        Node best = null;
+        int total = 0;
+        for (Node node : mNodes) {
+            if (exclude.contains(node) || !node.isHealthy(now)) {
+                continue;
+            }
+            node.mCurrentWeight += node.mWeight;
+            total += node.mWeight;
+            if (best == null || node.mCurrentWeight > best.mCurrentWeight) {
+                best = node;
+            }
+        }
+        if (best != null) {
+            best.mCurrentWeight -= total;
+        }
+        return best;
+    }
+
+    private static Map<String, Integer> equalWeights(List<String> endpoints) {
+        if (endpoints == null) {
+            throw new IllegalArgumentException("endpoints can not be empty");
+        }
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+        for (String endpoint : endpoints) {
+            weights.put(endpoint, 1);
+        }
+        return weights;
+    }
+
+    private class Node {
+
+        final String mEndpoint;
+        final int mWeight;
+        final SugoAPI.HttpSender mSender;
+        final AtomicInteger mOutstanding = new AtomicInteger();
+        final AtomicInteger mFailures = new AtomicInteger();
+        volatile long mEjectedUntil = Long.MIN_VALUE;
+        volatile int mEjections;
+        /**
+         * 平滑加权轮询的当前权重，由 weightedRoundRobin 的锁保护
+         */
+        int mCurrentWeight;
+
+        Node(String endpoint, int weight, SugoAPI.HttpSender sender) {
+            mEndpoint = endpoint;
+            mWeight = weight;
+            mSender = sender;
+        }
+
+        boolean isHealthy(long now) {
+            long ejectedUntil = mEjectedUntil;
+            return ejectedUntil == Long.MIN_VALUE || now - ejectedUntil >= 0;
+        }
+
+        void onSuccess() {
+            mFailures.set(0);
+            if (mEjections != 0) {
+                mEjections = 0;
+                mEjectedUntil = Long.MIN_VALUE;
+                SugoConfig.log.info("Endpoint " + mEndpoint + " re-admitted");
+            }
+        }
+
+        void onFailure() {
+            // 摘除后重新加入的节点，一次失败就再次摘除
+            if (mFailures.incrementAndGet() < mEjectFailures && mEjections == 0) {
+                return;
+            }
+            synchronized (this) {
+                if (!isHealthy(System.nanoTime())) {
+                    return;
+                }
+                // 重新加入后再次失败，摘除时间加倍
+                long millis = Math.min(mEjectMillis << Math.min(mEjections, 16),
+                        SugoConfig.MAX_CLUSTER_EJECT_MILLIS);
+                mEjections++;
+                mFailures.set(0);
+                mEjectedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+                SugoConfig.log.warning("Endpoint " + mEndpoint + " ejected for " + millis + "ms");
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,23 @@
+package io.sugo.sugojavasdk;
+
+/**
+ * 按列、字典编码的一批 message，格式见 ColumnarWriter
+ */
+class ColumnarCodec implements BatchCodec {
+
+    @Override
+    public String getContentType() {
+        return "application/x-sugo-columnar";
+    }
+
+    @Override
+    public BatchWriter newWriter() {
+        return new ColumnarWriter();
+    }
+
+    @Override
+    public String toString() {
+        return "COLUMNAR";
+    }
+
+}
@@ -0,0 +1,436 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 把一批 message 按列编码：同一个 key 的值放在一列，key 和字符串值放进字典，只写字典中的序号，
+ * 整数写成与同一列上一个整数的差（time 这类递增的列通常只占 1~3 字节）
+ * <p>
+ * 格式（varint 是无符号 LEB128，zigzag 把有符号数映射为无符号数）：
+ * <pre>
+ * block      = version(1 字节，目前为 1) varint(行数) dictionary columns
+ * dictionary = varint(字符串个数) { varint(UTF-8 字节数) UTF-8 字节 }
+ * columns    = varint(列数) { varint(key 的字典序号) varint(列的字节数) 每行一个 value }
+ * value      = varint(payload &lt;&lt; 4 | type) [附加数据]
+ * </pre>
+ * type：0 这一行没有这个 key；1 null；2 布尔，payload 为 0 或 1；
+ * 3 整数，payload 为 zigzag(与这一列上一个整数的差)，每列的初始值为 0；4 字符串，payload 为字典序号；
+ * 5 double，附加 8 字节大端 IEEE 754；6 嵌套的对象或数组，payload 为 JSON 文本的字节数，附加 UTF-8 JSON；
+ * 7 整数，附加 8 字节大端的值（差超出 60 位时使用），同样作为下一个差的基准；
+ * 8 把这一列的上一个 value（包括 0 和 3 的差值）再重复 payload + 1 次，所以常量列、间隔固定的 time 只占几个字节
+ * <p>
+ * 数值的对应关系与 EventWriter 相同：整数值的 double 写成整数，NaN 和无穷写成 null。一行中的 key 不保留原来的顺序。
+ * 只有 end() 时才生成完整的数据，之前 size() 返回的是不小于实际大小的估计值
+ */
+class ColumnarWriter implements BatchWriter {
+
+    static final int VERSION = 1;
+
+    static final int ABSENT = 0;
+    static final int NULL = 1;
+    static final int BOOLEAN = 2;
+    static final int DELTA = 3;
+    static final int STRING = 4;
+    static final int DOUBLE = 5;
+    static final int JSON = 6;
+    static final int LONG = 7;
+    static final int REPEAT = 8;
+
+    private static final int MAX_VARINT_SIZE = 5;
+
+    private final Map<String, Integer> mIds = new HashMap<String, Integer>();
+    private final List<String> mStrings = new ArrayList<String>();
+    private final Map<String, Column> mColumns = new HashMap<String, Column>();
+    private final List<Column> mOrder = new ArrayList<Column>();
+    /**
+     * 之前的批次用过的 Column，复用它们的缓冲区
+     */
+    private final List<Column> mSpare = new ArrayList<Column>();
+    private int mDictionaryBytes;
+    private int mRows;
+
+    private int mMarkStrings = -1;
+    private int mMarkColumns;
+    private int mMarkDictionaryBytes;
+
+    private byte[] mBuffer;
+    private int mCount;
+    private boolean mEnded;
+
+    ColumnarWriter() {
+        this(SugoConfig.BUFFER_SIZE * 16);
+    }
+
+    ColumnarWriter(int initialCapacity) {
+        mBuffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    @Override
+    public void begin() {
+        mIds.clear();
+        mStrings.clear();
+        mColumns.clear();
+        mSpare.addAll(mOrder);
+        mOrder.clear();
+        mDictionaryBytes = 0;
+        mRows = 0;
+        mMarkStrings = -1;
+        mCount = 0;
+        mEnded = false;
+    }
+
+    @Override
+    public void write(JSONObject message) {
+        mark();
+        int row = mRows;
+        for (String key : message.keySet()) {
+            put(row, key, message.opt(key));
+        }
+        if (message instanceof TemplatedMessage) {
+            JSONObject properties = ((TemplatedMessage) message).template().properties();
+            for (String key : properties.keySet()) {
+                put(row, key, properties.opt(key));
+            }
+        }
+        for (int i = 0, size = mOrder.size(); i < size; i++) {
+            Column column = mOrder.get(i);
+            if (column.mLastRow != row) {
+                column.mLastRow = row;
+                column.writeItem(ABSENT, 0);
+            }
+        }
+        mRows++;
+    }
+
+    @Override
+    public void undoLast() {
+        if (mMarkStrings < 0) {
+            throw new IllegalStateException("Nothing to undo");
+        }
+        for (int i = mStrings.size() - 1; i >= mMarkStrings; i--) {
+            mIds.remove(mStrings.remove(i));
+        }
+        mDictionaryBytes = mMarkDictionaryBytes;
+        for (int i = mOrder.size() - 1; i >= mMarkColumns; i--) {
+            Column column = mOrder.remove(i);
+            mColumns.remove(column.mName);
+            mSpare.add(column);
+        }
+        for (int i = 0, size = mOrder.size(); i < size; i++) {
+            mOrder.get(i).reset();
+        }
+        mRows--;
+        mMarkStrings = -1;
+    }
+
+    @Override
+    public void end() {
+        for (int i = 0, size = mOrder.size(); i < size; i++) {
+            mOrder.get(i).flush();
+        }
+        ensureCapacity(estimatedSize());
+        mCount = 0;
+        mBuffer[mCount++] = VERSION;
+        writeVarint(mRows);
+        writeVarint(mStrings.size());
+        for (int i = 0, size = mStrings.size(); i < size; i++) {
+            String s = mStrings.get(i);
+            writeVarint(Utf8.length(s));
+            mCount = Utf8.write(s, mBuffer, mCount);
+        }
+        writeVarint(mOrder.size());
+        for (int i = 0, size = mOrder.size(); i < size; i++) {
+            Column column = mOrder.get(i);
+            writeVarint(column.mKey);
+            writeVarint(column.mSize);
+            System.arraycopy(column.mBytes, 0, mBuffer, mCount, column.mSize);
+            mCount += column.mSize;
+        }
+        mEnded = true;
+    }
+
+    /**
+     * @return end() 之后是实际的字节数，之前是估计值
+     */
+    @Override
+    public int size() {
+        return mEnded ? mCount : estimatedSize();
+    }
+
+    @Override
+    public byte[] buffer() {
+        return mBuffer;
+    }
+
+    /************************************************************/
+
+    private int estimatedSize() {
+        int size = 1 + MAX_VARINT_SIZE * 3 + mDictionaryBytes;
+        for (int i = 0, columns = mOrder.size(); i < columns; i++) {
+            Column column = mOrder.get(i);
+            size += MAX_VARINT_SIZE * 2 + column.mSize + column.pendingBytes();
+        }
+        return size;
+    }
+
+    private void mark() {
+        mMarkStrings = mStrings.size();
+        mMarkColumns = mOrder.size();
+        mMarkDictionaryBytes = mDictionaryBytes;
+        for (int i = 0, size = mOrder.size(); i < size; i++) {
+            mOrder.get(i).mark();
+        }
+    }
+
+    private void put(int row, String key, Object value) {
+        Column column = mColumns.get(key);
+        if (column == null) {
+            column = newColumn(key);
+            for (int i = 0; i < row; i++) {
+                column.writeItem(ABSENT, 0);
+            }
+            mColumns.put(key, column);
+            mOrder.add(column);
+        } else if (column.mLastRow == row) {
+            // message 中的属性优先于模板中同名的属性
+            return;
+        }
+        column.mLastRow = row;
+        writeValue(column, value);
+    }
+
+    private Column newColumn(String key) {
+        Column column = mSpare.isEmpty() ? new Column() : mSpare.remove(mSpare.size() - 1);
+        column.init(id(key), key);
+        return column;
+    }
+
+    private int id(String s) {
+        Integer id = mIds.get(s);
+        if (id == null) {
+            id = mStrings.size();
+            mIds.put(s, id);
+            mStrings.add(s);
+            int length = Utf8.length(s);
+            mDictionaryBytes += varintSize(length) + length;
+        }
+        return id;
+    }
+
+    private void writeValue(Column column, Object value) {
+        if (value == null || JSONObject.NULL.equals(value)) {
+            column.writeItem(NULL, 0);
+        } else if (value instanceof String) {
+            column.writeItem(STRING, id((String) value));
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            column.writeLong(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            column.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+            column.writeLong(((BigInteger) value).longValue());
+        } else if (value instanceof BigInteger || value instanceof BigDecimal || value instanceof Number) {
+            column.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            column.writeItem(BOOLEAN, (Boolean) value ? 1 : 0);
+        } else if (value instanceof Enum) {
+            column.writeItem(STRING, id(((Enum<?>) value).name()));
+        } else if (value instanceof JSONObject || value instanceof JSONArray || value instanceof JSONString
+                || value instanceof Map || value instanceof Collection || value.getClass().isArray()) {
+            column.writeJson(JSONObject.valueToString(value));
+        } else {
+            column.writeItem(STRING, id(value.toString()));
+        }
+    }
+
+    private void writeVarint(long value) {
+        mCount = putVarint(mBuffer, mCount, value);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(capacity, mBuffer.length * 2));
+        }
+    }
+
+    private static int putVarint(byte[] buffer, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * 一列的数据，每行一个 value；和上一个 value 相同的 value 先计数，不同时再写一个 REPEAT
+     */
+    private static final class Column {
+
+        int mKey;
+        String mName;
+        byte[] mBytes = new byte[64];
+        int mSize;
+        long mPrevious;
+        int mLastRow;
+        /**
+         * 上一个 value，mLastType 为 -1 时没有
+         */
+        int mLastType;
+        long mLastPayload;
+        long mLastExtra;
+        String mLastJson;
+        /**
+         * 上一个 value 之后还没有写出的重复次数
+         */
+        long mRepeats;
+
+        int mMarkSize;
+        long mMarkPrevious;
+        int mMarkLastRow;
+        int mMarkLastType;
+        long mMarkLastPayload;
+        long mMarkLastExtra;
+        String mMarkLastJson;
+        long mMarkRepeats;
+
+        void init(int key, String name) {
+            mKey = key;
+            mName = name;
+            mSize = 0;
+            mPrevious = 0;
+            mLastRow = -1;
+            mLastType = -1;
+            mLastJson = null;
+            mRepeats = 0;
+        }
+
+        void mark() {
+            mMarkSize = mSize;
+            mMarkPrevious = mPrevious;
+            mMarkLastRow = mLastRow;
+            mMarkLastType = mLastType;
+            mMarkLastPayload = mLastPayload;
+            mMarkLastExtra = mLastExtra;
+            mMarkLastJson = mLastJson;
+            mMarkRepeats = mRepeats;
+        }
+
+        void reset() {
+            mSize = mMarkSize;
+            mPrevious = mMarkPrevious;
+            mLastRow = mMarkLastRow;
+            mLastType = mMarkLastType;
+            mLastPayload = mMarkLastPayload;
+            mLastExtra = mMarkLastExtra;
+            mLastJson = mMarkLastJson;
+            mRepeats = mMarkRepeats;
+        }
+
+        void writeItem(int type, long payload) {
+            writeItem(type, payload, 0, null);
+        }
+
+        void writeLong(long value) {
+            long delta = value - mPrevious;
+            long zigzag = (delta << 1) ^ (delta >> 63);
+            mPrevious = value;
+            if ((zigzag >>> 60) == 0) {
+                writeItem(DELTA, zigzag, 0, null);
+            } else {
+                writeItem(LONG, 0, value, null);
+            }
+        }
+
+        void writeDouble(double value) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                writeItem(NULL, 0);
+            } else if (value == (long) value && Math.abs(value) < 1e15) {
+                writeLong((long) value);
+            } else {
+                writeItem(DOUBLE, 0, Double.doubleToLongBits(value), null);
+            }
+        }
+
+        void writeJson(String json) {
+            writeItem(JSON, Utf8.length(json), 0, json);
+        }
+
+        /**
+         * 写出还没有写出的 REPEAT
+         */
+        void flush() {
+            if (mRepeats > 0) {
+                writeHead(mRepeats - 1, REPEAT);
+                mRepeats = 0;
+            }
+        }
+
+        /**
+         * @return 还没有写出的 REPEAT 最多占用的字节数
+         */
+        int pendingBytes() {
+            return mRepeats > 0 ? 10 : 0;
+        }
+
+        private void writeItem(int type, long payload, long extra, String json) {
+            if (type == mLastType && payload == mLastPayload && extra == mLastExtra
+                    && (json == null || json.equals(mLastJson))) {
+                mRepeats++;
+                return;
+            }
+            flush();
+            mLastType = type;
+            mLastPayload = payload;
+            mLastExtra = extra;
+            mLastJson = json;
+            writeHead(payload, type);
+            if (type == DOUBLE || type == LONG) {
+                writeLong64(extra);
+            } else if (type == JSON) {
+                ensureCapacity((int) payload);
+                mSize = Utf8.write(json, mBytes, mSize);
+            }
+        }
+
+        private void writeHead(long payload, int type) {
+            ensureCapacity(10);
+            mSize = putVarint(mBytes, mSize, payload << 4 | type);
+        }
+
+        private void writeLong64(long value) {
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                mBytes[mSize++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void ensureCapacity(int extra) {
+            int required = mSize + extra;
+            if (required > mBytes.length) {
+                mBytes = Arrays.copyOf(mBytes, Math.max(required, mBytes.length * 2));
+            }
+        }
+
+    }
+
+}
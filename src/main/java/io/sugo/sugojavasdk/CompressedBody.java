@@ -0,0 +1,121 @@
+package io.sugo.sugojavasdk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * 把 JSON 数据以 gzip 或 deflate 压缩后直接写入连接的请求体
+ * 不生成中间的 byte[]，Deflater 按线程复用
+ */
+class CompressedBody implements HttpConnectionPool.RequestBody {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final ThreadLocal<Deflater> GZIP_DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+    };
+
+    private static final ThreadLocal<Deflater> ZLIB_DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, false);
+        }
+    };
+
+    private final String mDataString;
+    private final boolean mGzip;
+    private long mWrittenBytes;
+
+    /**
+     * @param dataString JSON formatted string
+     * @param gzip       true 使用 gzip，false 使用 deflate（zlib 格式）
+     */
+    CompressedBody(String dataString, boolean gzip) {
+        mDataString = dataString;
+        mGzip = gzip;
+    }
+
+    @Override
+    public String contentType() {
+        return "application/json;charset=utf-8";
+    }
+
+    @Override
+    public String contentEncoding() {
+        return mGzip ? "gzip" : "deflate";
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        Deflater deflater = mGzip ? GZIP_DEFLATER.get() : ZLIB_DEFLATER.get();
+        deflater.reset();
+        DeflaterOutputStream compressed = mGzip
+                ? new GzipOutputStream(out, deflater)
+                : new DeflaterOutputStream(out, deflater, SugoConfig.BUFFER_SIZE * 16);
+        Writer writer = new OutputStreamWriter(compressed, UTF8);
+        writer.write(mDataString);
+        writer.flush();
+        // 不能 close，否则会关闭连接
+        compressed.finish();
+        // gzip 的头和尾共 18 字节由 GzipOutputStream 直接写出，zlib 的头和尾已计入 Deflater
+        mWrittenBytes = deflater.getBytesWritten() + (mGzip ? 18 : 0);
+    }
+
+    /**
+     * @return 最近一次 writeTo 写出的字节数（压缩后）
+     */
+    long getWrittenBytes() {
+        return mWrittenBytes;
+    }
+
+    /**
+     * 使用外部传入的 Deflater 的 GZIPOutputStream（GZIPOutputStream 本身不支持复用 Deflater）
+     */
+    private static class GzipOutputStream extends DeflaterOutputStream {
+
+        private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+        private final CRC32 mCrc = new CRC32();
+
+        GzipOutputStream(OutputStream out, Deflater deflater) throws IOException {
+            super(out, deflater, SugoConfig.BUFFER_SIZE * 16);
+            out.write(HEADER);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            mCrc.update(b, off, len);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            super.finish();
+            writeInt((int) mCrc.getValue());
+            writeInt((int) def.getBytesRead());
+        }
+
+        private void writeInt(int i) throws IOException {
+            out.write(i & 0xff);
+            out.write((i >>> 8) & 0xff);
+            out.write((i >>> 16) & 0xff);
+            out.write((i >>> 24) & 0xff);
+        }
+
+    }
+
+}
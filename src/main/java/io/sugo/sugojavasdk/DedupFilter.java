@@ -0,0 +1,139 @@
+package io.sugo.sugojavasdk;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 记录最近出现过的 id 的 Bloom filter，内存固定，不随吞吐量增长
+ * 由两代 filter 组成：新的 id 写入当前一代，查询时两代都查。当前一代存在超过半个窗口，
+ * 或写入的 id 达到 expectedIds 时轮换：清空上一代作为新的当前一代，所以 id 至少保留半个窗口
+ * 写入和查询不加锁，只有轮换时加锁。可能误判（把没出现过的 id 当作出现过），不会漏判未被淘汰的 id
+ */
+class DedupFilter {
+
+    private final long mBits;
+    private final int mHashes;
+    private final long mExpectedIds;
+    private final long mGenerationNanos;
+    private volatile Generation mCurrent;
+    private volatile Generation mPrevious;
+
+    /**
+     * @param expectedIds       每一代最多写入的 id 数量
+     * @param falsePositiveRate 每一代在写满时的误判率
+     * @param windowMillis      id 最长保留的时间，每一代存在半个窗口
+     */
+    DedupFilter(long expectedIds, double falsePositiveRate, long windowMillis) {
+        if (expectedIds < 1) {
+            throw new IllegalArgumentException("expectedIds must be positive: " + expectedIds);
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("falsePositiveRate must be in (0, 1): " + falsePositiveRate);
+        }
+        if (windowMillis < 2) {
+            throw new IllegalArgumentException("windowMillis is too small: " + windowMillis);
+        }
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-expectedIds * Math.log(falsePositiveRate) / (ln2 * ln2));
+        mBits = Math.max(64, (bits + 63) / 64 * 64);
+        mHashes = Math.max(1, (int) Math.round((double) mBits / expectedIds * ln2));
+        mExpectedIds = expectedIds;
+        mGenerationNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis / 2);
+        long now = System.nanoTime();
+        mCurrent = new Generation(mBits, now);
+        mPrevious = new Generation(mBits, now);
+    }
+
+    boolean mightContain(String id) {
+        maybeRotate();
+        long hash = Hashing.hash64(id);
+        return mCurrent.mightContain(hash, mHashes, mBits) || mPrevious.mightContain(hash, mHashes, mBits);
+    }
+
+    void add(String id) {
+        maybeRotate();
+        mCurrent.add(Hashing.hash64(id), mHashes, mBits);
+    }
+
+    /**
+     * @return 两代 filter 占用的字节数
+     */
+    long sizeInBytes() {
+        return mBits / 8 * 2;
+    }
+
+    private void maybeRotate() {
+        Generation current = mCurrent;
+        if (current.mCount.get() >= mExpectedIds || System.nanoTime() - current.mStartNanos >= mGenerationNanos) {
+            rotate(current);
+        }
+    }
+
+    private synchronized void rotate(Generation current) {
+        if (current != mCurrent) {
+            // 其他线程已经轮换过
+            return;
+        }
+        long now = System.nanoTime();
+        Generation recycled = mPrevious;
+        recycled.clear(now);
+        if (now - current.mStartNanos >= 2 * mGenerationNanos) {
+            // 超过一个窗口没有轮换，当前一代中的 id 也已经过期
+            current.clear(now);
+        }
+        mPrevious = current;
+        mCurrent = recycled;
+    }
+
+    private static class Generation {
+
+        final AtomicLongArray mWords;
+        final AtomicLong mCount = new AtomicLong();
+        volatile long mStartNanos;
+
+        Generation(long bits, long startNanos) {
+            mWords = new AtomicLongArray((int) (bits / 64));
+            mStartNanos = startNanos;
+        }
+
+        boolean mightContain(long hash, int hashes, long bits) {
+            long h1 = hash;
+            long h2 = Hashing.fmix64(hash ^ 0x9E3779B97F4A7C15L) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bits;
+                if ((mWords.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void add(long hash, int hashes, long bits) {
+            long h1 = hash;
+            long h2 = Hashing.fmix64(hash ^ 0x9E3779B97F4A7C15L) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bits;
+                int index = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                while (true) {
+                    long word = mWords.get(index);
+                    if ((word & mask) != 0 || mWords.compareAndSet(index, word, word | mask)) {
+                        break;
+                    }
+                }
+            }
+            mCount.incrementAndGet();
+        }
+
+        void clear(long startNanos) {
+            for (int i = 0, length = mWords.length(); i < length; i++) {
+                mWords.set(i, 0);
+            }
+            mCount.set(0);
+            mStartNanos = startNanos;
+        }
+
+    }
+
+}
@@ -0,0 +1,202 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 按 event id 去重的 Sender：delegate 确认收到的批次中的 event id 记入 DedupFilter，
+ * 之后的批次（RetryingSender 的重试、SpoolingSender 从磁盘重放的数据）中已经确认过的 event 不再发送
+ * event id 由 MessageBuilder#setEventIds 或 WorkerConfig#setEventIds 生成，没有 event id 的 event 照常发送
+ * <p>
+ * 应直接包装实际发送数据的 Sender，例如 new RetryingSender(new DedupSender(httpSender))。
+ * DedupFilter 可能误判，被误判为重复的 event 会被丢弃，概率由 falsePositiveRate 控制
+ * <p>
+ * 默认 worker 在编码之前就去掉已经确认过的 event，并在发送时告诉 DedupSender 这一批的 event id，
+ * 这时 sendData 和 sendBinary 不解析数据，原样交给 delegate；其他数据（例如从 spool 重放的）需要解析一次 JSON，
+ * 不包含 event id 的数据不解析。delegate 实现了 SugoAPI.BinarySender 时可以使用 JSON 以外的 BatchCodec，
+ * 二进制数据只在默认 worker 中去重。
+ */
+public class DedupSender extends SenderDecorator
+        implements SugoAPI.ClassifyingSender, SugoAPI.AcknowledgingSender, SugoAPI.BinarySender {
+
+    private static final String EVENT_ID_KEY = "\"" + MessageBuilder.EVENT_ID_PROPERTY + "\"";
+
+    private final DedupFilter mFilter;
+    private final ThreadLocal<SendFailure> mLastFailure = new ThreadLocal<SendFailure>();
+    private final ThreadLocal<SendOutcome> mLastOutcome = new ThreadLocal<SendOutcome>();
+    /**
+     * 默认 worker 正在当前线程上发送的一批 event 的 id，已经去掉了重复的 event
+     */
+    private final ThreadLocal<Collection<String>> mBatchIds = new ThreadLocal<Collection<String>>();
+
+    public DedupSender(SugoAPI.Sender delegate) {
+        this(delegate, SugoConfig.DEFAULT_DEDUP_EXPECTED_IDS, SugoConfig.DEFAULT_DEDUP_FALSE_POSITIVE_RATE,
+                SugoConfig.DEFAULT_DEDUP_WINDOW_MILLIS);
+    }
+
+    /**
+     * 占用的内存约为 expectedIds * -ln(falsePositiveRate) / 0.24 位，与吞吐量无关
+     *
+     * @param delegate          实际发送数据的 Sender
+     * @param expectedIds       每半个窗口最多记录的 id 数量，超过后提前淘汰旧的 id
+     * @param falsePositiveRate 把新的 event 误判为重复的概率
+     * @param windowMillis      已确认的 id 最长保留的时间，至少保留一半
+     */
+    public DedupSender(SugoAPI.Sender delegate, long expectedIds, double falsePositiveRate, long windowMillis) {
+        super(delegate);
+        mFilter = new DedupFilter(expectedIds, falsePositiveRate, windowMillis);
+    }
+
+    /**
+     * @return sender 或者它包装的 Sender 中的 DedupSender，没有时为 null
+     */
+    static DedupSender find(SugoAPI.Sender sender) {
+        while (sender instanceof SenderDecorator) {
+            if (sender instanceof DedupSender) {
+                return (DedupSender) sender;
+            }
+            sender = ((SenderDecorator) sender).getDelegate();
+        }
+        return null;
+    }
+
+    /**
+     * @return true 如果 id 已经被确认过（可能误判）
+     */
+    boolean isAcknowledged(String id) {
+        return mFilter.mightContain(id);
+    }
+
+    /**
+     * 由默认 worker 在发送一批已经去重的 event 前后调用，ids 为 null 时清除
+     * 之后当前线程上的 sendData、sendBinary 不再解析数据，delegate 发送成功后把 ids 记入 DedupFilter
+     */
+    void setBatchIds(Collection<String> ids) {
+        if (ids == null) {
+            mBatchIds.remove();
+        } else {
+            mBatchIds.set(ids);
+        }
+    }
+
+    @Override
+    public boolean sendData(String dataString) {
+        mLastFailure.remove();
+        mLastOutcome.remove();
+        Collection<String> batchIds = mBatchIds.get();
+        if (batchIds != null) {
+            return send(dataString, batchIds);
+        }
+        if (dataString == null || !dataString.contains(EVENT_ID_KEY)) {
+            return send(dataString, null);
+        }
+        JSONArray events;
+        try {
+            events = new JSONArray(dataString);
+        } catch (JSONException e) {
+            // 不是一批 event，不去重
+            return send(dataString, null);
+        }
+        Set<String> ids = new HashSet<String>();
+        EventWriter writer = null;
+        int duplicates = 0;
+        for (int i = 0, length = events.length(); i < length; i++) {
+            JSONObject event = events.optJSONObject(i);
+            if (event == null) {
+                return send(dataString, null);
+            }
+            String id = event.optString(MessageBuilder.EVENT_ID_PROPERTY, null);
+            boolean duplicate = id != null && (mFilter.mightContain(id) || !ids.add(id));
+            if (duplicate && writer == null) {
+                // 第一次遇到重复的 event，之前的 event 都要保留
+                writer = new EventWriter(dataString.length());
+                writer.beginArray();
+                for (int j = 0; j < i; j++) {
+                    writer.writeMessage(events.getJSONObject(j));
+                }
+            }
+            if (duplicate) {
+                duplicates++;
+            } else if (writer != null) {
+                writer.writeMessage(event);
+            }
+        }
+        if (duplicates > 0) {
+            Metrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.recordDeduplicated(duplicates);
+            }
+            if (duplicates == events.length()) {
+                // 整批都已经确认过
+                mLastOutcome.set(SendOutcome.ACCEPTED);
+                return true;
+            }
+            writer.endArray();
+            dataString = writer.toString();
+        }
+        return send(dataString, ids);
+    }
+
+    /**
+     * 二进制数据只在默认 worker 中去重，其他情况原样发送
+     *
+     * @throws IllegalStateException delegate 没有实现 SugoAPI.BinarySender
+     */
+    @Override
+    public boolean sendBinary(byte[] data, int offset, int length, String contentType) {
+        if (!(mDelegate instanceof SugoAPI.BinarySender)) {
+            throw new IllegalStateException(mDelegate.getClass().getName() + " can not send binary data");
+        }
+        mLastFailure.remove();
+        mLastOutcome.remove();
+        boolean sent = ((SugoAPI.BinarySender) mDelegate).sendBinary(data, offset, length, contentType);
+        return sent(sent, mBatchIds.get());
+    }
+
+    private boolean send(String dataString, Collection<String> ids) {
+        return sent(mDelegate.sendData(dataString), ids);
+    }
+
+    private boolean sent(boolean sent, Collection<String> ids) {
+        if (sent) {
+            if (ids != null) {
+                for (String id : ids) {
+                    mFilter.add(id);
+                }
+            }
+            mLastOutcome.set(SugoAPI.lastOutcome(mDelegate));
+        } else {
+            mLastFailure.set(SugoAPI.lastFailure(mDelegate));
+        }
+        return sent;
+    }
+
+    /**
+     * @return 当前线程上一次 sendData 失败的原因，上一次成功时为 null
+     */
+    @Override
+    public SendFailure getLastFailure() {
+        return mLastFailure.get();
+    }
+
+    /**
+     * @return 当前线程上一次 sendData 成功时的结果，整批都是重复的 event 时为 ACCEPTED
+     */
+    @Override
+    public SendOutcome getLastOutcome() {
+        return mLastOutcome.get();
+    }
+
+    /**
+     * @return DedupFilter 占用的字节数
+     */
+    public long getFilterBytes() {
+        return mFilter.sizeInBytes();
+    }
+
+}
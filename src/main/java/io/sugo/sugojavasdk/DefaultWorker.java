@@ -2,34 +2,936 @@ package io.sugo.sugojavasdk;
 
 import org.json.JSONObject;
 
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
 /**
+ * 默认的 worker：event() 只负责生成 message 并放入有界的无锁环形队列（RingBuffer），
+ * 由 consumerCount 个后台线程从队列中取出数据，攒够 batchSize 条、batchBytes 字节
+ * 或者等待超过 lingerMillis 后，以 JSON 数组的形式调用一次 Sender 发送
+ * 每个 consumer 线程使用自己的 BatchWriter（默认是 JSON）把 message 直接序列化到可复用的缓冲区，
+ * super properties 和模板中的属性不复制到 message 中，写入时拼接预先序列化的字节
+ * Sender 是 AsyncSender（使用 JSON 编码）时 consumer 不等待发送结果，一个 consumer 就能让多个请求同时在途
+ * eventAsync 放入队列的 event 带有 SendFuture，在它所在的批次发送完成后完成
+ * 队列同时受条数（queueCapacity）和估计的堆内存（memoryBudgetBytes）限制，AdmissionPolicy 在生成 message 之前丢弃 event
+ * 配置了 AggregationRule 的 event 不进入队列，在本地聚合后由 aggregator 线程每个窗口放入一条汇总 message
+ * flush/close 在限定的时间内等待队列中的 event 发送完成，期间 consumer 不再等待 lingerMillis
+ * consumer 可以是虚拟线程（WorkerConfig#setVirtualThreads），见 Threads
+ * 配置了 shards 时按 distinct_id 的哈希分片，每个分片有自己的队列和一个同步发送的 consumer，同一个用户的 event 保持顺序
+ * Sender 中包装了 DedupSender 时，已经确认过的 event 在写入 BatchWriter 之前就被去掉
+ *
  * @author ouwenjie
  * @date 17-11-29
  */
 class DefaultWorker {
 
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
     private SugoAPI.Sender mSender;
+    private final BatchCodec mCodec;
+    /**
+     * 为 true 时通过 BinarySender#sendBinary 发送
+     */
+    private final boolean mBinary;
+    /**
+     * Sender 中的 DedupSender，没有时为 null
+     */
+    private final DedupSender mDedup;
     private MessageBuilder mMessageBuilder;
     private MessagePackage mMessagePackage;
 
+    private final WorkerConfig.OverflowPolicy mOverflowPolicy;
+    private final int mBatchSize;
+    private final int mBatchBytes;
+    private final long mLingerNanos;
+    /**
+     * 不分片时只有一个 Shard，所有 consumer 共用它的队列
+     */
+    private final Shard[] mShards;
+    /**
+     * 分片时不为 null
+     */
+    private final ShardHasher mShardHasher;
+    private final Thread[] mConsumers;
+    private final Metrics mMetrics;
+    private final long mMemoryBudget;
+    private final AtomicLong mQueueBytes = new AtomicLong();
+    private final AdmissionPolicy[] mPolicies;
+    private final DistinctIdSampler mSampler;
+    /**
+     * event 名称 -> 聚合器，创建后不再修改
+     */
+    private final Map<String, EventAggregator> mAggregators = new HashMap<String, EventAggregator>();
+    private final Thread mAggregator;
+    /**
+     * 已放入队列、还没有发送完成或被丢弃的 event 数量，flush 等待它变为 0
+     */
+    private final AtomicLong mOutstanding = new AtomicLong();
+    /**
+     * 大于 0 时正在 flush，consumer 取不到 message 时立即发送当前批次
+     */
+    private final AtomicInteger mDraining = new AtomicInteger();
+    /**
+     * 正在 event/eventAsync 中的线程数，它们可能已经通过了 mClosed 检查，close 等它变为 0 后才最后一次清空队列
+     */
+    private final AtomicInteger mProducers = new AtomicInteger();
+    private volatile boolean mClosed;
+
+    /**
+     * BLOCK 策略下等待内存释放时每次挂起的时间
+     */
+    private static final long BUDGET_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * flush 时检查是否已发送完成的间隔
+     */
+    private static final long DRAIN_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
     DefaultWorker(SugoAPI.Sender sender) {
+        this(sender, new WorkerConfig());
+    }
+
+    DefaultWorker(SugoAPI.Sender sender, WorkerConfig config) {
+        this(sender, config, new Metrics());
+    }
+
+    DefaultWorker(SugoAPI.Sender sender, WorkerConfig config, Metrics metrics) {
         mSender = sender;
-        mMessageBuilder = new MessageBuilder();
+        mMetrics = metrics;
+        mCodec = config.getCodec();
+        mBinary = !(mCodec instanceof JsonCodec);
+        if (mBinary && !(sender instanceof SugoAPI.BinarySender)) {
+            throw new IllegalArgumentException("Codec " + mCodec.getContentType() + " requires a SugoAPI.BinarySender, got "
+                    + sender.getClass().getName());
+        }
+        mDedup = DedupSender.find(sender);
+        mMessageBuilder = new MessageBuilder().setEventIds(config.isEventIds());
         mMessagePackage = new MessagePackage();
 
+        mOverflowPolicy = config.getOverflowPolicy();
+        mBatchSize = config.getBatchSize();
+        mBatchBytes = config.getBatchBytes();
+        mLingerNanos = TimeUnit.MILLISECONDS.toNanos(config.getLingerMillis());
+        int shards = config.getShards();
+        mShardHasher = shards > 0 ? config.getShardHasher() : null;
+        mShards = new Shard[Math.max(1, shards)];
+        // RingBuffer 至少要有 2 个槽位
+        int capacity = Math.max(2, (config.getQueueCapacity() + mShards.length - 1) / mShards.length);
+        RingBuffer<?>[] queues = new RingBuffer<?>[mShards.length];
+        for (int i = 0; i < mShards.length; i++) {
+            mShards[i] = new Shard(i, new RingBuffer<Object>(capacity, config.getWaitStrategy()), shards > 0);
+            queues[i] = mShards[i].mQueue;
+        }
+        mMemoryBudget = config.getMemoryBudgetBytes();
+        mMetrics.setQueues(queues, mQueueBytes);
+        List<AdmissionPolicy> policies = config.getAdmissionPolicies();
+        mPolicies = policies.toArray(new AdmissionPolicy[policies.size()]);
+        DistinctIdSampler sampler = new DistinctIdSampler(config.getSampleRates(), config.getDefaultSampleRate());
+        mSampler = sampler.isEnabled() ? sampler : null;
+        for (AggregationRule rule : config.getAggregations()) {
+            mAggregators.put(rule.getEventName(), new EventAggregator(rule));
+        }
+        if (!mAggregators.isEmpty()) {
+            mAggregator = new Thread(new AggregatorLoop(), "sugo-aggregator");
+            mAggregator.setDaemon(true);
+            mAggregator.start();
+        } else {
+            mAggregator = null;
+        }
+        if (config.isVirtualThreads() && config.getWaitStrategy() != WorkerConfig.WaitStrategy.PARK) {
+            SugoConfig.log.warning("WaitStrategy " + config.getWaitStrategy() + " keeps carrier threads busy, use PARK with virtual threads");
+        }
+        // 分片时每个分片一个 consumer，保证同一个分片的批次依次发送
+        mConsumers = new Thread[shards > 0 ? shards : config.getConsumerCount()];
+        ThreadFactory factory = Threads.factory(shards > 0 ? "sugo-shard-" : "sugo-worker-", config.isVirtualThreads());
+        for (int i = 0; i < mConsumers.length; i++) {
+            Thread consumer = factory.newThread(new Consumer(mShards[i % mShards.length]));
+            mConsumers[i] = consumer;
+            consumer.start();
+        }
     }
 
     void event(String eventName, JSONObject properties) {
-        JSONObject eventObj = mMessageBuilder.event(eventName, properties);
-        if (mMessagePackage.isValidMessage(eventObj)) {
-            senderSendData(eventObj.toString());
-        } else {
+        event(null, eventName, properties);
+    }
+
+    void event(String distinctId, String eventName, JSONObject properties) {
+        mProducers.incrementAndGet();
+        try {
+            if (mClosed) {
+                mMetrics.recordDropped();
+                return;
+            }
+            if (aggregate(eventName, properties)) {
+                return;
+            }
+            double sampleRate = sample(distinctId, eventName, properties);
+            if (sampleRate > 0 && admit(eventName, properties)) {
+                enqueue(message(distinctId, eventName, properties, sampleRate));
+            }
+        } finally {
+            mProducers.decrementAndGet();
+        }
+    }
+
+    SendFuture eventAsync(String eventName, JSONObject properties) {
+        return eventAsync(null, eventName, properties);
+    }
+
+    /**
+     * 被聚合的 event 立即成功，被抽样或 AdmissionPolicy 丢弃的 event 以 SendFailure.SHED 失败，
+     * 关闭后以 SendFailure.CLOSED 失败
+     *
+     * @return event 所在批次的发送结果，event 因为队列已满被丢弃时以 SendFailure.OVERLOADED 失败
+     */
+    SendFuture eventAsync(String distinctId, String eventName, JSONObject properties) {
+        mProducers.incrementAndGet();
+        try {
+            if (mClosed) {
+                mMetrics.recordDropped();
+                return SendFuture.completed(false, SendFailure.CLOSED);
+            }
+            if (aggregate(eventName, properties)) {
+                return SendFuture.completed(true, null);
+            }
+            double sampleRate = sample(distinctId, eventName, properties);
+            if (sampleRate == 0 || !admit(eventName, properties)) {
+                return SendFuture.completed(false, SendFailure.SHED);
+            }
+            TrackedEvent event = new TrackedEvent(message(distinctId, eventName, properties, sampleRate), new SendFuture());
+            if (!enqueue(event)) {
+                event.mFuture.complete(false, SendFailure.OVERLOADED);
+            }
+            return event.mFuture;
+        } finally {
+            mProducers.decrementAndGet();
+        }
+    }
+
+    /**
+     * @param sampleRate 小于 1 时 message 带上 sample_rate 属性
+     */
+    private JSONObject message(String distinctId, String eventName, JSONObject properties, double sampleRate) {
+        JSONObject eventObj = mMessageBuilder.templatedEvent(distinctId, eventName, properties);
+        if (sampleRate < 1 && !TemplatedMessage.has(eventObj, DistinctIdSampler.SAMPLE_RATE_PROPERTY)) {
+            eventObj.put(DistinctIdSampler.SAMPLE_RATE_PROPERTY, sampleRate);
+        }
+        if (!mMessagePackage.isValidMessage(eventObj)) {
             throw new SugoMessageException("Given JSONObject was not a valid Sugo message", eventObj);
         }
+        return eventObj;
+    }
+
+    /**
+     * @return true 如果 event 已被聚合，不需要再放入队列
+     */
+    private boolean aggregate(String eventName, JSONObject properties) {
+        if (mAggregators.isEmpty()) {
+            return false;
+        }
+        EventAggregator aggregator = mAggregators.get(eventName);
+        if (aggregator == null) {
+            return false;
+        }
+        aggregator.record(properties);
+        mMetrics.recordAggregated();
+        return true;
+    }
+
+    /**
+     * @return 采样率，event 被抽样丢弃时为 0
+     */
+    private double sample(String distinctId, String eventName, JSONObject properties) {
+        if (mSampler == null) {
+            return 1;
+        }
+        double sampleRate = mSampler.sample(distinctId, eventName, properties);
+        if (sampleRate == 0) {
+            mMetrics.recordSampledOut();
+        }
+        return sampleRate;
+    }
+
+    /**
+     * 立即结束所有聚合窗口，把汇总 message 放入队列
+     */
+    void flushAggregates() {
+        long now = System.currentTimeMillis();
+        for (EventAggregator aggregator : mAggregators.values()) {
+            emit(aggregator, aggregator.flush(now));
+        }
+    }
+
+    /**
+     * 结束聚合窗口，等待队列中和正在发送的 event 发送完成，最多等待 timeout
+     * 等待期间 consumer 取不到 message 时不再等待 lingerMillis，以尽量大的批次立即发送
+     */
+    DrainReport flush(long timeout, TimeUnit unit) {
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+        long sent = mMetrics.getEventsSent();
+        long failed = mMetrics.getEventsFailed();
+        mDraining.incrementAndGet();
+        try {
+            flushAggregates();
+            while (mOutstanding.get() > 0 && System.nanoTime() - deadline < 0) {
+                LockSupport.parkNanos(DRAIN_PARK_NANOS);
+            }
+        } finally {
+            mDraining.decrementAndGet();
+        }
+        return new DrainReport(mMetrics.getEventsSent() - sent, mMetrics.getEventsFailed() - failed,
+                Math.max(0, mOutstanding.get()), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * 不再接受新的 event，flush 之后停止 consumer 和 aggregator 线程
+     * 超过 timeout 仍在队列中的 event 被放弃，eventAsync 的 SendFuture 以 SendFailure.CLOSED 失败；
+     * 正在调用 Sender 的 consumer 不会被等待，它们的 event 也计为放弃
+     */
+    DrainReport close(long timeout, TimeUnit unit) {
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+        long sent = mMetrics.getEventsSent();
+        long failed = mMetrics.getEventsFailed();
+        mClosed = true;
+        if (mAggregator != null) {
+            // 当前窗口由 flush 结束，等 aggregator 线程退出，之后不会再有汇总 message 放入队列
+            mAggregator.interrupt();
+            try {
+                TimeUnit.NANOSECONDS.timedJoin(mAggregator, Math.max(1, deadline - System.nanoTime()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        // 在 mClosed 之前进入 event() 的线程可能还在放入队列（BLOCK 策略下等待空间），边清空边等待它们返回
+        long late = abandonQueued();
+        while (mProducers.get() > 0) {
+            LockSupport.parkNanos(DRAIN_PARK_NANOS);
+            late += abandonQueued();
+        }
+        // 剩下的是正在调用 Sender 的 consumer 手中的 event，中断之后它们返回的结果不再计入
+        long drained = mMetrics.getEventsSent() - sent;
+        long drainFailed = mMetrics.getEventsFailed() - failed;
+        long abandoned = late + Math.max(0, mOutstanding.get());
+        for (Thread consumer : mConsumers) {
+            consumer.interrupt();
+        }
+        // 已经没有生产者，consumer 也不会把 event 放回队列，这里只是确认
+        abandoned += abandonQueued();
+        DrainReport report = new DrainReport(drained, drainFailed, abandoned,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (report.getAbandoned() > 0) {
+            mMetrics.recordAbandoned(report.getAbandoned());
+        }
+        return report;
+    }
+
+    /**
+     * 清空所有队列，eventAsync 的 SendFuture 以 SendFailure.CLOSED 失败
+     *
+     * @return 清空的 event 数量
+     */
+    private long abandonQueued() {
+        long abandoned = 0;
+        for (Shard shard : mShards) {
+            Object element;
+            while ((element = dequeued(shard.mQueue.poll())) != null) {
+                mOutstanding.decrementAndGet();
+                abandoned++;
+                complete(element, SendOutcome.REJECTED, SendFailure.CLOSED);
+            }
+        }
+        return abandoned;
+    }
+
+    boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * 汇总 message 不经过抽样和 AdmissionPolicy，直接放入队列
+     */
+    private void emit(EventAggregator aggregator, List<JSONObject> summaries) {
+        for (JSONObject summary : summaries) {
+            try {
+                enqueue(message(null, aggregator.getEventName(), summary, 1));
+            } catch (RuntimeException e) {
+                SugoConfig.log.warning("fail emit aggregated event :" + e);
+            }
+        }
+    }
+
+    /**
+     * 依次询问 AdmissionPolicy，被拒绝的 event 计入 eventsShed
+     */
+    private boolean admit(String eventName, JSONObject properties) {
+        if (mPolicies.length == 0) {
+            return true;
+        }
+        double load = load();
+        for (AdmissionPolicy policy : mPolicies) {
+            boolean admitted;
+            try {
+                admitted = policy.admit(eventName, properties, load);
+            } catch (RuntimeException e) {
+                SugoConfig.log.warning("fail run admission policy :" + e);
+                admitted = true;
+            }
+            if (!admitted) {
+                mMetrics.recordShed();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 队列的负载，条数和内存中较高的一个，[0, 1]
+     */
+    double load() {
+        int capacity = 0;
+        for (Shard shard : mShards) {
+            capacity += shard.mQueue.capacity();
+        }
+        double load = (double) getQueueSize() / capacity;
+        if (mMemoryBudget > 0) {
+            load = Math.max(load, (double) mQueueBytes.get() / mMemoryBudget);
+        }
+        return Math.min(1, load);
+    }
+
+    /**
+     * @return false 如果 message 被丢弃
+     */
+    private boolean enqueue(Object message) {
+        Shard shard = shard(unwrap(message));
+        mOutstanding.incrementAndGet();
+        if (put(shard, message)) {
+            shard.mAccepted.increment();
+            return true;
+        }
+        mOutstanding.decrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return 不分片时是唯一的 Shard，否则按 distinct_id 选择，没有 distinct_id 时随机选择
+     */
+    private Shard shard(JSONObject message) {
+        if (mShardHasher == null) {
+            return mShards[0];
+        }
+        String distinctId = message.optString("distinct_id", null);
+        if (distinctId == null) {
+            return mShards[ThreadLocalRandom.current().nextInt(mShards.length)];
+        }
+        // ShardHasher 返回的值超出范围时取模
+        int index = mShardHasher.shard(distinctId, mShards.length) % mShards.length;
+        return mShards[index < 0 ? index + mShards.length : index];
+    }
+
+    /**
+     * 按 OverflowPolicy 把 message 放入分片的队列
+     *
+     * @return false 如果 message 被丢弃
+     */
+    private boolean put(Shard shard, Object message) {
+        RingBuffer<Object> queue = shard.mQueue;
+        long bytes = 0;
+        if (mMemoryBudget > 0) {
+            // 预留的字节数记在队列元素中，取出时按它释放，不再重新估算
+            TrackedEvent event = message instanceof TrackedEvent ? (TrackedEvent) message
+                    : new TrackedEvent((JSONObject) message, null);
+            bytes = MessageSize.estimate(event.mMessage);
+            if (!reserve(shard, bytes)) {
+                mMetrics.recordDropped();
+                return false;
+            }
+            event.mBytes = bytes;
+            message = event;
+        }
+        switch (mOverflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(message);
+                    mMetrics.recordAccepted();
+                    return true;
+                } catch (InterruptedException e) {
+                    release(bytes);
+                    mMetrics.recordDropped();
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            case DROP_NEWEST:
+                if (queue.offer(message)) {
+                    mMetrics.recordAccepted();
+                    return true;
+                }
+                release(bytes);
+                mMetrics.recordDropped();
+                return false;
+            case DROP_OLDEST:
+                while (!queue.offer(message)) {
+                    evictOldest(shard);
+                }
+                mMetrics.recordAccepted();
+                return true;
+            default:
+                throw new IllegalStateException("Unknown overflow policy: " + mOverflowPolicy);
+        }
+    }
+
+    /**
+     * 在内存上限内为 message 预留空间，超出上限时和队列满一样按 OverflowPolicy 处理
+     * 队列为空时单条超过上限的 message 也可以放入
+     *
+     * @return false 如果 message 应被丢弃
+     */
+    private boolean reserve(Shard shard, long bytes) {
+        while (true) {
+            long queued = mQueueBytes.get();
+            if (queued == 0 || queued + bytes <= mMemoryBudget) {
+                if (mQueueBytes.compareAndSet(queued, queued + bytes)) {
+                    return true;
+                }
+                continue;
+            }
+            switch (mOverflowPolicy) {
+                case BLOCK:
+                    if (Thread.currentThread().isInterrupted()) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(BUDGET_PARK_NANOS);
+                    break;
+                case DROP_NEWEST:
+                    return false;
+                case DROP_OLDEST:
+                    if (!evictOldest(shard)) {
+                        // 剩余的字节属于正在被 consumer 取出的 message
+                        Thread.yield();
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown overflow policy: " + mOverflowPolicy);
+            }
+        }
+    }
+
+    /**
+     * 丢弃 shard 中最早的 message，shard 为空时丢弃其他分片中的
+     *
+     * @return false 如果所有队列都已经为空
+     */
+    private boolean evictOldest(Shard shard) {
+        Object evicted = shard.mQueue.poll();
+        for (int i = 0; evicted == null && i < mShards.length; i++) {
+            evicted = mShards[i].mQueue.poll();
+        }
+        if (evicted == null) {
+            return false;
+        }
+        dequeued(evicted);
+        mOutstanding.decrementAndGet();
+        mMetrics.recordDropped();
+        complete(evicted, SendOutcome.REJECTED, SendFailure.OVERLOADED);
+        return true;
+    }
+
+    /**
+     * 从队列中取出 message 后释放 put 时为它预留的内存额度
+     */
+    private Object dequeued(Object element) {
+        if (element instanceof TrackedEvent) {
+            release(((TrackedEvent) element).mBytes);
+        }
+        return element;
+    }
+
+    private void release(long bytes) {
+        if (bytes != 0) {
+            mQueueBytes.addAndGet(-bytes);
+        }
+    }
+
+    private static JSONObject unwrap(Object element) {
+        return element instanceof TrackedEvent ? ((TrackedEvent) element).mMessage : (JSONObject) element;
+    }
+
+    /**
+     * @return eventAsync 放入的 message 的 SendFuture，其他 message 返回 null
+     */
+    private static SendFuture future(Object element) {
+        return element instanceof TrackedEvent ? ((TrackedEvent) element).mFuture : null;
+    }
+
+    private static void complete(Object element, SendOutcome outcome, SendFailure failure) {
+        SendFuture future = future(element);
+        if (future != null) {
+            future.complete(outcome, failure);
+        }
+    }
+
+    /**
+     * @return 生成 message 的 MessageBuilder，用于设置 super properties 和模板
+     */
+    MessageBuilder getMessageBuilder() {
+        return mMessageBuilder;
+    }
+
+    /**
+     * @return 因为队列已满而被丢弃的 message 数量
+     */
+    long getDroppedCount() {
+        return mMetrics.getEventsDropped();
+    }
+
+    /**
+     * @return 当前队列中等待发送的 message 数量
+     */
+    int getQueueSize() {
+        int size = 0;
+        for (Shard shard : mShards) {
+            size += shard.mQueue.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return 每个分片的统计数据，不分片时为空
+     */
+    List<ShardStats> getShardStats() {
+        if (mShardHasher == null) {
+            return Collections.emptyList();
+        }
+        List<ShardStats> stats = new ArrayList<ShardStats>(mShards.length);
+        for (Shard shard : mShards) {
+            stats.add(shard.stats());
+        }
+        return stats;
+    }
+
+    /**
+     * 按 BatchCodec 调用 sendData 或 sendBinary 发送 writer 中的一批数据
+     *
+     * @param ids 这一批 event 的 id，交给 DedupSender，没有 DedupSender 时为 null
+     */
+    private boolean send(BatchWriter writer, Collection<String> ids) {
+        if (mDedup != null) {
+            mDedup.setBatchIds(ids);
+        }
+        try {
+            if (mBinary) {
+                return ((SugoAPI.BinarySender) mSender).sendBinary(writer.buffer(), 0, writer.size(), mCodec.getContentType());
+            }
+            return mSender.sendData(text(writer));
+        } finally {
+            if (mDedup != null) {
+                mDedup.setBatchIds(null);
+            }
+        }
+    }
+
+    private static String text(BatchWriter writer) {
+        return new String(writer.buffer(), 0, writer.size(), UTF8);
+    }
+
+    private class Consumer implements Runnable {
+
+        private final Shard mShard;
+        private final BatchWriter mWriter = mCodec.newWriter();
+        /**
+         * 当前批次中 event 的 id，没有 DedupSender 时为 null
+         */
+        private final Set<String> mIds = mDedup != null ? new HashSet<String>() : null;
+
+        /**
+         * 超过 batchBytes 而留到下一批的 message
+         */
+        private Object mPending;
+        /**
+         * 当前批次中 eventAsync 的 SendFuture，没有时为 null
+         */
+        private List<SendFuture> mFutures;
+
+        Consumer(Shard shard) {
+            mShard = shard;
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                int count;
+                try {
+                    count = fillBatch();
+                } catch (InterruptedException e) {
+                    // close 时被中断，已经取出的 event 计为放弃
+                    break;
+                }
+                List<SendFuture> futures = mFutures;
+                mFutures = null;
+                // 分片时不使用 AsyncSender 的异步发送，否则同一个分片的批次可能乱序
+                if (!mBinary && mShardHasher == null && mSender instanceof SugoAPI.AsyncSender) {
+                    sendAsync((SugoAPI.AsyncSender) mSender, count, futures);
+                    continue;
+                }
+                boolean sent = false;
+                SendOutcome outcome = SendOutcome.REJECTED;
+                SendFailure failure = SendFailure.UNKNOWN;
+                long start = System.nanoTime();
+                try {
+                    sent = send(mWriter, mIds);
+                    if (sent) {
+                        outcome = SugoAPI.lastOutcome(mSender);
+                    } else {
+                        failure = SugoAPI.lastFailure(mSender);
+                        SugoConfig.log.warning("Sender refused to accept " + count + " messages");
+                    }
+                } catch (RuntimeException e) {
+                    SugoConfig.log.warning("fail send messages :" + e);
+                } finally {
+                    mMetrics.recordBatch(count, mWriter.size(), System.nanoTime() - start, sent);
+                    mShard.recordBatch(count, sent);
+                    mOutstanding.addAndGet(-count);
+                    complete(futures, outcome, failure);
+                }
+            }
+            abandon();
+        }
+
+        /**
+         * 交给 AsyncSender 后立即开始攒下一批，发送结果在回调中记录
+         */
+        private void sendAsync(SugoAPI.AsyncSender sender, final int count, final List<SendFuture> futures) {
+            final int bytes = mWriter.size();
+            final long start = System.nanoTime();
+            SendFuture future;
+            try {
+                future = sender.sendAsync(text(mWriter));
+            } catch (RuntimeException e) {
+                SugoConfig.log.warning("fail send messages :" + e);
+                mMetrics.recordBatch(count, bytes, System.nanoTime() - start, false);
+                mOutstanding.addAndGet(-count);
+                complete(futures, SendOutcome.REJECTED, SendFailure.UNKNOWN);
+                return;
+            }
+            future.addCallback(new SendCallback() {
+                @Override
+                public void onComplete(SendOutcome outcome, SendFailure failure) {
+                    if (!outcome.isAccepted()) {
+                        SugoConfig.log.warning("Sender refused to accept " + count + " messages: " + failure);
+                    }
+                    mMetrics.recordBatch(count, bytes, System.nanoTime() - start, outcome.isAccepted());
+                    mOutstanding.addAndGet(-count);
+                    complete(futures, outcome, failure);
+                }
+            });
+        }
+
+        private void abandon() {
+            complete(mFutures, SendOutcome.REJECTED, SendFailure.CLOSED);
+            mFutures = null;
+            DefaultWorker.complete(mPending, SendOutcome.REJECTED, SendFailure.CLOSED);
+            mPending = null;
+        }
+
+        private void complete(List<SendFuture> futures, SendOutcome outcome, SendFailure failure) {
+            if (futures != null) {
+                for (SendFuture future : futures) {
+                    future.complete(outcome, failure);
+                }
+            }
+        }
+
+        /**
+         * 阻塞直到取到第一条 message，之后在 linger 时间内尽量攒满一批，直接写入 mWriter
+         *
+         * @return 这一批 message 的数量
+         */
+        private int fillBatch() throws InterruptedException {
+            Object first = mPending;
+            mPending = null;
+            if (mIds != null) {
+                mIds.clear();
+            }
+            while (first == null || isDuplicate(first)) {
+                first = dequeued(mShard.mQueue.take());
+            }
+            mWriter.begin();
+            mWriter.write(unwrap(first));
+            track(first);
+            int count = 1;
+            long deadline = System.nanoTime() + mLingerNanos;
+            while (count < mBatchSize && mWriter.size() < mBatchBytes) {
+                Object next = dequeued(mShard.mQueue.poll());
+                if (next == null) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || mDraining.get() > 0) {
+                        break;
+                    }
+                    next = dequeued(mShard.mQueue.poll(remaining, TimeUnit.NANOSECONDS));
+                    if (next == null) {
+                        break;
+                    }
+                }
+                if (isDuplicate(next)) {
+                    continue;
+                }
+                mWriter.write(unwrap(next));
+                if (mWriter.size() + 1 > mBatchBytes) {
+                    // 超过 batchBytes，撤销这条 message，留到下一批
+                    mWriter.undoLast();
+                    mPending = next;
+                    break;
+                }
+                track(next);
+                count++;
+            }
+            mWriter.end();
+            return count;
+        }
+
+        /**
+         * 已经确认过（或者在这一批中已经出现过）的 event 不再发送，视为发送成功
+         */
+        private boolean isDuplicate(Object element) {
+            if (mIds == null) {
+                return false;
+            }
+            String id = unwrap(element).optString(MessageBuilder.EVENT_ID_PROPERTY, null);
+            if (id == null || !(mIds.contains(id) || mDedup.isAcknowledged(id))) {
+                return false;
+            }
+            mMetrics.recordDeduplicated(1);
+            mOutstanding.decrementAndGet();
+            DefaultWorker.complete(element, SendOutcome.ACCEPTED, null);
+            return true;
+        }
+
+        private void track(Object element) {
+            if (mIds != null) {
+                String id = unwrap(element).optString(MessageBuilder.EVENT_ID_PROPERTY, null);
+                if (id != null) {
+                    mIds.add(id);
+                }
+            }
+            if (mShard.mHotKeys != null) {
+                String distinctId = unwrap(element).optString("distinct_id", null);
+                if (distinctId != null) {
+                    mShard.mHotKeys.record(distinctId);
+                }
+            }
+            SendFuture future = future(element);
+            if (future != null) {
+                if (mFutures == null) {
+                    mFutures = new ArrayList<SendFuture>();
+                }
+                mFutures.add(future);
+            }
+        }
+
+    }
+
+    /**
+     * 在每个聚合窗口的结束时间（按整点对齐）结束窗口，放入汇总 message
+     */
+    private class AggregatorLoop implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                long next = Long.MAX_VALUE;
+                for (EventAggregator aggregator : mAggregators.values()) {
+                    next = Math.min(next, aggregator.nextFlushMillis());
+                }
+                long now = System.currentTimeMillis();
+                if (next > now) {
+                    try {
+                        Thread.sleep(next - now);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    now = System.currentTimeMillis();
+                }
+                for (EventAggregator aggregator : mAggregators.values()) {
+                    if (aggregator.nextFlushMillis() <= now) {
+                        emit(aggregator, aggregator.flush(now));
+                    }
+                }
+            }
+        }
+
     }
 
-    private boolean senderSendData(String dataString) {
-        return mSender.sendData(dataString);
+    /**
+     * 一个队列和它的统计数据，队列的元素是 JSONObject，或者 TrackedEvent（eventAsync 放入的，或者设置了内存上限时）
+     */
+    private static class Shard {
+
+        final int mIndex;
+        final RingBuffer<Object> mQueue;
+        /**
+         * 分片时记录热点 distinct_id，只由这个分片的 consumer 写入
+         */
+        final HotKeys mHotKeys;
+        final StripedCounter mAccepted = new StripedCounter();
+        final AtomicLong mSent = new AtomicLong();
+        final AtomicLong mFailed = new AtomicLong();
+
+        Shard(int index, RingBuffer<Object> queue, boolean hotKeys) {
+            mIndex = index;
+            mQueue = queue;
+            mHotKeys = hotKeys ? new HotKeys(SugoConfig.SHARD_HOT_KEY_SLOTS, SugoConfig.SHARD_HOT_KEY_DECAY_INTERVAL) : null;
+        }
+
+        void recordBatch(int events, boolean sent) {
+            (sent ? mSent : mFailed).addAndGet(events);
+        }
+
+        ShardStats stats() {
+            List<ShardStats.HotKey> hotKeys = mHotKeys == null ? Collections.<ShardStats.HotKey>emptyList()
+                    : mHotKeys.top(SugoConfig.SHARD_HOT_KEYS);
+            return new ShardStats(mIndex, mQueue.size(), mQueue.capacity(), mAccepted.sum(), mSent.get(), mFailed.get(),
+                    hotKeys);
+        }
+
+    }
+
+    /**
+     * eventAsync 放入队列的 message 和它的 SendFuture，设置了内存上限时还记录为它预留的字节数。
+     * 没有内存上限时 event() 直接放入 JSONObject，不额外分配对象
+     */
+    private static class TrackedEvent {
+
+        final JSONObject mMessage;
+        /**
+         * event() 放入的 message 为 null
+         */
+        final SendFuture mFuture;
+        /**
+         * put 时预留的内存额度，取出时释放
+         */
+        long mBytes;
+
+        TrackedEvent(JSONObject message, SendFuture future) {
+            mMessage = message;
+            mFuture = future;
+        }
+
     }
 
 }
@@ -0,0 +1,385 @@
+package io.sugo.sugojavasdk;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 磁盘上的先进先出队列，由多个只追加写的 segment 文件组成，供 SpoolingSender 使用
+ * <p>
+ * 每条记录的格式为 [长度 int][CRC32 int][数据]，读取位置（segment 序号和偏移）保存在 checkpoint 文件中，
+ * 一个 segment 的数据全部被确认后删除该文件。写入不做 fsync，进程崩溃时不会丢数据，
+ * segment 切换和 close() 时才会 fsync
+ */
+class DiskSpool implements Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int HEADER_SIZE = 8;
+
+    private final File mDir;
+    private final long mMaxBytes;
+    private final long mSegmentBytes;
+
+    private final ArrayDeque<Segment> mSegments = new ArrayDeque<Segment>();
+    private final FileChannel mCheckpoint;
+    private final ByteBuffer mHeader = ByteBuffer.allocate(HEADER_SIZE);
+    private final ByteBuffer mCheckpointBuffer = ByteBuffer.allocate(16);
+    private final CRC32 mCrc = new CRC32();
+
+    private FileChannel mWriteChannel;
+    private FileChannel mReadChannel;
+    private long mReadOffset;
+    private int mPeekedLength = -1;
+    /**
+     * 还没有被确认的记录占用的字节数，ack 时立即减去，不等 segment 文件被删除
+     */
+    private long mTotalBytes;
+    private long mNextSequence;
+    private boolean mClosed = false;
+
+    /**
+     * @param dir          存放 segment 文件的目录，不存在会自动创建
+     * @param maxBytes     未确认的记录的总大小上限，超过后 append 返回 false；
+     *                     已确认但还没有删除的部分最多再占用一个 segment
+     * @param segmentBytes 单个 segment 文件的大小，超过后切换到新的 segment
+     */
+    DiskSpool(File dir, long maxBytes, long segmentBytes) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can not create spool directory: " + dir);
+        }
+        mDir = dir;
+        mMaxBytes = maxBytes;
+        mSegmentBytes = segmentBytes;
+        mCheckpoint = new RandomAccessFile(new File(dir, CHECKPOINT_FILE), "rw").getChannel();
+        recover();
+    }
+
+    /**
+     * 追加一条记录到队尾
+     *
+     * @return false 如果磁盘上的数据已经达到 maxBytes
+     */
+    synchronized boolean append(String data) throws IOException {
+        checkOpen();
+        byte[] bytes = data.getBytes(UTF8);
+        long recordSize = HEADER_SIZE + bytes.length;
+        if (mTotalBytes + recordSize > mMaxBytes) {
+            return false;
+        }
+        Segment segment = mSegments.peekLast();
+        if (segment == null || (segment.mSize > 0 && segment.mSize + recordSize > mSegmentBytes)) {
+            segment = rollSegment();
+        }
+        mCrc.reset();
+        mCrc.update(bytes, 0, bytes.length);
+        mHeader.clear();
+        mHeader.putInt(bytes.length).putInt((int) mCrc.getValue()).flip();
+        ByteBuffer body = ByteBuffer.wrap(bytes);
+        long position = segment.mSize;
+        while (mHeader.hasRemaining()) {
+            position += mWriteChannel.write(mHeader, position);
+        }
+        while (body.hasRemaining()) {
+            position += mWriteChannel.write(body, position);
+        }
+        segment.mSize = position;
+        mTotalBytes += recordSize;
+        return true;
+    }
+
+    /**
+     * 读取队头的记录，但不移出队列，确认发送成功后需要调用 ack()
+     *
+     * @return 队头的记录，队列为空则返回 null
+     */
+    synchronized String peek() throws IOException {
+        checkOpen();
+        while (true) {
+            Segment segment = mSegments.peekFirst();
+            if (segment == null) {
+                return null;
+            }
+            if (mReadOffset + HEADER_SIZE <= segment.mSize) {
+                openReadChannel(segment);
+                String record = readRecord(segment);
+                if (record != null) {
+                    return record;
+                }
+                SugoConfig.log.warning("Skipping corrupted spool segment " + segment.mFile);
+                mTotalBytes -= segment.mSize - mReadOffset;
+                mReadOffset = segment.mSize;
+            }
+            if (segment == mSegments.peekLast()) {
+                return null;
+            }
+            deleteFirstSegment();
+        }
+    }
+
+    /**
+     * 确认 peek() 返回的记录已经处理完成，将其移出队列
+     */
+    synchronized void ack() throws IOException {
+        checkOpen();
+        if (mPeekedLength < 0) {
+            throw new IllegalStateException("ack() without peek()");
+        }
+        mReadOffset += HEADER_SIZE + mPeekedLength;
+        mTotalBytes -= HEADER_SIZE + mPeekedLength;
+        mPeekedLength = -1;
+        Segment segment = mSegments.peekFirst();
+        if (mReadOffset >= segment.mSize && segment != mSegments.peekLast()) {
+            deleteFirstSegment();
+        } else {
+            writeCheckpoint(segment.mSequence, mReadOffset);
+        }
+    }
+
+    /**
+     * @return true 如果读取位置已经到达最后一个 segment 的末尾
+     */
+    synchronized boolean isEmpty() {
+        Segment first = mSegments.peekFirst();
+        return first == null || (first == mSegments.peekLast() && mReadOffset >= first.mSize);
+    }
+
+    /**
+     * @return 还没有被确认的记录占用的字节数
+     */
+    synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * 重复调用没有影响，之后的 append、peek、ack 抛出 IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        if (mWriteChannel != null) {
+            mWriteChannel.force(false);
+            mWriteChannel.close();
+            mWriteChannel = null;
+        }
+        closeReadChannel();
+        mCheckpoint.force(false);
+        mCheckpoint.close();
+    }
+
+    private void checkOpen() throws IOException {
+        if (mClosed) {
+            throw new IOException("Spool is closed: " + mDir);
+        }
+    }
+
+    private String readRecord(Segment segment) throws IOException {
+        mHeader.clear();
+        readFully(mReadChannel, mHeader, mReadOffset);
+        mHeader.flip();
+        int length = mHeader.getInt();
+        int crc = mHeader.getInt();
+        if (length < 0 || mReadOffset + HEADER_SIZE + length > segment.mSize) {
+            return null;
+        }
+        ByteBuffer body = ByteBuffer.allocate(length);
+        readFully(mReadChannel, body, mReadOffset + HEADER_SIZE);
+        mCrc.reset();
+        mCrc.update(body.array(), 0, length);
+        if ((int) mCrc.getValue() != crc) {
+            return null;
+        }
+        mPeekedLength = length;
+        return new String(body.array(), 0, length, UTF8);
+    }
+
+    private Segment rollSegment() throws IOException {
+        long sequence = mNextSequence++;
+        if (mWriteChannel != null) {
+            mWriteChannel.force(false);
+            mWriteChannel.close();
+        }
+        Segment segment = new Segment(sequence, new File(mDir, segmentName(sequence)), 0);
+        mWriteChannel = new RandomAccessFile(segment.mFile, "rw").getChannel();
+        mWriteChannel.truncate(0);
+        mSegments.addLast(segment);
+        if (mSegments.size() == 1) {
+            mReadOffset = 0;
+            writeCheckpoint(sequence, 0);
+        }
+        return segment;
+    }
+
+    private void deleteFirstSegment() throws IOException {
+        Segment segment = mSegments.pollFirst();
+        closeReadChannel();
+        // 已确认的部分在 ack 时已经减去，这里只剩末尾不完整的记录头
+        mTotalBytes -= Math.max(0, segment.mSize - mReadOffset);
+        mReadOffset = 0;
+        Segment next = mSegments.peekFirst();
+        writeCheckpoint(next == null ? segment.mSequence + 1 : next.mSequence, 0);
+        if (!segment.mFile.delete()) {
+            SugoConfig.log.warning("fail delete spool segment " + segment.mFile);
+        }
+    }
+
+    private void openReadChannel(Segment segment) throws IOException {
+        if (mReadChannel == null) {
+            mReadChannel = new RandomAccessFile(segment.mFile, "r").getChannel();
+        }
+    }
+
+    private void closeReadChannel() throws IOException {
+        if (mReadChannel != null) {
+            mReadChannel.close();
+            mReadChannel = null;
+        }
+    }
+
+    private void writeCheckpoint(long sequence, long offset) throws IOException {
+        mCheckpointBuffer.clear();
+        mCheckpointBuffer.putLong(sequence).putLong(offset).flip();
+        while (mCheckpointBuffer.hasRemaining()) {
+            mCheckpoint.write(mCheckpointBuffer, mCheckpointBuffer.position());
+        }
+    }
+
+    /**
+     * 启动时加载已有的 segment：丢弃 checkpoint 之前的 segment，截掉写了一半的记录
+     */
+    private void recover() throws IOException {
+        long checkpointSequence = 0;
+        long checkpointOffset = 0;
+        if (mCheckpoint.size() >= 16) {
+            mCheckpointBuffer.clear();
+            readFully(mCheckpoint, mCheckpointBuffer, 0);
+            mCheckpointBuffer.flip();
+            checkpointSequence = mCheckpointBuffer.getLong();
+            checkpointOffset = mCheckpointBuffer.getLong();
+        }
+
+        File[] files = mDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        List<Segment> segments = new ArrayList<Segment>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                try {
+                    long sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    segments.add(new Segment(sequence, file, file.length()));
+                } catch (NumberFormatException e) {
+                    SugoConfig.log.warning("Ignoring unknown file in spool directory: " + file);
+                }
+            }
+        }
+        Collections.sort(segments);
+
+        for (Segment segment : segments) {
+            if (segment.mSequence < checkpointSequence) {
+                if (!segment.mFile.delete()) {
+                    SugoConfig.log.warning("fail delete spool segment " + segment.mFile);
+                }
+                continue;
+            }
+            long start = segment.mSequence == checkpointSequence ? checkpointOffset : 0;
+            FileChannel channel = new RandomAccessFile(segment.mFile, "rw").getChannel();
+            try {
+                long end = scan(channel, start, segment.mSize);
+                if (end < segment.mSize) {
+                    SugoConfig.log.warning("Truncating incomplete spool segment " + segment.mFile + " at " + end);
+                    channel.truncate(end);
+                    segment.mSize = end;
+                }
+            } finally {
+                channel.close();
+            }
+            long unread = segment.mSize;
+            if (mSegments.isEmpty()) {
+                mReadOffset = Math.min(start, segment.mSize);
+                unread -= mReadOffset;
+            }
+            mSegments.addLast(segment);
+            mTotalBytes += unread;
+        }
+
+        Segment last = mSegments.peekLast();
+        mNextSequence = last == null ? checkpointSequence : last.mSequence + 1;
+        if (last != null) {
+            mWriteChannel = new RandomAccessFile(last.mFile, "rw").getChannel();
+            writeCheckpoint(mSegments.peekFirst().mSequence, mReadOffset);
+        }
+    }
+
+    /**
+     * 从 start 开始按记录头扫描
+     *
+     * @return 最后一条完整记录的结束位置
+     */
+    private long scan(FileChannel channel, long start, long size) throws IOException {
+        long offset = start;
+        while (offset + HEADER_SIZE <= size) {
+            mHeader.clear();
+            readFully(channel, mHeader, offset);
+            mHeader.flip();
+            int length = mHeader.getInt();
+            if (length < 0 || offset + HEADER_SIZE + length > size) {
+                break;
+            }
+            offset += HEADER_SIZE + length;
+        }
+        return offset;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of spool file");
+            }
+            position += read;
+        }
+    }
+
+    private static String segmentName(long sequence) {
+        return SEGMENT_PREFIX + String.format("%020d", sequence) + SEGMENT_SUFFIX;
+    }
+
+    private static class Segment implements Comparable<Segment> {
+
+        final long mSequence;
+        final File mFile;
+        long mSize;
+
+        Segment(long sequence, File file, long size) {
+            mSequence = sequence;
+            mFile = file;
+            mSize = size;
+        }
+
+        @Override
+        public int compareTo(Segment other) {
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+
+    }
+
+}
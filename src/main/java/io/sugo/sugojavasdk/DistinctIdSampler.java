@@ -0,0 +1,57 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按 distinct_id 的哈希值确定性地抽样：同一个 distinct_id 在所有进程、所有 event 上的结果都相同，
+ * 被保留的用户的 event 是完整的，服务端按 sample_rate 放大即可得到总量
+ * 没有 distinct_id 的 event 无法确定性地抽样，全部保留
+ */
+class DistinctIdSampler {
+
+    static final String SAMPLE_RATE_PROPERTY = "sample_rate";
+
+    private final Map<String, Double> mRates;
+    private final double mDefaultRate;
+
+    DistinctIdSampler(Map<String, Double> rates, double defaultRate) {
+        mRates = new HashMap<String, Double>(rates);
+        mDefaultRate = defaultRate;
+    }
+
+    /**
+     * @return false 如果没有需要抽样的 event
+     */
+    boolean isEnabled() {
+        return mDefaultRate < 1 || !mRates.isEmpty();
+    }
+
+    /**
+     * @return event 被保留时的采样率（1 表示没有抽样），被丢弃时为 0
+     */
+    double sample(String distinctId, String eventName, JSONObject properties) {
+        Double configured = mRates.get(eventName);
+        double rate = configured == null ? mDefaultRate : configured;
+        if (rate >= 1) {
+            return 1;
+        }
+        if (distinctId == null && properties != null) {
+            distinctId = properties.optString("distinct_id", null);
+        }
+        if (distinctId == null) {
+            return 1;
+        }
+        return position(distinctId) < rate ? rate : 0;
+    }
+
+    /**
+     * @return distinct_id 在 [0, 1) 上均匀分布的位置
+     */
+    static double position(String distinctId) {
+        return (Hashing.hash64(distinctId) >>> 11) * 0x1.0p-53;
+    }
+
+}
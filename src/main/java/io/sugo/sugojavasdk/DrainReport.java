@@ -0,0 +1,63 @@
+package io.sugo.sugojavasdk;
+
+/**
+ * SugoAPI#flush 或 SugoAPI#close 的结果：等待期间发送完成的 event 数量，以及超过等待时间仍未发送完成的 event 数量
+ * 等待期间仍在调用 event() 的线程放入的 event 也会被计入
+ */
+public class DrainReport {
+
+    private final long mDrained;
+    private final long mFailed;
+    private final long mAbandoned;
+    private final long mElapsedMillis;
+
+    DrainReport(long drained, long failed, long abandoned, long elapsedMillis) {
+        mDrained = drained;
+        mFailed = failed;
+        mAbandoned = abandoned;
+        mElapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return 等待期间 Sender 返回成功的 event 数量
+     */
+    public long getDrained() {
+        return mDrained;
+    }
+
+    /**
+     * @return 等待期间 Sender 返回失败的 event 数量
+     */
+    public long getFailed() {
+        return mFailed;
+    }
+
+    /**
+     * @return 超过等待时间仍在队列中或者正在发送的 event 数量，close 时这些 event 被放弃
+     */
+    public long getAbandoned() {
+        return mAbandoned;
+    }
+
+    public long getElapsedMillis() {
+        return mElapsedMillis;
+    }
+
+    /**
+     * @return true 如果在等待时间内所有 event 都已发送完成
+     */
+    public boolean isComplete() {
+        return mAbandoned == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "DrainReport{"
+                + "drained=" + mDrained
+                + ", failed=" + mFailed
+                + ", abandoned=" + mAbandoned
+                + ", elapsedMillis=" + mElapsedMillis
+                + "}";
+    }
+
+}
@@ -0,0 +1,280 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 按 AggregationRule 聚合一种 event，record 不加锁，只有若干次 CAS
+ * flush 换上新的窗口后等待正在写入旧窗口的线程结束，所以每个 event 恰好计入一个窗口
+ */
+class EventAggregator {
+
+    static final String OTHER_GROUP = "__other__";
+    static final String AGGREGATED_PROPERTY = "aggregated";
+    static final String WINDOW_PROPERTY = "window_millis";
+    static final String COUNT_PROPERTY = "count";
+
+    private static final String NO_GROUP = "";
+
+    private final String mEventName;
+    private final long mWindowMillis;
+    private final int mMaxGroups;
+    private final String[] mGroupBy;
+    private final String[] mValues;
+    private final double[][] mBounds;
+    private final AtomicReference<Window> mWindow;
+
+    EventAggregator(AggregationRule rule) {
+        this(rule, System.currentTimeMillis());
+    }
+
+    EventAggregator(AggregationRule rule, long now) {
+        mEventName = rule.getEventName();
+        mWindowMillis = rule.getWindowMillis();
+        mMaxGroups = rule.getMaxGroups();
+        List<String> groupBy = rule.getGroupBy();
+        mGroupBy = groupBy.toArray(new String[groupBy.size()]);
+        List<String> values = rule.getValues();
+        mValues = values.toArray(new String[values.size()]);
+        mBounds = new double[mValues.length][];
+        for (int i = 0; i < mValues.length; i++) {
+            mBounds[i] = rule.getHistogramBounds(mValues[i]);
+        }
+        mWindow = new AtomicReference<Window>(new Window(now));
+    }
+
+    String getEventName() {
+        return mEventName;
+    }
+
+    void record(JSONObject properties) {
+        Window window;
+        while (true) {
+            window = mWindow.get();
+            window.mWriters.incrementAndGet();
+            if (window == mWindow.get()) {
+                break;
+            }
+            // 窗口刚被换掉，改为写入新窗口
+            window.mWriters.decrementAndGet();
+        }
+        try {
+            cell(window, properties).record(properties, mValues);
+        } finally {
+            window.mWriters.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return 当前窗口按整点对齐的结束时间
+     */
+    long nextFlushMillis() {
+        long start = mWindow.get().mStart;
+        return (start / mWindowMillis + 1) * mWindowMillis;
+    }
+
+    /**
+     * 结束当前窗口，开始新的窗口
+     *
+     * @return 当前窗口每个分组的汇总属性，窗口中没有 event 时为空
+     */
+    List<JSONObject> flush(long now) {
+        Window window = mWindow.getAndSet(new Window(now));
+        while (window.mWriters.get() != 0) {
+            Thread.yield();
+        }
+        List<JSONObject> summaries = new ArrayList<JSONObject>(window.mCells.size());
+        for (Cell cell : window.mCells.values()) {
+            summaries.add(summary(cell, window.mStart, now));
+        }
+        return summaries;
+    }
+
+    private Cell cell(Window window, JSONObject properties) {
+        String[] groupValues = null;
+        String key = NO_GROUP;
+        if (mGroupBy.length > 0) {
+            groupValues = new String[mGroupBy.length];
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < mGroupBy.length; i++) {
+                Object value = properties == null ? null : properties.opt(mGroupBy[i]);
+                groupValues[i] = value == null || value == JSONObject.NULL ? null : value.toString();
+                // 用不会出现在属性值中的字符分隔，null 和 "null" 不是同一组
+                builder.append(groupValues[i] == null ? "\u0000" : groupValues[i]).append('\u0001');
+            }
+            key = builder.toString();
+        }
+        Cell cell = window.mCells.get(key);
+        if (cell != null) {
+            return cell;
+        }
+        if (groupValues != null && window.mGroups.incrementAndGet() > mMaxGroups) {
+            Arrays.fill(groupValues, OTHER_GROUP);
+            key = OTHER_GROUP;
+            cell = window.mCells.get(key);
+            if (cell != null) {
+                return cell;
+            }
+        }
+        Cell created = new Cell(groupValues, mBounds);
+        cell = window.mCells.putIfAbsent(key, created);
+        return cell == null ? created : cell;
+    }
+
+    private JSONObject summary(Cell cell, long start, long end) {
+        JSONObject summary = new JSONObject();
+        summary.put("time", start);
+        summary.put(WINDOW_PROPERTY, end - start);
+        summary.put(AGGREGATED_PROPERTY, true);
+        summary.put(COUNT_PROPERTY, cell.mCount.get());
+        for (int i = 0; i < mGroupBy.length; i++) {
+            if (cell.mGroupValues[i] != null) {
+                summary.put(mGroupBy[i], cell.mGroupValues[i]);
+            }
+        }
+        for (int i = 0; i < mValues.length; i++) {
+            ValueStats stats = cell.mStats[i];
+            long count = stats.mCount.get();
+            summary.put(mValues[i] + "_count", count);
+            summary.put(mValues[i] + "_sum", Double.longBitsToDouble(stats.mSum.get()));
+            if (count > 0) {
+                summary.put(mValues[i] + "_min", Double.longBitsToDouble(stats.mMin.get()));
+                summary.put(mValues[i] + "_max", Double.longBitsToDouble(stats.mMax.get()));
+            }
+            if (mBounds[i] != null) {
+                JSONArray bounds = new JSONArray();
+                for (double bound : mBounds[i]) {
+                    bounds.put(bound);
+                }
+                JSONArray counts = new JSONArray();
+                for (int j = 0; j < stats.mBuckets.length(); j++) {
+                    counts.put(stats.mBuckets.get(j));
+                }
+                JSONObject histogram = new JSONObject();
+                histogram.put("bounds", bounds);
+                histogram.put("counts", counts);
+                summary.put(mValues[i] + "_histogram", histogram);
+            }
+        }
+        return summary;
+    }
+
+    private static class Window {
+
+        final long mStart;
+        final ConcurrentHashMap<String, Cell> mCells = new ConcurrentHashMap<String, Cell>();
+        final AtomicInteger mGroups = new AtomicInteger();
+        /**
+         * 正在写入这个窗口的线程数
+         */
+        final AtomicInteger mWriters = new AtomicInteger();
+
+        Window(long start) {
+            mStart = start;
+        }
+
+    }
+
+    /**
+     * 一个窗口中的一个分组
+     */
+    private static class Cell {
+
+        final String[] mGroupValues;
+        final AtomicLong mCount = new AtomicLong();
+        final ValueStats[] mStats;
+
+        Cell(String[] groupValues, double[][] bounds) {
+            mGroupValues = groupValues;
+            mStats = new ValueStats[bounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                mStats[i] = new ValueStats(bounds[i]);
+            }
+        }
+
+        void record(JSONObject properties, String[] values) {
+            mCount.incrementAndGet();
+            if (properties == null) {
+                return;
+            }
+            for (int i = 0; i < values.length; i++) {
+                double value = properties.optDouble(values[i], Double.NaN);
+                if (!Double.isNaN(value)) {
+                    mStats[i].record(value);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * 一个数值属性的统计，double 以 long 的位模式保存，用 CAS 更新
+     */
+    private static class ValueStats {
+
+        final AtomicLong mCount = new AtomicLong();
+        final AtomicLong mSum = new AtomicLong(Double.doubleToRawLongBits(0));
+        final AtomicLong mMin = new AtomicLong(Double.doubleToRawLongBits(Double.POSITIVE_INFINITY));
+        final AtomicLong mMax = new AtomicLong(Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY));
+        final double[] mBounds;
+        final AtomicLongArray mBuckets;
+
+        ValueStats(double[] bounds) {
+            mBounds = bounds;
+            mBuckets = bounds == null ? null : new AtomicLongArray(bounds.length + 1);
+        }
+
+        void record(double value) {
+            mCount.incrementAndGet();
+            while (true) {
+                long bits = mSum.get();
+                if (mSum.compareAndSet(bits, Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + value))) {
+                    break;
+                }
+            }
+            while (true) {
+                long bits = mMin.get();
+                if (Double.longBitsToDouble(bits) <= value || mMin.compareAndSet(bits, Double.doubleToRawLongBits(value))) {
+                    break;
+                }
+            }
+            while (true) {
+                long bits = mMax.get();
+                if (Double.longBitsToDouble(bits) >= value || mMax.compareAndSet(bits, Double.doubleToRawLongBits(value))) {
+                    break;
+                }
+            }
+            if (mBuckets != null) {
+                mBuckets.incrementAndGet(bucket(value));
+            }
+        }
+
+        /**
+         * @return 第一个不小于 value 的边界的下标，大于所有边界时为 bounds.length
+         */
+        private int bucket(double value) {
+            int low = 0;
+            int high = mBounds.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mBounds[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+    }
+
+}
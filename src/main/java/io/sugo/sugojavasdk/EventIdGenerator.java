@@ -0,0 +1,46 @@
+package io.sugo.sugojavasdk;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 生成按时间排序的 event id，格式与 ULID 相同：26 个 Crockford Base32 字符，共 128 位
+ * 前 48 位是毫秒时间戳，之后 40 位是每个生成器随机的节点号，最后 40 位是生成器内递增的序号
+ * 生成只需要一次 getAndIncrement，不加锁；同一个生成器生成的 id 不会重复
+ */
+class EventIdGenerator {
+
+    static final int LENGTH = 26;
+
+    private static final char[] BASE32 = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final long MASK_40 = (1L << 40) - 1;
+
+    private final long mNode;
+    private final AtomicLong mSequence;
+
+    EventIdGenerator() {
+        SecureRandom random = new SecureRandom();
+        mNode = random.nextLong() & MASK_40;
+        mSequence = new AtomicLong(random.nextLong() & MASK_40);
+    }
+
+    String next(long time) {
+        long sequence = mSequence.getAndIncrement() & MASK_40;
+        char[] chars = new char[LENGTH];
+        encode(chars, 0, 10, time & ((1L << 48) - 1));
+        encode(chars, 10, 8, mNode);
+        encode(chars, 18, 8, sequence);
+        return new String(chars);
+    }
+
+    /**
+     * 把 value 的低 count * 5 位写成 count 个字符，高位在前
+     */
+    private static void encode(char[] chars, int offset, int count, long value) {
+        for (int i = offset + count - 1; i >= offset; i--) {
+            chars[i] = BASE32[(int) (value & 31)];
+            value >>>= 5;
+        }
+    }
+
+}
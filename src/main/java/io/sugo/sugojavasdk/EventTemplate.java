@@ -0,0 +1,107 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * 一组不变的属性（例如 app 版本、主机名、区域），创建时复制一份并预先序列化为 JSON 字节，
+ * 写入 event 时由 EventWriter 直接拷贝这些字节，不再逐个序列化
+ * 用于 MessageBuilder 的 super properties 和按 event 名称注册的模板，也可以用 EventWriter#putTemplate 写入
+ */
+public final class EventTemplate {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final JSONObject mProperties;
+    /**
+     * 不含花括号的 "k1":v1,"k2":v2，没有属性时为空
+     */
+    private final byte[] mFragment;
+    /**
+     * 同样的属性编码为 MessagePack 键值对，第一次使用时生成
+     */
+    private volatile byte[] mMessagePackFragment;
+
+    /**
+     * @param properties 模板的属性，不能包含 event、time、distinct_id 和 event_id
+     */
+    public EventTemplate(JSONObject properties) {
+        properties = properties == null ? new JSONObject() : MessageBuilder.copyObject(properties);
+        for (String key : properties.keySet()) {
+            if ("event".equals(key) || "time".equals(key) || "distinct_id".equals(key)
+                    || MessageBuilder.EVENT_ID_PROPERTY.equals(key)) {
+                throw new IllegalArgumentException("Template can not contain \"" + key + "\"");
+            }
+        }
+        mProperties = properties;
+        if (properties.length() == 0) {
+            mFragment = EMPTY;
+        } else {
+            EventWriter writer = new EventWriter();
+            writer.writeMessage(properties);
+            mFragment = Arrays.copyOfRange(writer.buffer(), 1, writer.size() - 1);
+        }
+    }
+
+    /**
+     * @return 以 base 为基础、同名属性使用本模板的值的新模板，base 为 null 时返回本模板
+     */
+    EventTemplate over(EventTemplate base) {
+        if (base == null || base.mProperties.length() == 0) {
+            return this;
+        }
+        JSONObject merged = MessageBuilder.copyObject(base.mProperties);
+        for (String key : mProperties.keySet()) {
+            merged.put(key, mProperties.opt(key));
+        }
+        return new EventTemplate(merged);
+    }
+
+    /**
+     * @return 模板的属性，不应修改
+     */
+    JSONObject properties() {
+        return mProperties;
+    }
+
+    byte[] fragment() {
+        return mFragment;
+    }
+
+    byte[] messagePackFragment() {
+        byte[] fragment = mMessagePackFragment;
+        if (fragment == null) {
+            fragment = MessagePackWriter.entries(mProperties);
+            mMessagePackFragment = fragment;
+        }
+        return fragment;
+    }
+
+    boolean contains(String key) {
+        return mProperties.has(key);
+    }
+
+    /**
+     * @return true 如果 properties 中有和模板同名的属性
+     */
+    boolean overlaps(JSONObject properties) {
+        if (properties == null || mProperties.length() == 0) {
+            return false;
+        }
+        for (String key : properties.keySet()) {
+            if (mProperties.has(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 模板属性的副本
+     */
+    public JSONObject getProperties() {
+        return MessageBuilder.copyObject(mProperties);
+    }
+
+}
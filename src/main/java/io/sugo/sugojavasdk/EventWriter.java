@@ -0,0 +1,497 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 把 Sugo message 直接写成 UTF-8 编码的 JSON 字节，写入可复用的缓冲区（不经过 JSONObject.toString()）
+ * <p>
+ * 可以写单条 event，也可以用 beginArray()/endArray() 写一批 event：
+ * <pre>
+ * EventWriter writer = new EventWriter();
+ * writer.beginArray();
+ * writer.beginEvent("a distinct id", "login", System.currentTimeMillis())
+ *       .putString("page", "/index")
+ *       .putLong("cost", 35)
+ *       .putDouble("amount", 12.5)
+ *       .endEvent();
+ * writer.endArray();
+ * sender.sendData(writer.toString());
+ * writer.reset();
+ * </pre>
+ * putLong/putDouble/putBoolean 直接写入基本类型，不会装箱。EventWriter 不是线程安全的，每个线程使用自己的实例
+ */
+public class EventWriter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] HEX = "0123456789abcdef".getBytes(UTF8);
+    private static final byte[] NULL = "null".getBytes(UTF8);
+    private static final byte[] TRUE = "true".getBytes(UTF8);
+    private static final byte[] FALSE = "false".getBytes(UTF8);
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(UTF8);
+
+    private byte[] mBuffer;
+    private int mCount = 0;
+    // 下一个数组元素/对象字段前是否需要逗号
+    private boolean mNeedComma = false;
+    private boolean mInEvent = false;
+
+    public EventWriter() {
+        this(SugoConfig.BUFFER_SIZE * 16);
+    }
+
+    public EventWriter(int initialCapacity) {
+        mBuffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * 开始写一个 JSON 数组，之后写入的 event 作为数组元素
+     */
+    public EventWriter beginArray() {
+        writeByte('[');
+        mNeedComma = false;
+        return this;
+    }
+
+    public EventWriter endArray() {
+        writeByte(']');
+        mNeedComma = true;
+        return this;
+    }
+
+    public EventWriter beginEvent(String eventName) {
+        return beginEvent(null, eventName, System.currentTimeMillis());
+    }
+
+    /**
+     * 开始写一条 event，写入 event、time 和 distinct_id（不为 null 时）字段，
+     * 之后用 putXxx 写入属性，最后调用 endEvent()。属性中不要再写入这几个字段
+     */
+    public EventWriter beginEvent(String distinctId, String eventName, long time) {
+        if (mInEvent) {
+            throw new IllegalStateException("endEvent() was not called for the previous event");
+        }
+        if (eventName == null) {
+            throw new SugoMessageException("event name can not be null", null);
+        }
+        separator();
+        writeByte('{');
+        mNeedComma = false;
+        mInEvent = true;
+        putString("event", eventName);
+        putLong("time", time);
+        if (distinctId != null) {
+            putString("distinct_id", distinctId);
+        }
+        return this;
+    }
+
+    public EventWriter putString(String key, String value) {
+        writeKey(key);
+        if (value == null) {
+            writeBytes(NULL);
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public EventWriter putLong(String key, long value) {
+        writeKey(key);
+        writeLong(value);
+        return this;
+    }
+
+    public EventWriter putDouble(String key, double value) {
+        writeKey(key);
+        writeDouble(value);
+        return this;
+    }
+
+    public EventWriter putBoolean(String key, boolean value) {
+        writeKey(key);
+        writeBytes(value ? TRUE : FALSE);
+        return this;
+    }
+
+    /**
+     * 写入任意 JSON 值（JSONObject、JSONArray、Map、Collection、数组、Number、String 等）
+     */
+    public EventWriter putValue(String key, Object value) {
+        writeKey(key);
+        writeValue(value);
+        return this;
+    }
+
+    /**
+     * 写入 properties 中的所有属性
+     */
+    public EventWriter putAll(JSONObject properties) {
+        if (properties != null) {
+            for (String key : properties.keySet()) {
+                putValue(key, properties.opt(key));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 写入模板中预先序列化的属性，不再逐个序列化
+     */
+    public EventWriter putTemplate(EventTemplate template) {
+        if (!mInEvent) {
+            throw new IllegalStateException("beginEvent() was not called");
+        }
+        byte[] fragment = template.fragment();
+        if (fragment.length > 0) {
+            separator();
+            writeBytes(fragment);
+            mNeedComma = true;
+        }
+        return this;
+    }
+
+    public EventWriter endEvent() {
+        if (!mInEvent) {
+            throw new IllegalStateException("beginEvent() was not called");
+        }
+        writeByte('}');
+        mInEvent = false;
+        mNeedComma = true;
+        return this;
+    }
+
+    /**
+     * 写入一条完整的 event，properties 中已有 time 时使用 properties 中的值
+     */
+    public EventWriter writeEvent(String distinctId, String eventName, long time, JSONObject properties) {
+        if (properties != null && properties.has("time")) {
+            separator();
+            writeByte('{');
+            mNeedComma = false;
+            mInEvent = true;
+            putString("event", eventName);
+            if (distinctId != null) {
+                putString("distinct_id", distinctId);
+            }
+        } else {
+            beginEvent(distinctId, eventName, time);
+        }
+        if (properties != null) {
+            for (String key : properties.keySet()) {
+                if ("event".equals(key) || (distinctId != null && "distinct_id".equals(key))) {
+                    continue;
+                }
+                putValue(key, properties.opt(key));
+            }
+        }
+        return endEvent();
+    }
+
+    /**
+     * 写入一条已经由 MessageBuilder 生成的 message
+     */
+    public EventWriter writeMessage(JSONObject message) {
+        separator();
+        if (message instanceof TemplatedMessage) {
+            writeTemplated((TemplatedMessage) message);
+        } else {
+            writeObject(message);
+        }
+        mNeedComma = true;
+        return this;
+    }
+
+    /**
+     * @return 已写入的字节数
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * 丢弃 size 之后写入的数据，用于撤销最后写入的 event
+     */
+    public void truncate(int size, boolean needComma) {
+        if (size < 0 || size > mCount) {
+            throw new IllegalArgumentException("Invalid size: " + size);
+        }
+        mCount = size;
+        mNeedComma = needComma;
+        mInEvent = false;
+    }
+
+    /**
+     * @return 下一个元素前是否需要逗号，配合 truncate 使用
+     */
+    public boolean needsComma() {
+        return mNeedComma;
+    }
+
+    /**
+     * 清空缓冲区以便复用，不会释放已分配的内存
+     */
+    public void reset() {
+        mCount = 0;
+        mNeedComma = false;
+        mInEvent = false;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(mBuffer, mCount);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(mBuffer, 0, mCount);
+    }
+
+    /**
+     * @return 内部缓冲区，有效数据为 [0, size())，缓冲区会在之后的写入中被修改或替换
+     */
+    byte[] buffer() {
+        return mBuffer;
+    }
+
+    @Override
+    public String toString() {
+        return new String(mBuffer, 0, mCount, UTF8);
+    }
+
+    /************************************************************/
+
+    private void separator() {
+        if (mNeedComma) {
+            writeByte(',');
+        }
+    }
+
+    private void writeKey(String key) {
+        if (!mInEvent) {
+            throw new IllegalStateException("beginEvent() was not called");
+        }
+        if (key == null) {
+            throw new IllegalArgumentException("key can not be null");
+        }
+        separator();
+        writeString(key);
+        writeByte(':');
+        mNeedComma = true;
+    }
+
+    private void writeObject(JSONObject object) {
+        writeByte('{');
+        boolean first = true;
+        for (String key : object.keySet()) {
+            if (!first) {
+                writeByte(',');
+            }
+            first = false;
+            writeString(key);
+            writeByte(':');
+            writeValue(object.opt(key));
+        }
+        writeByte('}');
+    }
+
+    /**
+     * 先写 message 自己的字段，再拼接模板的字节
+     */
+    private void writeTemplated(TemplatedMessage message) {
+        writeObject(message);
+        byte[] fragment = message.template().fragment();
+        if (fragment.length > 0) {
+            // 去掉 '}'，message 至少有 event 和 time 两个字段
+            mCount--;
+            writeByte(',');
+            writeBytes(fragment);
+            writeByte('}');
+        }
+    }
+
+    private void writeArray(JSONArray array) {
+        writeByte('[');
+        for (int i = 0, length = array.length(); i < length; i++) {
+            if (i > 0) {
+                writeByte(',');
+            }
+            writeValue(array.opt(i));
+        }
+        writeByte(']');
+    }
+
+    private void writeValue(Object value) {
+        if (value == null || JSONObject.NULL.equals(value)) {
+            writeBytes(NULL);
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writeLong(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof BigInteger || value instanceof BigDecimal || value instanceof Number) {
+            writeAscii(JSONObject.numberToString((Number) value));
+        } else if (value instanceof Boolean) {
+            writeBytes((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof JSONObject) {
+            writeObject((JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            writeArray((JSONArray) value);
+        } else if (value instanceof JSONString) {
+            writeUtf8(((JSONString) value).toJSONString());
+        } else if (value instanceof Enum) {
+            writeString(((Enum<?>) value).name());
+        } else if (value instanceof Map || value instanceof Collection || value.getClass().isArray()) {
+            writeValue(JSONObject.wrap(value));
+        } else {
+            writeString(value.toString());
+        }
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeBytes(MIN_LONG);
+            return;
+        }
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        int pos = mCount + digits;
+        do {
+            mBuffer[--pos] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value > 0);
+        mCount += digits;
+    }
+
+    private void writeDouble(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writeBytes(NULL);
+        } else if (value == (long) value && Math.abs(value) < 1e15) {
+            writeLong((long) value);
+        } else {
+            writeAscii(JSONObject.doubleToString(value));
+        }
+    }
+
+    private void writeString(String value) {
+        int length = value.length();
+        // 最坏情况下每个字符写成 \\uXXXX
+        ensureCapacity(length * 6 + 2);
+        byte[] buffer = mBuffer;
+        int pos = mCount;
+        buffer[pos++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    buffer[pos++] = (byte) c;
+                } else {
+                    buffer[pos++] = '\\';
+                    switch (c) {
+                        case '"':
+                            buffer[pos++] = '"';
+                            break;
+                        case '\\':
+                            buffer[pos++] = '\\';
+                            break;
+                        case '\n':
+                            buffer[pos++] = 'n';
+                            break;
+                        case '\r':
+                            buffer[pos++] = 'r';
+                            break;
+                        case '\t':
+                            buffer[pos++] = 't';
+                            break;
+                        case '\b':
+                            buffer[pos++] = 'b';
+                            break;
+                        case '\f':
+                            buffer[pos++] = 'f';
+                            break;
+                        default:
+                            pos = writeUnicodeEscape(buffer, pos, c);
+                    }
+                }
+            } else if (c < 0x800) {
+                buffer[pos++] = (byte) (0xc0 | (c >> 6));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (c == '\u2028' || c == '\u2029') {
+                buffer[pos++] = '\\';
+                pos = writeUnicodeEscape(buffer, pos, c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理字符
+                buffer[pos++] = '\\';
+                pos = writeUnicodeEscape(buffer, pos, c);
+            } else {
+                buffer[pos++] = (byte) (0xe0 | (c >> 12));
+                buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        buffer[pos++] = '"';
+        mCount = pos;
+    }
+
+    private static int writeUnicodeEscape(byte[] buffer, int pos, char c) {
+        buffer[pos++] = 'u';
+        buffer[pos++] = HEX[(c >> 12) & 0xf];
+        buffer[pos++] = HEX[(c >> 8) & 0xf];
+        buffer[pos++] = HEX[(c >> 4) & 0xf];
+        buffer[pos++] = HEX[c & 0xf];
+        return pos;
+    }
+
+    private void writeAscii(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            mBuffer[mCount++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeUtf8(String json) {
+        writeBytes(json.getBytes(UTF8));
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, mBuffer, mCount, bytes.length);
+        mCount += bytes.length;
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        mBuffer[mCount++] = (byte) b;
+    }
+
+    private void ensureCapacity(int extra) {
+        int required = mCount + extra;
+        if (required > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(required, mBuffer.length * 2));
+        }
+    }
+
+}
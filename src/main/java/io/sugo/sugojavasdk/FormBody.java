@@ -0,0 +1,96 @@
+package io.sugo.sugojavasdk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * application/x-www-form-urlencoded 的请求体 data=URL 编码后的 Base64 数据
+ * UTF-8 编码、Base64 编码和 URL 编码都写入按线程复用的缓冲区，不生成中间的 byte[]、char[] 和 String，
+ * 结果与 "data=" + URLEncoder.encode(Base64, "utf8") 逐字节相同
+ * 缓冲区属于创建 FormBody 的线程，同一线程创建下一个 FormBody 之前有效
+ */
+class FormBody implements HttpConnectionPool.RequestBody {
+
+    static final String CONTENT_TYPE = "application/x-www-form-urlencoded;charset=utf8";
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final byte[] PREFIX = {'d', 'a', 't', 'a', '='};
+
+    private static final ThreadLocal<byte[][]> BUFFERS = new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            // UTF-8 数据、请求体
+            return new byte[2][0];
+        }
+    };
+
+    private final byte[] mBuffer;
+    private final int mLength;
+
+    /**
+     * @param dataString JSON formatted string
+     */
+    FormBody(String dataString) {
+        int utf8Length = Utf8.length(dataString);
+        byte[] utf8 = buffer(0, utf8Length);
+        Utf8.write(dataString, utf8, 0);
+        byte[] body = buffer(1, PREFIX.length + Base64.formEscapedMaxLength(utf8Length));
+        System.arraycopy(PREFIX, 0, body, 0, PREFIX.length);
+        mLength = PREFIX.length + Base64.encodeFormEscaped(utf8, 0, utf8Length, body, PREFIX.length);
+        mBuffer = body;
+    }
+
+    @Override
+    public String contentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public String contentEncoding() {
+        return null;
+    }
+
+    @Override
+    public long contentLength() {
+        return mLength;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(mBuffer, 0, mLength);
+    }
+
+    /**
+     * @return 请求体所在的缓冲区，有效数据为 [0, length())
+     */
+    byte[] buffer() {
+        return mBuffer;
+    }
+
+    int length() {
+        return mLength;
+    }
+
+    /**
+     * @return 去掉 "data=" 前缀的 URL 编码后的 Base64 数据
+     */
+    String value() {
+        return new String(mBuffer, PREFIX.length, mLength - PREFIX.length, ASCII);
+    }
+
+    private static byte[] buffer(int index, int size) {
+        byte[][] buffers = BUFFERS.get();
+        byte[] buffer = buffers[index];
+        if (buffer.length >= size) {
+            return buffer;
+        }
+        buffer = new byte[Math.max(size, buffer.length * 2)];
+        if (buffer.length <= SugoConfig.MAX_RETAINED_FORM_BUFFER_BYTES) {
+            buffers[index] = buffer;
+        }
+        return buffer;
+    }
+
+}
@@ -0,0 +1,30 @@
+package io.sugo.sugojavasdk;
+
+/**
+ * 字符串的 64 位哈希：UTF-16 字符的 FNV-1a，再用 MurmurHash3 的 fmix64 打散
+ * 结果在不同进程、不同 JVM 上相同，可以用于确定性的抽样和 Bloom filter
+ */
+final class Hashing {
+
+    private Hashing() {
+    }
+
+    static long hash64(CharSequence value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0, length = value.length(); i < length; i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return fmix64(hash);
+    }
+
+    static long fmix64(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+}
@@ -0,0 +1,104 @@
+package io.sugo.sugojavasdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 用 Space-Saving 算法找出出现次数最多的 key：最多记录 capacity 个 key，记满后新的 key 替换计数最小的 key，
+ * 并继承它的计数，所以计数是上限，出现次数超过总数 1/capacity 的 key 一定会被记录
+ * 每记录 decayInterval 次所有计数减半，结果偏向最近的 key
+ * <p>
+ * record 只能由一个线程调用（分片的 consumer），不加锁：key 到槽位的索引只由这个线程访问，
+ * 槽位用 lazySet 写入，top 可以在其他线程读取，读到的是近似的瞬时值。
+ * 已经记录的 key 只需要一次查找和一次写入，只有新的 key 在记满后才需要遍历槽位找计数最小的
+ */
+class HotKeys {
+
+    private final int mCapacity;
+    private final long mDecayInterval;
+    private final AtomicReferenceArray<String> mKeys;
+    private final AtomicLongArray mCounts;
+    /**
+     * key 所在的槽位，只由 record 的线程访问
+     */
+    private final Map<String, Integer> mSlots = new HashMap<String, Integer>();
+    private long mRecorded;
+
+    HotKeys(int capacity, long decayInterval) {
+        mCapacity = capacity;
+        mDecayInterval = decayInterval;
+        mKeys = new AtomicReferenceArray<String>(capacity);
+        mCounts = new AtomicLongArray(capacity);
+    }
+
+    void record(String key) {
+        if (++mRecorded % mDecayInterval == 0) {
+            decay();
+        }
+        Integer slot = mSlots.get(key);
+        if (slot != null) {
+            mCounts.lazySet(slot, mCounts.get(slot) + 1);
+            return;
+        }
+        int min = -1;
+        for (int i = 0; i < mCapacity; i++) {
+            if (mKeys.get(i) == null) {
+                min = i;
+                break;
+            }
+            if (min < 0 || mCounts.get(i) < mCounts.get(min)) {
+                min = i;
+            }
+        }
+        String evicted = mKeys.get(min);
+        if (evicted != null) {
+            mSlots.remove(evicted);
+        }
+        mSlots.put(key, min);
+        mKeys.lazySet(min, key);
+        mCounts.lazySet(min, mCounts.get(min) + 1);
+    }
+
+    /**
+     * @return 计数最大的 limit 个 key，按计数从大到小排列
+     */
+    List<ShardStats.HotKey> top(int limit) {
+        List<ShardStats.HotKey> keys = new ArrayList<ShardStats.HotKey>(mCapacity);
+        for (int i = 0; i < mCapacity; i++) {
+            String key = mKeys.get(i);
+            long count = mCounts.get(i);
+            if (key != null && count > 0) {
+                keys.add(new ShardStats.HotKey(key, count));
+            }
+        }
+        Collections.sort(keys, new Comparator<ShardStats.HotKey>() {
+            @Override
+            public int compare(ShardStats.HotKey a, ShardStats.HotKey b) {
+                return a.getCount() < b.getCount() ? 1 : a.getCount() == b.getCount() ? 0 : -1;
+            }
+        });
+        return keys.size() > limit ? new ArrayList<ShardStats.HotKey>(keys.subList(0, limit)) : keys;
+    }
+
+    private void decay() {
+        for (int i = 0; i < mCapacity; i++) {
+            String key = mKeys.get(i);
+            if (key == null) {
+                continue;
+            }
+            long count = mCounts.get(i) >>> 1;
+            if (count == 0) {
+                mSlots.remove(key);
+                mKeys.lazySet(i, null);
+            }
+            mCounts.lazySet(i, count);
+        }
+    }
+
+}
@@ -0,0 +1,531 @@
+package io.sugo.sugojavasdk;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 到同一个 endpoint 的 HTTP/1.1 keep-alive 连接池，供 HttpSender 使用
+ * 最多同时打开 maxConnections 个连接，空闲超过 idleTimeoutMillis 的连接会被关闭
+ * 新建连接时使用 ProxySelector.getDefault() 选择的代理（http.proxyHost、https.proxyHost、socksProxyHost 等系统属性），
+ * 支持 HTTP 代理（https 通过 CONNECT 隧道）和 SOCKS 代理，不支持代理认证
+ */
+class HttpConnectionPool implements Closeable {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final String mHost;
+    private final int mPort;
+    private final String mPath;
+    private final String mHostHeader;
+    private final boolean mSecure;
+    private final URI mUri;
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final long mIdleTimeoutMillis;
+
+    private final Semaphore mPermits;
+    // 最近使用的连接放在队头，队尾是空闲最久的连接
+    private final LinkedBlockingDeque<Connection> mIdle = new LinkedBlockingDeque<Connection>();
+    private volatile boolean mClosed = false;
+
+    HttpConnectionPool(URL endpoint, int maxConnections, int connectTimeoutMillis, int readTimeoutMillis, long idleTimeoutMillis) {
+        String protocol = endpoint.getProtocol();
+        if (!"http".equalsIgnoreCase(protocol) && !"https".equalsIgnoreCase(protocol)) {
+            throw new IllegalArgumentException("Unsupported protocol: " + protocol);
+        }
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be positive: " + maxConnections);
+        }
+        mSecure = "https".equalsIgnoreCase(protocol);
+        mHost = endpoint.getHost();
+        mPort = endpoint.getPort() != -1 ? endpoint.getPort() : endpoint.getDefaultPort();
+        mPath = endpoint.getFile().length() == 0 ? "/" : endpoint.getFile();
+        mHostHeader = endpoint.getPort() != -1 ? mHost + ":" + mPort : mHost;
+        try {
+            mUri = endpoint.toURI();
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid endpoint: " + endpoint, e);
+        }
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mIdleTimeoutMillis = idleTimeoutMillis;
+        mPermits = new Semaphore(maxConnections, true);
+    }
+
+    /**
+     * @return 内容为 body[offset, offset + length) 的请求体，不复制 body
+     */
+    static RequestBody body(final String contentType, final byte[] body, final int offset, final int length) {
+        return new RequestBody() {
+            @Override
+            public String contentType() {
+                return contentType;
+            }
+
+            @Override
+            public String contentEncoding() {
+                return null;
+            }
+
+            @Override
+            public long contentLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(body, offset, length);
+            }
+        };
+    }
+
+    /**
+     * POST 一个请求体到 endpoint，阻塞直到读完响应
+     * 长度未知的请求体使用 chunked 编码，边生成边写入连接
+     *
+     * @throws IOException 连接、写入或读取响应失败，或者连接池已关闭
+     */
+    Response post(RequestBody body) throws IOException {
+        // 复用的连接可能已被服务端关闭，这种情况下换一个新连接重试一次。
+        // 只有请求没写完，或者服务端没返回任何字节就关闭了连接时才重试，否则服务端可能已经处理过这个请求
+        for (int attempt = 0; ; attempt++) {
+            Connection conn = borrow();
+            boolean reusable = false;
+            boolean written = false;
+            try {
+                writeRequest(conn, body);
+                written = true;
+                Response response = readResponse(conn);
+                if (response == null) {
+                    if (conn.mReused && attempt == 0) {
+                        continue;
+                    }
+                    throw new EOFException("Connection closed before response");
+                }
+                reusable = response.mKeepAlive;
+                return response;
+            } catch (IOException e) {
+                if (conn.mReused && attempt == 0 && !written) {
+                    continue;
+                }
+                throw e;
+            } finally {
+                release(conn, reusable);
+            }
+        }
+    }
+
+    private Connection borrow() throws IOException {
+        if (mClosed) {
+            throw new IOException("Connection pool is closed");
+        }
+        boolean acquired;
+        try {
+            acquired = mPermits.tryAcquire(mConnectTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection");
+        }
+        if (!acquired) {
+            throw new IOException("Timed out waiting for a pooled connection to " + mHostHeader);
+        }
+        try {
+            long now = System.currentTimeMillis();
+            Connection conn;
+            while ((conn = mIdle.pollFirst()) != null) {
+                if (conn.isUsable(now)) {
+                    conn.mReused = true;
+                    return conn;
+                }
+                conn.close();
+            }
+            return open();
+        } catch (IOException e) {
+            mPermits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            mPermits.release();
+            throw e;
+        }
+    }
+
+    private void release(Connection conn, boolean reusable) {
+        try {
+            if (reusable && !mClosed) {
+                conn.mLastUsed = System.currentTimeMillis();
+                mIdle.offerFirst(conn);
+                evictIdle(conn.mLastUsed);
+                if (mClosed) {
+                    closeIdle();
+                }
+            } else {
+                conn.close();
+            }
+        } finally {
+            mPermits.release();
+        }
+    }
+
+    /**
+     * 从队尾开始关闭空闲超时的连接
+     */
+    private void evictIdle(long now) {
+        Iterator<Connection> it = mIdle.descendingIterator();
+        while (it.hasNext()) {
+            Connection conn = it.next();
+            if (conn.isUsable(now)) {
+                break;
+            }
+            if (mIdle.removeLastOccurrence(conn)) {
+                conn.close();
+            }
+        }
+    }
+
+    private void closeIdle() {
+        Connection conn;
+        while ((conn = mIdle.pollFirst()) != null) {
+            conn.close();
+        }
+    }
+
+    /**
+     * @return 当前空闲的连接数
+     */
+    int getIdleCount() {
+        return mIdle.size();
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+        closeIdle();
+    }
+
+    private Connection open() throws IOException {
+        Proxy proxy = selectProxy();
+        boolean httpProxy = proxy.type() == Proxy.Type.HTTP;
+        Socket socket = proxy.type() == Proxy.Type.SOCKS ? new Socket(proxy) : new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            if (httpProxy) {
+                socket.connect(proxy.address(), mConnectTimeoutMillis);
+            } else if (proxy.type() == Proxy.Type.SOCKS) {
+                // 由代理解析域名
+                socket.connect(InetSocketAddress.createUnresolved(mHost, mPort), mConnectTimeoutMillis);
+            } else {
+                socket.connect(new InetSocketAddress(mHost, mPort), mConnectTimeoutMillis);
+            }
+            socket.setSoTimeout(mReadTimeoutMillis);
+            if (httpProxy && mSecure) {
+                tunnel(socket);
+            }
+            if (mSecure) {
+                SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                        .createSocket(socket, mHost, mPort, true);
+                SSLParameters parameters = sslSocket.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                sslSocket.setSSLParameters(parameters);
+                sslSocket.startHandshake();
+                socket = sslSocket;
+            }
+            // 通过 HTTP 代理发送 http 请求时，请求行使用完整的 URL
+            String target = httpProxy && !mSecure ? "http://" + mHostHeader + mPath : mPath;
+            return new Connection(socket, target);
+        } catch (IOException e) {
+            closeQuietly(socket);
+            // 统一为 ConnectException，便于调用者区分连接失败和请求失败
+            if (e instanceof ConnectException) {
+                throw e;
+            }
+            ConnectException connectException = new ConnectException("fail connect to " + mHostHeader + " : " + e);
+            connectException.initCause(e);
+            throw connectException;
+        }
+    }
+
+    private Proxy selectProxy() {
+        ProxySelector selector = ProxySelector.getDefault();
+        if (selector == null) {
+            return Proxy.NO_PROXY;
+        }
+        List<Proxy> proxies = selector.select(mUri);
+        return proxies == null || proxies.isEmpty() || proxies.get(0) == null ? Proxy.NO_PROXY : proxies.get(0);
+    }
+
+    /**
+     * 通过 HTTP 代理的 CONNECT 请求建立到 endpoint 的隧道
+     */
+    private void tunnel(Socket socket) throws IOException {
+        String authority = mHost + ":" + mPort;
+        OutputStream out = socket.getOutputStream();
+        out.write(("CONNECT " + authority + " HTTP/1.1\r\nHost: " + authority + "\r\n\r\n").getBytes(ASCII));
+        out.flush();
+        // 直接从 socket 逐字节读取，不能多读 TLS 握手的数据
+        InputStream in = socket.getInputStream();
+        String statusLine = readLine(in);
+        String[] parts = statusLine == null ? new String[0] : statusLine.split(" ", 3);
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+        }
+        if (parts.length < 2 || !parts[1].startsWith("2") || line == null) {
+            throw new IOException("Proxy refused CONNECT to " + authority + " : " + statusLine);
+        }
+    }
+
+    private void writeRequest(Connection conn, RequestBody body) throws IOException {
+        long contentLength = body.contentLength();
+        StringBuilder head = new StringBuilder(128);
+        head.append("POST ").append(conn.mTarget).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(mHostHeader).append("\r\n");
+        head.append("Content-Type: ").append(body.contentType()).append("\r\n");
+        if (body.contentEncoding() != null) {
+            head.append("Content-Encoding: ").append(body.contentEncoding()).append("\r\n");
+        }
+        if (contentLength >= 0) {
+            head.append("Content-Length: ").append(contentLength).append("\r\n");
+        } else {
+            head.append("Transfer-Encoding: chunked\r\n");
+        }
+        head.append("\r\n");
+        OutputStream out = conn.mOut;
+        out.write(head.toString().getBytes(ASCII));
+        if (contentLength >= 0) {
+            body.writeTo(out);
+        } else {
+            ChunkedOutputStream chunked = new ChunkedOutputStream(out, conn.mChunkBuffer);
+            body.writeTo(chunked);
+            chunked.finish();
+        }
+        out.flush();
+    }
+
+    /**
+     * @return 读到的响应，连接在返回任何字节之前就被关闭时为 null
+     */
+    private Response readResponse(Connection conn) throws IOException {
+        ByteBuffer buffer = conn.mReadBuffer;
+        boolean received = buffer.hasRemaining();
+        while (true) {
+            Response response = conn.mParser.parse(buffer);
+            if (response != null) {
+                if (buffer.hasRemaining()) {
+                    // 没有发出的请求的响应，连接的状态已经不可信
+                    return new Response(response.mStatus, response.mBody, false);
+                }
+                return response;
+            }
+            // parse 返回 null 时已经读完了 buffer 中的数据
+            int read = conn.mIn.read(buffer.array(), 0, buffer.capacity());
+            if (read == -1) {
+                buffer.limit(0);
+                response = conn.mParser.finish();
+                if (response != null) {
+                    return response;
+                }
+                if (!received) {
+                    return null;
+                }
+                throw new EOFException("Connection closed while reading response");
+            }
+            buffer.position(0);
+            buffer.limit(read);
+            received = true;
+        }
+    }
+
+    /**
+     * 读取一行 ASCII 文本（不含 CRLF），连接关闭时返回 null
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            SugoConfig.log.warning("fail closed socket :" + e);
+        }
+    }
+
+    /**
+     * 请求体，可能被调用多次 writeTo（复用的连接失效时重试）
+     */
+    interface RequestBody {
+
+        String contentType();
+
+        /**
+         * @return Content-Encoding 头，没有则返回 null
+         */
+        String contentEncoding();
+
+        /**
+         * @return 请求体的字节数，未知则返回 -1（使用 chunked 编码）
+         */
+        long contentLength();
+
+        void writeTo(OutputStream out) throws IOException;
+
+    }
+
+    /**
+     * 把写入的数据按 chunk 写到底层连接，finish() 时写入结束标记，不会关闭底层连接
+     */
+    private static class ChunkedOutputStream extends OutputStream {
+
+        private static final byte[] CRLF = {'\r', '\n'};
+        private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+        private final OutputStream mOut;
+        private final byte[] mBuffer;
+        private int mCount = 0;
+
+        ChunkedOutputStream(OutputStream out, byte[] buffer) {
+            mOut = out;
+            mBuffer = buffer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (mCount == mBuffer.length) {
+                writeChunk();
+            }
+            mBuffer[mCount++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (mCount == mBuffer.length) {
+                    writeChunk();
+                }
+                int n = Math.min(len, mBuffer.length - mCount);
+                System.arraycopy(b, off, mBuffer, mCount, n);
+                mCount += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void writeChunk() throws IOException {
+            if (mCount > 0) {
+                mOut.write(Integer.toHexString(mCount).getBytes(ASCII));
+                mOut.write(CRLF);
+                mOut.write(mBuffer, 0, mCount);
+                mOut.write(CRLF);
+                mCount = 0;
+            }
+        }
+
+        void finish() throws IOException {
+            writeChunk();
+            mOut.write(LAST_CHUNK);
+        }
+
+    }
+
+    static class Response {
+
+        final int mStatus;
+        final String mBody;
+        final boolean mKeepAlive;
+
+        Response(int status, String body, boolean keepAlive) {
+            mStatus = status;
+            mBody = body;
+            mKeepAlive = keepAlive;
+        }
+
+        boolean isSuccessful() {
+            return mStatus / 100 == 2;
+        }
+
+        /**
+         * @return null 如果终端接受了数据（2xx 且响应内容为 "1"），否则是失败的原因
+         */
+        SendFailure failure() {
+            if (!isSuccessful()) {
+                boolean serverError = mStatus >= 500 || mStatus == 408 || mStatus == 429;
+                return serverError ? SendFailure.SERVER_ERROR : SendFailure.CLIENT_ERROR;
+            }
+            return "1".equals(mBody) ? null : SendFailure.REJECTED;
+        }
+
+    }
+
+    private class Connection {
+
+        final Socket mSocket;
+        /**
+         * 请求行中的 request-target
+         */
+        final String mTarget;
+        final InputStream mIn;
+        final OutputStream mOut;
+        final byte[] mChunkBuffer = new byte[SugoConfig.BUFFER_SIZE * 32];
+        final HttpResponseParser mParser = new HttpResponseParser();
+        /**
+         * 从连接读到、还没有解析的数据
+         */
+        final ByteBuffer mReadBuffer = ByteBuffer.allocate(SugoConfig.BUFFER_SIZE * 32);
+        long mLastUsed;
+        boolean mReused = false;
+
+        Connection(Socket socket, String target) throws IOException {
+            mSocket = socket;
+            mTarget = target;
+            mIn = socket.getInputStream();
+            mReadBuffer.limit(0);
+            mOut = new BufferedOutputStream(socket.getOutputStream(), SugoConfig.BUFFER_SIZE * 32);
+            mLastUsed = System.currentTimeMillis();
+        }
+
+        boolean isUsable(long now) {
+            return !mSocket.isClosed() && now - mLastUsed < mIdleTimeoutMillis;
+        }
+
+        void close() {
+            closeQuietly(mSocket);
+        }
+
+    }
+
+}
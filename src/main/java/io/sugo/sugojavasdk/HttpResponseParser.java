@@ -0,0 +1,218 @@
+package io.sugo.sugojavasdk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * 增量解析 HTTP/1.1 响应，数据可以分成任意多段传入，HttpConnectionPool 和非阻塞的 AsyncHttpSender 共用
+ * 支持 Content-Length、chunked 和读到连接关闭为止的响应体，1xx 响应会被跳过
+ */
+class HttpResponseParser {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAX_LINE_LENGTH = 8192;
+    /**
+     * 终端的响应很小，超过该长度的部分不保存
+     */
+    private static final int MAX_BODY_LENGTH = 64 * 1024;
+
+    private enum State {
+        STATUS_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, BODY_UNTIL_CLOSE
+    }
+
+    private State mState = State.STATUS_LINE;
+    private final StringBuilder mLine = new StringBuilder();
+    private final ByteArrayOutputStream mBody = new ByteArrayOutputStream(16);
+    private int mStatus;
+    private boolean mKeepAlive;
+    private long mContentLength;
+    private boolean mChunked;
+    private long mRemaining;
+
+    /**
+     * 解析 in 中的数据，最多解析出一个完整的响应
+     * 一段数据中可能包含多个响应（pipelining），应反复调用直到返回 null
+     *
+     * @return 完整的响应，数据不够时返回 null
+     * @throws IOException 响应格式错误
+     */
+    HttpConnectionPool.Response parse(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            switch (mState) {
+                case BODY:
+                case CHUNK_DATA:
+                    int length = (int) Math.min(mRemaining, in.remaining());
+                    appendBody(in, length);
+                    mRemaining -= length;
+                    if (mRemaining == 0) {
+                        if (mState == State.BODY) {
+                            return complete();
+                        }
+                        mState = State.CHUNK_END;
+                    }
+                    break;
+                case BODY_UNTIL_CLOSE:
+                    appendBody(in, in.remaining());
+                    break;
+                default:
+                    String line = readLine(in);
+                    if (line == null) {
+                        return null;
+                    }
+                    HttpConnectionPool.Response response = onLine(line);
+                    if (response != null) {
+                        return response;
+                    }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 连接被关闭时调用
+     *
+     * @return 以连接关闭为结束的响应，没有这样的响应时为 null
+     */
+    HttpConnectionPool.Response finish() {
+        return mState == State.BODY_UNTIL_CLOSE ? complete() : null;
+    }
+
+    private HttpConnectionPool.Response onLine(String line) throws IOException {
+        switch (mState) {
+            case STATUS_LINE:
+                if (line.length() == 0) {
+                    return null;
+                }
+                String[] parts = line.split(" ", 3);
+                if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                    throw new IOException("Malformed status line: " + line);
+                }
+                try {
+                    mStatus = Integer.parseInt(parts[1]);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed status line: " + line);
+                }
+                mKeepAlive = !"HTTP/1.0".equals(parts[0]);
+                mContentLength = -1;
+                mChunked = false;
+                mState = State.HEADERS;
+                return null;
+            case HEADERS:
+                if (line.length() > 0) {
+                    onHeader(line);
+                    return null;
+                }
+                return onHeadersEnd();
+            case CHUNK_SIZE:
+                int semicolon = line.indexOf(';');
+                String size = (semicolon >= 0 ? line.substring(0, semicolon) : line).trim();
+                try {
+                    mRemaining = Long.parseLong(size, 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed chunk size: " + line);
+                }
+                mState = mRemaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+                return null;
+            case CHUNK_END:
+                if (line.length() != 0) {
+                    throw new IOException("Malformed chunk end: " + line);
+                }
+                mState = State.CHUNK_SIZE;
+                return null;
+            case TRAILERS:
+                return line.length() == 0 ? complete() : null;
+            default:
+                throw new IllegalStateException("Unexpected state: " + mState);
+        }
+    }
+
+    private void onHeader(String line) throws IOException {
+        int colon = line.indexOf(':');
+        if (colon <= 0) {
+            return;
+        }
+        String name = line.substring(0, colon).trim();
+        String value = line.substring(colon + 1).trim();
+        if ("Content-Length".equalsIgnoreCase(name)) {
+            try {
+                mContentLength = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed Content-Length: " + value);
+            }
+        } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+            mChunked = value.toLowerCase().contains("chunked");
+        } else if ("Connection".equalsIgnoreCase(name)) {
+            if ("close".equalsIgnoreCase(value)) {
+                mKeepAlive = false;
+            } else if ("keep-alive".equalsIgnoreCase(value)) {
+                mKeepAlive = true;
+            }
+        }
+    }
+
+    private HttpConnectionPool.Response onHeadersEnd() {
+        if (mStatus / 100 == 1) {
+            // 100 Continue 等，后面还有真正的响应
+            mState = State.STATUS_LINE;
+            return null;
+        }
+        if (mStatus == 204 || mStatus == 304) {
+            return complete();
+        }
+        if (mChunked) {
+            mState = State.CHUNK_SIZE;
+        } else if (mContentLength >= 0) {
+            if (mContentLength == 0) {
+                return complete();
+            }
+            mRemaining = mContentLength;
+            mState = State.BODY;
+        } else {
+            mKeepAlive = false;
+            mState = State.BODY_UNTIL_CLOSE;
+        }
+        return null;
+    }
+
+    private HttpConnectionPool.Response complete() {
+        HttpConnectionPool.Response response =
+                new HttpConnectionPool.Response(mStatus, new String(mBody.toByteArray(), UTF8), mKeepAlive);
+        mBody.reset();
+        mState = State.STATUS_LINE;
+        return response;
+    }
+
+    private void appendBody(ByteBuffer in, int length) {
+        int keep = Math.max(0, Math.min(length, MAX_BODY_LENGTH - mBody.size()));
+        for (int i = 0; i < keep; i++) {
+            mBody.write(in.get());
+        }
+        in.position(in.position() + length - keep);
+    }
+
+    /**
+     * @return 一行（不含换行符），数据不够一行时为 null
+     */
+    private String readLine(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            char c = (char) (in.get() & 0xff);
+            if (c == '\n') {
+                int length = mLine.length();
+                if (length > 0 && mLine.charAt(length - 1) == '\r') {
+                    mLine.setLength(length - 1);
+                }
+                String line = mLine.toString();
+                mLine.setLength(0);
+                return line;
+            }
+            if (mLine.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("Response line too long");
+            }
+            mLine.append(c);
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,75 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONObject;
+
+/**
+ * 由 EventWriter 写成的 JSON 数组
+ */
+class JsonCodec implements BatchCodec {
+
+    @Override
+    public String getContentType() {
+        return "application/json;charset=utf-8";
+    }
+
+    @Override
+    public BatchWriter newWriter() {
+        return new Writer();
+    }
+
+    @Override
+    public String toString() {
+        return "JSON";
+    }
+
+    private static class Writer implements BatchWriter {
+
+        private final EventWriter mWriter = new EventWriter();
+        private int mMark = -1;
+
+        @Override
+        public void begin() {
+            mWriter.reset();
+            mWriter.beginArray();
+            mMark = -1;
+        }
+
+        @Override
+        public void write(JSONObject message) {
+            mMark = mWriter.size();
+            mWriter.writeMessage(message);
+        }
+
+        @Override
+        public void undoLast() {
+            if (mMark < 0) {
+                throw new IllegalStateException("Nothing to undo");
+            }
+            // mMark 为 1 时撤销的是数组的第一个元素
+            mWriter.truncate(mMark, mMark > 1);
+            mMark = -1;
+        }
+
+        @Override
+        public void end() {
+            mWriter.endArray();
+        }
+
+        @Override
+        public int size() {
+            return mWriter.size();
+        }
+
+        @Override
+        public byte[] buffer() {
+            return mWriter.buffer();
+        }
+
+        @Override
+        public String toString() {
+            return mWriter.toString();
+        }
+
+    }
+
+}
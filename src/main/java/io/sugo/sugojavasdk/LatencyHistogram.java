@@ -0,0 +1,84 @@
+package io.sugo.sugojavasdk;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 记录耗时（纳秒）的直方图，桶的划分方式和 HdrHistogram 类似：
+ * 0 ~ 63 纳秒每纳秒一个桶，之后每个 2 的幂区间平分为 32 个桶，相对误差不超过 1/32
+ * 记录一次只需要一次原子自增，桶的数组在创建时分配，最大可记录约 1100 秒
+ * 和 StripedCounter 一样按线程分段，每段一组完整的桶，snapshot 时按桶相加
+ */
+class LatencyHistogram {
+
+    private static final int LINEAR_BITS = 6;
+    private static final int LINEAR_COUNT = 1 << LINEAR_BITS;
+    private static final int HALF_COUNT = LINEAR_COUNT / 2;
+    private static final int MAX_BITS = 40;
+    static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+    static final int BUCKET_COUNT = index(MAX_VALUE) + 1;
+    /**
+     * 每段约 9KB，段数不超过 8
+     */
+    private static final int MAX_STRIPES = 8;
+
+    private final AtomicLongArray mCounts;
+    private final int mMask;
+    private final StripedCounter mTotal = new StripedCounter();
+    private final AtomicLong mMax = new AtomicLong();
+
+    LatencyHistogram() {
+        int stripes = StripedCounter.stripes(MAX_STRIPES);
+        mCounts = new AtomicLongArray(stripes * BUCKET_COUNT);
+        mMask = stripes - 1;
+    }
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        } else if (nanos > MAX_VALUE) {
+            nanos = MAX_VALUE;
+        }
+        int index = index(nanos);
+        int cell = (StripedCounter.probe() & mMask) * BUCKET_COUNT + index;
+        long count = mCounts.get(cell);
+        if (!mCounts.compareAndSet(cell, count, count + 1)) {
+            mCounts.getAndIncrement((StripedCounter.rehash() & mMask) * BUCKET_COUNT + index);
+        }
+        mTotal.add(nanos);
+        long max = mMax.get();
+        while (nanos > max && !mMax.compareAndSet(max, nanos)) {
+            max = mMax.get();
+        }
+    }
+
+    LatencySnapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < mCounts.length(); i++) {
+            counts[i % BUCKET_COUNT] += mCounts.get(i);
+        }
+        return new LatencySnapshot(counts, mTotal.sum(), mMax.get());
+    }
+
+    static int index(long value) {
+        if (value < LINEAR_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (LINEAR_BITS - 1);
+        return LINEAR_COUNT + (shift - 1) * HALF_COUNT + (int) ((value >>> shift) - HALF_COUNT);
+    }
+
+    /**
+     * @return 落在 index 这个桶里的最大值
+     */
+    static long highestValue(int index) {
+        if (index < LINEAR_COUNT) {
+            return index;
+        }
+        int k = index - LINEAR_COUNT;
+        int shift = k / HALF_COUNT + 1;
+        long sub = k % HALF_COUNT + HALF_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+
+}
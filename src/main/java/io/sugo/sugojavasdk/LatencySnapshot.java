@@ -0,0 +1,75 @@
+package io.sugo.sugojavasdk;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 某一时刻耗时直方图的副本，数值的单位都是纳秒
+ */
+public class LatencySnapshot {
+
+    private final long[] mCounts;
+    private final long mCount;
+    private final long mTotal;
+    private final long mMax;
+
+    LatencySnapshot(long[] counts, long total, long max) {
+        mCounts = counts;
+        long count = 0;
+        for (long c : counts) {
+            count += c;
+        }
+        mCount = count;
+        mTotal = total;
+        mMax = max;
+    }
+
+    /**
+     * @return 记录的次数
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getMaxNanos() {
+        return mMax;
+    }
+
+    public double getMeanNanos() {
+        return mCount == 0 ? 0 : (double) mTotal / mCount;
+    }
+
+    /**
+     * @param percentile 0 ~ 100，例如 99.9
+     * @return 不超过该百分位的最大耗时（按桶的上界，相对误差不超过 1/32）
+     */
+    public long getPercentileNanos(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * mCount);
+        rank = Math.max(1, rank);
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.highestValue(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + mCount
+                + ", mean=" + micros((long) getMeanNanos())
+                + ", p50=" + micros(getPercentileNanos(50))
+                + ", p99=" + micros(getPercentileNanos(99))
+                + ", p99.9=" + micros(getPercentileNanos(99.9))
+                + ", max=" + micros(mMax);
+    }
+
+    private static String micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+    }
+
+}
@@ -0,0 +1,261 @@
+package io.sugo.sugojavasdk;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 发送到本机采集 agent 的 Sender 的公共部分，见 UnixSocketSender 和 UdpSender
+ * 数据按 UTF-8 原样写出，不经过 HTTP、Base64 和 URL 编码，也不等待 agent 的响应。
+ * 连接失败或写入失败后认为 agent 不可用，reconnectMillis 内的数据直接交给 fallback（例如 FileSender），
+ * 之后的第一次发送重新连接；没有 fallback 时 sendData 返回 false，可以用 SpoolingSender 包装以写入磁盘并稍后重发
+ * 一批数据只写出了一部分时（见 UdpSender），只有没写出的部分交给 fallback；没有 fallback 或者 fallback 失败时返回 false，
+ * 重发整批数据会重复已经写出的部分
+ */
+abstract class LocalAgentSender implements SugoAPI.ClassifyingSender, SugoAPI.AcknowledgingSender, MetricsAware,
+        Closeable, Flushable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String mName;
+    private final SugoAPI.Sender mFallback;
+    private final long mReconnectNanos;
+    private final ThreadLocal<SendFailure> mLastFailure = new ThreadLocal<SendFailure>();
+    private final ThreadLocal<SendOutcome> mLastOutcome = new ThreadLocal<SendOutcome>();
+    private volatile Metrics mMetrics;
+    /**
+     * 保护连接和 mBuffer，同一时间只有一个线程写出
+     */
+    private final Object mLock = new Object();
+    private byte[] mBuffer = new byte[8192];
+    private boolean mAvailable = true;
+    private long mNextConnectAt;
+    private boolean mClosed = false;
+
+    /**
+     * @param name            agent 的地址，用于日志
+     * @param fallback        agent 不可用时接收数据的 Sender，可以为 null
+     * @param reconnectMillis agent 不可用后多久再尝试连接
+     */
+    LocalAgentSender(String name, SugoAPI.Sender fallback, long reconnectMillis) {
+        if (reconnectMillis < 0) {
+            throw new IllegalArgumentException("reconnectMillis can not be negative");
+        }
+        mName = name;
+        mFallback = fallback;
+        mReconnectNanos = TimeUnit.MILLISECONDS.toNanos(reconnectMillis);
+        mNextConnectAt = System.nanoTime();
+    }
+
+    /**
+     * @return true 如果已经连接（或者对无连接的协议，已经打开了 channel）
+     */
+    abstract boolean isConnected();
+
+    abstract void connect() throws IOException;
+
+    /**
+     * 关闭当前连接，不抛出异常
+     */
+    abstract void disconnect();
+
+    /**
+     * @param contentType 数据的编码方式，JSON 为 JsonCodec#getContentType()
+     */
+    abstract void write(byte[] data, int offset, int length, String contentType) throws IOException;
+
+    /**
+     * 调用者持有 mLock，在 send 之后调用
+     *
+     * @return 上一次 write 只写出了一部分时，没有写出的 event 组成的 JSON 数组；全部写出或者完全没有写出时为 null
+     */
+    byte[] unsent() {
+        return null;
+    }
+
+    boolean hasFallback() {
+        return mFallback != null;
+    }
+
+    Metrics metrics() {
+        return mMetrics;
+    }
+
+    @Override
+    public boolean sendData(String dataString) {
+        mLastFailure.remove();
+        mLastOutcome.remove();
+        if (dataString == null) {
+            return false;
+        }
+        SendFailure failure;
+        byte[] unsent;
+        int length;
+        synchronized (mLock) {
+            length = Utf8.length(dataString);
+            if (mBuffer.length < length) {
+                mBuffer = new byte[Math.max(length, mBuffer.length * 2)];
+            }
+            Utf8.write(dataString, mBuffer, 0);
+            failure = send(mBuffer, 0, length, BatchCodec.JSON.getContentType());
+            unsent = unsent();
+            if (mBuffer.length > SugoConfig.MAX_RETAINED_FORM_BUFFER_BYTES) {
+                mBuffer = new byte[8192];
+            }
+        }
+        if (unsent != null) {
+            return partiallySent(length - unsent.length, unsent, failure);
+        }
+        if (failure == null) {
+            return accepted(length);
+        }
+        return failure != SendFailure.CLOSED && mFallback != null
+                ? fallback(mFallback.sendData(dataString)) : fail(failure);
+    }
+
+    /**
+     * 供实现了 BinarySender 的子类使用，fallback 没有实现 BinarySender 时不能交给 fallback
+     */
+    boolean sendBinaryData(byte[] data, int offset, int length, String contentType) {
+        mLastFailure.remove();
+        mLastOutcome.remove();
+        SendFailure failure;
+        synchronized (mLock) {
+            failure = send(data, offset, length, contentType);
+        }
+        if (failure == null) {
+            return accepted(length);
+        }
+        return failure != SendFailure.CLOSED && mFallback instanceof SugoAPI.BinarySender
+                ? fallback(((SugoAPI.BinarySender) mFallback).sendBinary(data, offset, length, contentType))
+                : fail(failure);
+    }
+
+    /**
+     * 调用者持有 mLock
+     *
+     * @return null 如果已写出
+     */
+    private SendFailure send(byte[] data, int offset, int length, String contentType) {
+        if (mClosed) {
+            return SendFailure.CLOSED;
+        }
+        if (!isConnected()) {
+            if (System.nanoTime() - mNextConnectAt < 0) {
+                return SendFailure.CONNECT;
+            }
+            try {
+                connect();
+            } catch (IOException e) {
+                disconnect();
+                return unavailable(SendFailure.CONNECT, e);
+            }
+        }
+        try {
+            write(data, offset, length, contentType);
+        } catch (SocketTimeoutException e) {
+            disconnect();
+            return unavailable(SendFailure.TIMEOUT, e);
+        } catch (IOException e) {
+            disconnect();
+            return unavailable(SendFailure.NETWORK, e);
+        }
+        if (!mAvailable) {
+            mAvailable = true;
+            SugoConfig.log.warning("Local agent at " + mName + " is available again");
+        }
+        return null;
+    }
+
+    private SendFailure unavailable(SendFailure failure, IOException e) {
+        mNextConnectAt = System.nanoTime() + mReconnectNanos;
+        if (mAvailable) {
+            mAvailable = false;
+            SugoConfig.log.warning("fail send data to local agent at " + mName + " :" + e
+                    + (mFallback != null ? ", using fallback" : ""));
+        }
+        return failure;
+    }
+
+    private boolean accepted(int bytes) {
+        Metrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.recordEncodedBytes(bytes);
+        }
+        mLastOutcome.set(SendOutcome.ACCEPTED);
+        return true;
+    }
+
+    /**
+     * 没有写出的部分交给 fallback；没有 fallback 时返回 false，原因是写出失败的原因
+     * 没有 fallback 时子类不应把可以丢弃的数据（例如超过上限的 event）算作没有写出
+     */
+    private boolean partiallySent(int written, byte[] unsent, SendFailure failure) {
+        Metrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.recordEncodedBytes(written);
+        }
+        if (mFallback != null) {
+            return fallback(mFallback.sendData(new String(unsent, UTF8)));
+        }
+        return fail(failure != null ? failure : SendFailure.UNKNOWN);
+    }
+
+    private boolean fallback(boolean sent) {
+        if (sent) {
+            mLastOutcome.set(SendOutcome.SPOOLED);
+            return true;
+        }
+        return fail(SugoAPI.lastFailure(mFallback));
+    }
+
+    private boolean fail(SendFailure failure) {
+        mLastFailure.set(failure);
+        return false;
+    }
+
+    /**
+     * @return 当前线程上一次 sendData 失败的原因，agent 不可用时为 CONNECT、TIMEOUT 或 NETWORK，交给 fallback 也失败时为 fallback 给出的原因
+     */
+    @Override
+    public SendFailure getLastFailure() {
+        return mLastFailure.get();
+    }
+
+    /**
+     * @return 当前线程上一次 sendData 成功时的结果，写给了 agent 时为 ACCEPTED，交给了 fallback 时为 SPOOLED
+     */
+    @Override
+    public SendOutcome getLastOutcome() {
+        return mLastOutcome.get();
+    }
+
+    @Override
+    public void setMetrics(Metrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * 转发给 fallback（实现了 Flushable 时）
+     */
+    @Override
+    public void flush() throws IOException {
+        SenderDecorator.flush(mFallback);
+    }
+
+    /**
+     * 关闭连接和 fallback（实现了 Closeable 时），之后的 sendData 都会返回 false
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (mLock) {
+            mClosed = true;
+            disconnect();
+        }
+        SenderDecorator.close(mFallback);
+    }
+
+}
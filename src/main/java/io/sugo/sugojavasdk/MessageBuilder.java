@@ -1,25 +1,107 @@
 package io.sugo.sugojavasdk;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * 这个类是给 SugoAPI 发送的 message 事件创建适当形式的 JSONObjects（生产数据）
  * 这个类的实例可以单独实例化，和 SugoAPI 的对象分开
  * 因此这些 message 可以从适当的队列中得到，或者通过本地网络发送
+ * super properties 会加到每一条 event 中，按 event 名称注册的模板只加到同名的 event 中，
+ * 同名属性的优先级为：event 自己的属性 > 模板 > super properties
  *
  * @author root
  */
 public class MessageBuilder {
 
-    private final String mToken;
+    /**
+     * setEventIds(true) 时每条 event 带有的唯一 id
+     */
+    public static final String EVENT_ID_PROPERTY = "event_id";
+
+    private volatile EventIdGenerator mEventIds;
+    private volatile EventTemplate mSuperProperties;
+    /**
+     * 注册的模板（不含 super properties）
+     */
+    private final Map<String, EventTemplate> mTemplates = new HashMap<String, EventTemplate>();
+    /**
+     * event 名称 -> 合并了 super properties 的模板，注册或修改时重新生成
+     */
+    private final ConcurrentHashMap<String, EventTemplate> mMerged = new ConcurrentHashMap<String, EventTemplate>();
 
     public MessageBuilder() {
-        mToken = null;
     }
 
+    /**
+     * @param token 未使用，保留该构造函数只为兼容
+     */
     public MessageBuilder(String token) {
-        mToken = token;
+    }
+
+    /**
+     * 为每条 event 生成按时间排序的唯一 id（event_id 属性，26 个字符，格式同 ULID），properties 中已有 event_id 时不覆盖
+     * 配合 DedupSender 使用，重试或重放的数据中已经确认过的 event 不会再次发送
+     */
+    public MessageBuilder setEventIds(boolean enabled) {
+        mEventIds = enabled ? new EventIdGenerator() : null;
+        return this;
+    }
+
+    /**
+     * 设置加到每一条 event 中的属性，替换之前设置的属性
+     *
+     * @param properties 为 null 时清除，不能包含 event、time、distinct_id 和 event_id
+     */
+    public synchronized MessageBuilder setSuperProperties(JSONObject properties) {
+        mSuperProperties = properties == null || properties.length() == 0 ? null : new EventTemplate(properties);
+        mMerged.clear();
+        for (Map.Entry<String, EventTemplate> entry : mTemplates.entrySet()) {
+            mMerged.put(entry.getKey(), entry.getValue().over(mSuperProperties));
+        }
+        return this;
+    }
+
+    /**
+     * @return super properties 的副本，没有时为空
+     */
+    public JSONObject getSuperProperties() {
+        EventTemplate superProperties = mSuperProperties;
+        return superProperties == null ? new JSONObject() : superProperties.getProperties();
+    }
+
+    /**
+     * 为名称为 eventName 的 event 注册模板，替换之前注册的模板
+     *
+     * @param properties 不能包含 event、time、distinct_id 和 event_id
+     */
+    public synchronized MessageBuilder registerTemplate(String eventName, JSONObject properties) {
+        if (eventName == null) {
+            throw new IllegalArgumentException("eventName can not be null");
+        }
+        EventTemplate template = new EventTemplate(properties);
+        mTemplates.put(eventName, template);
+        mMerged.put(eventName, template.over(mSuperProperties));
+        return this;
+    }
+
+    public synchronized MessageBuilder unregisterTemplate(String eventName) {
+        mTemplates.remove(eventName);
+        mMerged.remove(eventName);
+        return this;
+    }
+
+    /**
+     * @return 名称为 eventName 的 event 要加上的属性，没有时为 null
+     */
+    EventTemplate template(String eventName) {
+        EventTemplate template = mMerged.isEmpty() ? null : mMerged.get(eventName);
+        return template != null ? template : mSuperProperties;
     }
 
     public JSONObject event(String eventName, JSONObject properties) {
@@ -43,28 +125,87 @@ public class MessageBuilder {
 
         // Nothing below should EVER throw a JSONException.
         try {
-
-            JSONObject propertiesObj = null;
-            if (properties == null) {
-                propertiesObj = new JSONObject();
-            } else {
-                propertiesObj = new JSONObject(properties.toString());
-            }
-            if (!propertiesObj.has("time")) {
-                propertiesObj.put("time", time);
+            // 逐层复制 properties（不经过 toString 再解析），调用者之后修改 properties 不会影响 message
+            JSONObject dataObj = properties == null ? new JSONObject() : copyObject(properties);
+            EventTemplate template = template(eventName);
+            if (template != null) {
+                JSONObject templateProperties = template.properties();
+                for (String key : templateProperties.keySet()) {
+                    if (!dataObj.has(key)) {
+                        dataObj.put(key, copyValue(templateProperties.opt(key)));
+                    }
+                }
             }
+            return complete(dataObj, distinctId, eventName, time);
+        } catch (JSONException e) {
+            throw new RuntimeException("Can't construct a Sugo message", e);
+        }
+    }
 
-            if (distinctId != null) {
-                propertiesObj.put("distinct_id", distinctId);
+    /**
+     * 和 event 相同，但模板中的属性不复制到 message 中，由 EventWriter 写入时拼接预先序列化的字节
+     * 只能用 EventWriter#writeMessage 序列化，properties 和模板有同名属性时返回完整的 message
+     */
+    JSONObject templatedEvent(String distinctId, String eventName, JSONObject properties) {
+        EventTemplate template = template(eventName);
+        if (template == null || template.overlaps(properties)) {
+            return event(distinctId, eventName, properties);
+        }
+        long time = System.currentTimeMillis();
+        try {
+            JSONObject dataObj = new TemplatedMessage(template);
+            if (properties != null) {
+                for (String key : properties.keySet()) {
+                    dataObj.put(key, copyValue(properties.opt(key)));
+                }
             }
-
-            JSONObject dataObj = new JSONObject(propertiesObj.toString());
-            dataObj.put("event", eventName);
-
-            return dataObj;
+            return complete(dataObj, distinctId, eventName, time);
         } catch (JSONException e) {
             throw new RuntimeException("Can't construct a Sugo message", e);
         }
     }
 
+    private JSONObject complete(JSONObject dataObj, String distinctId, String eventName, long time) {
+        if (!dataObj.has("time")) {
+            dataObj.put("time", time);
+        }
+
+        EventIdGenerator eventIds = mEventIds;
+        if (eventIds != null && !dataObj.has(EVENT_ID_PROPERTY)) {
+            dataObj.put(EVENT_ID_PROPERTY, eventIds.next(time));
+        }
+
+        if (distinctId != null) {
+            dataObj.put("distinct_id", distinctId);
+        }
+
+        dataObj.put("event", eventName);
+
+        return dataObj;
+    }
+
+    static JSONObject copyObject(JSONObject source) {
+        JSONObject copy = new JSONObject();
+        for (String key : source.keySet()) {
+            copy.put(key, copyValue(source.opt(key)));
+        }
+        return copy;
+    }
+
+    private static Object copyValue(Object value) {
+        if (value instanceof JSONObject) {
+            return copyObject((JSONObject) value);
+        }
+        if (value instanceof JSONArray) {
+            JSONArray source = (JSONArray) value;
+            JSONArray copy = new JSONArray();
+            for (int i = 0, length = source.length(); i < length; i++) {
+                copy.put(copyValue(source.opt(i)));
+            }
+            return copy;
+        }
+        // String、Number、Boolean 等不可变的值直接复用
+        return value;
+    }
+
 }
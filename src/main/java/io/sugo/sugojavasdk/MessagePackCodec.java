@@ -0,0 +1,23 @@
+package io.sugo.sugojavasdk;
+
+/**
+ * MessagePack 数组，见 MessagePackWriter
+ */
+class MessagePackCodec implements BatchCodec {
+
+    @Override
+    public String getContentType() {
+        return "application/x-msgpack";
+    }
+
+    @Override
+    public BatchWriter newWriter() {
+        return new MessagePackWriter();
+    }
+
+    @Override
+    public String toString() {
+        return "MESSAGE_PACK";
+    }
+
+}
@@ -0,0 +1,280 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONString;
+import org.json.JSONTokener;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 把一批 message 写成 MessagePack：array 32 头（写完后回填条数），每条 message 是一个 map
+ * 值的对应关系与 EventWriter 相同：整数使用最短的 int 编码，整数值的 double 和 JSON 一样写成整数，NaN 和无穷写成 nil，
+ * 超出 long 范围的 BigInteger 和 BigDecimal 写成 float 64
+ * 模板中的属性按模板预先编码的字节拼接，见 EventTemplate#messagePackFragment()
+ */
+class MessagePackWriter implements BatchWriter {
+
+    private static final int ARRAY32 = 0xdd;
+    private static final int HEADER_SIZE = 5;
+
+    private byte[] mBuffer;
+    private int mCount = 0;
+    private int mEvents = 0;
+    private int mMark = -1;
+
+    MessagePackWriter() {
+        this(SugoConfig.BUFFER_SIZE * 16);
+    }
+
+    MessagePackWriter(int initialCapacity) {
+        mBuffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    @Override
+    public void begin() {
+        mCount = 0;
+        mEvents = 0;
+        mMark = -1;
+        writeByte(ARRAY32);
+        writeInt(0);
+    }
+
+    @Override
+    public void write(JSONObject message) {
+        mMark = mCount;
+        if (message instanceof TemplatedMessage) {
+            EventTemplate template = ((TemplatedMessage) message).template();
+            writeMapHeader(message.length() + template.properties().length());
+            writeEntries(message);
+            writeBytes(template.messagePackFragment());
+        } else {
+            writeObject(message);
+        }
+        mEvents++;
+    }
+
+    @Override
+    public void undoLast() {
+        if (mMark < 0) {
+            throw new IllegalStateException("Nothing to undo");
+        }
+        mCount = mMark;
+        mEvents--;
+        mMark = -1;
+    }
+
+    @Override
+    public void end() {
+        if (mCount < HEADER_SIZE) {
+            throw new IllegalStateException("begin() was not called");
+        }
+        putInt(1, mEvents);
+    }
+
+    @Override
+    public int size() {
+        return mCount;
+    }
+
+    @Override
+    public byte[] buffer() {
+        return mBuffer;
+    }
+
+    /**
+     * @return properties 的键值对编码后的字节，不含 map 头，用于拼接到 message 的 map 中
+     */
+    static byte[] entries(JSONObject properties) {
+        MessagePackWriter writer = new MessagePackWriter(SugoConfig.BUFFER_SIZE);
+        writer.writeEntries(properties);
+        return Arrays.copyOf(writer.mBuffer, writer.mCount);
+    }
+
+    /************************************************************/
+
+    private void writeObject(JSONObject object) {
+        writeMapHeader(object.length());
+        writeEntries(object);
+    }
+
+    private void writeEntries(JSONObject object) {
+        for (String key : object.keySet()) {
+            writeString(key);
+            writeValue(object.opt(key));
+        }
+    }
+
+    private void writeArray(JSONArray array) {
+        int length = array.length();
+        if (length < 16) {
+            writeByte(0x90 | length);
+        } else if (length < 0x10000) {
+            writeByte(0xdc);
+            writeShort(length);
+        } else {
+            writeByte(0xdd);
+            writeInt(length);
+        }
+        for (int i = 0; i < length; i++) {
+            writeValue(array.opt(i));
+        }
+    }
+
+    private void writeMapHeader(int size) {
+        if (size < 16) {
+            writeByte(0x80 | size);
+        } else if (size < 0x10000) {
+            writeByte(0xde);
+            writeShort(size);
+        } else {
+            writeByte(0xdf);
+            writeInt(size);
+        }
+    }
+
+    private void writeValue(Object value) {
+        if (value == null || JSONObject.NULL.equals(value)) {
+            writeByte(0xc0);
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writeLong(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+            writeLong(((BigInteger) value).longValue());
+        } else if (value instanceof BigInteger || value instanceof BigDecimal || value instanceof Number) {
+            writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            writeByte((Boolean) value ? 0xc3 : 0xc2);
+        } else if (value instanceof JSONObject) {
+            writeObject((JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            writeArray((JSONArray) value);
+        } else if (value instanceof JSONString) {
+            writeValue(new JSONTokener(((JSONString) value).toJSONString()).nextValue());
+        } else if (value instanceof Enum) {
+            writeString(((Enum<?>) value).name());
+        } else if (value instanceof Map || value instanceof Collection || value.getClass().isArray()) {
+            writeValue(JSONObject.wrap(value));
+        } else {
+            writeString(value.toString());
+        }
+    }
+
+    private void writeLong(long value) {
+        if (value >= 0) {
+            if (value < 0x80) {
+                writeByte((int) value);
+            } else if (value < 0x100) {
+                writeByte(0xcc);
+                writeByte((int) value);
+            } else if (value < 0x10000) {
+                writeByte(0xcd);
+                writeShort((int) value);
+            } else if (value < 0x100000000L) {
+                writeByte(0xce);
+                writeInt((int) value);
+            } else {
+                writeByte(0xcf);
+                writeLong64(value);
+            }
+        } else if (value >= -32) {
+            writeByte((int) value & 0xff);
+        } else if (value >= Byte.MIN_VALUE) {
+            writeByte(0xd0);
+            writeByte((int) value & 0xff);
+        } else if (value >= Short.MIN_VALUE) {
+            writeByte(0xd1);
+            writeShort((int) value);
+        } else if (value >= Integer.MIN_VALUE) {
+            writeByte(0xd2);
+            writeInt((int) value);
+        } else {
+            writeByte(0xd3);
+            writeLong64(value);
+        }
+    }
+
+    private void writeDouble(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writeByte(0xc0);
+        } else if (value == (long) value && Math.abs(value) < 1e15) {
+            writeLong((long) value);
+        } else {
+            writeByte(0xcb);
+            writeLong64(Double.doubleToLongBits(value));
+        }
+    }
+
+    private void writeString(String value) {
+        int length = Utf8.length(value);
+        if (length < 32) {
+            ensureCapacity(1 + length);
+            mBuffer[mCount++] = (byte) (0xa0 | length);
+        } else if (length < 0x100) {
+            ensureCapacity(2 + length);
+            mBuffer[mCount++] = (byte) 0xd9;
+            mBuffer[mCount++] = (byte) length;
+        } else if (length < 0x10000) {
+            ensureCapacity(3 + length);
+            writeByte(0xda);
+            writeShort(length);
+        } else {
+            ensureCapacity(5 + length);
+            writeByte(0xdb);
+            writeInt(length);
+        }
+        mCount = Utf8.write(value, mBuffer, mCount);
+    }
+
+    private void writeShort(int value) {
+        ensureCapacity(2);
+        mBuffer[mCount++] = (byte) (value >>> 8);
+        mBuffer[mCount++] = (byte) value;
+    }
+
+    private void writeInt(int value) {
+        ensureCapacity(4);
+        putInt(mCount, value);
+        mCount += 4;
+    }
+
+    private void putInt(int pos, int value) {
+        mBuffer[pos] = (byte) (value >>> 24);
+        mBuffer[pos + 1] = (byte) (value >>> 16);
+        mBuffer[pos + 2] = (byte) (value >>> 8);
+        mBuffer[pos + 3] = (byte) value;
+    }
+
+    private void writeLong64(long value) {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            mBuffer[mCount++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, mBuffer, mCount, bytes.length);
+        mCount += bytes.length;
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        mBuffer[mCount++] = (byte) b;
+    }
+
+    private void ensureCapacity(int extra) {
+        int required = mCount + extra;
+        if (required > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(required, mBuffer.length * 2));
+        }
+    }
+
+}
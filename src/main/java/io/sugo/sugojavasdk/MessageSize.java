@@ -0,0 +1,63 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * 粗略估计 message 在堆上占用的字节数，用于 WorkerConfig#setMemoryBudgetBytes(long)
+ * 队列中的 message 不会被修改，放入和取出队列时分别估计，结果相同
+ */
+final class MessageSize {
+
+    private static final int OBJECT = 16;
+    private static final int STRING = 40;
+    private static final int MAP = 64;
+    private static final int MAP_ENTRY = 40;
+    private static final int LIST = 40;
+    private static final int MAX_DEPTH = 32;
+
+    private MessageSize() {
+    }
+
+    static long estimate(Object value) {
+        return estimate(value, 0);
+    }
+
+    private static long estimate(Object value, int depth) {
+        if (value == null || value == JSONObject.NULL || value instanceof Boolean) {
+            // 共享的实例
+            return 0;
+        }
+        if (value instanceof String) {
+            return string((String) value);
+        }
+        if (value instanceof Number) {
+            return OBJECT + 8;
+        }
+        if (depth >= MAX_DEPTH) {
+            return OBJECT;
+        }
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            long size = OBJECT + MAP;
+            for (String key : object.keySet()) {
+                size += MAP_ENTRY + string(key) + estimate(object.opt(key), depth + 1);
+            }
+            return size;
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            long size = OBJECT + LIST;
+            for (int i = 0; i < array.length(); i++) {
+                size += 8 + estimate(array.opt(i), depth + 1);
+            }
+            return size;
+        }
+        return OBJECT * 2;
+    }
+
+    private static long string(String value) {
+        return STRING + value.length() * 2L;
+    }
+
+}
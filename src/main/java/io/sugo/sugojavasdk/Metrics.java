@@ -0,0 +1,272 @@
+package io.sugo.sugojavasdk;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个 SugoAPI 实例的统计数据，计数器都是分段的，记录时不会在线程之间产生竞争
+ * 同时也是注册到 JMX 的 MXBean
+ */
+class Metrics implements SugoAPIMetricsMXBean {
+
+    private final StripedCounter mEventsAccepted = new StripedCounter();
+    private final StripedCounter mEventsSent = new StripedCounter();
+    private final StripedCounter mEventsDropped = new StripedCounter();
+    private final StripedCounter mEventsShed = new StripedCounter();
+    private final StripedCounter mEventsSampledOut = new StripedCounter();
+    private final StripedCounter mEventsAggregated = new StripedCounter();
+    private final StripedCounter mEventsDeduplicated = new StripedCounter();
+    private final StripedCounter mEventsFailed = new StripedCounter();
+    private final StripedCounter mEventsAbandoned = new StripedCounter();
+    private final StripedCounter mBatchesSent = new StripedCounter();
+    private final StripedCounter mBatchesFailed = new StripedCounter();
+    private final StripedCounter mRetries = new StripedCounter();
+    private final StripedCounter mPayloadBytes = new StripedCounter();
+    private final StripedCounter mBytesAfterEncoding = new StripedCounter();
+    private final LatencyHistogram mSendLatency = new LatencyHistogram();
+    /**
+     * JMX 的耗时属性共用的直方图副本，见 latency()
+     */
+    private volatile LatencySnapshot mLatency;
+    private volatile long mLatencyNanos;
+    private static final long LATENCY_CACHE_NANOS = TimeUnit.MILLISECONDS.toNanos(SugoConfig.METRICS_LATENCY_CACHE_MILLIS);
+    private volatile RingBuffer<?>[] mQueues;
+    private volatile AtomicLong mQueueBytes;
+
+    /**
+     * @param queues     worker 的队列，分片时每个分片一个
+     * @param queueBytes 队列中 message 估计占用的字节数
+     */
+    void setQueues(RingBuffer<?>[] queues, AtomicLong queueBytes) {
+        mQueues = queues;
+        mQueueBytes = queueBytes;
+    }
+
+    void recordAccepted() {
+        mEventsAccepted.increment();
+    }
+
+    void recordDropped() {
+        mEventsDropped.increment();
+    }
+
+    void recordDropped(int events) {
+        mEventsDropped.add(events);
+    }
+
+    void recordShed() {
+        mEventsShed.increment();
+    }
+
+    void recordSampledOut() {
+        mEventsSampledOut.increment();
+    }
+
+    void recordAggregated() {
+        mEventsAggregated.increment();
+    }
+
+    /**
+     * 关闭时超过等待时间仍未发送完成的 event
+     */
+    void recordAbandoned(long events) {
+        mEventsAbandoned.add(events);
+    }
+
+    /**
+     * 由 DedupSender 调用，记录没有再次发送的重复 event
+     */
+    void recordDeduplicated(int events) {
+        mEventsDeduplicated.add(events);
+    }
+
+    /**
+     * 记录一次 Sender.sendData 调用
+     *
+     * @param events 这一批的 event 数量
+     * @param bytes  这一批交给 Sender 的数据的字节数（JSON 或 BatchCodec 编码后的二进制）
+     * @param nanos  sendData 的耗时
+     * @param sent   sendData 是否成功
+     */
+    void recordBatch(int events, long bytes, long nanos, boolean sent) {
+        mSendLatency.record(nanos);
+        mPayloadBytes.add(bytes);
+        if (sent) {
+            mEventsSent.add(events);
+            mBatchesSent.increment();
+        } else {
+            mEventsFailed.add(events);
+            mBatchesFailed.increment();
+        }
+    }
+
+    /**
+     * 由 RetryingSender 调用，记录一次重试
+     */
+    void recordRetry() {
+        mRetries.increment();
+    }
+
+    /**
+     * 由 Sender 调用，记录实际写出的字节数
+     */
+    void recordEncodedBytes(long bytes) {
+        mBytesAfterEncoding.add(bytes);
+    }
+
+    MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(mEventsAccepted.sum(), mEventsSent.sum(), mEventsDropped.sum(), mEventsShed.sum(),
+                mEventsSampledOut.sum(), mEventsAggregated.sum(), mEventsDeduplicated.sum(), mEventsFailed.sum(), mEventsAbandoned.sum(), mBatchesSent.sum(), mBatchesFailed.sum(), mRetries.sum(), mPayloadBytes.sum(),
+                mBytesAfterEncoding.sum(), getQueueDepth(), getQueueCapacity(), getQueueBytes(), mSendLatency.snapshot());
+    }
+
+    @Override
+    public long getEventsAccepted() {
+        return mEventsAccepted.sum();
+    }
+
+    @Override
+    public long getEventsSent() {
+        return mEventsSent.sum();
+    }
+
+    @Override
+    public long getEventsDropped() {
+        return mEventsDropped.sum();
+    }
+
+    @Override
+    public long getEventsShed() {
+        return mEventsShed.sum();
+    }
+
+    @Override
+    public long getEventsSampledOut() {
+        return mEventsSampledOut.sum();
+    }
+
+    @Override
+    public long getEventsAggregated() {
+        return mEventsAggregated.sum();
+    }
+
+    @Override
+    public long getEventsDeduplicated() {
+        return mEventsDeduplicated.sum();
+    }
+
+    @Override
+    public long getEventsFailed() {
+        return mEventsFailed.sum();
+    }
+
+    @Override
+    public long getEventsAbandoned() {
+        return mEventsAbandoned.sum();
+    }
+
+    @Override
+    public long getBatchesSent() {
+        return mBatchesSent.sum();
+    }
+
+    @Override
+    public long getBatchesFailed() {
+        return mBatchesFailed.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return mRetries.sum();
+    }
+
+    @Override
+    public long getPayloadBytes() {
+        return mPayloadBytes.sum();
+    }
+
+    @Override
+    public long getBytesAfterEncoding() {
+        return mBytesAfterEncoding.sum();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        RingBuffer<?>[] queues = mQueues;
+        int depth = 0;
+        if (queues != null) {
+            for (RingBuffer<?> queue : queues) {
+                depth += queue.size();
+            }
+        }
+        return depth;
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        RingBuffer<?>[] queues = mQueues;
+        int capacity = 0;
+        if (queues != null) {
+            for (RingBuffer<?> queue : queues) {
+                capacity += queue.capacity();
+            }
+        }
+        return capacity;
+    }
+
+    @Override
+    public long getQueueBytes() {
+        AtomicLong queueBytes = mQueueBytes;
+        return queueBytes == null ? 0 : queueBytes.get();
+    }
+
+    @Override
+    public long getSendCount() {
+        return latency().getCount();
+    }
+
+    @Override
+    public double getSendLatencyMeanMicros() {
+        return latency().getMeanNanos() / 1000;
+    }
+
+    @Override
+    public long getSendLatencyP50Micros() {
+        return micros(latency().getPercentileNanos(50));
+    }
+
+    @Override
+    public long getSendLatencyP99Micros() {
+        return micros(latency().getPercentileNanos(99));
+    }
+
+    @Override
+    public long getSendLatencyP999Micros() {
+        return micros(latency().getPercentileNanos(99.9));
+    }
+
+    @Override
+    public long getSendLatencyMaxMicros() {
+        return micros(latency().getMaxNanos());
+    }
+
+    /**
+     * JMX 客户端一次读取多个耗时属性时会逐个调用 getter，
+     * 副本在 SugoConfig.METRICS_LATENCY_CACHE_MILLIS 内复用，不必每个属性都复制一遍直方图
+     */
+    private LatencySnapshot latency() {
+        LatencySnapshot latency = mLatency;
+        long now = System.nanoTime();
+        if (latency == null || now - mLatencyNanos > LATENCY_CACHE_NANOS) {
+            latency = mSendLatency.snapshot();
+            mLatencyNanos = now;
+            mLatency = latency;
+        }
+        return latency;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+}
@@ -0,0 +1,12 @@
+package io.sugo.sugojavasdk;
+
+/**
+ * 需要上报统计数据（例如编码后的字节数）的 Sender 实现这个接口，
+ * 创建 SugoAPI 时会把该实例的 Metrics 传给 Sender，使用者不需要调用 setMetrics
+ * 一个 Sender 只应被一个 SugoAPI 使用，否则统计数据记在最后创建的 SugoAPI 上
+ */
+public interface MetricsAware {
+
+    void setMetrics(Metrics metrics);
+
+}
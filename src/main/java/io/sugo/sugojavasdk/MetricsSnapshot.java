@@ -0,0 +1,192 @@
+package io.sugo.sugojavasdk;
+
+/**
+ * SugoAPI 统计数据某一时刻的副本，见 SugoAPI#getMetrics()
+ * 计数都是从 SugoAPI 创建开始累计的
+ */
+public class MetricsSnapshot {
+
+    private final long mEventsAccepted;
+    private final long mEventsSent;
+    private final long mEventsDropped;
+    private final long mEventsShed;
+    private final long mEventsSampledOut;
+    private final long mEventsAggregated;
+    private final long mEventsDeduplicated;
+    private final long mEventsFailed;
+    private final long mEventsAbandoned;
+    private final long mBatchesSent;
+    private final long mBatchesFailed;
+    private final long mRetries;
+    private final long mPayloadBytes;
+    private final long mBytesAfterEncoding;
+    private final int mQueueDepth;
+    private final int mQueueCapacity;
+    private final long mQueueBytes;
+    private final LatencySnapshot mSendLatency;
+
+    MetricsSnapshot(long eventsAccepted, long eventsSent, long eventsDropped, long eventsShed,
+                    long eventsSampledOut, long eventsAggregated, long eventsDeduplicated, long eventsFailed,
+                    long eventsAbandoned, long batchesSent, long batchesFailed, long retries, long payloadBytes, long bytesAfterEncoding,
+                    int queueDepth, int queueCapacity, long queueBytes, LatencySnapshot sendLatency) {
+        mEventsAccepted = eventsAccepted;
+        mEventsSent = eventsSent;
+        mEventsDropped = eventsDropped;
+        mEventsShed = eventsShed;
+        mEventsSampledOut = eventsSampledOut;
+        mEventsAggregated = eventsAggregated;
+        mEventsDeduplicated = eventsDeduplicated;
+        mEventsFailed = eventsFailed;
+        mEventsAbandoned = eventsAbandoned;
+        mBatchesSent = batchesSent;
+        mBatchesFailed = batchesFailed;
+        mRetries = retries;
+        mPayloadBytes = payloadBytes;
+        mBytesAfterEncoding = bytesAfterEncoding;
+        mQueueDepth = queueDepth;
+        mQueueCapacity = queueCapacity;
+        mQueueBytes = queueBytes;
+        mSendLatency = sendLatency;
+    }
+
+    /**
+     * @return event() 成功放入队列的 event 数量
+     */
+    public long getEventsAccepted() {
+        return mEventsAccepted;
+    }
+
+    /**
+     * @return Sender 返回成功的 event 数量
+     */
+    public long getEventsSent() {
+        return mEventsSent;
+    }
+
+    /**
+     * @return 因为队列已满（条数或内存上限）或者 SugoAPI 已经关闭被丢弃的 event 数量
+     */
+    public long getEventsDropped() {
+        return mEventsDropped;
+    }
+
+    /**
+     * @return 被 AdmissionPolicy 丢弃的 event 数量
+     */
+    public long getEventsShed() {
+        return mEventsShed;
+    }
+
+    /**
+     * @return 按 distinct_id 抽样时被丢弃的 event 数量
+     */
+    public long getEventsSampledOut() {
+        return mEventsSampledOut;
+    }
+
+    /**
+     * @return 在本地聚合、没有逐条发送的 event 数量
+     */
+    public long getEventsAggregated() {
+        return mEventsAggregated;
+    }
+
+    /**
+     * @return DedupSender 发现已经确认过、没有再次发送的 event 数量
+     */
+    public long getEventsDeduplicated() {
+        return mEventsDeduplicated;
+    }
+
+    /**
+     * @return Sender 返回失败或抛出异常的 event 数量
+     */
+    public long getEventsFailed() {
+        return mEventsFailed;
+    }
+
+    /**
+     * @return SugoAPI#close 超过等待时间仍未发送完成、被放弃的 event 数量
+     */
+    public long getEventsAbandoned() {
+        return mEventsAbandoned;
+    }
+
+    public long getBatchesSent() {
+        return mBatchesSent;
+    }
+
+    public long getBatchesFailed() {
+        return mBatchesFailed;
+    }
+
+    /**
+     * @return RetryingSender 重试的次数
+     */
+    public long getRetries() {
+        return mRetries;
+    }
+
+    /**
+     * @return 交给 Sender 的批次数据的字节数：JSON 的 UTF-8 字节数，或者 BatchCodec 编码后的二进制字节数
+     */
+    public long getPayloadBytes() {
+        return mPayloadBytes;
+    }
+
+    /**
+     * @return Sender 实际写出的字节数（Base64/压缩之后），不支持统计的 Sender 为 0
+     */
+    public long getBytesAfterEncoding() {
+        return mBytesAfterEncoding;
+    }
+
+    /**
+     * @return 队列中等待发送的 event 数量，没有默认 worker 时为 0
+     */
+    public int getQueueDepth() {
+        return mQueueDepth;
+    }
+
+    public int getQueueCapacity() {
+        return mQueueCapacity;
+    }
+
+    /**
+     * @return 队列中 message 估计占用的堆内存字节数，没有设置内存上限时为 0
+     */
+    public long getQueueBytes() {
+        return mQueueBytes;
+    }
+
+    /**
+     * @return 每次调用 Sender.sendData 的耗时
+     */
+    public LatencySnapshot getSendLatency() {
+        return mSendLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{"
+                + "eventsAccepted=" + mEventsAccepted
+                + ", eventsSent=" + mEventsSent
+                + ", eventsDropped=" + mEventsDropped
+                + ", eventsShed=" + mEventsShed
+                + ", eventsSampledOut=" + mEventsSampledOut
+                + ", eventsAggregated=" + mEventsAggregated
+                + ", eventsDeduplicated=" + mEventsDeduplicated
+                + ", eventsFailed=" + mEventsFailed
+                + ", eventsAbandoned=" + mEventsAbandoned
+                + ", batchesSent=" + mBatchesSent
+                + ", batchesFailed=" + mBatchesFailed
+                + ", retries=" + mRetries
+                + ", payloadBytes=" + mPayloadBytes
+                + ", bytesAfterEncoding=" + mBytesAfterEncoding
+                + ", queueDepth=" + mQueueDepth + "/" + mQueueCapacity
+                + ", queueBytes=" + mQueueBytes
+                + ", sendLatency={" + mSendLatency + "}"
+                + "}";
+    }
+
+}
@@ -0,0 +1,74 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按 event 名称的优先级丢弃 event：负载达到某个优先级的阈值后，这个优先级的 event 都被丢弃，
+ * 保证队列接近满时留给重要的 event（例如先丢 debug，最后才丢 purchase）
+ * <p>
+ * 默认阈值：LOW 0.5，NORMAL 0.8，HIGH 0.95，CRITICAL 不丢弃；没有设置优先级的 event 为 NORMAL
+ * 应在创建 SugoAPI 之前完成配置
+ */
+public class PrioritySheddingPolicy implements AdmissionPolicy {
+
+    public enum Priority {
+        LOW,
+        NORMAL,
+        HIGH,
+        CRITICAL
+    }
+
+    private final Map<String, Priority> mPriorities = new HashMap<String, Priority>();
+    private Priority mDefaultPriority = Priority.NORMAL;
+    private final double[] mShedLoads = {0.5, 0.8, 0.95, Double.POSITIVE_INFINITY};
+
+    public PrioritySheddingPolicy() {
+    }
+
+    public PrioritySheddingPolicy setPriority(String eventName, Priority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("priority can not be null");
+        }
+        mPriorities.put(eventName, priority);
+        return this;
+    }
+
+    /**
+     * @param priority 没有单独设置优先级的 event 的优先级，默认是 NORMAL
+     */
+    public PrioritySheddingPolicy setDefaultPriority(Priority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("priority can not be null");
+        }
+        mDefaultPriority = priority;
+        return this;
+    }
+
+    /**
+     * @param load 负载达到该值后丢弃这个优先级的 event，大于 1 表示不丢弃
+     */
+    public PrioritySheddingPolicy setShedLoad(Priority priority, double load) {
+        if (priority == null) {
+            throw new IllegalArgumentException("priority can not be null");
+        }
+        if (!(load > 0)) {
+            throw new IllegalArgumentException("load must be positive: " + load);
+        }
+        mShedLoads[priority.ordinal()] = load;
+        return this;
+    }
+
+    public Priority getPriority(String eventName) {
+        Priority priority = mPriorities.get(eventName);
+        return priority == null ? mDefaultPriority : priority;
+    }
+
+    @Override
+    public boolean admit(String eventName, JSONObject properties, double load) {
+        return load < mShedLoads[getPriority(eventName).ordinal()];
+    }
+
+}
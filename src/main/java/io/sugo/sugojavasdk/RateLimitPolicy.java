@@ -0,0 +1,74 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 按 event 名称限速：每个名称一个令牌桶，每秒最多 permitsPerSecond 条，允许 burst 条的突发，超出的 event 被丢弃
+ * 与队列的负载无关
+ * <p>
+ * 应在创建 SugoAPI 之前完成配置
+ */
+public class RateLimitPolicy implements AdmissionPolicy {
+
+    private final Map<String, TokenBucket> mBuckets = new HashMap<String, TokenBucket>();
+    private double mDefaultRate = 0;
+    private int mDefaultBurst = 0;
+    /**
+     * 使用默认速率的名称，各自的令牌桶在第一次出现时创建
+     */
+    private final ConcurrentMap<String, TokenBucket> mDefaultBuckets = new ConcurrentHashMap<String, TokenBucket>();
+
+    public RateLimitPolicy() {
+    }
+
+    public RateLimitPolicy setRate(String eventName, double permitsPerSecond, int burst) {
+        mBuckets.put(key(eventName), new TokenBucket(permitsPerSecond, burst));
+        return this;
+    }
+
+    /**
+     * 没有单独设置速率的每个名称各自按这个速率限制，默认不限制
+     */
+    public RateLimitPolicy setDefaultRate(double permitsPerSecond, int burst) {
+        if (!(permitsPerSecond > 0)) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be positive: " + burst);
+        }
+        mDefaultRate = permitsPerSecond;
+        mDefaultBurst = burst;
+        mDefaultBuckets.clear();
+        return this;
+    }
+
+    @Override
+    public boolean admit(String eventName, JSONObject properties, double load) {
+        String key = key(eventName);
+        TokenBucket bucket = mBuckets.get(key);
+        if (bucket == null) {
+            if (mDefaultRate <= 0) {
+                return true;
+            }
+            bucket = mDefaultBuckets.get(key);
+            if (bucket == null) {
+                TokenBucket created = new TokenBucket(mDefaultRate, mDefaultBurst);
+                bucket = mDefaultBuckets.putIfAbsent(key, created);
+                if (bucket == null) {
+                    bucket = created;
+                }
+            }
+        }
+        return bucket.tryAcquire();
+    }
+
+    private static String key(String eventName) {
+        return eventName == null ? "" : eventName;
+    }
+
+}
@@ -0,0 +1,126 @@
+package io.sugo.sugojavasdk;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * RetryingSender 的重试和熔断配置
+ * 未设置的项使用 SugoConfig 中的默认值
+ */
+public class RetryPolicy {
+
+    private int mMaxAttempts = SugoConfig.DEFAULT_RETRY_MAX_ATTEMPTS;
+    private long mInitialBackoffMillis = SugoConfig.DEFAULT_RETRY_INITIAL_BACKOFF_MILLIS;
+    private long mMaxBackoffMillis = SugoConfig.DEFAULT_RETRY_MAX_BACKOFF_MILLIS;
+    private double mMultiplier = 2.0;
+    private double mJitter = 0.5;
+    private final Set<SendFailure> mRetryable = EnumSet.of(SendFailure.CONNECT, SendFailure.TIMEOUT,
+            SendFailure.NETWORK, SendFailure.SERVER_ERROR, SendFailure.OVERLOADED, SendFailure.UNKNOWN);
+    private int mFailureThreshold = SugoConfig.DEFAULT_CIRCUIT_FAILURE_THRESHOLD;
+    private long mOpenMillis = SugoConfig.DEFAULT_CIRCUIT_OPEN_MILLIS;
+
+    public RetryPolicy() {
+    }
+
+    /**
+     * @param maxAttempts 每批数据最多发送的次数（包括第一次），为 1 则不重试
+     */
+    public RetryPolicy setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        mMaxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * @param initialBackoffMillis 第一次重试前等待的毫秒数
+     * @param maxBackoffMillis     每次重试前最多等待的毫秒数
+     * @param multiplier           每次重试后等待时间乘以该系数
+     */
+    public RetryPolicy setBackoff(long initialBackoffMillis, long maxBackoffMillis, double multiplier) {
+        if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Invalid backoff: " + initialBackoffMillis + " ~ " + maxBackoffMillis);
+        }
+        if (multiplier < 1) {
+            throw new IllegalArgumentException("multiplier must be at least 1: " + multiplier);
+        }
+        mInitialBackoffMillis = initialBackoffMillis;
+        mMaxBackoffMillis = maxBackoffMillis;
+        mMultiplier = multiplier;
+        return this;
+    }
+
+    /**
+     * @param jitter 0 ~ 1，实际等待时间在 [backoff * (1 - jitter), backoff] 之间随机，避免多个客户端同时重试
+     */
+    public RetryPolicy setJitter(double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("jitter must be between 0 and 1: " + jitter);
+        }
+        mJitter = jitter;
+        return this;
+    }
+
+    /**
+     * @param failures 哪些失败原因需要重试，默认是 CONNECT、TIMEOUT、NETWORK、SERVER_ERROR、OVERLOADED、UNKNOWN
+     */
+    public RetryPolicy setRetryable(Set<SendFailure> failures) {
+        if (failures == null) {
+            throw new IllegalArgumentException("failures can not be null");
+        }
+        mRetryable.clear();
+        mRetryable.addAll(failures);
+        mRetryable.remove(SendFailure.CIRCUIT_OPEN);
+        return this;
+    }
+
+    /**
+     * @param failureThreshold 连续失败（只计需要重试的失败）达到该次数后熔断，不再调用 Sender
+     * @param openMillis       熔断持续的时间，之后放行一次探测请求，成功则恢复，失败则继续熔断
+     */
+    public RetryPolicy setCircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold must be positive: " + failureThreshold);
+        }
+        if (openMillis < 0) {
+            throw new IllegalArgumentException("openMillis can not be negative: " + openMillis);
+        }
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+        return this;
+    }
+
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    public long getInitialBackoffMillis() {
+        return mInitialBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis() {
+        return mMaxBackoffMillis;
+    }
+
+    public double getMultiplier() {
+        return mMultiplier;
+    }
+
+    public double getJitter() {
+        return mJitter;
+    }
+
+    public boolean isRetryable(SendFailure failure) {
+        return mRetryable.contains(failure);
+    }
+
+    public int getFailureThreshold() {
+        return mFailureThreshold;
+    }
+
+    public long getOpenMillis() {
+        return mOpenMillis;
+    }
+
+}
@@ -0,0 +1,169 @@
+package io.sugo.sugojavasdk;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 失败后重试的 Sender：按 RetryPolicy 以指数退避（带随机抖动）重新调用 delegate，
+ * 只重试可能成功的失败（例如连接失败、5xx），数据被拒绝（响应不是 "1"）等失败直接返回 false。
+ * 连续失败过多时熔断，一段时间内不再调用 delegate，之后放行一次探测请求，成功后恢复。
+ * <p>
+ * delegate 实现了 SugoAPI.ClassifyingSender 时（例如 HttpSender）按它给出的原因判断是否重试，
+ * 其他 Sender 返回 false 或抛出 RuntimeException 都视为 SendFailure.UNKNOWN。
+ * 重试时会阻塞调用线程（默认 worker 的 consumer 线程）。
+ * delegate 实现了 SugoAPI.BinarySender 时 sendBinary 同样重试，否则不能使用 JSON 以外的 BatchCodec。
+ */
+public class RetryingSender extends SenderDecorator
+        implements SugoAPI.ClassifyingSender, SugoAPI.AcknowledgingSender, SugoAPI.BinarySender {
+
+    /**
+     * 熔断器的状态
+     */
+    public enum CircuitState {
+        /**
+         * 正常发送
+         */
+        CLOSED,
+        /**
+         * 熔断中，sendData 直接返回 false
+         */
+        OPEN,
+        /**
+         * 正在用一个请求探测 delegate 是否恢复
+         */
+        HALF_OPEN
+    }
+
+    private final RetryPolicy mPolicy;
+    private final CircuitBreaker mBreaker;
+    private final ThreadLocal<SendFailure> mLastFailure = new ThreadLocal<SendFailure>();
+    private final ThreadLocal<SendOutcome> mLastOutcome = new ThreadLocal<SendOutcome>();
+
+    public RetryingSender(SugoAPI.Sender delegate) {
+        this(delegate, new RetryPolicy());
+    }
+
+    /**
+     * @param delegate 实际发送数据的 Sender
+     * @param policy   重试和熔断的配置
+     */
+    public RetryingSender(SugoAPI.Sender delegate, RetryPolicy policy) {
+        super(delegate);
+        if (policy == null) {
+            throw new IllegalArgumentException("policy can not be null");
+        }
+        mPolicy = policy;
+        mBreaker = new CircuitBreaker(delegate.getClass().getSimpleName(), policy.getFailureThreshold(),
+                policy.getOpenMillis());
+    }
+
+    @Override
+    public boolean sendData(String dataString) {
+        return send(dataString, null, 0, 0, null);
+    }
+
+    /**
+     * @throws IllegalStateException delegate 没有实现 SugoAPI.BinarySender
+     */
+    @Override
+    public boolean sendBinary(byte[] data, int offset, int length, String contentType) {
+        if (!(mDelegate instanceof SugoAPI.BinarySender)) {
+            throw new IllegalStateException(mDelegate.getClass().getName() + " can not send binary data");
+        }
+        return send(null, data, offset, length, contentType);
+    }
+
+    /**
+     * dataString 为 null 时发送 [offset, offset + length) 范围内的 data
+     */
+    private boolean send(String dataString, byte[] data, int offset, int length, String contentType) {
+        mLastOutcome.remove();
+        if (!mBreaker.allowRequest()) {
+            mLastFailure.set(SendFailure.CIRCUIT_OPEN);
+            return false;
+        }
+        double backoff = mPolicy.getInitialBackoffMillis();
+        for (int attempt = 1; ; attempt++) {
+            SendFailure failure = attempt(dataString, data, offset, length, contentType);
+            if (failure == null) {
+                mBreaker.onSuccess();
+                mLastFailure.remove();
+                mLastOutcome.set(attempt > 1 ? SendOutcome.RETRIED : SugoAPI.lastOutcome(mDelegate));
+                return true;
+            }
+            mLastFailure.set(failure);
+            if (!mPolicy.isRetryable(failure)) {
+                // delegate 有响应，只是这批数据不被接受
+                mBreaker.onSuccess();
+                return false;
+            }
+            mBreaker.onFailure();
+            if (attempt >= mPolicy.getMaxAttempts()) {
+                return false;
+            }
+            try {
+                Thread.sleep(jitter((long) backoff));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            // 等待之后再询问熔断器：半开状态下得到的探测机会一定会以 onSuccess/onFailure 结束
+            if (!mBreaker.allowRequest()) {
+                return false;
+            }
+            backoff = Math.min(backoff * mPolicy.getMultiplier(), mPolicy.getMaxBackoffMillis());
+            Metrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.recordRetry();
+            }
+        }
+    }
+
+    /**
+     * @return 当前线程上一次 sendData 失败的原因，最后一次成功时为 null
+     */
+    @Override
+    public SendFailure getLastFailure() {
+        return mLastFailure.get();
+    }
+
+    /**
+     * @return 当前线程上一次 sendData 成功时的结果，重试后才成功时为 RETRIED
+     */
+    @Override
+    public SendOutcome getLastOutcome() {
+        return mLastOutcome.get();
+    }
+
+    public CircuitState getCircuitState() {
+        return mBreaker.getState();
+    }
+
+    /**
+     * @return null 表示发送成功，否则是失败的原因
+     */
+    private SendFailure attempt(String dataString, byte[] data, int offset, int length, String contentType) {
+        try {
+            boolean sent = dataString != null ? mDelegate.sendData(dataString)
+                    : ((SugoAPI.BinarySender) mDelegate).sendBinary(data, offset, length, contentType);
+            if (sent) {
+                return null;
+            }
+        } catch (RuntimeException e) {
+            SugoConfig.log.warning("fail send data :" + e);
+            return SendFailure.UNKNOWN;
+        }
+        if (mDelegate instanceof SugoAPI.ClassifyingSender) {
+            SendFailure failure = ((SugoAPI.ClassifyingSender) mDelegate).getLastFailure();
+            if (failure != null) {
+                return failure;
+            }
+        }
+        return SendFailure.UNKNOWN;
+    }
+
+    private long jitter(long backoff) {
+        long spread = (long) (backoff * mPolicy.getJitter());
+        return spread <= 0 ? backoff : backoff - ThreadLocalRandom.current().nextLong(spread + 1);
+    }
+
+}
@@ -0,0 +1,277 @@
+package io.sugo.sugojavasdk;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 默认 worker 使用的有界多生产者/多消费者环形队列
+ * <p>
+ * 槽位在创建时分配并循环使用，每个槽位带一个序号：生产者和消费者都只用一次 CAS 抢占位置，
+ * offer/poll 既不加锁也不分配对象。
+ * 队列空（消费者）或满（BLOCK 生产者）时按 WaitStrategy 等待；
+ * 只有 PARK 策略下真正睡眠的线程才会用到锁，队列有数据流动时不会碰到它。
+ */
+class RingBuffer<E> {
+
+    private final int mCapacity;
+    private final int mMask;
+    private final AtomicReferenceArray<E> mSlots;
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mTail = new PaddedAtomicLong();
+    private final AtomicLong mHead = new PaddedAtomicLong();
+
+    private final WorkerConfig.WaitStrategy mWaitStrategy;
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private final Condition mNotFull = mLock.newCondition();
+    private final AtomicInteger mWaitingConsumers = new AtomicInteger();
+    private final AtomicInteger mWaitingProducers = new AtomicInteger();
+
+    /**
+     * 进入等待前自旋的次数
+     */
+    private static final int SPIN_TRIES = 100;
+    /**
+     * YIELD / PARK 策略在 yield 之后进入下一阶段前的次数
+     */
+    private static final int YIELD_TRIES = 100;
+
+    RingBuffer(int capacity, WorkerConfig.WaitStrategy waitStrategy) {
+        // 序号算法要求至少两个槽位
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2: " + capacity);
+        }
+        mCapacity = capacity;
+        // 容量是 2 的幂时用位运算取下标，否则取模，保证队列长度和配置一致
+        mMask = Integer.bitCount(capacity) == 1 ? capacity - 1 : -1;
+        mSlots = new AtomicReferenceArray<E>(capacity);
+        mSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            mSequences.set(i, i);
+        }
+        mWaitStrategy = waitStrategy;
+    }
+
+    /**
+     * @return false 如果队列已满
+     */
+    boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        long position = mTail.get();
+        int index;
+        while (true) {
+            index = index(position);
+            long difference = mSequences.get(index) - position;
+            if (difference == 0) {
+                if (mTail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = mTail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = mTail.get();
+            }
+        }
+        mSlots.lazySet(index, element);
+        mSequences.set(index, position + 1);
+        if (mWaitingConsumers.get() > 0) {
+            signal(mNotEmpty);
+        }
+        return true;
+    }
+
+    /**
+     * @return null 如果队列为空
+     */
+    E poll() {
+        long position = mHead.get();
+        int index;
+        while (true) {
+            index = index(position);
+            long difference = mSequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (mHead.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = mHead.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = mHead.get();
+            }
+        }
+        E element = mSlots.get(index);
+        mSlots.lazySet(index, null);
+        mSequences.set(index, position + mCapacity);
+        if (mWaitingProducers.get() > 0) {
+            signal(mNotFull);
+        }
+        return element;
+    }
+
+    /**
+     * 队列满时按 WaitStrategy 等待空位
+     */
+    void put(E element) throws InterruptedException {
+        int tries = 0;
+        while (!offer(element)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            tries = idle(tries);
+            if (tries < 0) {
+                awaitNotFull(element);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 队列空时按 WaitStrategy 等待数据
+     */
+    E take() throws InterruptedException {
+        return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return null 如果等待超时后队列仍为空
+     */
+    E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E element = poll();
+        if (element != null) {
+            return element;
+        }
+        long nanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + nanos;
+        int tries = 0;
+        while (true) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            element = poll();
+            if (element != null) {
+                return element;
+            }
+            long remaining = nanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            tries = idle(tries);
+            if (tries < 0) {
+                return awaitNotEmpty(remaining);
+            }
+        }
+    }
+
+    /**
+     * @return 队列中的元素数量（并发修改时是近似值）
+     */
+    int size() {
+        long size = mTail.get() - mHead.get();
+        return (int) Math.max(0, Math.min(size, mCapacity));
+    }
+
+    int capacity() {
+        return mCapacity;
+    }
+
+    private int index(long position) {
+        return mMask >= 0 ? (int) (position & mMask) : (int) (position % mCapacity);
+    }
+
+    /**
+     * 执行一次等待
+     *
+     * @return 下一次的计数，返回 -1 表示应该进入阻塞等待（只有 PARK 策略）
+     */
+    private int idle(int tries) {
+        switch (mWaitStrategy) {
+            case BUSY_SPIN:
+                return tries;
+            case YIELD:
+                if (tries < SPIN_TRIES) {
+                    return tries + 1;
+                }
+                Thread.yield();
+                return tries;
+            case PARK:
+                if (tries < SPIN_TRIES) {
+                    return tries + 1;
+                }
+                if (tries < SPIN_TRIES + YIELD_TRIES) {
+                    Thread.yield();
+                    return tries + 1;
+                }
+                return -1;
+            default:
+                throw new IllegalStateException("Unknown wait strategy: " + mWaitStrategy);
+        }
+    }
+
+    private E awaitNotEmpty(long nanos) throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            mWaitingConsumers.incrementAndGet();
+            try {
+                while (true) {
+                    // 登记之后再检查一次：生产者要么看到登记并唤醒，要么数据已经可见
+                    E element = poll();
+                    if (element != null) {
+                        return element;
+                    }
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    nanos = mNotEmpty.awaitNanos(nanos);
+                }
+            } finally {
+                mWaitingConsumers.decrementAndGet();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void awaitNotFull(E element) throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            mWaitingProducers.incrementAndGet();
+            try {
+                while (!offer(element)) {
+                    mNotFull.await();
+                }
+            } finally {
+                mWaitingProducers.decrementAndGet();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void signal(Condition condition) {
+        mLock.lock();
+        try {
+            condition.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 避免 head 和 tail 落在同一个缓存行上
+     */
+    @SuppressWarnings("unused")
+    private static class PaddedAtomicLong extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+}
@@ -0,0 +1,267 @@
+package io.sugo.sugojavasdk;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileSender 使用的滚动文件，不依赖任何日志框架
+ * <p>
+ * 按大小滚动：文件超过 maxFileSize 时，file.(n-1) 改名为 file.n（最多 maxBackupIndex 个），file 改名为 file.1，
+ * 后缀数字越大的文件数据越老。
+ * 按时间滚动：进入新的时间段时，file 改名为 file.&lt;上一个时间段按 datePattern 格式化的结果&gt;
+ * <p>
+ * 字符串在调用线程上编码为 UTF-8（每个线程复用自己的缓冲区），只有写入文件和滚动时持有这个文件自己的锁
+ */
+class RollingFileWriter implements Closeable, Flushable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final ThreadLocal<Encoder> ENCODER = new ThreadLocal<Encoder>() {
+        @Override
+        protected Encoder initialValue() {
+            return new Encoder();
+        }
+    };
+
+    private final File mFile;
+    private final long mMaxFileSize;
+    private final int mMaxBackupIndex;
+    private final SimpleDateFormat mDateFormat;
+    private final SugoAPI.FileSender.SyncPolicy mSyncPolicy;
+    private final long mSyncIntervalNanos;
+
+    private FileChannel mChannel;
+    private long mSize;
+    private String mPeriod;
+    private long mNextPeriodCheck;
+    private long mLastSync = System.nanoTime();
+
+    /**
+     * 按大小滚动
+     */
+    RollingFileWriter(File file, long maxFileSize, int maxBackupIndex, SugoAPI.FileSender.SyncPolicy syncPolicy,
+                      long syncIntervalMillis) throws IOException {
+        this(file, maxFileSize, maxBackupIndex, null, syncPolicy, syncIntervalMillis);
+    }
+
+    /**
+     * 按时间滚动
+     */
+    RollingFileWriter(File file, String datePattern, SugoAPI.FileSender.SyncPolicy syncPolicy,
+                      long syncIntervalMillis) throws IOException {
+        this(file, -1, 0, new SimpleDateFormat(datePattern), syncPolicy, syncIntervalMillis);
+    }
+
+    private RollingFileWriter(File file, long maxFileSize, int maxBackupIndex, SimpleDateFormat dateFormat,
+                              SugoAPI.FileSender.SyncPolicy syncPolicy, long syncIntervalMillis) throws IOException {
+        mFile = file;
+        mMaxFileSize = maxFileSize;
+        mMaxBackupIndex = maxBackupIndex;
+        mDateFormat = dateFormat;
+        mSyncPolicy = syncPolicy;
+        mSyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can not create directory: " + parent);
+        }
+        if (dateFormat != null) {
+            // 已有的文件属于它最后修改时的时间段
+            long lastModified = file.exists() ? file.lastModified() : System.currentTimeMillis();
+            mPeriod = dateFormat.format(new Date(lastModified));
+        }
+        open();
+    }
+
+    /**
+     * 写入一行数据（自动追加换行符）
+     *
+     * @return 写入的字节数
+     */
+    int writeLine(String line) throws IOException {
+        Encoder encoder = ENCODER.get();
+        try {
+            return write(encoder.encodeLine(line));
+        } finally {
+            encoder.release();
+        }
+    }
+
+    private int write(ByteBuffer bytes) throws IOException {
+        int length = bytes.remaining();
+        synchronized (this) {
+            if (mChannel == null) {
+                throw new IOException("File is closed: " + mFile);
+            }
+            rollIfNeeded(bytes.remaining());
+            while (bytes.hasRemaining()) {
+                mSize += mChannel.write(bytes);
+            }
+            if (mSyncPolicy == SugoAPI.FileSender.SyncPolicy.ALWAYS) {
+                mChannel.force(false);
+            } else if (mSyncPolicy == SugoAPI.FileSender.SyncPolicy.PERIODIC) {
+                long now = System.nanoTime();
+                if (now - mLastSync >= mSyncIntervalNanos) {
+                    mChannel.force(false);
+                    mLastSync = now;
+                }
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (mChannel != null) {
+            mChannel.force(false);
+            mLastSync = System.nanoTime();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mChannel != null) {
+            mChannel.force(false);
+            mChannel.close();
+            mChannel = null;
+        }
+    }
+
+    private void rollIfNeeded(int length) throws IOException {
+        if (mDateFormat != null) {
+            long now = System.currentTimeMillis();
+            if (now < mNextPeriodCheck) {
+                return;
+            }
+            // 格式化日期的开销较大，最多每秒检查一次
+            mNextPeriodCheck = now - now % 1000 + 1000;
+            String period = mDateFormat.format(new Date(now));
+            if (!period.equals(mPeriod)) {
+                rollByTime(period);
+            }
+        } else if (mSize > 0 && mSize + length > mMaxFileSize) {
+            rollBySize();
+        }
+    }
+
+    private void rollByTime(String period) throws IOException {
+        mChannel.close();
+        File target = new File(mFile.getPath() + "." + mPeriod);
+        if (target.exists() && !target.delete()) {
+            SugoConfig.log.warning("fail delete " + target);
+        }
+        rename(mFile, target);
+        mPeriod = period;
+        open();
+    }
+
+    private void rollBySize() throws IOException {
+        mChannel.close();
+        if (mMaxBackupIndex > 0) {
+            File oldest = new File(mFile.getPath() + "." + mMaxBackupIndex);
+            if (oldest.exists() && !oldest.delete()) {
+                SugoConfig.log.warning("fail delete " + oldest);
+            }
+            for (int i = mMaxBackupIndex - 1; i >= 1; i--) {
+                File source = new File(mFile.getPath() + "." + i);
+                if (source.exists()) {
+                    rename(source, new File(mFile.getPath() + "." + (i + 1)));
+                }
+            }
+            rename(mFile, new File(mFile.getPath() + ".1"));
+        } else if (!mFile.delete()) {
+            SugoConfig.log.warning("fail delete " + mFile);
+        }
+        open();
+    }
+
+    private void open() throws IOException {
+        // 追加模式打开，即使有其他进程写同一个文件也不会互相覆盖
+        mChannel = new FileOutputStream(mFile, true).getChannel();
+        mSize = mChannel.size();
+    }
+
+    private static void rename(File from, File to) {
+        if (!from.renameTo(to)) {
+            SugoConfig.log.warning("fail rename " + from + " to " + to);
+        }
+    }
+
+    /**
+     * 解析 "10MB"、"512KB"、"1GB" 或字节数
+     */
+    static long parseFileSize(String value) {
+        String s = value.trim().toUpperCase();
+        long multiplier = 1;
+        if (s.endsWith("KB")) {
+            multiplier = 1024;
+        } else if (s.endsWith("MB")) {
+            multiplier = 1024 * 1024;
+        } else if (s.endsWith("GB")) {
+            multiplier = 1024 * 1024 * 1024;
+        }
+        if (multiplier != 1) {
+            s = s.substring(0, s.length() - 2).trim();
+        }
+        try {
+            return Long.parseLong(s) * multiplier;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid file size: " + value, e);
+        }
+    }
+
+    /**
+     * 每个线程一个，把字符串编码到复用的 ByteBuffer
+     */
+    private static class Encoder {
+
+        private final CharsetEncoder mEncoder = UTF8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private ByteBuffer mBuffer = newBuffer();
+
+        private static ByteBuffer newBuffer() {
+            return ByteBuffer.allocate(SugoConfig.BUFFER_SIZE * 64);
+        }
+
+        ByteBuffer encodeLine(String line) {
+            int required = (int) Math.min(Integer.MAX_VALUE - 8, (long) line.length() * 3 + 1);
+            if (mBuffer.capacity() < required) {
+                mBuffer = ByteBuffer.allocate(required);
+            }
+            mBuffer.clear();
+            mEncoder.reset();
+            CoderResult result = mEncoder.encode(CharBuffer.wrap(line), mBuffer, true);
+            if (result.isError() || result.isOverflow()) {
+                throw new IllegalStateException("fail encode line: " + result);
+            }
+            mEncoder.flush(mBuffer);
+            mBuffer.put((byte) '\n');
+            mBuffer.flip();
+            return mBuffer;
+        }
+
+        /**
+         * 写入之后调用，缓冲区超过 SugoConfig.MAX_RETAINED_FORM_BUFFER_BYTES 时不保留，避免偶尔的大行长期占用内存
+         */
+        void release() {
+            if (mBuffer.capacity() > SugoConfig.MAX_RETAINED_FORM_BUFFER_BYTES) {
+                mBuffer = newBuffer();
+            }
+        }
+
+    }
+
+}
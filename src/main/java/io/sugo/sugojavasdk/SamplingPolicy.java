@@ -0,0 +1,48 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 负载超过 startLoad 后随机抽样：保留的比例从 1 线性降低到负载为 1 时的 minRate，
+ * 负载下降后自动恢复全量接收
+ */
+public class SamplingPolicy implements AdmissionPolicy {
+
+    private final double mStartLoad;
+    private final double mMinRate;
+
+    /**
+     * @param startLoad 开始抽样的负载，[0, 1)
+     * @param minRate   负载为 1 时保留的比例，[0, 1]
+     */
+    public SamplingPolicy(double startLoad, double minRate) {
+        if (!(startLoad >= 0 && startLoad < 1)) {
+            throw new IllegalArgumentException("startLoad must be in [0, 1): " + startLoad);
+        }
+        if (!(minRate >= 0 && minRate <= 1)) {
+            throw new IllegalArgumentException("minRate must be in [0, 1]: " + minRate);
+        }
+        mStartLoad = startLoad;
+        mMinRate = minRate;
+    }
+
+    /**
+     * @return 这个负载下保留 event 的比例
+     */
+    public double getRate(double load) {
+        if (load <= mStartLoad) {
+            return 1;
+        }
+        double pressure = Math.min(1, (load - mStartLoad) / (1 - mStartLoad));
+        return 1 - (1 - mMinRate) * pressure;
+    }
+
+    @Override
+    public boolean admit(String eventName, JSONObject properties, double load) {
+        double rate = getRate(load);
+        return rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+}
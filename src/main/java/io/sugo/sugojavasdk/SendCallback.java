@@ -0,0 +1,15 @@
+package io.sugo.sugojavasdk;
+
+/**
+ * 异步发送完成时的回调，见 SendFuture#addCallback(SendCallback)
+ * 回调可能在发送线程（I/O 线程）上执行，不应阻塞
+ */
+public interface SendCallback {
+
+    /**
+     * @param outcome 发送结果，outcome.isAccepted() 为 true 表示数据已被接受
+     * @param failure 失败的原因，成功时为 null
+     */
+    void onComplete(SendOutcome outcome, SendFailure failure);
+
+}
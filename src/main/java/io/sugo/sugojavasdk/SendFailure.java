@@ -0,0 +1,51 @@
+package io.sugo.sugojavasdk;
+
+/**
+ * Sender.sendData 返回 false 的原因，见 SugoAPI.ClassifyingSender
+ */
+public enum SendFailure {
+    /**
+     * 无法建立连接（连接被拒绝、连接超时、TLS 握手失败等）
+     */
+    CONNECT,
+    /**
+     * 已发送请求，等待响应超时
+     */
+    TIMEOUT,
+    /**
+     * 其他网络错误（连接被重置、响应不完整等）
+     */
+    NETWORK,
+    /**
+     * 服务端错误：HTTP 5xx、408 或 429
+     */
+    SERVER_ERROR,
+    /**
+     * 其他 HTTP 4xx，重试也不会成功
+     */
+    CLIENT_ERROR,
+    /**
+     * 服务端返回了成功的状态码，但响应内容不是 "1"，数据可能格式有误
+     */
+    REJECTED,
+    /**
+     * RetryingSender 的熔断器处于打开状态，没有发送
+     */
+    CIRCUIT_OPEN,
+    /**
+     * 异步 Sender 等待中的请求已达上限，没有发送
+     */
+    OVERLOADED,
+    /**
+     * event 被 AdmissionPolicy 丢弃，没有放入队列
+     */
+    SHED,
+    /**
+     * SugoAPI 已经关闭：event 没有放入队列，或者关闭时超过等待时间仍未发送而被放弃
+     */
+    CLOSED,
+    /**
+     * Sender 没有提供失败原因，或者抛出了异常
+     */
+    UNKNOWN
+}
@@ -0,0 +1,132 @@
+package io.sugo.sugojavasdk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 一次异步发送的结果，get() 返回终端是否接受了数据，getOutcome() 说明数据是怎样被接受的
+ * 不支持取消
+ */
+public class SendFuture implements Future<Boolean> {
+
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private List<SendCallback> mCallbacks;
+    private volatile SendOutcome mOutcome;
+    private volatile SendFailure mFailure;
+    private boolean mCompleted;
+
+    SendFuture() {
+    }
+
+    /**
+     * @return 已经完成的 SendFuture
+     */
+    static SendFuture completed(boolean accepted, SendFailure failure) {
+        SendFuture future = new SendFuture();
+        future.complete(accepted, failure);
+        return future;
+    }
+
+    /**
+     * 完成时调用 callback，已经完成时立即在当前线程调用
+     */
+    public void addCallback(SendCallback callback) {
+        synchronized (this) {
+            if (!mCompleted) {
+                if (mCallbacks == null) {
+                    mCallbacks = new ArrayList<SendCallback>(1);
+                }
+                mCallbacks.add(callback);
+                return;
+            }
+        }
+        invoke(callback);
+    }
+
+    /**
+     * @return false 如果已经完成过
+     */
+    boolean complete(boolean accepted, SendFailure failure) {
+        return complete(accepted ? SendOutcome.ACCEPTED : SendOutcome.REJECTED, failure);
+    }
+
+    /**
+     * @return false 如果已经完成过
+     */
+    boolean complete(SendOutcome outcome, SendFailure failure) {
+        List<SendCallback> callbacks;
+        synchronized (this) {
+            if (mCompleted) {
+                return false;
+            }
+            mOutcome = outcome;
+            mFailure = outcome.isAccepted() ? null : (failure == null ? SendFailure.UNKNOWN : failure);
+            mCompleted = true;
+            callbacks = mCallbacks;
+            mCallbacks = null;
+        }
+        mDone.countDown();
+        if (callbacks != null) {
+            for (SendCallback callback : callbacks) {
+                invoke(callback);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 发送结果，未完成时为 null
+     */
+    public SendOutcome getOutcome() {
+        return mOutcome;
+    }
+
+    /**
+     * @return 失败的原因，未完成或成功时为 null
+     */
+    public SendFailure getFailure() {
+        return mFailure;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return mDone.getCount() == 0;
+    }
+
+    @Override
+    public Boolean get() throws InterruptedException {
+        mDone.await();
+        return mOutcome.isAccepted();
+    }
+
+    @Override
+    public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!mDone.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return mOutcome.isAccepted();
+    }
+
+    private void invoke(SendCallback callback) {
+        try {
+            callback.onComplete(mOutcome, mFailure);
+        } catch (RuntimeException e) {
+            SugoConfig.log.warning("fail run send callback :" + e);
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+package io.sugo.sugojavasdk;
+
+/**
+ * 一批数据的发送结果，见 SendFuture#getOutcome() 和 SugoAPI.AcknowledgingSender
+ */
+public enum SendOutcome {
+    /**
+     * 终端接受了数据
+     */
+    ACCEPTED,
+    /**
+     * 重试（或者换一个节点）之后终端接受了数据
+     */
+    RETRIED,
+    /**
+     * 数据已写入本地磁盘（SpoolingSender），稍后由后台线程发送；或者本机 agent 不可用，交给了 fallback（UnixSocketSender、UdpSender）
+     */
+    SPOOLED,
+    /**
+     * 数据没有被接受，原因见 SendFailure
+     */
+    REJECTED;
+
+    /**
+     * @return false 只有 REJECTED
+     */
+    public boolean isAccepted() {
+        return this != REJECTED;
+    }
+}
@@ -0,0 +1,70 @@
+package io.sugo.sugojavasdk;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * 包装另一个 Sender 的 Sender 的公共部分（RetryingSender、DedupSender、SpoolingSender）：
+ * setMetrics、flush 和 close 转发给 delegate
+ */
+abstract class SenderDecorator implements SugoAPI.Sender, MetricsAware, Closeable, Flushable {
+
+    final SugoAPI.Sender mDelegate;
+    volatile Metrics mMetrics;
+
+    SenderDecorator(SugoAPI.Sender delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate can not be null");
+        }
+        mDelegate = delegate;
+    }
+
+    /**
+     * @return 被包装的 Sender
+     */
+    SugoAPI.Sender getDelegate() {
+        return mDelegate;
+    }
+
+    @Override
+    public void setMetrics(Metrics metrics) {
+        mMetrics = metrics;
+        setMetrics(mDelegate, metrics);
+    }
+
+    /**
+     * 转发给 delegate（实现了 Flushable 时）
+     */
+    @Override
+    public void flush() throws IOException {
+        flush(mDelegate);
+    }
+
+    /**
+     * 关闭 delegate（实现了 Closeable 时）
+     */
+    @Override
+    public void close() throws IOException {
+        close(mDelegate);
+    }
+
+    static void setMetrics(SugoAPI.Sender sender, Metrics metrics) {
+        if (sender instanceof MetricsAware) {
+            ((MetricsAware) sender).setMetrics(metrics);
+        }
+    }
+
+    static void flush(SugoAPI.Sender sender) throws IOException {
+        if (sender instanceof Flushable) {
+            ((Flushable) sender).flush();
+        }
+    }
+
+    static void close(SugoAPI.Sender sender) throws IOException {
+        if (sender instanceof Closeable) {
+            ((Closeable) sender).close();
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package io.sugo.sugojavasdk;
+
+/**
+ * 把 distinct_id 映射到分片，见 WorkerConfig#setShards
+ * 同一个 distinct_id 必须总是映射到同一个分片，它的 event 才能保持顺序
+ */
+public interface ShardHasher {
+
+    /**
+     * distinct_id 的 64 位 FNV-1a + fmix64 哈希取模，在不同进程上结果相同
+     */
+    ShardHasher DEFAULT = new ShardHasher() {
+        @Override
+        public int shard(String distinctId, int shards) {
+            return (int) ((Hashing.hash64(distinctId) & Long.MAX_VALUE) % shards);
+        }
+    };
+
+    /**
+     * @param distinctId 不为 null
+     * @param shards     分片数量
+     * @return [0, shards) 范围内的分片序号
+     */
+    int shard(String distinctId, int shards);
+
+}
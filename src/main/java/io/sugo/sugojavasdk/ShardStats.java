@@ -0,0 +1,102 @@
+package io.sugo.sugojavasdk;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 默认 worker 按 distinct_id 分片时一个分片的统计数据，见 SugoAPI#getShardStats()
+ */
+public class ShardStats {
+
+    private final int mShard;
+    private final int mQueueDepth;
+    private final int mQueueCapacity;
+    private final long mEventsAccepted;
+    private final long mEventsSent;
+    private final long mEventsFailed;
+    private final List<HotKey> mHotKeys;
+
+    ShardStats(int shard, int queueDepth, int queueCapacity, long eventsAccepted, long eventsSent, long eventsFailed,
+               List<HotKey> hotKeys) {
+        mShard = shard;
+        mQueueDepth = queueDepth;
+        mQueueCapacity = queueCapacity;
+        mEventsAccepted = eventsAccepted;
+        mEventsSent = eventsSent;
+        mEventsFailed = eventsFailed;
+        mHotKeys = Collections.unmodifiableList(hotKeys);
+    }
+
+    public int getShard() {
+        return mShard;
+    }
+
+    public int getQueueDepth() {
+        return mQueueDepth;
+    }
+
+    public int getQueueCapacity() {
+        return mQueueCapacity;
+    }
+
+    public long getEventsAccepted() {
+        return mEventsAccepted;
+    }
+
+    public long getEventsSent() {
+        return mEventsSent;
+    }
+
+    public long getEventsFailed() {
+        return mEventsFailed;
+    }
+
+    /**
+     * @return 这个分片上最近 event 最多的 distinct_id，按估计的次数从大到小排列
+     */
+    public List<HotKey> getHotKeys() {
+        return mHotKeys;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardStats{"
+                + "shard=" + mShard
+                + ", queueDepth=" + mQueueDepth
+                + ", queueCapacity=" + mQueueCapacity
+                + ", eventsAccepted=" + mEventsAccepted
+                + ", eventsSent=" + mEventsSent
+                + ", eventsFailed=" + mEventsFailed
+                + ", hotKeys=" + mHotKeys
+                + '}';
+    }
+
+    /**
+     * 一个 distinct_id 和它估计的 event 数量（不小于实际数量）
+     */
+    public static class HotKey {
+
+        private final String mKey;
+        private final long mCount;
+
+        HotKey(String key, long count) {
+            mKey = key;
+            mCount = count;
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String toString() {
+            return mKey + "=" + mCount;
+        }
+
+    }
+
+}
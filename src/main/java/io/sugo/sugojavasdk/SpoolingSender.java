@@ -0,0 +1,252 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 带磁盘缓冲的 Sender：数据先交给 delegate 发送，发送失败的数据写入本地磁盘（spool），
+ * 由后台线程按写入顺序重新发送，发送成功后才从磁盘删除。
+ * <p>
+ * spool 中还有未发送的数据时，新的数据直接写入 spool 排队；后台线程开始重新发送之前，
+ * 会等正在直接发送的数据返回，保证发送顺序。
+ * spool 达到 maxSpoolBytes 后 sendData 返回 false，不会无限占用磁盘和内存。
+ * 重试也不会成功的失败（SendFailure.CLIENT_ERROR、REJECTED，需要 delegate 实现 SugoAPI.ClassifyingSender）不写入 spool，
+ * sendData 直接返回 false；重新发送时遇到这样的失败，这条数据记为丢弃并从 spool 删除，不会挡住后面的数据。
+ * 进程重启后，使用同一个目录创建的 SpoolingSender 会继续发送上次未发送成功的数据。
+ * 统计数据由 delegate 记录，flush 不会让 spool 中的数据立即发送。
+ */
+public class SpoolingSender extends SenderDecorator
+        implements SugoAPI.ClassifyingSender, SugoAPI.AcknowledgingSender {
+
+    private final DiskSpool mSpool;
+    private final long mRetryIntervalMillis;
+    private final Thread mReplayer;
+    private final Object mSignal = new Object();
+    private volatile boolean mClosed = false;
+    /**
+     * 直接发送的 sendData 持有读锁；后台线程重新发送前获取一次写锁，等之前看到 spool 为空、正在直接发送的调用返回
+     */
+    private final ReadWriteLock mOrderLock = new ReentrantReadWriteLock();
+    /**
+     * spool 已满，只在状态变化时记录日志
+     */
+    private volatile boolean mFull = false;
+    private final ThreadLocal<SendFailure> mLastFailure = new ThreadLocal<SendFailure>();
+    private final ThreadLocal<SendOutcome> mLastOutcome = new ThreadLocal<SendOutcome>();
+
+    public SpoolingSender(SugoAPI.Sender delegate, String spoolDir) throws IOException {
+        this(delegate, spoolDir, SugoConfig.DEFAULT_SPOOL_MAX_BYTES, SugoConfig.DEFAULT_SPOOL_SEGMENT_BYTES,
+                SugoConfig.DEFAULT_SPOOL_RETRY_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param delegate            实际发送数据的 Sender，例如 HttpSender
+     * @param spoolDir            存放 spool 文件的目录，同一个目录只能被一个 SpoolingSender 使用
+     * @param maxSpoolBytes       spool 文件的总大小上限
+     * @param segmentBytes        单个 spool 文件的大小
+     * @param retryIntervalMillis 重新发送失败后的等待时间，连续失败时加倍，最长 SugoConfig.MAX_SPOOL_RETRY_INTERVAL_MILLIS
+     * @throws IOException 无法创建或读取 spool 目录
+     */
+    public SpoolingSender(SugoAPI.Sender delegate, String spoolDir, long maxSpoolBytes, long segmentBytes,
+                          long retryIntervalMillis) throws IOException {
+        super(delegate);
+        mSpool = new DiskSpool(new File(spoolDir), maxSpoolBytes, segmentBytes);
+        mRetryIntervalMillis = retryIntervalMillis;
+        mReplayer = new Thread(new Replayer(), "sugo-spool-replayer");
+        mReplayer.setDaemon(true);
+        mReplayer.start();
+    }
+
+    @Override
+    public boolean sendData(String dataString) {
+        mLastOutcome.remove();
+        mLastFailure.remove();
+        if (mClosed) {
+            mLastFailure.set(SendFailure.CLOSED);
+            return false;
+        }
+        mOrderLock.readLock().lock();
+        try {
+            if (mSpool.isEmpty()) {
+                if (mDelegate.sendData(dataString)) {
+                    mLastOutcome.set(SugoAPI.lastOutcome(mDelegate));
+                    return true;
+                }
+                SendFailure failure = SugoAPI.lastFailure(mDelegate);
+                if (isPermanent(failure)) {
+                    mLastFailure.set(failure);
+                    return false;
+                }
+            }
+            if (!mSpool.append(dataString)) {
+                if (!mFull) {
+                    mFull = true;
+                    SugoConfig.log.warning("Spool is full, dropping data until it is replayed");
+                }
+                return false;
+            }
+        } catch (IOException e) {
+            SugoConfig.log.warning("fail write data to spool :" + e);
+            return false;
+        } finally {
+            mOrderLock.readLock().unlock();
+        }
+        if (mFull) {
+            mFull = false;
+            SugoConfig.log.warning("Spool accepts data again");
+        }
+        synchronized (mSignal) {
+            mSignal.notifyAll();
+        }
+        mLastOutcome.set(SendOutcome.SPOOLED);
+        return true;
+    }
+
+    /**
+     * @return 当前线程上一次 sendData 失败的原因，spool 已满或写入失败时为 null
+     */
+    @Override
+    public SendFailure getLastFailure() {
+        return mLastFailure.get();
+    }
+
+    /**
+     * @return 当前线程上一次 sendData 成功时的结果，数据写入 spool 时为 SPOOLED
+     */
+    @Override
+    public SendOutcome getLastOutcome() {
+        return mLastOutcome.get();
+    }
+
+    /**
+     * @return 等待重新发送的数据在磁盘上占用的字节数
+     */
+    public long getSpoolBytes() {
+        return mSpool.getTotalBytes();
+    }
+
+    /**
+     * @return true 如果 spool 中没有等待发送的数据
+     */
+    public boolean isSpoolEmpty() {
+        return mSpool.isEmpty();
+    }
+
+    /**
+     * 停止后台发送线程，由它在退出时关闭 spool 文件，未发送的数据保留在磁盘上，下次启动时继续发送
+     * 之后关闭 delegate（实现了 Closeable 时），仍在 delegate.sendData 中的后台线程返回后才关闭 spool
+     */
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+        mReplayer.interrupt();
+        try {
+            mReplayer.join(SugoConfig.READ_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (mReplayer.isAlive()) {
+            SugoConfig.log.warning("Spool replayer is still sending, spool will be closed when it returns");
+        }
+        super.close();
+    }
+
+    /**
+     * @return true 如果 delegate 已经收到并拒绝了这批数据，重新发送也不会成功
+     */
+    private static boolean isPermanent(SendFailure failure) {
+        return failure == SendFailure.CLIENT_ERROR || failure == SendFailure.REJECTED;
+    }
+
+    /**
+     * @return JSON 数组中 event 的数量，无法解析时为 1
+     */
+    private static int countEvents(String record) {
+        try {
+            return new JSONArray(record).length();
+        } catch (JSONException e) {
+            return 1;
+        }
+    }
+
+    private class Replayer implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                replay();
+            } finally {
+                // 只有这个线程会关闭 spool，不会有 ack 写入已关闭的文件
+                try {
+                    mSpool.close();
+                } catch (IOException e) {
+                    SugoConfig.log.warning("fail close spool :" + e);
+                }
+            }
+        }
+
+        private void replay() {
+            long backoff = mRetryIntervalMillis;
+            while (!mClosed) {
+                try {
+                    String record = mSpool.peek();
+                    if (record == null) {
+                        synchronized (mSignal) {
+                            if (mSpool.isEmpty()) {
+                                mSignal.wait(mRetryIntervalMillis);
+                            }
+                        }
+                        continue;
+                    }
+                    // 等正在直接发送的 sendData 返回，它们比 spool 中的数据先到达
+                    mOrderLock.writeLock().lock();
+                    mOrderLock.writeLock().unlock();
+                    if (mDelegate.sendData(record)) {
+                        mSpool.ack();
+                        backoff = mRetryIntervalMillis;
+                    } else {
+                        SendFailure failure = SugoAPI.lastFailure(mDelegate);
+                        if (isPermanent(failure)) {
+                            drop(record, failure);
+                            backoff = mRetryIntervalMillis;
+                        } else {
+                            Thread.sleep(backoff);
+                            backoff = Math.min(backoff * 2, SugoConfig.MAX_SPOOL_RETRY_INTERVAL_MILLIS);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    SugoConfig.log.warning("fail read spool :" + e);
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                } catch (RuntimeException e) {
+                    SugoConfig.log.warning("fail replay spooled data :" + e);
+                }
+            }
+        }
+
+        /**
+         * 从 spool 删除被 delegate 拒绝的数据，记为丢弃
+         */
+        private void drop(String record, SendFailure failure) throws IOException {
+            mSpool.ack();
+            int events = countEvents(record);
+            SugoConfig.log.warning("Dropped " + events + " spooled events rejected by delegate: " + failure);
+            Metrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.recordDropped(events);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,91 @@
+package io.sugo.sugojavasdk;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段计数器（类似 Java 8 的 LongAdder）：每个线程优先累加到自己的槽位，
+ * 槽位之间间隔一个缓存行，CAS 冲突时换一个槽位，读取时把所有槽位相加
+ * 用于统计数据，累加的开销不会随线程数增加而明显上升
+ */
+class StripedCounter {
+
+    /**
+     * 每个槽位占 8 个 long（64 字节），避免伪共享
+     */
+    private static final int STRIDE = 8;
+
+    private static final ThreadLocal<int[]> PROBE = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            int seed = (int) (Thread.currentThread().getId() * 0x9E3779B9L);
+            return new int[]{seed == 0 ? 1 : seed};
+        }
+    };
+
+    private final AtomicLongArray mCells;
+    private final int mMask;
+
+    StripedCounter() {
+        int stripes = stripes(64);
+        mCells = new AtomicLongArray(stripes * STRIDE);
+        mMask = stripes - 1;
+    }
+
+    /**
+     * @return 不小于 CPU 核数、不超过 max 的 2 的幂
+     */
+    static int stripes(int max) {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() && stripes < max) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * @return 当前线程选择槽位用的随机数
+     */
+    static int probe() {
+        return PROBE.get()[0];
+    }
+
+    /**
+     * 当前线程的槽位发生冲突，换一个随机数（xorshift）
+     *
+     * @return 新的随机数
+     */
+    static int rehash() {
+        int[] probe = PROBE.get();
+        int h = probe[0];
+        h ^= h << 13;
+        h ^= h >>> 17;
+        h ^= h << 5;
+        probe[0] = h;
+        return h;
+    }
+
+    void increment() {
+        add(1);
+    }
+
+    void add(long x) {
+        int index = (probe() & mMask) * STRIDE;
+        long value = mCells.get(index);
+        if (!mCells.compareAndSet(index, value, value + x)) {
+            // 有其他线程在用这个槽位，换一个
+            mCells.getAndAdd((rehash() & mMask) * STRIDE, x);
+        }
+    }
+
+    /**
+     * @return 当前的总和，并发累加时不是一个精确的瞬时值
+     */
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < mCells.length(); i += STRIDE) {
+            sum += mCells.get(i);
+        }
+        return sum;
+    }
+
+}
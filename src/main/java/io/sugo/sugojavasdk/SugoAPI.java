@@ -1,30 +1,55 @@
 package io.sugo.sugojavasdk;
 
-import com.sun.istack.internal.NotNull;
-import org.apache.log4j.PropertyConfigurator;
-import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.*;
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.net.URLConnection;
-import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 /**
  * Sugo 数据采集简易接口（发送数据）, 用于服务器端应用程序.
  * 本 Java API 没有提供和假设任何线程模型, 这样设计的目的是为了可以轻松地将记录数据和发送数据的操作分开。
  * 当　advanceWorker　为　false 时，提供默认的实现
+ * 不再使用时调用 close() 把队列中的数据发送完并释放线程和连接，也可以用 registerShutdownHook 在进程退出时自动关闭
  *
  * @author ouwenjie
  */
-public class SugoAPI {
+public class SugoAPI implements Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
 
     private Sender mSender;
     private DefaultWorker mDefaultWorker;
     private boolean mAdvanceWorker = false;
+    private final int mBatchSize;
+    private final int mAsyncThreads;
+    private final boolean mVirtualThreads;
+    private final BatchCodec mCodec;
+    private ExecutorService mAsyncExecutor;
+    private final Metrics mMetrics = new Metrics();
+    private ObjectName mObjectName;
+    private Thread mShutdownHook;
+    /**
+     * 第一次 close 的结果，没有关闭时为 null
+     */
+    private volatile DrainReport mCloseReport;
 
     public SugoAPI() {
         this(null);
@@ -41,25 +66,131 @@ public class SugoAPI {
 
     /**
      * @param sender
-     * @param advanceWorker
+     * @param advanceWorker 为 true 时不启动默认的 worker 线程，由调用者自行调用 sendMessages
      */
     public SugoAPI(Sender sender, boolean advanceWorker) {
+        this(sender, advanceWorker, new WorkerConfig());
+    }
+
+    /**
+     * 使用默认的 worker，并指定 worker 的队列长度、线程数等配置
+     *
+     * @param sender
+     * @param workerConfig
+     */
+    public SugoAPI(Sender sender, WorkerConfig workerConfig) {
+        this(sender, false, workerConfig);
+    }
+
+    private SugoAPI(Sender sender, boolean advanceWorker, WorkerConfig workerConfig) {
         if (sender == null) {
             sender = new ConsoleSender();
         }
+        if (workerConfig == null) {
+            workerConfig = new WorkerConfig();
+        }
         mSender = sender;
         mAdvanceWorker = advanceWorker;
-        mDefaultWorker = new DefaultWorker(mSender);
+        mBatchSize = workerConfig.getBatchSize();
+        mAsyncThreads = workerConfig.getConsumerCount();
+        mVirtualThreads = workerConfig.isVirtualThreads();
+        mCodec = workerConfig.getCodec();
+        if (!(mCodec instanceof JsonCodec) && !(sender instanceof BinarySender)) {
+            throw new IllegalArgumentException("Codec " + mCodec.getContentType() + " requires a SugoAPI.BinarySender, got "
+                    + sender.getClass().getName());
+        }
+        SenderDecorator.setMetrics(sender, mMetrics);
+        if (!advanceWorker) {
+            mDefaultWorker = new DefaultWorker(mSender, workerConfig, mMetrics);
+        }
     }
 
+    /**
+     * 记录一条 event，放入默认 worker 的队列后立即返回，由 worker 线程异步发送
+     *
+     * @param eventName
+     * @param properties
+     */
     public void event(String eventName, JSONObject properties) {
+        event(null, eventName, properties);
+    }
+
+    /**
+     * 和 event 相同，message 带有 distinct_id，WorkerConfig 配置了抽样时按 distinctId 抽样
+     *
+     * @param distinctId 为 null 时和 event(eventName, properties) 相同
+     * @param eventName
+     * @param properties
+     */
+    public void event(String distinctId, String eventName, JSONObject properties) {
         if (mDefaultWorker != null && (!mAdvanceWorker)) {
-            mDefaultWorker.event(eventName, properties);
+            mDefaultWorker.event(distinctId, eventName, properties);
         } else {
             throw new SugoMessageException("the default worker is not work!", new JSONObject());
         }
     }
 
+    /**
+     * 和 event 相同，返回的 SendFuture 在这条 event 所在的批次发送完成后完成
+     * 队列已满、event 被丢弃时以 SendFailure.OVERLOADED 失败
+     *
+     * @param eventName
+     * @param properties
+     * @return 这条 event 所在批次的发送结果
+     */
+    public SendFuture eventAsync(String eventName, JSONObject properties) {
+        return eventAsync(null, eventName, properties);
+    }
+
+    /**
+     * 和 eventAsync 相同，message 带有 distinct_id
+     * 被聚合的 event 立即成功，被抽样丢弃的 event 以 SendFailure.SHED 失败
+     *
+     * @param distinctId
+     * @param eventName
+     * @param properties
+     * @return 这条 event 所在批次的发送结果
+     */
+    public SendFuture eventAsync(String distinctId, String eventName, JSONObject properties) {
+        if (mDefaultWorker != null && (!mAdvanceWorker)) {
+            return mDefaultWorker.eventAsync(distinctId, eventName, properties);
+        } else {
+            throw new SugoMessageException("the default worker is not work!", new JSONObject());
+        }
+    }
+
+    /**
+     * 设置加到每一条 event 中的属性（例如 app 版本、主机名），这些属性只序列化一次，
+     * 之后每条 event 只需要序列化自己的属性，调用 event 时不必再传入
+     *
+     * @param properties 为 null 时清除，不能包含 event、time、distinct_id 和 event_id
+     */
+    public void setSuperProperties(JSONObject properties) {
+        defaultMessageBuilder().setSuperProperties(properties);
+    }
+
+    /**
+     * 为名称为 eventName 的 event 注册模板，模板中的属性和 super properties 一样只序列化一次
+     * event 自己的属性优先于模板，模板优先于 super properties
+     *
+     * @param eventName
+     * @param properties 不能包含 event、time、distinct_id 和 event_id
+     */
+    public void registerTemplate(String eventName, JSONObject properties) {
+        defaultMessageBuilder().registerTemplate(eventName, properties);
+    }
+
+    public void unregisterTemplate(String eventName) {
+        defaultMessageBuilder().unregisterTemplate(eventName);
+    }
+
+    private MessageBuilder defaultMessageBuilder() {
+        if (mDefaultWorker != null && (!mAdvanceWorker)) {
+            return mDefaultWorker.getMessageBuilder();
+        }
+        throw new SugoMessageException("the default worker is not work!", new JSONObject());
+    }
+
     /**
      * sendMessage 发送单条数据
      * 该方法是阻塞的
@@ -77,56 +208,325 @@ public class SugoAPI {
 
     /**
      * 发送一组消息到终端，该方法是阻塞的
+     * 每次调用 Sender 最多携带 WorkerConfig.getBatchSize() 条消息，按 WorkerConfig.getCodec() 编码
      *
      * @param toSend a MessagePackage containing a number of Sugo messages
      * @throws IOException
      */
     void sendMessages(MessagePackage toSend) throws IOException {
         List<JSONObject> messages = toSend.getEventsMessages();
-        for (int i = 0; i < messages.size(); i += SugoConfig.MAX_MESSAGE_SIZE) {
-            int endIndex = i + SugoConfig.MAX_MESSAGE_SIZE;
+        for (int i = 0; i < messages.size(); i += mBatchSize) {
+            int endIndex = i + mBatchSize;
             endIndex = Math.min(endIndex, messages.size());
             List<JSONObject> batch = messages.subList(i, endIndex);
 
             if (batch.size() > 0) {
-                String messagesString = dataString(batch);
-                boolean accepted = senderSendData(messagesString);
+                BatchWriter writer = dataWriter(batch);
+                boolean accepted = false;
+                long start = System.nanoTime();
+                try {
+                    accepted = send(writer);
+                } finally {
+                    mMetrics.recordBatch(batch.size(), writer.size(), System.nanoTime() - start, accepted);
+                }
                 if (!accepted) {
-                    throw new SugoServerException("Server refused to accept messages, they may be malformed.", batch);
+                    throw new SugoServerException("Server refused to accept messages, they may be malformed.", batch,
+                            lastFailure(mSender));
+                }
+            }
+        }
+    }
+
+    /**
+     * sendMessages 的非阻塞版本，同样按 WorkerConfig.getBatchSize() 分批，立即返回每一批的 SendFuture
+     * Sender 是 AsyncSender 时直接调用 sendAsync，否则由 SugoAPI 的发送线程（数量同 consumerCount）依次调用 sendData，
+     * 调用者可以根据未完成的 SendFuture 数量自行控制提交速度；开始 close 之后每一批都以 SendFailure.CLOSED 失败
+     *
+     * @param toSend a MessagePackage containing a number of Sugo messages
+     * @return 按顺序每一批的发送结果，第 i 个对应第 i * batchSize 条起的消息
+     */
+    public List<SendFuture> sendMessagesAsync(MessagePackage toSend) {
+        List<JSONObject> messages = toSend.getEventsMessages();
+        List<SendFuture> futures = new ArrayList<SendFuture>((messages.size() + mBatchSize - 1) / mBatchSize);
+        for (int i = 0; i < messages.size(); i += mBatchSize) {
+            int endIndex = Math.min(i + mBatchSize, messages.size());
+            futures.add(sendBatchAsync(messages.subList(i, endIndex)));
+        }
+        return futures;
+    }
+
+    private SendFuture sendBatchAsync(List<JSONObject> batch) {
+        if (isClosing()) {
+            return SendFuture.completed(false, SendFailure.CLOSED);
+        }
+        final int count = batch.size();
+        final BatchWriter writer = dataWriter(batch);
+        if (mCodec instanceof JsonCodec && mSender instanceof AsyncSender) {
+            final long start = System.nanoTime();
+            SendFuture future;
+            try {
+                future = ((AsyncSender) mSender).sendAsync(text(writer));
+            } catch (RuntimeException e) {
+                SugoConfig.log.warning("fail send messages :" + e);
+                future = SendFuture.completed(false, SendFailure.UNKNOWN);
+            }
+            future.addCallback(new SendCallback() {
+                @Override
+                public void onComplete(SendOutcome outcome, SendFailure failure) {
+                    mMetrics.recordBatch(count, writer.size(), System.nanoTime() - start, outcome.isAccepted());
+                }
+            });
+            return future;
+        }
+        final SendFuture future = new SendFuture();
+        ExecutorService executor = asyncExecutor();
+        if (executor == null) {
+            return SendFuture.completed(false, SendFailure.CLOSED);
+        }
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                SendOutcome outcome = SendOutcome.REJECTED;
+                SendFailure failure = SendFailure.UNKNOWN;
+                long sendStart = System.nanoTime();
+                try {
+                    if (send(writer)) {
+                        outcome = lastOutcome(mSender);
+                        failure = null;
+                    } else {
+                        failure = lastFailure(mSender);
+                    }
+                } catch (RuntimeException e) {
+                    SugoConfig.log.warning("fail send messages :" + e);
+                } finally {
+                    // 先记录统计数据，future 完成时统计数据已经包含这一批
+                    mMetrics.recordBatch(count, writer.size(), System.nanoTime() - sendStart, outcome.isAccepted());
+                    future.complete(outcome, failure);
                 }
             }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // close 已经停止了发送线程
+            future.complete(false, SendFailure.CLOSED);
         }
+        return future;
     }
 
     /**
-     * List<JSONObject> 对象转成 JSONArray 的字符串
+     * @return 发送线程池（consumerCount 个普通线程，或者每个任务一个虚拟线程），close 之后为 null
+     */
+    private synchronized ExecutorService asyncExecutor() {
+        if (mCloseReport != null) {
+            return null;
+        }
+        if (mAsyncExecutor == null) {
+            mAsyncExecutor = Threads.executor("sugo-async-send-", mAsyncThreads, mVirtualThreads);
+        }
+        return mAsyncExecutor;
+    }
+
+    /**
+     * List<JSONObject> 对象按 BatchCodec 编码，默认是 JSON 数组
      *
      * @param messages
      * @return
      */
-    private String dataString(List<JSONObject> messages) {
-        JSONArray array = new JSONArray();
+    private BatchWriter dataWriter(List<JSONObject> messages) {
+        BatchWriter writer = mCodec.newWriter();
+        writer.begin();
         for (JSONObject message : messages) {
-            array.put(message);
+            writer.write(message);
+        }
+        writer.end();
+        return writer;
+    }
+
+    /**
+     * JSON 通过 senderSendData 发送，其他编码通过 BinarySender#sendBinary 发送
+     */
+    private boolean send(BatchWriter writer) {
+        if (mCodec instanceof JsonCodec) {
+            return senderSendData(text(writer));
         }
-        return array.toString();
+        return ((BinarySender) mSender).sendBinary(writer.buffer(), 0, writer.size(), mCodec.getContentType());
+    }
+
+    private static String text(BatchWriter writer) {
+        return new String(writer.buffer(), 0, writer.size(), UTF8);
     }
 
     /**
-     * 使用 Base64 编码 之后再 URL 编码
+     * @return 当前的统计数据：event 和批次的数量、编码前后的字节数、队列长度以及 Sender 的耗时分布
+     */
+    public MetricsSnapshot getMetrics() {
+        return mMetrics.snapshot();
+    }
+
+    /**
+     * @return 默认 worker 按 distinct_id 分片时（WorkerConfig#setShards）每个分片的队列、发送数量和热点 distinct_id，
+     * 不分片或没有默认 worker 时为空
+     */
+    public List<ShardStats> getShardStats() {
+        DefaultWorker worker = mDefaultWorker;
+        return worker == null ? Collections.<ShardStats>emptyList() : worker.getShardStats();
+    }
+
+    /**
+     * 把统计数据注册到 JMX（platform MBeanServer），ObjectName 为 io.sugo.sugojavasdk:type=SugoAPI,name=&lt;name&gt;
+     *
+     * @param name 区分同一进程中的多个 SugoAPI
+     * @return 注册使用的 ObjectName
+     * @throws JMException 名字已被使用或注册失败
+     */
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        if (mObjectName != null) {
+            throw new IllegalStateException("Already registered as " + mObjectName);
+        }
+        ObjectName objectName = new ObjectName("io.sugo.sugojavasdk:type=SugoAPI,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(mMetrics, objectName);
+        mObjectName = objectName;
+        return objectName;
+    }
+
+    /**
+     * 从 JMX 中注销 registerMBean 注册的 MBean
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (mObjectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mObjectName);
+            mObjectName = null;
+        }
+    }
+
+    /**
+     * 在 timeout 内等待默认 worker 队列中和正在发送的 event 发送完成，之后 flush Sender（例如 FileSender 写入的数据）
+     * 等待期间 worker 取不到新的 event 时立即发送当前批次，不再等待 lingerMillis
+     *
+     * @param timeout 最长等待时间
+     * @param unit
+     * @return 等待期间发送完成的 event 数量，以及超时后仍未发送完成的 event 数量
+     */
+    public DrainReport flush(long timeout, TimeUnit unit) {
+        DrainReport report = mDefaultWorker != null ? mDefaultWorker.flush(timeout, unit) : new DrainReport(0, 0, 0, 0);
+        flushSender(mSender);
+        return report;
+    }
+
+    /**
+     * 等同于 close(SugoConfig.DEFAULT_CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+     */
+    @Override
+    public void close() {
+        close(SugoConfig.DEFAULT_CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 关闭 SugoAPI：不再接受新的 event，在 timeout 内把队列中的 event 以尽量大的批次发送完，
+     * 之后停止默认 worker 和 sendMessagesAsync 的发送线程，flush 并关闭 Sender（实现了 Flushable、Closeable 时），
+     * 注销 MBean 和 shutdown hook
+     * 超过 timeout 仍未发送完成的 event 被放弃，计入 eventsAbandoned；重复调用返回第一次关闭的结果
+     *
+     * @param timeout 等待队列发送完成的最长时间，不包括关闭 Sender 的时间
+     * @param unit
+     * @return 发送完成和被放弃的 event 数量
+     */
+    public synchronized DrainReport close(long timeout, TimeUnit unit) {
+        if (mCloseReport != null) {
+            return mCloseReport;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        DrainReport report = mDefaultWorker != null ? mDefaultWorker.close(timeout, unit) : new DrainReport(0, 0, 0, 0);
+        if (mAsyncExecutor != null) {
+            mAsyncExecutor.shutdown();
+            try {
+                mAsyncExecutor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushSender(mSender);
+        try {
+            SenderDecorator.close(mSender);
+        } catch (IOException e) {
+            SugoConfig.log.warning("fail close sender :" + e);
+        }
+        try {
+            unregisterMBean();
+        } catch (JMException e) {
+            SugoConfig.log.warning("fail unregister MBean :" + e);
+        }
+        if (mShutdownHook != null && Thread.currentThread() != mShutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(mShutdownHook);
+            } catch (IllegalStateException e) {
+                // 进程正在退出
+            }
+        }
+        mShutdownHook = null;
+        if (!report.isComplete()) {
+            SugoConfig.log.warning("abandon " + report.getAbandoned() + " events on close : " + report);
+        }
+        mCloseReport = report;
+        return report;
+    }
+
+    /**
+     * 注册 JVM shutdown hook，进程退出时调用 close(timeout, unit) 并把结果写入日志，进程的退出最多因此推迟 timeout
+     * close() 时会注销这个 hook
+     *
+     * @param timeout 退出时等待队列发送完成的最长时间
+     * @param unit
+     */
+    public synchronized void registerShutdownHook(final long timeout, final TimeUnit unit) {
+        if (mCloseReport != null) {
+            throw new IllegalStateException("SugoAPI is closed");
+        }
+        if (mShutdownHook != null) {
+            throw new IllegalStateException("Shutdown hook already registered");
+        }
+        Thread hook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SugoConfig.log.info("close on shutdown : " + close(timeout, unit));
+            }
+        }, "sugo-shutdown");
+        Runtime.getRuntime().addShutdownHook(hook);
+        mShutdownHook = hook;
+    }
+
+    /**
+     * @return true 如果已经调用过 close
+     */
+    public boolean isClosed() {
+        return mCloseReport != null;
+    }
+
+    /**
+     * @return true 如果已经开始关闭：默认 worker 不再接受新的 event，close 可能还在等待队列发送完成
+     */
+    boolean isClosing() {
+        return mCloseReport != null || (mDefaultWorker != null && mDefaultWorker.isClosed());
+    }
+
+    private static void flushSender(Sender sender) {
+        try {
+            SenderDecorator.flush(sender);
+        } catch (IOException e) {
+            SugoConfig.log.warning("fail flush sender :" + e);
+        }
+    }
+
+    /**
+     * 使用 Base64 编码 之后再 URL 编码，两步在 FormBody 中一次完成
      *
      * @param dataString JSON formatted string
      * @return encoded string for <b>data</b> parameter in API call
      * @throws NullPointerException If {@code dataString} is {@code null}
      */
     static String encodeDataString(String dataString) {
-        try {
-            byte[] utf8data = dataString.getBytes("utf-8");
-            String base64data = new String(Base64.encode(utf8data));
-            return URLEncoder.encode(base64data, "utf8");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException("Sugo library requires utf-8 support", e);
-        }
+        return new FormBody(dataString).value();
     }
 
     /**
@@ -143,86 +543,230 @@ public class SugoAPI {
         boolean sendData(String dataString);
     }
 
-    public static class HttpSender implements Sender {
+    /**
+     * 非阻塞的 Sender：sendAsync 立即返回，发送结果通过 SendFuture 获得
+     * 默认 worker 使用 sendAsync 发送，consumer 线程不会等待网络 I/O
+     */
+    public interface AsyncSender extends Sender {
+        SendFuture sendAsync(String dataString);
+    }
+
+    /**
+     * 可以给出失败原因的 Sender，RetryingSender 据此判断是否重试
+     */
+    public interface ClassifyingSender extends Sender {
+        /**
+         * @return 当前线程上一次 sendData 返回 false 的原因，上一次成功时为 null
+         */
+        SendFailure getLastFailure();
+    }
+
+    /**
+     * 可以说明数据是怎样被接受的 Sender（例如经过了重试，或者只是写入了本地磁盘）
+     */
+    public interface AcknowledgingSender extends Sender {
+        /**
+         * @return 当前线程上一次 sendData 返回 true 时的结果，上一次失败时为 null
+         */
+        SendOutcome getLastOutcome();
+    }
+
+    /**
+     * 可以发送 BatchCodec 编码后的二进制数据的 Sender，WorkerConfig 使用 JSON 以外的 BatchCodec 时 Sender 必须实现这个接口
+     * 失败原因和结果与 sendData 相同，由 ClassifyingSender、AcknowledgingSender 给出
+     */
+    public interface BinarySender extends Sender {
+        /**
+         * @param data        编码后的一批 message，有效数据为 [offset, offset + length)，返回后可能被修改
+         * @param contentType BatchCodec#getContentType()，告诉终端数据的编码方式
+         * @return true 如果发送成功
+         */
+        boolean sendBinary(byte[] data, int offset, int length, String contentType);
+    }
+
+    /**
+     * @return sender 上一次 sendData 返回 true 时的结果，sender 没有说明时为 ACCEPTED
+     */
+    static SendOutcome lastOutcome(Sender sender) {
+        SendOutcome outcome = sender instanceof AcknowledgingSender
+                ? ((AcknowledgingSender) sender).getLastOutcome() : null;
+        return outcome == null ? SendOutcome.ACCEPTED : outcome;
+    }
+
+    /**
+     * @return sender 上一次 sendData 返回 false 的原因，sender 没有给出原因时为 UNKNOWN
+     */
+    static SendFailure lastFailure(Sender sender) {
+        SendFailure failure = sender instanceof ClassifyingSender
+                ? ((ClassifyingSender) sender).getLastFailure() : null;
+        return failure == null ? SendFailure.UNKNOWN : failure;
+    }
+
+    /**
+     * 发送数据到指定的 endpoint
+     * 到 endpoint 的连接会被放入连接池复用（HTTP keep-alive），不再使用时应调用 close() 关闭连接
+     */
+    public static class HttpSender implements ClassifyingSender, BinarySender, Closeable, MetricsAware {
+
+        /**
+         * 请求体的编码方式
+         */
+        public enum Encoding {
+            /**
+             * application/x-www-form-urlencoded，data=URL 编码后的 Base64 数据（默认）
+             */
+            FORM,
+            /**
+             * 直接发送 JSON 数组，Content-Encoding: gzip
+             */
+            GZIP,
+            /**
+             * 直接发送 JSON 数组，Content-Encoding: deflate
+             */
+            DEFLATE
+        }
 
         private final String mEventsEndpoint;
+        private final HttpConnectionPool mPool;
+        private final Encoding mEncoding;
+        private volatile Metrics mMetrics;
+        private final ThreadLocal<SendFailure> mLastFailure = new ThreadLocal<SendFailure>();
 
         public HttpSender(String eventsEndpoint) {
+            this(eventsEndpoint, SugoConfig.DEFAULT_HTTP_POOL_SIZE);
+        }
+
+        public HttpSender(String eventsEndpoint, int poolSize) {
+            this(eventsEndpoint, poolSize, Encoding.FORM);
+        }
+
+        public HttpSender(String eventsEndpoint, int poolSize, Encoding encoding) {
+            this(eventsEndpoint, poolSize, SugoConfig.CONNECT_TIMEOUT_MILLIS, SugoConfig.READ_TIMEOUT_MILLIS,
+                    SugoConfig.DEFAULT_HTTP_IDLE_TIMEOUT_MILLIS, encoding);
+        }
+
+        public HttpSender(String eventsEndpoint, int poolSize, int connectTimeoutMillis, int readTimeoutMillis, long idleTimeoutMillis) {
+            this(eventsEndpoint, poolSize, connectTimeoutMillis, readTimeoutMillis, idleTimeoutMillis, Encoding.FORM);
+        }
+
+        /**
+         * @param eventsEndpoint       接收数据的地址（http 或 https）
+         * @param poolSize             连接池中最多同时打开的连接数
+         * @param connectTimeoutMillis 建立连接（以及等待连接池中空闲连接）的超时时间
+         * @param readTimeoutMillis    读取响应的超时时间
+         * @param idleTimeoutMillis    连接空闲超过该时间后被关闭，不再复用
+         * @param encoding             请求体的编码方式，终端需要支持对应的 Content-Encoding
+         */
+        public HttpSender(String eventsEndpoint, int poolSize, int connectTimeoutMillis, int readTimeoutMillis, long idleTimeoutMillis,
+                          Encoding encoding) {
+            if (encoding == null) {
+                throw new IllegalArgumentException("encoding can not be null");
+            }
             mEventsEndpoint = eventsEndpoint;
+            mEncoding = encoding;
+            URL endpoint;
+            try {
+                endpoint = new URL(eventsEndpoint);
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("Invalid events endpoint: " + eventsEndpoint, e);
+            }
+            mPool = new HttpConnectionPool(endpoint, poolSize, connectTimeoutMillis, readTimeoutMillis, idleTimeoutMillis);
         }
 
         @Override
         public boolean sendData(String dataString) {
-            URL endpoint = null;
-            OutputStream postStream = null;
-            URLConnection conn = null;
-
-            try {
-                endpoint = new URL(mEventsEndpoint);
-                conn = endpoint.openConnection();
-                conn.setReadTimeout(SugoConfig.READ_TIMEOUT_MILLIS);
-                conn.setConnectTimeout(SugoConfig.CONNECT_TIMEOUT_MILLIS);
-                conn.setDoOutput(true);
-                conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded;charset=utf8");
-                String encodedData = encodeDataString(dataString);
-                String encodedQuery = "data=" + encodedData;
-                postStream = conn.getOutputStream();
-                postStream.write(encodedQuery.getBytes());
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                if (postStream != null) {
-                    try {
-                        postStream.close();
-                    } catch (IOException e) {
-                        SugoConfig.log.warning("fail closed postStream :" + e);
-                    }
-                }
+            if (mEncoding == Encoding.FORM) {
+                return post(new FormBody(dataString));
             }
+            return post(new CompressedBody(dataString, mEncoding == Encoding.GZIP));
+        }
+
+        /**
+         * 以 contentType 原样发送 BatchCodec 编码后的数据，不经过 Base64 和压缩
+         */
+        @Override
+        public boolean sendBinary(byte[] data, int offset, int length, String contentType) {
+            return post(HttpConnectionPool.body(contentType, data, offset, length));
+        }
 
-            InputStream responseStream = null;
-            String response = null;
+        private boolean post(HttpConnectionPool.RequestBody body) {
+            HttpConnectionPool.Response response;
             try {
-                if (conn != null) {
-                    responseStream = conn.getInputStream();
-                    response = slurp(responseStream);
-                }
+                response = mPool.post(body);
+            } catch (ConnectException e) {
+                return fail(SendFailure.CONNECT, e.toString());
+            } catch (SocketTimeoutException e) {
+                return fail(SendFailure.TIMEOUT, e.toString());
             } catch (IOException e) {
-                SugoConfig.log.warning("fail get responseStream :" + e);
+                return fail(SendFailure.NETWORK, e.toString());
             } finally {
-                if (responseStream != null) {
-                    try {
-                        responseStream.close();
-                    } catch (IOException e) {
-                        SugoConfig.log.warning("fail closed responseStream :" + e);
-                    }
+                Metrics metrics = mMetrics;
+                if (metrics != null) {
+                    // 压缩后的长度在写出后才知道
+                    metrics.recordEncodedBytes(body instanceof CompressedBody
+                            ? ((CompressedBody) body).getWrittenBytes() : body.contentLength());
                 }
             }
+            SendFailure failure = response.failure();
+            if (failure != null) {
+                return fail(failure, "HTTP " + response.mStatus + " " + response.mBody);
+            }
+            mLastFailure.remove();
+            return true;
+        }
 
-            return ((response != null) && response.equals("1"));
+        @Override
+        public SendFailure getLastFailure() {
+            return mLastFailure.get();
         }
 
-        private String slurp(InputStream in) throws IOException {
-            final StringBuilder out = new StringBuilder();
-            InputStreamReader reader = new InputStreamReader(in, "utf8");
+        private boolean fail(SendFailure failure, String reason) {
+            mLastFailure.set(failure);
+            SugoConfig.log.warning("fail send data to " + mEventsEndpoint + " : " + reason);
+            return false;
+        }
 
-            char[] readBuffer = new char[SugoConfig.BUFFER_SIZE];
-            int readCount = 0;
-            do {
-                readCount = reader.read(readBuffer);
-                if (readCount > 0) {
-                    out.append(readBuffer, 0, readCount);
-                }
-            } while (readCount != -1);
+        @Override
+        public void setMetrics(Metrics metrics) {
+            mMetrics = metrics;
+        }
 
-            return out.toString();
+        /**
+         * 关闭连接池中的连接，之后的 sendData 都会返回 false
+         */
+        @Override
+        public void close() {
+            mPool.close();
         }
 
     }
 
-    public static class FileSender implements Sender {
+    /**
+     * 将数据写入本地的滚动文件，每次 sendData 写入一行
+     * 直接写文件，不依赖也不修改任何日志框架的配置，多个 FileSender 可以同时写不同的文件
+     */
+    public static class FileSender implements Sender, Closeable, Flushable, MetricsAware {
+
+        /**
+         * 写入数据后何时 fsync
+         */
+        public enum SyncPolicy {
+            /**
+             * 不主动 fsync，由操作系统决定何时落盘（进程崩溃不会丢数据，机器掉电可能丢失最近的数据）
+             */
+            NEVER,
+            /**
+             * 每次 sendData 后 fsync
+             */
+            ALWAYS,
+            /**
+             * 距离上次 fsync 超过 SugoConfig.DEFAULT_FSYNC_INTERVAL_MILLIS 后，在下一次 sendData 时 fsync
+             */
+            PERIODIC
+        }
 
-        private final org.slf4j.Logger mLogger;
+        private final RollingFileWriter mWriter;
+        private volatile Metrics mMetrics;
 
         public FileSender(boolean daily) {
             this(SugoConfig.sMessageFile, daily);
@@ -240,14 +784,20 @@ public class SugoAPI {
             this(messageFile, "", "", daily, dataPattern);
         }
 
+        public FileSender(String messageFile, String maxBackup, String maxFileSize, boolean daily, String dataPattern) {
+            this(messageFile, maxBackup, maxFileSize, daily, dataPattern, SyncPolicy.NEVER);
+        }
+
         /**
          * @param messageFile 存放 message 数据的文件名字（超过存量之后，会被转移到新生成的文件里）
          * @param maxBackup   如果是按容量存储数据，该参数表示最大的文件数量
-         * @param maxFileSize 如果是按容量存储数据，该参数表示数据文件的容量限度（单位是 KB MB）
+         * @param maxFileSize 如果是按容量存储数据，该参数表示数据文件的容量限度（单位是 KB MB GB）
          * @param daily       是否是按时间存储数据，false 则是按容量存储（默认是 false）
          * @param dataPattern 如果是按时间存储数据，该参数表示生成的文件的时间后缀（默认是按天 yyyyMMdd ）
+         * @param syncPolicy  写入数据后何时 fsync
          */
-        public FileSender(String messageFile, String maxBackup, String maxFileSize, boolean daily, String dataPattern) {
+        public FileSender(String messageFile, String maxBackup, String maxFileSize, boolean daily, String dataPattern,
+                          SyncPolicy syncPolicy) {
             if (messageFile == null || messageFile.equals("")) {
                 messageFile = SugoConfig.sMessageFile;
             }
@@ -257,40 +807,23 @@ public class SugoAPI {
             if (maxFileSize == null || maxFileSize.equals("")) {
                 maxFileSize = SugoConfig.sMaxFileSize;
             }
-            Properties properties = new Properties();
-//            properties.put("log4j.logger.io.sugo.sugojavasdk", "INFO,sugoConsole");               // 只输出到控制台
-            if (daily) {
-                properties.put("log4j.logger.io.sugo.sugojavasdk", "INFO,sugoDailyFile");  // 输出到控制台和文件（按日期增加）
-            } else {
-                properties.put("log4j.logger.io.sugo.sugojavasdk", "INFO,sugoFile");        // 输出到控制台和文件（按容量增加）
+            if (dataPattern == null || dataPattern.equals("")) {
+                dataPattern = "yyyyMMdd";
+            }
+            if (syncPolicy == null) {
+                syncPolicy = SyncPolicy.NEVER;
+            }
+            try {
+                if (daily) {
+                    mWriter = new RollingFileWriter(new File(messageFile), dataPattern, syncPolicy,
+                            SugoConfig.DEFAULT_FSYNC_INTERVAL_MILLIS);
+                } else {
+                    mWriter = new RollingFileWriter(new File(messageFile), RollingFileWriter.parseFileSize(maxFileSize),
+                            Integer.parseInt(maxBackup.trim()), syncPolicy, SugoConfig.DEFAULT_FSYNC_INTERVAL_MILLIS);
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Can not open message file: " + messageFile, e);
             }
-            properties.put("log4j.additivity.io.sugo.sugojavasdk", "false");  // 设置这个子 Logger 输出日志不在父级别 Logger 里面输出
-
-            properties.put("log4j.appender.sugoConsole", "org.apache.log4j.ConsoleAppender");
-            properties.put("log4j.appender.sugoConsole.Threshold", "INFO");
-            properties.put("log4j.appender.sugoConsole.layout", "org.apache.log4j.PatternLayout");
-            properties.put("log4j.appender.sugoConsole.layout.ConversionPattern", "%d{yyyy-MM-dd HH:mm:ss SSS} ->[%t]--[%-5p]--[%c{1}]--%m%n");
-
-            properties.put("log4j.appender.sugoFile", "org.apache.log4j.RollingFileAppender");
-            properties.put("log4j.appender.sugoFile.File", messageFile);
-            properties.put("log4j.appender.sugoFile.Threshold", "INFO");
-            properties.put("log4j.appender.sugoFile.Encoding", "UTF-8");
-            properties.put("log4j.appender.sugoFile.layout", "org.apache.log4j.PatternLayout");
-            properties.put("log4j.appender.sugoFile.layout.ConversionPattern", "%m%n");
-            properties.put("log4j.appender.sugoFile.MaxBackupIndex", maxBackup);
-            properties.put("log4j.appender.sugoFile.MaxFileSize", maxFileSize);
-
-            properties.put("log4j.appender.sugoDailyFile", "org.apache.log4j.DailyRollingFileAppender");
-            properties.put("log4j.appender.sugoDailyFile.File", messageFile);
-            properties.put("log4j.appender.sugoDailyFile.DatePattern", "'.'" + dataPattern);
-            properties.put("log4j.appender.sugoDailyFile.Threshold", "INFO");
-            properties.put("log4j.appender.sugoDailyFile.Encoding", "UTF-8");
-            properties.put("log4j.appender.sugoDailyFile.layout", "org.apache.log4j.PatternLayout");
-            properties.put("log4j.appender.sugoDailyFile.layout.ConversionPattern", "%m%n");
-
-            PropertyConfigurator.configure(properties);
-
-            mLogger = org.slf4j.LoggerFactory.getLogger(FileSender.class);
         }
 
         @Override
@@ -298,8 +831,35 @@ public class SugoAPI {
             if (dataString == null) {
                 return false;
             }
-            mLogger.info(dataString);
-            return true;
+            try {
+                int bytes = mWriter.writeLine(dataString);
+                Metrics metrics = mMetrics;
+                if (metrics != null) {
+                    metrics.recordEncodedBytes(bytes);
+                }
+                return true;
+            } catch (IOException e) {
+                SugoConfig.log.warning("fail write message file :" + e);
+                return false;
+            }
+        }
+
+        @Override
+        public void setMetrics(Metrics metrics) {
+            mMetrics = metrics;
+        }
+
+        /**
+         * fsync 已写入的数据
+         */
+        @Override
+        public void flush() throws IOException {
+            mWriter.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mWriter.close();
         }
 
     }
@@ -312,7 +872,7 @@ public class SugoAPI {
             mLogger = Logger.getLogger("SugoAPI");
         }
 
-        public ConsoleSender(@NotNull String logTag) {
+        public ConsoleSender(String logTag) {
             mLogger = Logger.getLogger(logTag);
         }
 
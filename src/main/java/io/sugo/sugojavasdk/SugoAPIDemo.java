@@ -1,10 +1,10 @@
 package io.sugo.sugojavasdk;
 
 import org.json.JSONObject;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 /**
  * @author Administrator
@@ -14,14 +14,16 @@ public class SugoAPIDemo {
 
     public static void main(String[] args) {
 
-        Logger logger = LoggerFactory.getLogger(SugoAPIDemo.class);
+        Logger logger = Logger.getLogger(SugoAPIDemo.class.getName());
         logger.info("sugo java sdk demo starting ...");
 
+        // 多个线程共用一个 SugoAPI
+        final SugoAPI sugoAPI = new SugoAPI(new SugoAPI.FileSender("/home/fengxj/test/access.log", true, "yyyyMMddHH"));
+        // 进程退出时把队列中的数据写完，最多等待 3 秒
+        sugoAPI.registerShutdownHook(3, TimeUnit.SECONDS);
         Runnable runnable = new Runnable() {
             @Override
             public void run() {
-                SugoAPI sugoAPI = new SugoAPI(new SugoAPI.FileSender("/home/fengxj/test/access.log", true, "yyyyMMddHH"));
-
                 JSONObject jsonObject = new JSONObject();
                 jsonObject.put("test", "value");
                 for (int i = 0; i < 100000; i++) {
@@ -0,0 +1,56 @@
+package io.sugo.sugojavasdk;
+
+/**
+ * SugoAPI 的统计数据在 JMX 中的视图，见 SugoAPI#registerMBean(String)
+ * 含义与 MetricsSnapshot 中的同名字段相同，耗时的单位是微秒
+ * 耗时相关的属性来自同一个直方图副本，最多每秒更新一次
+ */
+public interface SugoAPIMetricsMXBean {
+
+    long getEventsAccepted();
+
+    long getEventsSent();
+
+    long getEventsDropped();
+
+    long getEventsShed();
+
+    long getEventsSampledOut();
+
+    long getEventsAggregated();
+
+    long getEventsDeduplicated();
+
+    long getEventsFailed();
+
+    long getEventsAbandoned();
+
+    long getBatchesSent();
+
+    long getBatchesFailed();
+
+    long getRetries();
+
+    long getPayloadBytes();
+
+    long getBytesAfterEncoding();
+
+    int getQueueDepth();
+
+    int getQueueCapacity();
+
+    long getQueueBytes();
+
+    long getSendCount();
+
+    double getSendLatencyMeanMicros();
+
+    long getSendLatencyP50Micros();
+
+    long getSendLatencyP99Micros();
+
+    long getSendLatencyP999Micros();
+
+    long getSendLatencyMaxMicros();
+
+}
@@ -15,6 +15,80 @@ import java.util.logging.Logger;
     static final int BUFFER_SIZE = 256; // Small, we expect small responses.
     static final int CONNECT_TIMEOUT_MILLIS = 2000;
     static final int READ_TIMEOUT_MILLIS = 10000;
+    static final int DEFAULT_HTTP_POOL_SIZE = 4;
+    static final long DEFAULT_HTTP_IDLE_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * ClusterHttpSender
+     */
+    static final int DEFAULT_CLUSTER_EJECT_FAILURES = 3;
+    static final long DEFAULT_CLUSTER_EJECT_MILLIS = 5000;
+    static final long MAX_CLUSTER_EJECT_MILLIS = 120000;
+
+    /**
+     * AsyncHttpSender
+     */
+    static final int DEFAULT_ASYNC_HTTP_CONNECTIONS = 2;
+    static final int DEFAULT_ASYNC_HTTP_MAX_IN_FLIGHT = 8;
+
+    /**
+     * SpoolingSender
+     */
+    static final long DEFAULT_SPOOL_MAX_BYTES = 512L * 1024 * 1024;
+    static final long DEFAULT_SPOOL_SEGMENT_BYTES = 16L * 1024 * 1024;
+    static final long DEFAULT_SPOOL_RETRY_INTERVAL_MILLIS = 1000;
+    static final long MAX_SPOOL_RETRY_INTERVAL_MILLIS = 60000;
+
+    /**
+     * RetryingSender
+     */
+    static final int DEFAULT_RETRY_MAX_ATTEMPTS = 3;
+    static final long DEFAULT_RETRY_INITIAL_BACKOFF_MILLIS = 100;
+    static final long DEFAULT_RETRY_MAX_BACKOFF_MILLIS = 5000;
+    static final int DEFAULT_CIRCUIT_FAILURE_THRESHOLD = 5;
+    static final long DEFAULT_CIRCUIT_OPEN_MILLIS = 10000;
+
+    /**
+     * DedupSender，默认约占用 3.6MB 内存
+     */
+    static final long DEFAULT_DEDUP_EXPECTED_IDS = 500000;
+    static final double DEFAULT_DEDUP_FALSE_POSITIVE_RATE = 1e-6;
+    static final long DEFAULT_DEDUP_WINDOW_MILLIS = 10 * 60 * 1000;
+
+    /**
+     * AggregationRule
+     */
+    static final long DEFAULT_AGGREGATION_WINDOW_MILLIS = 60000;
+    static final int DEFAULT_AGGREGATION_MAX_GROUPS = 1000;
+
+    /**
+     * defaultWorker 分片时，每个分片记录和报告的热点 distinct_id 数量，每记录多少次计数减半
+     */
+    static final int SHARD_HOT_KEY_SLOTS = 32;
+    static final int SHARD_HOT_KEYS = 8;
+    static final long SHARD_HOT_KEY_DECAY_INTERVAL = 100000;
+
+    /**
+     * UnixSocketSender、UdpSender：本机 agent 不可用后多久再尝试连接，写入的超时时间，UDP datagram 的大小上限（IPv4 UDP 的最大负载）
+     */
+    static final long DEFAULT_AGENT_RECONNECT_MILLIS = 1000;
+    static final long DEFAULT_AGENT_WRITE_TIMEOUT_MILLIS = 1000;
+    static final int DEFAULT_UDP_MAX_DATAGRAM_BYTES = 65507;
+
+    /**
+     * SugoAPI#close() 等待队列发送完成的最长时间
+     */
+    static final long DEFAULT_CLOSE_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * JMX 中耗时相关的属性复用同一个直方图副本的时间
+     */
+    static final long METRICS_LATENCY_CACHE_MILLIS = 1000;
+
+    /**
+     * FormBody、LocalAgentSender、RollingFileWriter 复用的缓冲区超过该大小时不保留，避免偶尔的大批次长期占用内存
+     */
+    static final int MAX_RETAINED_FORM_BUFFER_BYTES = 8 * 1024 * 1024;
 
     /**
      * FileSender
@@ -22,7 +96,18 @@ import java.util.logging.Logger;
     static final String sMessageFile = "./sugo_message/message";
     static final String sMaxBackupIndex = "50";
     static final String sMaxFileSize = "10MB";
+    static final long DEFAULT_FSYNC_INTERVAL_MILLIS = 1000;
+
+
+    /**
+     * defaultWorker 中，一批数据的最大字节数（JSON 的 UTF-8 字节数）
+     */
+    static final int DEFAULT_BATCH_BYTES = 1024 * 1024;
 
+    /**
+     * defaultWorker 中，一批数据未满时最多等待的时间，超时后立即发送
+     */
+    static final long DEFAULT_LINGER_MILLIS = 200;
 
     /**
      * defaultWorker 中，消费日志队列的线程数，如果
@@ -34,4 +119,9 @@ import java.util.logging.Logger;
      */
     public static final int DEFAULT_WORKER_QUEＵE_CAPACITY = 1000000;
 
+    /**
+     * defaultWorker 中，队列中 message 估计占用的堆内存上限，先于 DEFAULT_WORKER_QUEＵE_CAPACITY 生效
+     */
+    public static final long DEFAULT_WORKER_MEMORY_BUDGET_BYTES = 64L * 1024 * 1024;
+
 }
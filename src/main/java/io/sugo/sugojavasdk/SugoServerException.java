@@ -16,10 +16,23 @@ public class SugoServerException extends IOException {
     private static final long serialVersionUID = 8230724556897575457L;
 
     private final List<JSONObject> mBadDelivery;
+    private final SendFailure mFailure;
 
     public SugoServerException(String message, List<JSONObject> badDelivery) {
-        super(message);
+        this(message, badDelivery, SendFailure.UNKNOWN);
+    }
+
+    public SugoServerException(String message, List<JSONObject> badDelivery, SendFailure failure) {
+        super(message + " (" + failure + ")");
         mBadDelivery = badDelivery;
+        mFailure = failure;
+    }
+
+    /**
+     * @return 发送失败的原因，Sender 没有提供时为 SendFailure.UNKNOWN
+     */
+    public SendFailure getFailure() {
+        return mFailure;
     }
 
     public List<JSONObject> getBadDeliveryContents() {
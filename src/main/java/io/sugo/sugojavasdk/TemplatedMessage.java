@@ -0,0 +1,28 @@
+package io.sugo.sugojavasdk;
+
+import org.json.JSONObject;
+
+/**
+ * 只包含每条 event 自己的字段的 message，模板中的属性在 EventWriter#writeMessage 时以预先序列化的字节拼接
+ * 只在默认 worker 内部使用，toString() 等 JSONObject 的方法看不到模板中的属性
+ */
+class TemplatedMessage extends JSONObject {
+
+    private final EventTemplate mTemplate;
+
+    TemplatedMessage(EventTemplate template) {
+        mTemplate = template;
+    }
+
+    EventTemplate template() {
+        return mTemplate;
+    }
+
+    /**
+     * @return true 如果 message 本身或它的模板中有 key
+     */
+    static boolean has(JSONObject message, String key) {
+        return message.has(key) || (message instanceof TemplatedMessage && ((TemplatedMessage) message).mTemplate.contains(key));
+    }
+
+}
@@ -0,0 +1,111 @@
+package io.sugo.sugojavasdk;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 创建 SDK 的后台线程：普通的 daemon 线程，或者 JDK 21 以上的虚拟线程
+ * 源码按 Java 7 编译，虚拟线程通过反射调用 Thread.ofVirtual() 创建，不支持的 JDK 上退回普通线程
+ */
+final class Threads {
+
+    /**
+     * Thread.ofVirtual()、Thread.Builder#name(String, long)、Thread.Builder#factory()、
+     * Executors.newThreadPerTaskExecutor(ThreadFactory)，JDK 21 以下为 null
+     */
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+    private static final Method PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method perTaskExecutor = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            perTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            // JDK 19、20 中虚拟线程是预览功能，没有 --enable-preview 时抛出 UnsupportedOperationException
+            ofVirtual.invoke(null);
+        } catch (Exception e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        PER_TASK_EXECUTOR = perTaskExecutor;
+    }
+
+    private Threads() {
+    }
+
+    /**
+     * @return true 如果当前 JDK 可以创建虚拟线程
+     */
+    static boolean isVirtualSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @param prefix  线程名称的前缀，之后是从 0 开始的序号
+     * @param virtual 为 true 时创建虚拟线程，当前 JDK 不支持时记录警告并创建普通线程
+     * @return 创建未启动的 daemon 线程（虚拟线程总是 daemon）
+     */
+    static ThreadFactory factory(String prefix, boolean virtual) {
+        if (virtual) {
+            if (OF_VIRTUAL != null) {
+                try {
+                    Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 0L);
+                    return (ThreadFactory) FACTORY.invoke(builder);
+                } catch (Exception e) {
+                    SugoConfig.log.warning("fail create virtual threads :" + e);
+                }
+            } else {
+                SugoConfig.log.warning("Virtual threads require JDK 21 or later, using platform threads for " + prefix);
+            }
+        }
+        return platformFactory(prefix);
+    }
+
+    /**
+     * @param threads 使用普通线程时的线程数
+     * @param virtual 为 true 时每个任务一个虚拟线程（虚拟线程不需要池化），当前 JDK 不支持时记录警告并使用普通线程
+     * @return 执行任务的 ExecutorService，普通线程空闲 60 秒后退出
+     */
+    static ExecutorService executor(String prefix, int threads, boolean virtual) {
+        if (virtual && OF_VIRTUAL != null) {
+            try {
+                return (ExecutorService) PER_TASK_EXECUTOR.invoke(null, factory(prefix, true));
+            } catch (Exception e) {
+                SugoConfig.log.warning("fail create virtual thread executor :" + e);
+            }
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), factory(prefix, virtual));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ThreadFactory platformFactory(final String prefix) {
+        final AtomicInteger index = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + index.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,49 @@
+package io.sugo.sugojavasdk;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁的令牌桶（GCRA）：只保存下一个令牌的理论到达时间，tryAcquire 只需一次 CAS
+ * 空闲时最多积累 burst 个令牌
+ */
+class TokenBucket {
+
+    private final long mIntervalNanos;
+    private final long mToleranceNanos;
+    private final AtomicLong mArrival;
+
+    /**
+     * @param permitsPerSecond 每秒产生的令牌数
+     * @param burst            最多积累的令牌数
+     */
+    TokenBucket(double permitsPerSecond, int burst) {
+        if (!(permitsPerSecond > 0)) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be positive: " + burst);
+        }
+        mIntervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        mToleranceNanos = mIntervalNanos * (burst - 1);
+        mArrival = new AtomicLong(System.nanoTime());
+    }
+
+    boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    boolean tryAcquire(long now) {
+        while (true) {
+            long arrival = mArrival.get();
+            long start = arrival - now < 0 ? now : arrival;
+            if (start - now > mToleranceNanos) {
+                return false;
+            }
+            if (mArrival.compareAndSet(arrival, start + mIntervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+}
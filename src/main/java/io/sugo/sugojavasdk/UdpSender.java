@@ -0,0 +1,207 @@
+package io.sugo.sugojavasdk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * 通过 UDP 把数据发给本机的采集 agent，每个 datagram 是一个 JSON 数组，不等待响应
+ * 一批数据超过 maxDatagramBytes 时按 event 拆成多个 datagram，每个都尽量装满。
+ * 单条超过上限的 event 和某个 datagram 发送失败后没有发出的 event 交给 fallback；
+ * 没有 fallback 时超过上限的 event 记为丢弃，其余的都发出了 sendData 就返回 true，只有 datagram 发送失败时返回 false。
+ * UDP 不保证送达：agent 没有监听时，通常要到下一次发送才会因为 ICMP port unreachable 失败，
+ * 此后 reconnectMillis 内的数据交给 fallback，见 LocalAgentSender
+ */
+public class UdpSender extends LocalAgentSender {
+
+    private final InetSocketAddress mAddress;
+    private final int mMaxDatagramBytes;
+    private final byte[] mPacket;
+    private DatagramChannel mChannel;
+    /**
+     * 上一次 write 没有发出的 event，以逗号分隔，见 unsent()
+     */
+    private final ByteArrayOutputStream mUnsent = new ByteArrayOutputStream();
+
+    public UdpSender(String host, int port) {
+        this(host, port, null);
+    }
+
+    public UdpSender(String host, int port, SugoAPI.Sender fallback) {
+        this(host, port, fallback, SugoConfig.DEFAULT_UDP_MAX_DATAGRAM_BYTES, SugoConfig.DEFAULT_AGENT_RECONNECT_MILLIS);
+    }
+
+    /**
+     * @param host             agent 的地址，通常是 127.0.0.1
+     * @param port             agent 监听的 UDP 端口
+     * @param fallback         agent 不可用时接收数据的 Sender，例如 FileSender，可以为 null
+     * @param maxDatagramBytes 单个 datagram 的大小上限，不应超过 agent 的接收缓冲区
+     * @param reconnectMillis  agent 不可用后多久再尝试发送
+     */
+    public UdpSender(String host, int port, SugoAPI.Sender fallback, int maxDatagramBytes, long reconnectMillis) {
+        super(host + ":" + port, fallback, reconnectMillis);
+        if (maxDatagramBytes < 16 || maxDatagramBytes > SugoConfig.DEFAULT_UDP_MAX_DATAGRAM_BYTES) {
+            throw new IllegalArgumentException("maxDatagramBytes must be between 16 and "
+                    + SugoConfig.DEFAULT_UDP_MAX_DATAGRAM_BYTES);
+        }
+        mAddress = new InetSocketAddress(host, port);
+        mMaxDatagramBytes = maxDatagramBytes;
+        mPacket = new byte[maxDatagramBytes];
+    }
+
+    @Override
+    boolean isConnected() {
+        return mChannel != null;
+    }
+
+    @Override
+    void connect() throws IOException {
+        // 连接后 ICMP port unreachable 会以 PortUnreachableException 报告
+        mChannel = DatagramChannel.open();
+        mChannel.connect(mAddress);
+    }
+
+    @Override
+    void disconnect() {
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            mChannel = null;
+        }
+    }
+
+    @Override
+    void write(byte[] data, int offset, int length, String contentType) throws IOException {
+        mUnsent.reset();
+        if (length <= mMaxDatagramBytes) {
+            mChannel.write(ByteBuffer.wrap(data, offset, length));
+            return;
+        }
+        int close = offset + length - 1;
+        while (close > offset && data[close] <= ' ') {
+            close--;
+        }
+        if (data[offset] != '[' || data[close] != ']') {
+            throw new IllegalArgumentException("Data is not a JSON array");
+        }
+        // 按顶层的逗号拆分数组，UTF-8 的多字节字符不包含 ASCII 字节，可以直接按字节扫描
+        boolean written = false;
+        int packed = 0;
+        int oversized = 0;
+        int depth = 0;
+        boolean inString = false;
+        int start = offset + 1;
+        for (int i = start; i <= close; i++) {
+            byte b = data[i];
+            if (inString) {
+                if (b == '\\') {
+                    i++;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if ((b == '}' || b == ']') && depth > 0) {
+                depth--;
+            } else if (depth == 0 && (b == ',' || b == ']')) {
+                int elementLength = i - start;
+                if (elementLength + 2 > mMaxDatagramBytes) {
+                    // 没有 fallback 时直接丢弃，不算作发送失败
+                    if (hasFallback()) {
+                        unsent(data, start, elementLength);
+                    }
+                    oversized++;
+                } else if (elementLength > 0) {
+                    if (packed > 0 && packed + 1 + elementLength + 1 > mMaxDatagramBytes) {
+                        try {
+                            sendPacket(packed);
+                        } catch (IOException e) {
+                            // 这个 datagram 和后面的 event 都没有发出
+                            failed(written, packed);
+                            if (written) {
+                                unsent(data, start, close - start);
+                            }
+                            throw e;
+                        }
+                        written = true;
+                        packed = 0;
+                    }
+                    mPacket[packed] = packed == 0 ? (byte) '[' : (byte) ',';
+                    packed++;
+                    System.arraycopy(data, start, mPacket, packed, elementLength);
+                    packed += elementLength;
+                }
+                start = i + 1;
+            }
+        }
+        if (packed > 0) {
+            try {
+                sendPacket(packed);
+            } catch (IOException e) {
+                failed(written, packed);
+                throw e;
+            }
+        }
+        if (oversized > 0) {
+            if (hasFallback()) {
+                SugoConfig.log.warning("Sending " + oversized + " events larger than " + mMaxDatagramBytes
+                        + " bytes to fallback");
+            } else {
+                SugoConfig.log.warning("Dropped " + oversized + " events larger than " + mMaxDatagramBytes + " bytes");
+                Metrics metrics = metrics();
+                if (metrics != null) {
+                    metrics.recordDropped(oversized);
+                }
+            }
+        }
+    }
+
+    /**
+     * 发送 datagram 失败：已经发出过 datagram 时，把这个 datagram 中的 event 记为没有发出，
+     * 否则整批都没有发出，由 LocalAgentSender 按发送失败处理
+     */
+    private void failed(boolean written, int packed) {
+        if (written) {
+            unsent(mPacket, 1, packed - 1);
+        } else {
+            mUnsent.reset();
+        }
+    }
+
+    /**
+     * 把 data[offset, offset + length) 中以逗号分隔的 event 加到没有发出的部分
+     */
+    private void unsent(byte[] data, int offset, int length) {
+        if (length > 0) {
+            mUnsent.write(mUnsent.size() == 0 ? '[' : ',');
+            mUnsent.write(data, offset, length);
+        }
+    }
+
+    @Override
+    byte[] unsent() {
+        if (mUnsent.size() == 0) {
+            return null;
+        }
+        mUnsent.write(']');
+        byte[] unsent = mUnsent.toByteArray();
+        mUnsent.reset();
+        return unsent;
+    }
+
+    /**
+     * 发送 mPacket 中已经装入的 length 个字节
+     */
+    void sendPacket(int length) throws IOException {
+        mPacket[length] = ']';
+        mChannel.write(ByteBuffer.wrap(mPacket, 0, length + 1));
+    }
+
+}
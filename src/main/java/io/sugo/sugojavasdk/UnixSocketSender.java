@@ -0,0 +1,189 @@
+package io.sugo.sugojavasdk;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+
+/**
+ * 通过 Unix domain socket 把数据流式写给本机的采集 agent（需要 JDK 16 以上），不等待响应
+ * 每批数据是一帧：4 字节大端的帧长度（不含这 4 个字节），1 字节的 Content-Type 长度，Content-Type（ASCII），数据。
+ * JSON 数据的 Content-Type 为 JsonCodec#getContentType()，其他 BatchCodec 的数据通过 sendBinary 原样写出。
+ * 重连和 fallback 见 LocalAgentSender
+ */
+public class UnixSocketSender extends LocalAgentSender implements SugoAPI.BinarySender {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * UnixDomainSocketAddress.of(String)、StandardProtocolFamily.UNIX、SocketChannel.open(ProtocolFamily)，
+     * 源码按 Java 7 编译，通过反射调用，JDK 16 以下为 null
+     */
+    private static final Method ADDRESS_OF;
+    private static final ProtocolFamily UNIX;
+    private static final Method OPEN;
+
+    static {
+        Method addressOf = null;
+        ProtocolFamily unix = null;
+        Method open = null;
+        try {
+            addressOf = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+            unix = StandardProtocolFamily.valueOf("UNIX");
+            open = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+        } catch (Exception e) {
+            addressOf = null;
+        }
+        ADDRESS_OF = addressOf;
+        UNIX = unix;
+        OPEN = open;
+    }
+
+    private final SocketAddress mAddress;
+    private final long mWriteTimeoutMillis;
+    private final ByteBuffer mHeader = ByteBuffer.allocate(4 + 1 + 255);
+    private final ByteBuffer[] mBuffers = new ByteBuffer[2];
+    private SocketChannel mChannel;
+    private Selector mSelector;
+
+    public UnixSocketSender(String socketPath) {
+        this(socketPath, null);
+    }
+
+    public UnixSocketSender(String socketPath, SugoAPI.Sender fallback) {
+        this(socketPath, fallback, SugoConfig.DEFAULT_AGENT_RECONNECT_MILLIS, SugoConfig.DEFAULT_AGENT_WRITE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param socketPath         agent 监听的 socket 文件
+     * @param fallback           agent 不可用时接收数据的 Sender，例如 FileSender，可以为 null
+     * @param reconnectMillis    agent 不可用后多久再尝试连接
+     * @param writeTimeoutMillis agent 不读取数据、socket 缓冲区一直满时，等待多久后断开连接
+     * @throws IllegalStateException 当前 JDK 不支持 Unix domain socket
+     */
+    public UnixSocketSender(String socketPath, SugoAPI.Sender fallback, long reconnectMillis, long writeTimeoutMillis) {
+        super(socketPath, fallback, reconnectMillis);
+        if (!isSupported()) {
+            throw new IllegalStateException("Unix domain sockets require JDK 16 or later");
+        }
+        if (socketPath == null || socketPath.isEmpty()) {
+            throw new IllegalArgumentException("socketPath can not be empty");
+        }
+        if (writeTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("writeTimeoutMillis must be positive");
+        }
+        mAddress = address(socketPath);
+        mWriteTimeoutMillis = writeTimeoutMillis;
+    }
+
+    /**
+     * @return true 如果当前 JDK 支持 Unix domain socket
+     */
+    public static boolean isSupported() {
+        return ADDRESS_OF != null;
+    }
+
+    static SocketAddress address(String socketPath) {
+        try {
+            return (SocketAddress) ADDRESS_OF.invoke(null, socketPath);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalArgumentException("Invalid socket path: " + socketPath, e.getCause());
+        }
+    }
+
+    /**
+     * @return 新的 Unix domain socket channel，未连接
+     */
+    static SocketChannel openChannel() throws IOException {
+        try {
+            return (SocketChannel) OPEN.invoke(null, UNIX);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public boolean sendBinary(byte[] data, int offset, int length, String contentType) {
+        return sendBinaryData(data, offset, length, contentType);
+    }
+
+    @Override
+    boolean isConnected() {
+        return mChannel != null;
+    }
+
+    @Override
+    void connect() throws IOException {
+        mChannel = openChannel();
+        mChannel.connect(mAddress);
+        // 非阻塞写出，socket 缓冲区满时由 Selector 等待，超时后断开
+        mChannel.configureBlocking(false);
+        mSelector = Selector.open();
+        mChannel.register(mSelector, SelectionKey.OP_WRITE);
+    }
+
+    @Override
+    void disconnect() {
+        if (mSelector != null) {
+            try {
+                mSelector.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            mSelector = null;
+        }
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            mChannel = null;
+        }
+    }
+
+    @Override
+    void write(byte[] data, int offset, int length, String contentType) throws IOException {
+        byte[] type = contentType.getBytes(ASCII);
+        if (type.length > 255) {
+            throw new IllegalArgumentException("Content type too long: " + contentType);
+        }
+        mHeader.clear();
+        mHeader.putInt(1 + type.length + length).put((byte) type.length).put(type).flip();
+        mBuffers[0] = mHeader;
+        mBuffers[1] = ByteBuffer.wrap(data, offset, length);
+        long deadline = 0;
+        while (mBuffers[1].hasRemaining()) {
+            if (mChannel.write(mBuffers) > 0) {
+                deadline = 0;
+                continue;
+            }
+            // socket 缓冲区已满，等待 agent 读取
+            long now = System.currentTimeMillis();
+            if (deadline == 0) {
+                deadline = now + mWriteTimeoutMillis;
+            } else if (now >= deadline) {
+                throw new SocketTimeoutException("Write to " + mAddress + " timed out");
+            }
+            mSelector.select(deadline - now);
+            mSelector.selectedKeys().clear();
+        }
+        mBuffers[1] = null;
+    }
+
+}
@@ -0,0 +1,67 @@
+package io.sugo.sugojavasdk;
+
+/**
+ * 不经过 String#getBytes 的 UTF-8 编码，直接写入调用者的缓冲区，结果与 String#getBytes("utf-8") 相同
+ */
+final class Utf8 {
+
+    private Utf8() {
+    }
+
+    /**
+     * @return 与 String#getBytes("utf-8") 相同的字节数，不成对的代理字符按 '?' 计
+     */
+    static int length(String s) {
+        int length = s.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                // 两个 char 共 4 个字节
+                bytes += 2;
+                i++;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 与 String#getBytes("utf-8") 相同，不成对的代理字符写为 '?'
+     *
+     * @param pos 开始写入的位置，out 中至少有 length(s) 字节的空间
+     * @return 写入后的位置
+     */
+    static int write(String s, byte[] out, int pos) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xc0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (!Character.isSurrogate(c)) {
+                out[pos++] = (byte) (0xe0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                out[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                out[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                out[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else {
+                out[pos++] = '?';
+            }
+        }
+        return pos;
+    }
+
+}
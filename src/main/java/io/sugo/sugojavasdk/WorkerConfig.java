@@ -0,0 +1,337 @@
+package io.sugo.sugojavasdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 默认 worker 的配置（每个 SugoAPI 实例一份）
+ * 未设置的项使用 SugoConfig 中的默认值
+ */
+public class WorkerConfig {
+
+    /**
+     * 队列满时，event() 的处理方式
+     */
+    public enum OverflowPolicy {
+        /**
+         * 阻塞调用线程，直到队列有空位
+         */
+        BLOCK,
+        /**
+         * 丢弃当前（最新）的 event
+         */
+        DROP_NEWEST,
+        /**
+         * 丢弃队列中最老的 event，再放入当前 event
+         */
+        DROP_OLDEST
+    }
+
+    /**
+     * 队列为空时 consumer 线程、队列满时 BLOCK 的调用线程如何等待
+     */
+    public enum WaitStrategy {
+        /**
+         * 一直自旋，延迟最低，但每个等待的线程会占满一个 CPU 核
+         */
+        BUSY_SPIN,
+        /**
+         * 自旋一段时间后反复 Thread.yield()，延迟较低，空闲时仍会占用 CPU
+         */
+        YIELD,
+        /**
+         * 短暂自旋和 yield 后挂起线程，由对方唤醒，空闲时不占用 CPU
+         */
+        PARK
+    }
+
+    private int mConsumerCount = SugoConfig.DEFAULT_WORKER_CUSTOMER_COUNT;
+    private int mQueueCapacity = SugoConfig.DEFAULT_WORKER_QUEＵE_CAPACITY;
+    private OverflowPolicy mOverflowPolicy = OverflowPolicy.BLOCK;
+    private WaitStrategy mWaitStrategy = WaitStrategy.PARK;
+    private int mBatchSize = SugoConfig.MAX_MESSAGE_SIZE;
+    private int mBatchBytes = SugoConfig.DEFAULT_BATCH_BYTES;
+    private long mLingerMillis = SugoConfig.DEFAULT_LINGER_MILLIS;
+    private long mMemoryBudgetBytes = SugoConfig.DEFAULT_WORKER_MEMORY_BUDGET_BYTES;
+    private final List<AdmissionPolicy> mAdmissionPolicies = new ArrayList<AdmissionPolicy>();
+    private final Map<String, AggregationRule> mAggregations = new LinkedHashMap<String, AggregationRule>();
+    private final Map<String, Double> mSampleRates = new LinkedHashMap<String, Double>();
+    private double mDefaultSampleRate = 1;
+    private boolean mEventIds = false;
+    private BatchCodec mCodec = BatchCodec.JSON;
+    private int mShards = 0;
+    private ShardHasher mShardHasher = ShardHasher.DEFAULT;
+    private boolean mVirtualThreads = false;
+
+    public WorkerConfig() {
+    }
+
+    /**
+     * @param consumerCount 消费队列并调用 Sender 发送数据的线程数
+     */
+    public WorkerConfig setConsumerCount(int consumerCount) {
+        if (consumerCount < 1) {
+            throw new IllegalArgumentException("consumerCount must be positive: " + consumerCount);
+        }
+        mConsumerCount = consumerCount;
+        return this;
+    }
+
+    /**
+     * @param queueCapacity 队列的最大长度，至少为 2
+     */
+    public WorkerConfig setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 2) {
+            throw new IllegalArgumentException("queueCapacity must be at least 2: " + queueCapacity);
+        }
+        mQueueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * @param overflowPolicy 队列满时的处理方式，默认是 BLOCK
+     */
+    public WorkerConfig setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("overflowPolicy can not be null");
+        }
+        mOverflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    /**
+     * @param waitStrategy 队列空或满时线程的等待方式，默认是 PARK
+     */
+    public WorkerConfig setWaitStrategy(WaitStrategy waitStrategy) {
+        if (waitStrategy == null) {
+            throw new IllegalArgumentException("waitStrategy can not be null");
+        }
+        mWaitStrategy = waitStrategy;
+        return this;
+    }
+
+    /**
+     * @param batchSize 每次调用 Sender 最多携带的 message 数量
+     */
+    public WorkerConfig setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        mBatchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param batchBytes 每次调用 Sender 最多携带的数据量（JSON 的 UTF-8 字节数），单条超过该值的 message 单独发送
+     */
+    public WorkerConfig setBatchBytes(int batchBytes) {
+        if (batchBytes < 1) {
+            throw new IllegalArgumentException("batchBytes must be positive: " + batchBytes);
+        }
+        mBatchBytes = batchBytes;
+        return this;
+    }
+
+    /**
+     * @param lingerMillis 一批数据未满时，从取到第一条 message 开始最多等待的毫秒数，为 0 则不等待
+     */
+    public WorkerConfig setLingerMillis(long lingerMillis) {
+        if (lingerMillis < 0) {
+            throw new IllegalArgumentException("lingerMillis can not be negative: " + lingerMillis);
+        }
+        mLingerMillis = lingerMillis;
+        return this;
+    }
+
+    /**
+     * 队列中 message 估计占用的堆内存达到上限时，和队列满一样按 OverflowPolicy 处理
+     *
+     * @param memoryBudgetBytes 内存上限，为 0 则只按 queueCapacity 限制
+     */
+    public WorkerConfig setMemoryBudgetBytes(long memoryBudgetBytes) {
+        if (memoryBudgetBytes < 0) {
+            throw new IllegalArgumentException("memoryBudgetBytes can not be negative: " + memoryBudgetBytes);
+        }
+        mMemoryBudgetBytes = memoryBudgetBytes;
+        return this;
+    }
+
+    /**
+     * 添加 event 的准入策略，按添加的顺序判断，任何一个拒绝则丢弃 event
+     * 例如 PrioritySheddingPolicy、SamplingPolicy、RateLimitPolicy
+     */
+    public WorkerConfig addAdmissionPolicy(AdmissionPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("policy can not be null");
+        }
+        mAdmissionPolicies.add(policy);
+        return this;
+    }
+
+    /**
+     * 在本地聚合 rule 指定的 event，每个时间窗口每个分组只发送一条汇总 event
+     * 同名 event 的 rule 后添加的生效
+     */
+    public WorkerConfig addAggregation(AggregationRule rule) {
+        if (rule == null) {
+            throw new IllegalArgumentException("rule can not be null");
+        }
+        mAggregations.put(rule.getEventName(), rule);
+        return this;
+    }
+
+    /**
+     * 按 distinct_id 的哈希值抽样，同一个 distinct_id 要么保留全部 event，要么全部丢弃
+     * 被保留的 event 带有 sample_rate 属性，被丢弃的计入 eventsSampledOut
+     *
+     * @param sampleRate 保留的比例，(0, 1]
+     */
+    public WorkerConfig setSampleRate(String eventName, double sampleRate) {
+        if (eventName == null) {
+            throw new IllegalArgumentException("eventName can not be null");
+        }
+        mSampleRates.put(eventName, checkSampleRate(sampleRate));
+        return this;
+    }
+
+    /**
+     * @param sampleRate 没有用 setSampleRate 指定的 event 保留的比例，默认为 1（不抽样）
+     */
+    public WorkerConfig setDefaultSampleRate(double sampleRate) {
+        mDefaultSampleRate = checkSampleRate(sampleRate);
+        return this;
+    }
+
+    private static double checkSampleRate(double sampleRate) {
+        if (!(sampleRate > 0 && sampleRate <= 1)) {
+            throw new IllegalArgumentException("sampleRate must be in (0, 1]: " + sampleRate);
+        }
+        return sampleRate;
+    }
+
+    /**
+     * @param eventIds 为 true 时每条 event 带有唯一的 event_id，见 MessageBuilder#setEventIds 和 DedupSender
+     */
+    public WorkerConfig setEventIds(boolean eventIds) {
+        mEventIds = eventIds;
+        return this;
+    }
+
+    /**
+     * @param codec 一批 message 的编码方式，默认 BatchCodec.JSON；其他编码要求 Sender 实现 SugoAPI.BinarySender
+     */
+    public WorkerConfig setCodec(BatchCodec codec) {
+        if (codec == null) {
+            throw new IllegalArgumentException("codec can not be null");
+        }
+        mCodec = codec;
+        return this;
+    }
+
+    /**
+     * @param shards 大于 0 时按 distinct_id 的哈希把 event 分到 shards 个分片，每个分片有自己的队列
+     *               （容量为 queueCapacity / shards，向上取整，至少为 2）和一个 consumer 线程，依次同步调用 Sender，
+     *               同一个 distinct_id 的 event 按 event() 的调用顺序发送；此时忽略 consumerCount。
+     *               没有 distinct_id 的 event 随机放入一个分片。默认为 0，不分片
+     */
+    public WorkerConfig setShards(int shards) {
+        if (shards < 0) {
+            throw new IllegalArgumentException("shards can not be negative: " + shards);
+        }
+        mShards = shards;
+        return this;
+    }
+
+    /**
+     * @param shardHasher 把 distinct_id 映射到分片的函数，默认是 ShardHasher.DEFAULT
+     */
+    public WorkerConfig setShardHasher(ShardHasher shardHasher) {
+        if (shardHasher == null) {
+            throw new IllegalArgumentException("shardHasher can not be null");
+        }
+        mShardHasher = shardHasher;
+        return this;
+    }
+
+    /**
+     * @param virtualThreads 为 true 时 consumer 和 sendMessagesAsync 的发送线程使用虚拟线程（JDK 21 以上），
+     *                       阻塞在 Sender 的网络 I/O 上时不占用操作系统线程，consumerCount 可以设置到上千；
+     *                       JDK 不支持时记录警告并使用普通线程。应使用 WaitStrategy.PARK
+     */
+    public WorkerConfig setVirtualThreads(boolean virtualThreads) {
+        mVirtualThreads = virtualThreads;
+        return this;
+    }
+
+    public int getConsumerCount() {
+        return mConsumerCount;
+    }
+
+    public int getQueueCapacity() {
+        return mQueueCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return mOverflowPolicy;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return mWaitStrategy;
+    }
+
+    public int getBatchSize() {
+        return mBatchSize;
+    }
+
+    public int getBatchBytes() {
+        return mBatchBytes;
+    }
+
+    public long getLingerMillis() {
+        return mLingerMillis;
+    }
+
+    public long getMemoryBudgetBytes() {
+        return mMemoryBudgetBytes;
+    }
+
+    public List<AdmissionPolicy> getAdmissionPolicies() {
+        return Collections.unmodifiableList(mAdmissionPolicies);
+    }
+
+    public List<AggregationRule> getAggregations() {
+        return Collections.unmodifiableList(new ArrayList<AggregationRule>(mAggregations.values()));
+    }
+
+    public Map<String, Double> getSampleRates() {
+        return Collections.unmodifiableMap(mSampleRates);
+    }
+
+    public double getDefaultSampleRate() {
+        return mDefaultSampleRate;
+    }
+
+    public boolean isEventIds() {
+        return mEventIds;
+    }
+
+    public BatchCodec getCodec() {
+        return mCodec;
+    }
+
+    public int getShards() {
+        return mShards;
+    }
+
+    public ShardHasher getShardHasher() {
+        return mShardHasher;
+    }
+
+    public boolean isVirtualThreads() {
+        return mVirtualThreads;
+    }
+
+}
@@ -0,0 +1,137 @@
+package io.sugo.sugojavasdk;
+
+import junit.framework.TestCase;
+import org.json.JSONObject;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class AdmissionPolicyTest extends TestCase {
+
+    public void testTokenBucket() {
+        TokenBucket bucket = new TokenBucket(10, 3);
+        long now = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            assertTrue("Burst is available", bucket.tryAcquire(now));
+        }
+        assertFalse(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now + TimeUnit.MILLISECONDS.toNanos(50)));
+        assertTrue("One permit every 100ms", bucket.tryAcquire(now + TimeUnit.MILLISECONDS.toNanos(100)));
+        assertFalse(bucket.tryAcquire(now + TimeUnit.MILLISECONDS.toNanos(100)));
+        // 空闲很久之后最多积累 burst 个
+        long later = now + TimeUnit.SECONDS.toNanos(10);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(bucket.tryAcquire(later));
+        }
+        assertFalse(bucket.tryAcquire(later));
+    }
+
+    public void testRateLimitPerEventName() {
+        RateLimitPolicy policy = new RateLimitPolicy()
+                .setRate("debug", 0.001, 2)
+                .setDefaultRate(0.001, 1);
+        assertTrue(policy.admit("debug", null, 0));
+        assertTrue(policy.admit("debug", null, 0));
+        assertFalse(policy.admit("debug", null, 0));
+        assertTrue("Each name has its own bucket", policy.admit("login", null, 0));
+        assertFalse(policy.admit("login", null, 0));
+        assertTrue(policy.admit("logout", null, 0));
+
+        assertTrue("No default rate means no limit", new RateLimitPolicy().setRate("debug", 0.001, 1)
+                .admit("purchase", null, 1));
+    }
+
+    public void testPriorityShedding() {
+        PrioritySheddingPolicy policy = new PrioritySheddingPolicy()
+                .setPriority("debug", PrioritySheddingPolicy.Priority.LOW)
+                .setPriority("purchase", PrioritySheddingPolicy.Priority.CRITICAL);
+        assertTrue(policy.admit("debug", null, 0.4));
+        assertFalse(policy.admit("debug", null, 0.5));
+        assertTrue(policy.admit("login", null, 0.7));
+        assertFalse(policy.admit("login", null, 0.8));
+        assertTrue(policy.admit("purchase", null, 1));
+
+        policy.setShedLoad(PrioritySheddingPolicy.Priority.NORMAL, 0.6);
+        assertFalse(policy.admit("login", null, 0.7));
+    }
+
+    public void testSamplingUnderPressure() {
+        SamplingPolicy policy = new SamplingPolicy(0.5, 0.1);
+        assertEquals(1.0, policy.getRate(0.3));
+        assertEquals(0.55, policy.getRate(0.75), 1e-9);
+        assertEquals(0.1, policy.getRate(1), 1e-9);
+        int admitted = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (policy.admit("login", null, 1)) {
+                admitted++;
+            }
+        }
+        assertTrue("About 10% admitted: " + admitted, admitted > 700 && admitted < 1300);
+    }
+
+    public void testShedEventsAreCounted() throws InterruptedException {
+        Metrics metrics = new Metrics();
+        SugoAPI.Sender sender = new SugoAPI.Sender() {
+            @Override
+            public boolean sendData(String dataString) {
+                return true;
+            }
+        };
+        DefaultWorker worker = new DefaultWorker(sender, new WorkerConfig()
+                .addAdmissionPolicy(new RateLimitPolicy().setRate("debug", 0.001, 1)), metrics);
+        worker.event("debug", null);
+        worker.event("debug", null);
+        SendFuture shed = worker.eventAsync("debug", null);
+        worker.event("login", null);
+
+        assertEquals(2, metrics.getEventsShed());
+        assertEquals(2, metrics.getEventsAccepted());
+        assertTrue(shed.isDone());
+        assertEquals(SendFailure.SHED, shed.getFailure());
+    }
+
+    public void testMemoryBudget() throws InterruptedException {
+        BlockingSender sender = new BlockingSender();
+        Metrics metrics = new Metrics();
+        JSONObject props = new JSONObject();
+        props.put("payload", new String(new char[1000]));
+        long size = MessageSize.estimate(new MessageBuilder().event("large", props));
+        DefaultWorker worker = new DefaultWorker(sender, new WorkerConfig()
+                .setConsumerCount(1)
+                .setBatchSize(1)
+                .setLingerMillis(0)
+                .setMemoryBudgetBytes(size * 3)
+                .setOverflowPolicy(WorkerConfig.OverflowPolicy.DROP_NEWEST), metrics);
+
+        worker.event("large", props);
+        assertTrue(sender.entered.await(5, TimeUnit.SECONDS));
+        assertEquals("Bytes are released when a message leaves the queue", 0, metrics.getQueueBytes());
+        for (int i = 0; i < 5; i++) {
+            worker.event("large", props);
+        }
+        assertEquals("Queue holds three messages by memory, not by count", 3, worker.getQueueSize());
+        assertEquals(size * 3, metrics.getQueueBytes());
+        assertEquals(2, metrics.getEventsDropped());
+        assertEquals(1.0, worker.load(), 1e-9);
+        sender.release.countDown();
+    }
+
+    private static class BlockingSender implements SugoAPI.Sender {
+
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public boolean sendData(String dataString) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }
+
+    }
+
+}
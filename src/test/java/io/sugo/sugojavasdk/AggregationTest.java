@@ -0,0 +1,209 @@
+package io.sugo.sugojavasdk;
+
+import junit.framework.TestCase;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class AggregationTest extends TestCase {
+
+    public void testWindowSummary() {
+        EventAggregator aggregator = new EventAggregator(new AggregationRule("cache_hit")
+                .groupBy("cache")
+                .addValue("bytes")
+                .addHistogram("latency", 1, 10, 100), 1000);
+        double[] latencies = {0.5, 1, 5, 50, 500};
+        for (double latency : latencies) {
+            aggregator.record(new JSONObject().put("cache", "users").put("latency", latency).put("bytes", 10));
+        }
+        aggregator.record(new JSONObject().put("cache", "items").put("latency", "7"));
+        aggregator.record(null);
+
+        List<JSONObject> summaries = aggregator.flush(61000);
+        assertEquals(3, summaries.size());
+        JSONObject users = find(summaries, "users");
+        assertEquals(1000, users.getLong("time"));
+        assertEquals(60000, users.getLong(EventAggregator.WINDOW_PROPERTY));
+        assertTrue(users.getBoolean(EventAggregator.AGGREGATED_PROPERTY));
+        assertEquals(5, users.getLong("count"));
+        assertEquals(5, users.getLong("latency_count"));
+        assertEquals(556.5, users.getDouble("latency_sum"), 1e-9);
+        assertEquals(0.5, users.getDouble("latency_min"), 1e-9);
+        assertEquals(500, users.getDouble("latency_max"), 1e-9);
+        assertEquals(50, users.getDouble("bytes_sum"), 1e-9);
+        JSONArray counts = users.getJSONObject("latency_histogram").getJSONArray("counts");
+        assertEquals("Buckets include their upper bound", "[2,1,1,1]", counts.toString());
+
+        JSONObject items = find(summaries, "items");
+        assertEquals(1, items.getLong("count"));
+        assertEquals("Numeric strings are counted", 7, items.getDouble("latency_sum"), 1e-9);
+        assertEquals(0, items.getLong("bytes_count"));
+        assertFalse(items.has("bytes_min"));
+
+        JSONObject missing = find(summaries, null);
+        assertEquals(1, missing.getLong("count"));
+
+        assertTrue("A new window starts empty", aggregator.flush(62000).isEmpty());
+    }
+
+    public void testMaxGroups() {
+        EventAggregator aggregator = new EventAggregator(new AggregationRule("cache_hit")
+                .groupBy("key")
+                .setMaxGroups(2), 0);
+        for (int i = 0; i < 10; i++) {
+            aggregator.record(new JSONObject().put("key", "k" + i));
+        }
+        List<JSONObject> summaries = aggregator.flush(1);
+        assertEquals(3, summaries.size());
+        assertEquals(8, find(summaries, EventAggregator.OTHER_GROUP).getLong("count"));
+    }
+
+    public void testWindowAlignment() {
+        EventAggregator aggregator = new EventAggregator(new AggregationRule("cache_hit").setWindowMillis(1000), 2500);
+        assertEquals(3000, aggregator.nextFlushMillis());
+        aggregator.flush(3001);
+        assertEquals(4000, aggregator.nextFlushMillis());
+    }
+
+    public void testConcurrentFlushLosesNothing() throws InterruptedException {
+        final EventAggregator aggregator = new EventAggregator(new AggregationRule("cache_hit").addValue("v"));
+        final int threads = 2;
+        final int perThread = 20000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    JSONObject properties = new JSONObject().put("v", 1);
+                    for (int i = 0; i < perThread; i++) {
+                        aggregator.record(properties);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        long count = 0;
+        double sum = 0;
+        while (true) {
+            boolean finished = done.await(1, TimeUnit.MILLISECONDS);
+            for (JSONObject summary : aggregator.flush(System.currentTimeMillis())) {
+                count += summary.getLong("count");
+                sum += summary.getDouble("v_sum");
+            }
+            if (finished) {
+                break;
+            }
+        }
+        assertEquals(threads * perThread, count);
+        assertEquals(threads * perThread, sum, 1e-9);
+    }
+
+    public void testDistinctIdSampling() {
+        DistinctIdSampler sampler = new DistinctIdSampler(Collections.singletonMap("page_view", 0.1), 1);
+        assertTrue(sampler.isEnabled());
+        int kept = 0;
+        for (int i = 0; i < 10000; i++) {
+            String distinctId = "user-" + i;
+            double rate = sampler.sample(distinctId, "page_view", null);
+            assertEquals("Sampling is deterministic", rate, sampler.sample(distinctId, "page_view", null));
+            if (rate > 0) {
+                assertEquals(0.1, rate);
+                kept++;
+            }
+            assertEquals("Other events are not sampled", 1.0, sampler.sample(distinctId, "purchase", null));
+        }
+        assertTrue("About 10% kept: " + kept, kept > 800 && kept < 1200);
+
+        assertEquals("Events without distinct_id are kept", 1.0, sampler.sample(null, "page_view", null));
+        JSONObject properties = new JSONObject().put("distinct_id", "user-1");
+        assertEquals(sampler.sample("user-1", "page_view", null), sampler.sample(null, "page_view", properties));
+
+        assertFalse(new DistinctIdSampler(Collections.<String, Double>emptyMap(), 1).isEnabled());
+    }
+
+    public void testWorkerAggregatesAndSamples() throws InterruptedException {
+        RecordingSender sender = new RecordingSender();
+        Metrics metrics = new Metrics();
+        DefaultWorker worker = new DefaultWorker(sender, new WorkerConfig()
+                .setLingerMillis(0)
+                .addAggregation(new AggregationRule("cache_hit").setWindowMillis(3600000).addValue("latency"))
+                .setDefaultSampleRate(0.5), metrics);
+        for (int i = 0; i < 100; i++) {
+            worker.event("cache_hit", new JSONObject().put("latency", i));
+        }
+        assertTrue(worker.eventAsync("cache_hit", null).get());
+        int kept = 0;
+        for (int i = 0; i < 100; i++) {
+            if (DistinctIdSampler.position("user-" + i) < 0.5) {
+                kept++;
+            }
+            worker.event("user-" + i, "login", null);
+        }
+        assertEquals(101, metrics.getEventsAggregated());
+        assertEquals(100 - kept, metrics.getEventsSampledOut());
+        assertEquals(kept, metrics.getEventsAccepted());
+
+        worker.flushAggregates();
+        assertEquals(kept + 1, metrics.getEventsAccepted());
+        JSONObject summary = null;
+        int logins = 0;
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((summary == null || logins < kept) && System.currentTimeMillis() < deadline) {
+            JSONArray batch = sender.take();
+            if (batch == null) {
+                continue;
+            }
+            for (int i = 0; i < batch.length(); i++) {
+                JSONObject message = batch.getJSONObject(i);
+                if ("cache_hit".equals(message.getString("event"))) {
+                    summary = message;
+                } else {
+                    assertEquals(0.5, message.getDouble(DistinctIdSampler.SAMPLE_RATE_PROPERTY));
+                    logins++;
+                }
+            }
+        }
+        assertNotNull(summary);
+        assertEquals(101, summary.getLong("count"));
+        assertEquals(4950, summary.getDouble("latency_sum"), 1e-9);
+        assertEquals(kept, logins);
+    }
+
+    private static JSONObject find(List<JSONObject> summaries, String group) {
+        for (JSONObject summary : summaries) {
+            String value = summary.has("cache") ? summary.getString("cache")
+                    : summary.has("key") ? summary.getString("key") : null;
+            if (group == null ? value == null : group.equals(value)) {
+                return summary;
+            }
+        }
+        fail("No summary for " + group);
+        return null;
+    }
+
+    private static class RecordingSender implements SugoAPI.Sender {
+
+        private final List<JSONArray> mBatches = new ArrayList<JSONArray>();
+
+        @Override
+        public synchronized boolean sendData(String dataString) {
+            mBatches.add(new JSONArray(dataString));
+            notifyAll();
+            return true;
+        }
+
+        synchronized JSONArray take() throws InterruptedException {
+            if (mBatches.isEmpty()) {
+                wait(100);
+            }
+            return mBatches.isEmpty() ? null : mBatches.remove(0);
+        }
+
+    }
+
+}
@@ -0,0 +1,365 @@
+package io.sugo.sugojavasdk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+public class AsyncHttpSenderTest extends TestCase {
+
+    private HttpServer mServer;
+    private String mEndpoint;
+    private volatile int mStatus;
+    private volatile String mReply;
+    private volatile long mDelayMillis;
+    private final List<String> mReceived = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public void setUp() throws IOException {
+        mStatus = 200;
+        mReply = "1";
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.createContext("/post", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream body = new ByteArrayInputStream(HttpSenderTest.readAll(exchange.getRequestBody()));
+                if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    body = new GZIPInputStream(body);
+                }
+                mReceived.add(new String(HttpSenderTest.readAll(body), "utf-8"));
+                if (mDelayMillis > 0) {
+                    try {
+                        Thread.sleep(mDelayMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                byte[] reply = mReply.getBytes("utf-8");
+                exchange.sendResponseHeaders(mStatus, reply.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(reply);
+                out.close();
+            }
+        });
+        mServer.start();
+        mEndpoint = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/post";
+    }
+
+    @Override
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    public void testSendData() throws Exception {
+        AsyncHttpSender sender = new AsyncHttpSender(mEndpoint);
+        try {
+            assertTrue(sender.sendData("[{\"event\":\"login\"}]"));
+            assertNull(sender.getLastFailure());
+            String body = mReceived.get(0);
+            assertTrue(body.startsWith("data="));
+            String base64 = URLDecoder.decode(body.substring("data=".length()), "utf-8");
+            assertEquals("[{\"event\":\"login\"}]", Base64.decodeString(base64));
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testConcurrentRequestsWithoutExtraThreads() throws Exception {
+        mDelayMillis = 300;
+        AsyncHttpSender sender = new AsyncHttpSender(mEndpoint, 8, 1, 2000, 10000,
+                SugoAPI.HttpSender.Encoding.FORM);
+        try {
+            final CountDownLatch done = new CountDownLatch(8);
+            final AtomicInteger accepted = new AtomicInteger();
+            long start = System.nanoTime();
+            for (int i = 0; i < 8; i++) {
+                sender.sendAsync("[]").addCallback(new SendCallback() {
+                    @Override
+                    public void onComplete(SendOutcome outcome, SendFailure failure) {
+                        if (outcome == SendOutcome.ACCEPTED) {
+                            accepted.incrementAndGet();
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(8, accepted.get());
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("Requests were in flight together: " + elapsedMillis, elapsedMillis < 8 * 300);
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testPipelining() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        final AtomicInteger connections = new AtomicInteger();
+        Thread collector = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = server.accept();
+                    connections.incrementAndGet();
+                    // 三个请求都到达之后才一次性返回三个响应
+                    readRequests(socket.getInputStream(), 3);
+                    OutputStream out = socket.getOutputStream();
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Length: 1\r\n\r\n1"
+                            + "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n1\r\n1\r\n0\r\n\r\n"
+                            + "HTTP/1.1 500 Internal Server Error\r\nContent-Length: 0\r\n\r\n").getBytes("US-ASCII"));
+                    out.flush();
+                    socket.close();
+                } catch (IOException e) {
+                    // test fails below
+                }
+            }
+        };
+        collector.start();
+        AsyncHttpSender sender = new AsyncHttpSender("http://127.0.0.1:" + server.getLocalPort() + "/post", 1, 4,
+                2000, 10000, SugoAPI.HttpSender.Encoding.FORM);
+        try {
+            SendFuture first = sender.sendAsync("[1]");
+            SendFuture second = sender.sendAsync("[2]");
+            SendFuture third = sender.sendAsync("[3]");
+            assertTrue(first.get(5, TimeUnit.SECONDS));
+            assertTrue(second.get(5, TimeUnit.SECONDS));
+            assertFalse(third.get(5, TimeUnit.SECONDS));
+            assertEquals(SendFailure.SERVER_ERROR, third.getFailure());
+            assertEquals(1, connections.get());
+        } finally {
+            sender.close();
+            server.close();
+        }
+    }
+
+    public void testConnectionCloseFailsWrittenRequests() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        final AtomicInteger received = new AtomicInteger();
+        Thread collector = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Socket first = server.accept();
+                    received.addAndGet(readRequests(first.getInputStream(), 2));
+                    first.getOutputStream().write(
+                            "HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 1\r\n\r\n1".getBytes("US-ASCII"));
+                    first.close();
+                    Socket second = server.accept();
+                    received.addAndGet(readRequests(second.getInputStream(), 1));
+                    second.getOutputStream().write(
+                            "HTTP/1.1 200 OK\r\nContent-Length: 1\r\n\r\n1".getBytes("US-ASCII"));
+                    second.getOutputStream().flush();
+                } catch (IOException e) {
+                    // test fails below
+                }
+            }
+        };
+        collector.start();
+        AsyncHttpSender sender = new AsyncHttpSender("http://127.0.0.1:" + server.getLocalPort() + "/post", 1, 2,
+                2000, 10000, SugoAPI.HttpSender.Encoding.FORM);
+        try {
+            SendFuture first = sender.sendAsync("[1]");
+            SendFuture second = sender.sendAsync("[2]");
+            assertTrue(first.get(5, TimeUnit.SECONDS));
+            assertFalse("Written request may have been processed", second.get(5, TimeUnit.SECONDS));
+            assertEquals(SendFailure.NETWORK, second.getFailure());
+            assertEquals(2, received.get());
+        } finally {
+            sender.close();
+            server.close();
+        }
+    }
+
+    public void testTimeoutRequeuesUnwrittenRequests() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        final AtomicInteger received = new AtomicInteger();
+        Thread collector = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    // 第一个连接不读取，大请求写不完，后面的请求留在连接上没有写出
+                    Socket stalled = server.accept();
+                    Socket second = server.accept();
+                    received.addAndGet(readRequests(second.getInputStream(), 1));
+                    second.getOutputStream().write(
+                            "HTTP/1.1 200 OK\r\nContent-Length: 1\r\n\r\n1".getBytes("US-ASCII"));
+                    second.getOutputStream().flush();
+                    stalled.close();
+                } catch (IOException e) {
+                    // test fails below
+                }
+            }
+        };
+        collector.start();
+        AsyncHttpSender sender = new AsyncHttpSender("http://127.0.0.1:" + server.getLocalPort() + "/post", 1, 2,
+                2000, 500, SugoAPI.HttpSender.Encoding.FORM);
+        try {
+            char[] large = new char[16 * 1024 * 1024];
+            Arrays.fill(large, 'a');
+            SendFuture first = sender.sendAsync(new String(large));
+            SendFuture second = sender.sendAsync("[2]");
+            assertFalse(first.get(5, TimeUnit.SECONDS));
+            assertEquals(SendFailure.TIMEOUT, first.getFailure());
+            assertTrue("Unwritten request is sent on a new connection", second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, received.get());
+        } finally {
+            sender.close();
+            server.close();
+        }
+    }
+
+    public void testGzipEncoding() {
+        AsyncHttpSender sender = new AsyncHttpSender(mEndpoint, 1, 1, 2000, 10000, SugoAPI.HttpSender.Encoding.GZIP);
+        Metrics metrics = new Metrics();
+        sender.setMetrics(metrics);
+        try {
+            StringBuilder large = new StringBuilder("[");
+            for (int i = 0; i < 5000; i++) {
+                large.append(i == 0 ? "" : ",").append("{\"event\":\"中文事件\",\"count\":").append(i).append('}');
+            }
+            large.append(']');
+            assertTrue(sender.sendData(large.toString()));
+            assertEquals(large.toString(), mReceived.get(0));
+            assertTrue(metrics.getBytesAfterEncoding() > 0);
+            assertTrue(metrics.getBytesAfterEncoding() < large.length());
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testFailureClassification() {
+        AsyncHttpSender sender = new AsyncHttpSender(mEndpoint);
+        try {
+            mReply = "0";
+            assertFalse(sender.sendData("[]"));
+            assertEquals(SendFailure.REJECTED, sender.getLastFailure());
+            mStatus = 503;
+            assertFalse(sender.sendData("[]"));
+            assertEquals(SendFailure.SERVER_ERROR, sender.getLastFailure());
+            mStatus = 400;
+            assertFalse(sender.sendData("[]"));
+            assertEquals(SendFailure.CLIENT_ERROR, sender.getLastFailure());
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testUnreachableEndpoint() throws IOException {
+        ServerSocket unused = new ServerSocket(0);
+        int port = unused.getLocalPort();
+        unused.close();
+        AsyncHttpSender sender = new AsyncHttpSender("http://127.0.0.1:" + port + "/post");
+        try {
+            assertFalse(sender.sendData("[]"));
+            assertEquals(SendFailure.CONNECT, sender.getLastFailure());
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testReadTimeoutAndOverload() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        AsyncHttpSender sender = new AsyncHttpSender("http://127.0.0.1:" + server.getLocalPort() + "/post", 1, 1,
+                200, 1000, SugoAPI.HttpSender.Encoding.FORM);
+        try {
+            // 服务端不读也不回复，最多两个请求等待中
+            SendFuture first = sender.sendAsync("[1]");
+            SendFuture second = sender.sendAsync("[2]");
+            SendFuture third = sender.sendAsync("[3]");
+            assertTrue(third.isDone());
+            assertEquals(SendFailure.OVERLOADED, third.getFailure());
+            assertFalse(first.get(5, TimeUnit.SECONDS));
+            assertEquals(SendFailure.TIMEOUT, first.getFailure());
+            second.get(5, TimeUnit.SECONDS);
+        } finally {
+            sender.close();
+            server.close();
+        }
+    }
+
+    public void testCloseFailsPendingRequests() throws Exception {
+        ServerSocket server = new ServerSocket(0);
+        AsyncHttpSender sender = new AsyncHttpSender("http://127.0.0.1:" + server.getLocalPort() + "/post");
+        try {
+            SendFuture pending = sender.sendAsync("[]");
+            sender.close();
+            assertFalse(pending.get(5, TimeUnit.SECONDS));
+            assertEquals(SendFailure.NETWORK, pending.getFailure());
+            assertFalse(sender.sendData("[]"));
+            assertEquals(SendFailure.NETWORK, sender.getLastFailure());
+        } finally {
+            server.close();
+        }
+    }
+
+    public void testInvalidEndpoint() {
+        try {
+            new AsyncHttpSender("https://127.0.0.1/post");
+            fail("https is not supported");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+        try {
+            new AsyncHttpSender("not a url");
+            fail("invalid url");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    /**
+     * 读取 count 个带 Content-Length 的完整请求
+     *
+     * @return 读取的请求数
+     */
+    private static int readRequests(InputStream in, int count) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        int complete = 0;
+        int offset = 0;
+        byte[] chunk = new byte[4096];
+        while (complete < count) {
+            int read = in.read(chunk);
+            if (read < 0) {
+                throw new IOException("Connection closed after " + complete + " requests");
+            }
+            buffer.write(chunk, 0, read);
+            String data = new String(buffer.toByteArray(), "ISO-8859-1");
+            while (complete < count) {
+                int headEnd = data.indexOf("\r\n\r\n", offset);
+                if (headEnd < 0) {
+                    break;
+                }
+                String head = data.substring(offset, headEnd) + "\r\n";
+                int index = head.indexOf("Content-Length: ") + "Content-Length: ".length();
+                int length = Integer.parseInt(head.substring(index, head.indexOf("\r\n", index)).trim());
+                if (data.length() < headEnd + 4 + length) {
+                    break;
+                }
+                offset = headEnd + 4 + length;
+                complete++;
+            }
+        }
+        return complete;
+    }
+
+}
@@ -0,0 +1,149 @@
+package io.sugo.sugojavasdk;
+
+import junit.framework.TestCase;
+
+import java.net.URLEncoder;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class Base64Test extends TestCase {
+
+    private final Random mRandom = new Random(42);
+
+    public void testEncodeMatchesCharEncoder() {
+        for (int length = 0; length < 300; length++) {
+            byte[] in = randomBytes(length);
+            String expected = new String(Base64.encode(in));
+            byte[] out = new byte[Base64.encodedLength(length, true) + 4];
+            int written = Base64.encode(in, 0, length, out, 2);
+            assertEquals(expected.length(), written);
+            assertEquals(expected, ascii(out, 2, written));
+        }
+    }
+
+    public void testEncodeSlice() {
+        byte[] in = randomBytes(100);
+        for (int off = 0; off < 5; off++) {
+            for (int len = 0; len < 95; len += 7) {
+                byte[] out = new byte[Base64.encodedLength(len, true)];
+                assertEquals(out.length, Base64.encode(in, off, len, out, 0));
+                assertEquals(new String(Base64.encode(Arrays.copyOfRange(in, off, off + len))), ascii(out, 0, out.length));
+            }
+        }
+    }
+
+    public void testEncodeUrlSafe() {
+        for (int length = 0; length < 300; length++) {
+            byte[] in = randomBytes(length);
+            String expected = new String(Base64.encode(in)).replace('+', '-').replace('/', '_').replace("=", "");
+            byte[] out = new byte[Base64.encodedLength(length, false)];
+            assertEquals(out.length, Base64.encodeUrlSafe(in, 0, length, out, 0));
+            assertEquals(expected, ascii(out, 0, out.length));
+        }
+    }
+
+    public void testEncodeFormEscapedMatchesUrlEncoder() throws Exception {
+        for (int length = 0; length < 300; length++) {
+            byte[] in = randomBytes(length);
+            String expected = URLEncoder.encode(new String(Base64.encode(in)), "utf8");
+            byte[] out = new byte[Base64.formEscapedMaxLength(length)];
+            int written = Base64.encodeFormEscaped(in, 0, length, out, 0);
+            assertEquals(expected, ascii(out, 0, written));
+        }
+        // 每个字符都需要转义：0xfb 0xff 0xbf 编码为 "+/+/"
+        byte[] escaped = {(byte) 0xfb, (byte) 0xff, (byte) 0xbf, (byte) 0xff};
+        byte[] out = new byte[Base64.formEscapedMaxLength(escaped.length)];
+        int written = Base64.encodeFormEscaped(escaped, 0, escaped.length, out, 0);
+        assertEquals("%2B%2F%2B%2F%2Fw%3D%3D", ascii(out, 0, written));
+    }
+
+    public void testEncodeByteBuffer() {
+        byte[] in = randomBytes(10000);
+        String expected = new String(Base64.encode(Arrays.copyOfRange(in, 3, in.length)));
+        int encodedLength = Base64.encodedLength(in.length - 3, true);
+
+        ByteBuffer heapSrc = ByteBuffer.wrap(in);
+        heapSrc.position(3);
+        ByteBuffer heapDst = ByteBuffer.allocate(encodedLength + 1);
+        heapDst.position(1);
+        Base64.encode(heapSrc, heapDst);
+        assertFalse(heapSrc.hasRemaining());
+        assertEquals(encodedLength + 1, heapDst.position());
+        assertEquals(expected, ascii(heapDst.array(), 1, encodedLength));
+
+        ByteBuffer directSrc = ByteBuffer.allocateDirect(in.length);
+        directSrc.put(in);
+        directSrc.position(3);
+        ByteBuffer directDst = ByteBuffer.allocateDirect(encodedLength);
+        Base64.encode(directSrc, directDst);
+        assertFalse(directSrc.hasRemaining());
+        directDst.flip();
+        byte[] out = new byte[directDst.remaining()];
+        directDst.get(out);
+        assertEquals(expected, ascii(out, 0, out.length));
+    }
+
+    public void testEncodeUrlSafeByteBuffer() {
+        byte[] in = randomBytes(10);
+        ByteBuffer dst = ByteBuffer.allocateDirect(Base64.encodedLength(in.length, false));
+        Base64.encodeUrlSafe(ByteBuffer.wrap(in).asReadOnlyBuffer(), dst);
+        assertFalse(dst.hasRemaining());
+    }
+
+    public void testDestinationTooSmall() {
+        byte[] in = randomBytes(10);
+        try {
+            Base64.encode(in, 0, in.length, new byte[Base64.encodedLength(in.length, true) - 1], 0);
+            fail("dst too small");
+        } catch (IndexOutOfBoundsException e) {
+            // ok
+        }
+        try {
+            Base64.encode(in, 5, 6, new byte[16], 0);
+            fail("slice out of bounds");
+        } catch (IndexOutOfBoundsException e) {
+            // ok
+        }
+        ByteBuffer src = ByteBuffer.wrap(in);
+        try {
+            Base64.encode(src, ByteBuffer.allocate(8));
+            fail("dst too small");
+        } catch (BufferOverflowException e) {
+            assertEquals(0, src.position());
+        }
+    }
+
+    public void testFormBodyMatchesUrlEncoder() throws Exception {
+        String[] samples = {"", "[]", "{\"event\":\"中文 emoji😀\"}", "lone \ud800 surrogate \udc00 end\ud800"};
+        for (String sample : samples) {
+            assertEquals(sample.getBytes("utf-8").length, Utf8.length(sample));
+            String expected = "data=" + URLEncoder.encode(new String(Base64.encode(sample.getBytes("utf-8"))), "utf8");
+            FormBody body = new FormBody(sample);
+            assertEquals(expected.length(), body.contentLength());
+            assertEquals(expected, ascii(body.buffer(), 0, body.length()));
+        }
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            large.append((char) (mRandom.nextInt(0xd000) + 1));
+        }
+        String expected = URLEncoder.encode(new String(Base64.encode(large.toString().getBytes("utf-8"))), "utf8");
+        assertEquals(expected, SugoAPI.encodeDataString(large.toString()));
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        mRandom.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static String ascii(byte[] bytes, int off, int len) {
+        try {
+            return new String(bytes, off, len, "US-ASCII");
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+package io.sugo.sugojavasdk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ClusterHttpSenderTest extends TestCase {
+
+    private final List<Collector> mCollectors = new ArrayList<Collector>();
+
+    @Override
+    public void setUp() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            mCollectors.add(new Collector());
+        }
+    }
+
+    @Override
+    public void tearDown() {
+        for (Collector collector : mCollectors) {
+            collector.mServer.stop(0);
+        }
+    }
+
+    public void testLeastOutstandingSpreadsLoad() {
+        ClusterHttpSender sender = new ClusterHttpSender(endpoints());
+        try {
+            for (int i = 0; i < 30; i++) {
+                assertTrue(sender.sendData("[]"));
+            }
+            for (Collector collector : mCollectors) {
+                assertEquals("Sequential sends rotate between idle nodes", 10, collector.mReceived.get());
+            }
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testWeightedRoundRobin() {
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+        weights.put(mCollectors.get(0).mEndpoint, 3);
+        weights.put(mCollectors.get(1).mEndpoint, 1);
+        ClusterHttpSender sender = new ClusterHttpSender(weights, ClusterHttpSender.LoadBalancing.WEIGHTED_ROUND_ROBIN,
+                2, SugoAPI.HttpSender.Encoding.FORM);
+        try {
+            for (int i = 0; i < 40; i++) {
+                assertTrue(sender.sendData("[]"));
+            }
+            assertEquals(30, mCollectors.get(0).mReceived.get());
+            assertEquals(10, mCollectors.get(1).mReceived.get());
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testFailoverEjectionAndReadmission() throws InterruptedException {
+        ClusterHttpSender sender = new ClusterHttpSender(endpoints()).setEjection(2, 1000);
+        Collector broken = mCollectors.get(0);
+        broken.mStatus = 503;
+        try {
+            for (int i = 0; i < 30; i++) {
+                assertTrue("Failed batches go to another node", sender.sendData("[]"));
+            }
+            assertFalse(sender.getHealthyEndpoints().contains(broken.mEndpoint));
+            assertEquals(2, sender.getHealthyEndpoints().size());
+            assertEquals("Ejected node stops receiving traffic", 2, broken.mReceived.get());
+
+            broken.mStatus = 200;
+            Thread.sleep(1200);
+            assertEquals(3, sender.getHealthyEndpoints().size());
+            for (int i = 0; i < 30; i++) {
+                assertTrue(sender.sendData("[]"));
+            }
+            assertTrue("Re-admitted node receives traffic", broken.mReceived.get() > 2);
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testAllNodesDown() {
+        ClusterHttpSender sender = new ClusterHttpSender(endpoints()).setEjection(1, 60000);
+        for (Collector collector : mCollectors) {
+            collector.mStatus = 500;
+        }
+        try {
+            assertFalse(sender.sendData("[]"));
+            assertEquals(SendFailure.SERVER_ERROR, sender.getLastFailure());
+            assertTrue(sender.getHealthyEndpoints().isEmpty());
+            // 所有节点都被摘除时仍然尝试发送
+            mCollectors.get(1).mStatus = 200;
+            assertTrue(sender.sendData("[]"));
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testRejectedDataIsNotFailedOver() {
+        ClusterHttpSender sender = new ClusterHttpSender(endpoints());
+        for (Collector collector : mCollectors) {
+            collector.mReply = "0";
+        }
+        try {
+            assertFalse(sender.sendData("[]"));
+            assertEquals(SendFailure.REJECTED, sender.getLastFailure());
+            int total = 0;
+            for (Collector collector : mCollectors) {
+                total += collector.mReceived.get();
+            }
+            assertEquals(1, total);
+            assertEquals(3, sender.getHealthyEndpoints().size());
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testInvalidEndpoints() {
+        try {
+            new ClusterHttpSender(Arrays.<String>asList());
+            fail("empty endpoints");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    private List<String> endpoints() {
+        List<String> endpoints = new ArrayList<String>();
+        for (Collector collector : mCollectors) {
+            endpoints.add(collector.mEndpoint);
+        }
+        return endpoints;
+    }
+
+    private static class Collector {
+
+        final HttpServer mServer;
+        final String mEndpoint;
+        final AtomicInteger mReceived = new AtomicInteger();
+        volatile int mStatus = 200;
+        volatile String mReply = "1";
+
+        Collector() throws IOException {
+            mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            mServer.createContext("/post", new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    HttpSenderTest.readAll(exchange.getRequestBody());
+                    mReceived.incrementAndGet();
+                    byte[] reply = mReply.getBytes("utf-8");
+                    exchange.sendResponseHeaders(mStatus, reply.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(reply);
+                    out.close();
+                }
+            });
+            mServer.start();
+            mEndpoint = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/post";
+        }
+
+    }
+
+}
@@ -0,0 +1,273 @@
+package io.sugo.sugojavasdk;
+
+import junit.framework.TestCase;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+public class ColumnarWriterTest extends TestCase {
+
+    public void testRoundTrip() {
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longText.append("中文 emoji😀");
+        }
+        JSONObject first = new JSONObject();
+        first.put("event", "purchase");
+        first.put("time", 1512033285534L);
+        first.put("min", Long.MIN_VALUE);
+        first.put("max", Long.MAX_VALUE);
+        first.put("amount", 12.5);
+        first.put("whole", 3.0);
+        first.put("vip", true);
+        first.put("none", JSONObject.NULL);
+        first.put("text", longText.toString());
+        first.put("nested", new JSONObject().put("list", new JSONArray(Arrays.asList(1, "two", false))));
+        JSONObject second = new JSONObject();
+        second.put("event", "purchase");
+        second.put("time", 1512033285530L);
+        second.put("min", -1);
+        second.put("only_second", "x");
+
+        // 最后一行和上一行相同，所有列都以 REPEAT 编码
+        JSONArray decoded = decode(encode(first, second, first, first));
+        assertEquals(4, decoded.length());
+        assertSameJson(first, decoded.getJSONObject(2));
+        assertSameJson(first, decoded.getJSONObject(3));
+        assertSameJson(first, decoded.getJSONObject(0));
+        JSONObject row = decoded.getJSONObject(0);
+        assertEquals(3, row.getLong("whole"));
+        assertTrue(row.isNull("none"));
+        assertEquals(longText.toString(), row.getString("text"));
+        assertEquals(Long.MAX_VALUE, row.getLong("max"));
+        assertEquals(Long.MIN_VALUE, row.getLong("min"));
+        assertFalse(row.has("only_second"));
+        assertSameJson(second, decoded.getJSONObject(1));
+    }
+
+    public void testTemplateAndUndo() {
+        JSONObject superProps = new JSONObject().put("app_version", "1.2.3").put("count", 9);
+        MessageBuilder builder = new MessageBuilder().setSuperProperties(superProps);
+        JSONObject templated = builder.templatedEvent("a distinct id", "login", new JSONObject().put("count", 1));
+
+        BatchWriter writer = BatchCodec.COLUMNAR.newWriter();
+        writer.begin();
+        writer.write(templated);
+        int size = writer.size();
+        writer.write(new JSONObject().put("event", "dropped").put("time", -5).put("new_key", "new value"));
+        assertTrue(writer.size() > size);
+        writer.undoLast();
+        assertEquals(size, writer.size());
+        writer.write(new JSONObject().put("event", "kept").put("count", 2));
+        writer.end();
+
+        JSONArray batch = decode(writer);
+        assertEquals(2, batch.length());
+        JSONObject row = batch.getJSONObject(0);
+        assertEquals("login", row.getString("event"));
+        assertEquals("a distinct id", row.getString("distinct_id"));
+        assertEquals(1, row.getInt("count"));
+        assertEquals("1.2.3", row.getString("app_version"));
+        assertSameJson(new JSONObject().put("event", "kept").put("count", 2), batch.getJSONObject(1));
+
+        // 复用 writer 时不残留上一批的列和字典
+        writer.begin();
+        writer.write(new JSONObject().put("a", 1));
+        writer.end();
+        assertSameJson(new JSONObject().put("a", 1), decode(writer).getJSONObject(0));
+        writer.begin();
+        writer.end();
+        assertEquals(0, decode(writer).length());
+    }
+
+    public void testSizeEstimateIsUpperBound() {
+        BatchWriter writer = BatchCodec.COLUMNAR.newWriter();
+        writer.begin();
+        MessageBuilder builder = new MessageBuilder();
+        for (int i = 0; i < 50; i++) {
+            writer.write(builder.event("user-" + i, "view_item", properties(i)));
+        }
+        int estimate = writer.size();
+        writer.end();
+        assertTrue(writer.size() <= estimate);
+    }
+
+    public void testSmallerThanJson() {
+        BatchWriter json = BatchCodec.JSON.newWriter();
+        BatchWriter columnar = BatchCodec.COLUMNAR.newWriter();
+        json.begin();
+        columnar.begin();
+        MessageBuilder builder = new MessageBuilder();
+        for (int i = 0; i < 100; i++) {
+            JSONObject message = builder.event("user-" + i, "view_item", properties(i));
+            json.write(message);
+            columnar.write(message);
+        }
+        json.end();
+        columnar.end();
+        assertEquals(100, decode(columnar).length());
+        assertTrue(columnar.size() * 10 < json.size());
+        // 列式数据仍然可以再压缩，压缩后也比压缩后的 JSON 小
+        assertTrue(deflatedSize(columnar) < deflatedSize(json));
+    }
+
+    /**
+     * 与线上 event 相近的属性
+     */
+    private static JSONObject properties(int i) {
+        return new JSONObject().put("app_version", "3.2.1").put("host", "web-node-17.example.internal")
+                .put("region", "cn-shanghai").put("page", "/product/detail")
+                .put("referrer", "https://www.example.com/search?q=hat").put("item_id", 100000 + i)
+                .put("price", 59.9).put("quantity", 2).put("logged_in", true);
+    }
+
+    /**
+     * 按 JSON 文本比较每个值，Integer 和 Long、3.0 和 3 视为相同
+     */
+    private static void assertSameJson(JSONObject expected, JSONObject actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String key : expected.keySet()) {
+            assertEquals(key, JSONObject.valueToString(expected.get(key)), JSONObject.valueToString(actual.get(key)));
+        }
+    }
+
+    private static int deflatedSize(BatchWriter writer) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(Arrays.copyOf(writer.buffer(), writer.size()));
+        deflater.finish();
+        byte[] out = new byte[writer.size() + 64];
+        int size = 0;
+        while (!deflater.finished()) {
+            size += deflater.deflate(out);
+        }
+        deflater.end();
+        return size;
+    }
+
+    private static BatchWriter encode(JSONObject... messages) {
+        BatchWriter writer = new ColumnarWriter(16);
+        writer.begin();
+        for (JSONObject message : messages) {
+            writer.write(message);
+        }
+        writer.end();
+        return writer;
+    }
+
+    private static JSONArray decode(BatchWriter writer) {
+        ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOf(writer.buffer(), writer.size()));
+        JSONArray rows = new Decoder(buffer).decode();
+        assertFalse("Trailing bytes", buffer.hasRemaining());
+        return rows;
+    }
+
+    /**
+     * 用于测试的参考实现，格式见 ColumnarWriter
+     */
+    private static class Decoder {
+
+        private final ByteBuffer mBuffer;
+
+        Decoder(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        JSONArray decode() {
+            assertEquals(ColumnarWriter.VERSION, mBuffer.get());
+            int rows = (int) varint();
+            List<String> dictionary = new ArrayList<String>();
+            for (long i = 0, size = varint(); i < size; i++) {
+                dictionary.add(string((int) varint()));
+            }
+            JSONArray result = new JSONArray();
+            for (int i = 0; i < rows; i++) {
+                result.put(new JSONObject());
+            }
+            for (long i = 0, columns = varint(); i < columns; i++) {
+                String key = dictionary.get((int) varint());
+                int end = (int) varint() + mBuffer.position();
+                long previous = 0;
+                long lastHead = -1;
+                long lastExtra = 0;
+                String lastJson = null;
+                for (int row = 0; row < rows; ) {
+                    long head = varint();
+                    long repeats = 1;
+                    if ((head & 15) == ColumnarWriter.REPEAT) {
+                        repeats = (head >>> 4) + 1;
+                        head = lastHead;
+                    } else if ((head & 15) == ColumnarWriter.DOUBLE || (head & 15) == ColumnarWriter.LONG) {
+                        lastExtra = mBuffer.getLong();
+                    } else if ((head & 15) == ColumnarWriter.JSON) {
+                        lastJson = string((int) (head >>> 4));
+                    }
+                    lastHead = head;
+                    for (long r = 0; r < repeats; r++, row++) {
+                        long payload = head >>> 4;
+                        Object value;
+                        switch ((int) (head & 15)) {
+                            case ColumnarWriter.ABSENT:
+                                continue;
+                            case ColumnarWriter.NULL:
+                                value = JSONObject.NULL;
+                                break;
+                            case ColumnarWriter.BOOLEAN:
+                                value = payload == 1;
+                                break;
+                            case ColumnarWriter.DELTA:
+                                previous += (payload >>> 1) ^ -(payload & 1);
+                                value = previous;
+                                break;
+                            case ColumnarWriter.STRING:
+                                value = dictionary.get((int) payload);
+                                break;
+                            case ColumnarWriter.DOUBLE:
+                                value = Double.longBitsToDouble(lastExtra);
+                                break;
+                            case ColumnarWriter.JSON:
+                                value = new JSONTokener(lastJson).nextValue();
+                                break;
+                            case ColumnarWriter.LONG:
+                                previous = lastExtra;
+                                value = previous;
+                                break;
+                            default:
+                                throw new IllegalArgumentException("Unexpected type " + (head & 15));
+                        }
+                        JSONObject object = result.getJSONObject(row);
+                        assertFalse("Duplicate key " + key, object.has(key));
+                        object.put(key, value);
+                    }
+                }
+                assertEquals("Column length", end, mBuffer.position());
+            }
+            return result;
+        }
+
+        private long varint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = mBuffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        private String string(int length) {
+            byte[] bytes = new byte[length];
+            mBuffer.get(bytes);
+            return new String(bytes, Charset.forName("UTF-8"));
+        }
+
+    }
+
+}
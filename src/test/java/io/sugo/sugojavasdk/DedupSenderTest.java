@@ -0,0 +1,201 @@
+package io.sugo.sugojavasdk;
+
+import junit.framework.TestCase;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class DedupSenderTest extends TestCase {
+
+    public void testEventIdsAreUniqueAndTimeOrdered() throws InterruptedException {
+        final EventIdGenerator generator = new EventIdGenerator();
+        String earlier = generator.next(1000);
+        String later = generator.next(1001);
+        assertEquals(EventIdGenerator.LENGTH, earlier.length());
+        assertTrue(earlier.compareTo(later) < 0);
+        assertTrue("Ids in the same millisecond are ordered", generator.next(1001).compareTo(later) > 0);
+
+        final Set<String> ids = Collections.synchronizedSet(new HashSet<String>());
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        ids.add(generator.next(System.currentTimeMillis()));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(20000, ids.size());
+    }
+
+    public void testMessageBuilderStampsEventIds() {
+        MessageBuilder builder = new MessageBuilder();
+        assertFalse(builder.event("login", null).has(MessageBuilder.EVENT_ID_PROPERTY));
+        builder.setEventIds(true);
+        String id = builder.event("login", null).getString(MessageBuilder.EVENT_ID_PROPERTY);
+        assertEquals(EventIdGenerator.LENGTH, id.length());
+        JSONObject props = new JSONObject().put(MessageBuilder.EVENT_ID_PROPERTY, "my-id");
+        assertEquals("my-id", builder.event("login", props).getString(MessageBuilder.EVENT_ID_PROPERTY));
+    }
+
+    public void testFilter() {
+        DedupFilter filter = new DedupFilter(10000, 1e-4, 60000);
+        for (int i = 0; i < 10000; i++) {
+            filter.add("id-" + i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue("No false negatives", filter.mightContain("id-" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 10000; i < 110000; i++) {
+            if (filter.mightContain("id-" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < 50);
+    }
+
+    public void testFilterEvictsByCountWithFixedMemory() {
+        DedupFilter filter = new DedupFilter(100, 1e-4, 3600000);
+        long bytes = filter.sizeInBytes();
+        filter.add("first");
+        for (int i = 0; i < 100; i++) {
+            filter.add("a-" + i);
+        }
+        assertTrue("Previous generation is still queried", filter.mightContain("first"));
+        for (int i = 0; i < 100; i++) {
+            filter.add("b-" + i);
+        }
+        filter.add("c");
+        assertFalse("Evicted after two generations", filter.mightContain("first"));
+        assertEquals(bytes, filter.sizeInBytes());
+    }
+
+    public void testFilterEvictsByTime() throws InterruptedException {
+        DedupFilter filter = new DedupFilter(100, 1e-4, 100);
+        filter.add("old");
+        assertTrue(filter.mightContain("old"));
+        Thread.sleep(120);
+        assertFalse(filter.mightContain("old"));
+    }
+
+    public void testReplayedEventsAreNotResent() {
+        RecordingSender recording = new RecordingSender();
+        DedupSender sender = new DedupSender(recording);
+        Metrics metrics = new Metrics();
+        sender.setMetrics(metrics);
+        MessageBuilder builder = new MessageBuilder().setEventIds(true);
+        JSONObject first = builder.event("login", null);
+        JSONObject second = builder.event("login", null);
+        JSONObject third = builder.event("login", null);
+
+        assertTrue(sender.sendData(batch(first, second)));
+        assertTrue("Already acknowledged batch is not sent again", sender.sendData(batch(first, second)));
+        assertEquals(SendOutcome.ACCEPTED, sender.getLastOutcome());
+        assertEquals(1, recording.mBatches.size());
+
+        assertTrue(sender.sendData(batch(first, third, third)));
+        assertEquals(2, recording.mBatches.size());
+        JSONArray sent = new JSONArray(recording.mBatches.get(1));
+        assertEquals("Only the new event is sent", 1, sent.length());
+        assertEquals(third.getString(MessageBuilder.EVENT_ID_PROPERTY),
+                sent.getJSONObject(0).getString(MessageBuilder.EVENT_ID_PROPERTY));
+        assertEquals(4, metrics.getEventsDeduplicated());
+
+        JSONObject withoutId = new MessageBuilder().event("login", null);
+        assertTrue(sender.sendData(batch(withoutId)));
+        assertTrue(sender.sendData(batch(withoutId)));
+        assertEquals("Events without ids are always sent", 4, recording.mBatches.size());
+    }
+
+    public void testFailedBatchesAreNotAcknowledged() {
+        RecordingSender recording = new RecordingSender();
+        recording.mAccept = false;
+        DedupSender sender = new DedupSender(recording);
+        JSONObject event = new MessageBuilder().setEventIds(true).event("login", null);
+
+        assertFalse(sender.sendData(batch(event)));
+        assertEquals(SendFailure.UNKNOWN, sender.getLastFailure());
+        recording.mAccept = true;
+        assertTrue("A retry of a failed batch is sent", sender.sendData(batch(event)));
+        assertEquals(2, recording.mBatches.size());
+    }
+
+    public void testWorkerDropsAcknowledgedEventsBeforeEncoding() {
+        BinaryRecordingSender recording = new BinaryRecordingSender();
+        Metrics metrics = new Metrics();
+        DefaultWorker worker = new DefaultWorker(new RetryingSender(new DedupSender(recording)), new WorkerConfig()
+                .setCodec(BatchCodec.MESSAGE_PACK).setConsumerCount(1), metrics);
+        try {
+            worker.event("login", new JSONObject().put(MessageBuilder.EVENT_ID_PROPERTY, "a"));
+            assertTrue(worker.flush(5, TimeUnit.SECONDS).isComplete());
+            worker.event("login", new JSONObject().put(MessageBuilder.EVENT_ID_PROPERTY, "a"));
+            worker.event("login", new JSONObject().put(MessageBuilder.EVENT_ID_PROPERTY, "b"));
+            worker.event("login", new JSONObject().put(MessageBuilder.EVENT_ID_PROPERTY, "b"));
+            assertTrue(worker.flush(5, TimeUnit.SECONDS).isComplete());
+        } finally {
+            worker.close(1, TimeUnit.SECONDS);
+        }
+        assertEquals(2, metrics.getEventsDeduplicated());
+        assertEquals(2, metrics.getEventsSent());
+        assertEquals(2, recording.mBatches.size());
+        for (byte[] batch : recording.mBatches) {
+            // array 32 头，元素个数为 4 字节大端整数
+            assertEquals((byte) 0xdd, batch[0]);
+            assertEquals("One event per batch", 1, ByteBuffer.wrap(batch, 1, 4).getInt());
+        }
+    }
+
+    private static String batch(JSONObject... events) {
+        JSONArray array = new JSONArray();
+        for (JSONObject event : events) {
+            array.put(event);
+        }
+        return array.toString();
+    }
+
+    private static class BinaryRecordingSender implements SugoAPI.BinarySender {
+
+        final List<byte[]> mBatches = Collections.synchronizedList(new ArrayList<byte[]>());
+
+        @Override
+        public boolean sendBinary(byte[] data, int offset, int length, String contentType) {
+            mBatches.add(Arrays.copyOfRange(data, offset, offset + length));
+            return true;
+        }
+
+        @Override
+        public boolean sendData(String dataString) {
+            throw new AssertionError("Batches are sent as MessagePack");
+        }
+
+    }
+
+    private static class RecordingSender implements SugoAPI.Sender {
+
+        final List<String> mBatches = new ArrayList<String>();
+        boolean mAccept = true;
+
+        @Override
+        public boolean sendData(String dataString) {
+            mBatches.add(dataString);
+            return mAccept;
+        }
+
+    }
+
+}
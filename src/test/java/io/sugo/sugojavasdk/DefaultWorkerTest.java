@@ -0,0 +1,423 @@
+package io.sugo.sugojavasdk;
+
+import junit.framework.TestCase;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+public class DefaultWorkerTest extends TestCase {
+
+    public void testEventIsSentAsynchronously() throws InterruptedException {
+        RecordingSender sender = new RecordingSender(10);
+        DefaultWorker worker = new DefaultWorker(sender, new WorkerConfig().setConsumerCount(3));
+
+        for (int i = 0; i < 10; i++) {
+            JSONObject props = new JSONObject();
+            props.put("count", i);
+            worker.event("counted", props);
+        }
+
+        assertTrue("All events sent", sender.sent.await(5, TimeUnit.SECONDS));
+        assertEquals(0, worker.getDroppedCount());
+    }
+
+    public void testBatchSize() throws InterruptedException {
+        RecordingSender sender = new RecordingSender(25);
+        DefaultWorker worker = new DefaultWorker(sender, new WorkerConfig()
+                .setConsumerCount(1)
+                .setBatchSize(10)
+                .setLingerMillis(60000));
+
+        for (int i = 0; i < 25; i++) {
+            worker.event("counted", null);
+        }
+        // 第三批只有 5 条，要等 linger 超时才会发送
+        Thread.sleep(200);
+        assertEquals(2, sender.sends.size());
+        assertEquals(10, new JSONArray(sender.sends.get(0)).length());
+        assertEquals(10, new JSONArray(sender.sends.get(1)).length());
+    }
+
+    public void testLingerFlushesPartialBatch() throws InterruptedException {
+        RecordingSender sender = new RecordingSender(3);
+        DefaultWorker worker = new DefaultWorker(sender, new WorkerConfig()
+                .setConsumerCount(1)
+                .setBatchSize(100)
+                .setLingerMillis(50));
+
+        for (int i = 0; i < 3; i++) {
+            worker.event("counted", null);
+        }
+        assertTrue("Partial batch flushed", sender.sent.await(5, TimeUnit.SECONDS));
+        assertEquals(1, sender.sends.size());
+    }
+
+    public void testBatchBytes() throws InterruptedException {
+        RecordingSender sender = new RecordingSender(20);
+        DefaultWorker worker = new DefaultWorker(sender, new WorkerConfig()
+                .setConsumerCount(1)
+                .setBatchSize(100)
+                .setBatchBytes(300)
+                .setLingerMillis(50));
+
+        for (int i = 0; i < 20; i++) {
+            JSONObject props = new JSONObject();
+            props.put("count", i);
+            worker.event("counted", props);
+        }
+        assertTrue("All events sent", sender.sent.await(5, TimeUnit.SECONDS));
+        assertTrue("More than one batch", sender.sends.size() > 1);
+        for (String send : sender.sends) {
+            assertTrue("Batch within byte limit: " + send, send.length() <= 300);
+        }
+    }
+
+    public void testAsyncSenderDoesNotBlockConsumer() throws InterruptedException {
+        DeferredSender sender = new DeferredSender();
+        Metrics metrics = new Metrics();
+        DefaultWorker worker = new DefaultWorker(sender, new WorkerConfig()
+                .setConsumerCount(1)
+                .setBatchSize(1)
+                .setLingerMillis(0), metrics);
+
+        for (int i = 0; i < 3; i++) {
+            worker.event("counted", null);
+        }
+        // 一个 consumer 在没有任何结果返回时就发出了全部三批
+        assertTrue(sender.sent.await(5, TimeUnit.SECONDS));
+        assertEquals(0, metrics.getBatchesSent());
+        for (SendFuture future : sender.futures) {
+            future.complete(SendOutcome.ACCEPTED, null);
+        }
+        // consumer 可能在 future 完成之后才注册回调
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (metrics.getBatchesSent() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, metrics.getBatchesSent());
+        assertEquals(3, metrics.getEventsSent());
+    }
+
+    public void testDropNewestWhenFull() throws InterruptedException {
+        BlockingSender sender = new BlockingSender();
+        DefaultWorker worker = new DefaultWorker(sender, new WorkerConfig()
+                .setConsumerCount(1)
+                .setQueueCapacity(2)
+                .setBatchSize(1)
+                .setLingerMillis(0)
+                .setOverflowPolicy(WorkerConfig.OverflowPolicy.DROP_NEWEST));
+
+        worker.event("first", null);
+        assertTrue(sender.entered.await(5, TimeUnit.SECONDS));
+        // consumer 被阻塞在 sender 中，队列只能再放 2 条
+        for (int i = 0; i < 5; i++) {
+            worker.event("queued", null);
+        }
+        assertEquals(2, worker.getQueueSize());
+        assertEquals(3, worker.getDroppedCount());
+        sender.release.countDown();
+    }
+
+    public void testEventAsyncFailsWhenDropped() throws Exception {
+        BlockingSender sender = new BlockingSender();
+        DefaultWorker worker = new DefaultWorker(sender, new WorkerConfig()
+                .setConsumerCount(1)
+                .setQueueCapacity(2)
+                .setBatchSize(1)
+                .setLingerMillis(0)
+                .setOverflowPolicy(WorkerConfig.OverflowPolicy.DROP_OLDEST));
+
+        SendFuture sending = worker.eventAsync("first", null);
+        assertTrue(sender.entered.await(5, TimeUnit.SECONDS));
+        SendFuture evicted = worker.eventAsync("evicted", null);
+        worker.event("queued", null);
+        worker.event("queued", null);
+        assertTrue(evicted.isDone());
+        assertEquals(SendFailure.OVERLOADED, evicted.getFailure());
+        assertFalse(sending.isDone());
+        sender.release.countDown();
+        assertTrue(sending.get(5, TimeUnit.SECONDS));
+    }
+
+    public void testDropOldestWhenFull() throws InterruptedException {
+        BlockingSender sender = new BlockingSender();
+        DefaultWorker worker = new DefaultWorker(sender, new WorkerConfig()
+                .setConsumerCount(1)
+                .setQueueCapacity(2)
+                .setBatchSize(1)
+                .setLingerMillis(0)
+                .setOverflowPolicy(WorkerConfig.OverflowPolicy.DROP_OLDEST));
+
+        worker.event("first", null);
+        assertTrue(sender.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            JSONObject props = new JSONObject();
+            props.put("count", i);
+            worker.event("queued", props);
+        }
+        assertEquals(2, worker.getQueueSize());
+        assertEquals(3, worker.getDroppedCount());
+        sender.release.countDown();
+    }
+
+    public void testShardsKeepPerUserOrder() throws InterruptedException {
+        final int users = 8;
+        final int eventsPerUser = 50;
+        RecordingSender sender = new RecordingSender(users * eventsPerUser + 100) {
+            @Override
+            public boolean sendData(String dataString) {
+                // 让各个分片的发送交错进行
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.sendData(dataString);
+            }
+        };
+        DefaultWorker worker = new DefaultWorker(sender, new WorkerConfig()
+                .setShards(4)
+                .setBatchSize(7)
+                .setLingerMillis(0));
+        for (int seq = 0; seq < eventsPerUser; seq++) {
+            for (int user = 0; user < users; user++) {
+                worker.event("user-" + user, "step", new JSONObject().put("seq", seq));
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            worker.event("user-0", "hot", null);
+        }
+        assertTrue("All events sent", sender.sent.await(10, TimeUnit.SECONDS));
+
+        Map<String, Integer> lastSeq = new HashMap<String, Integer>();
+        synchronized (sender.sends) {
+            for (String data : sender.sends) {
+                JSONArray batch = new JSONArray(data);
+                for (int i = 0; i < batch.length(); i++) {
+                    JSONObject event = batch.getJSONObject(i);
+                    if (!event.has("seq")) {
+                        continue;
+                    }
+                    String user = event.getString("distinct_id");
+                    int seq = event.getInt("seq");
+                    Integer last = lastSeq.get(user);
+                    assertEquals("Events of " + user + " in order", last == null ? 0 : last + 1, seq);
+                    lastSeq.put(user, seq);
+                }
+            }
+        }
+        assertEquals(users, lastSeq.size());
+
+        // 统计数据在 Sender 返回后才更新
+        assertTrue(worker.flush(5, TimeUnit.SECONDS).isComplete());
+        List<ShardStats> stats = worker.getShardStats();
+        assertEquals(4, stats.size());
+        long sent = 0;
+        for (ShardStats shard : stats) {
+            sent += shard.getEventsSent();
+            assertEquals(0, shard.getQueueDepth());
+            assertEquals(0, shard.getEventsFailed());
+        }
+        assertEquals(users * eventsPerUser + 100, sent);
+        ShardStats hot = stats.get(ShardHasher.DEFAULT.shard("user-0", 4));
+        assertEquals("user-0", hot.getHotKeys().get(0).getKey());
+        assertTrue(hot.getHotKeys().get(0).getCount() >= eventsPerUser + 100);
+        assertTrue(new DefaultWorker(sender).getShardStats().isEmpty());
+    }
+
+    public void testShardHasher() throws InterruptedException {
+        RecordingSender sender = new RecordingSender(20);
+        DefaultWorker worker = new DefaultWorker(sender, new WorkerConfig()
+                .setShards(3)
+                .setShardHasher(new ShardHasher() {
+                    @Override
+                    public int shard(String distinctId, int shards) {
+                        // 超出范围的值按取模处理
+                        return -distinctId.length();
+                    }
+                })
+                .setLingerMillis(0));
+        for (int i = 0; i < 10; i++) {
+            worker.event("ab", "login", null);
+            worker.event(null, "anonymous", null);
+        }
+        assertTrue("All events sent", sender.sent.await(5, TimeUnit.SECONDS));
+        // 统计数据在 Sender 返回后才更新
+        assertTrue(worker.flush(5, TimeUnit.SECONDS).isComplete());
+        List<ShardStats> stats = worker.getShardStats();
+        assertEquals(10, stats.get(1).getHotKeys().get(0).getCount());
+        long accepted = 0;
+        for (ShardStats shard : stats) {
+            accepted += shard.getEventsAccepted();
+        }
+        assertEquals(20, accepted);
+    }
+
+    public void testVirtualThreads() throws Exception {
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        RecordingSender sender = new RecordingSender(10) {
+            @Override
+            public boolean sendData(String dataString) {
+                threads.add(Thread.currentThread());
+                return super.sendData(dataString);
+            }
+        };
+        DefaultWorker worker = new DefaultWorker(sender, new WorkerConfig()
+                .setConsumerCount(4)
+                .setVirtualThreads(true)
+                .setLingerMillis(0));
+        for (int i = 0; i < 10; i++) {
+            worker.event("user" + i, "login", null);
+        }
+        // 不支持虚拟线程的 JDK 上退回普通线程，event 照常发送
+        assertTrue("All events sent", sender.sent.await(5, TimeUnit.SECONDS));
+        Thread thread = threads.get(0);
+        assertTrue(thread.isDaemon());
+        assertTrue(thread.getName().startsWith("sugo-worker-"));
+        if (Threads.isVirtualSupported()) {
+            assertEquals(Boolean.TRUE, Thread.class.getMethod("isVirtual").invoke(thread));
+        }
+        worker.close(5, TimeUnit.SECONDS);
+    }
+
+    public void testCloseRacingProducers() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            final DefaultWorker worker = new DefaultWorker(new RecordingSender(0), new WorkerConfig()
+                    .setConsumerCount(2)
+                    .setQueueCapacity(64)
+                    .setBatchSize(10)
+                    .setLingerMillis(1));
+            final List<SendFuture> futures = Collections.synchronizedList(new ArrayList<SendFuture>());
+            final CountDownLatch started = new CountDownLatch(4);
+            Thread[] producers = new Thread[4];
+            for (int i = 0; i < producers.length; i++) {
+                producers[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        while (true) {
+                            SendFuture future = worker.eventAsync("login", null);
+                            futures.add(future);
+                            if (future.isDone() && future.getFailure() == SendFailure.CLOSED) {
+                                return;
+                            }
+                        }
+                    }
+                });
+                producers[i].start();
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            worker.close(5, TimeUnit.SECONDS);
+            for (Thread producer : producers) {
+                producer.join(5000);
+                assertFalse("Producer stopped after close", producer.isAlive());
+            }
+            // 和 close 同时放入队列的 event 也不会留在队列中，每个 SendFuture 都会完成
+            assertEquals(0, worker.getQueueSize());
+            synchronized (futures) {
+                for (SendFuture future : futures) {
+                    future.get(5, TimeUnit.SECONDS);
+                    assertTrue(future.getOutcome().isAccepted() || future.getFailure() == SendFailure.CLOSED);
+                }
+            }
+        }
+    }
+
+    public void testInvalidConfig() {
+        try {
+            new WorkerConfig().setConsumerCount(0);
+            fail("consumerCount must be positive");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+        try {
+            new WorkerConfig().setQueueCapacity(1);
+            fail("queueCapacity must be at least 2");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+        try {
+            new WorkerConfig().setShards(-1);
+            fail("shards can not be negative");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    public void testAdvanceWorkerRejectsEvent() {
+        SugoAPI api = new SugoAPI(new SugoAPI.ConsoleSender(), true);
+        try {
+            api.event("login", null);
+            fail("event() should not work without the default worker");
+        } catch (SugoMessageException e) {
+            // ok
+        }
+    }
+
+    private static class RecordingSender implements SugoAPI.Sender {
+
+        final CountDownLatch sent;
+        final List<String> sends = Collections.synchronizedList(new ArrayList<String>());
+
+        RecordingSender(int expectedMessages) {
+            sent = new CountDownLatch(expectedMessages);
+        }
+
+        @Override
+        public boolean sendData(String dataString) {
+            sends.add(dataString);
+            for (int i = new JSONArray(dataString).length(); i > 0; i--) {
+                sent.countDown();
+            }
+            return true;
+        }
+
+    }
+
+    private static class DeferredSender implements SugoAPI.AsyncSender {
+
+        final CountDownLatch sent = new CountDownLatch(3);
+        final List<SendFuture> futures = Collections.synchronizedList(new ArrayList<SendFuture>());
+
+        @Override
+        public SendFuture sendAsync(String dataString) {
+            SendFuture future = new SendFuture();
+            futures.add(future);
+            sent.countDown();
+            return future;
+        }
+
+        @Override
+        public boolean sendData(String dataString) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+    private static class BlockingSender implements SugoAPI.Sender {
+
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public boolean sendData(String dataString) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }
+
+    }
+
+}
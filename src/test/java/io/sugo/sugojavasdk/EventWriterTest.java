@@ -0,0 +1,140 @@
+package io.sugo.sugojavasdk;
+
+import junit.framework.TestCase;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class EventWriterTest extends TestCase {
+
+    public void testPrimitiveEvent() {
+        EventWriter writer = new EventWriter();
+        writer.beginEvent("a distinct id", "purchase", 1512033285534L)
+                .putString("item", "Hat")
+                .putLong("count", -42)
+                .putLong("min", Long.MIN_VALUE)
+                .putDouble("amount", 12.5)
+                .putDouble("whole", 3.0)
+                .putDouble("nan", Double.NaN)
+                .putBoolean("vip", true)
+                .endEvent();
+
+        JSONObject event = new JSONObject(writer.toString());
+        assertEquals("purchase", event.getString("event"));
+        assertEquals(1512033285534L, event.getLong("time"));
+        assertEquals("a distinct id", event.getString("distinct_id"));
+        assertEquals("Hat", event.getString("item"));
+        assertEquals(-42, event.getLong("count"));
+        assertEquals(Long.MIN_VALUE, event.getLong("min"));
+        assertEquals(12.5, event.getDouble("amount"));
+        assertEquals(3, event.getInt("whole"));
+        assertTrue(event.isNull("nan"));
+        assertTrue(event.getBoolean("vip"));
+        assertTrue(new MessagePackage().isValidMessage(event));
+    }
+
+    public void testStringEscaping() {
+        String tricky = "quote\" backslash\\ newline\n tab\t ctrl\u0001 中文 emoji😀 sep ";
+        EventWriter writer = new EventWriter(16);
+        writer.beginEvent("login").putString("text", tricky).putString("missing", null).endEvent();
+
+        JSONObject event = new JSONObject(writer.toString());
+        assertEquals(tricky, event.getString("text"));
+        assertTrue(event.isNull("missing"));
+    }
+
+    public void testWriteMessageMatchesJsonObject() {
+        JSONObject props = new JSONObject();
+        props.put("nested", new JSONObject().put("list", new JSONArray(Arrays.asList(1, "two", 3.5, false))));
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("k", "v");
+        props.put("map", map);
+        props.put("big", new java.math.BigDecimal("12345678901234567890.5"));
+        JSONObject message = new MessageBuilder().event("a distinct id", "login", props);
+
+        EventWriter writer = new EventWriter();
+        writer.beginArray().writeMessage(message).writeMessage(message).endArray();
+
+        JSONArray array = new JSONArray(writer.toString());
+        assertEquals(2, array.length());
+        assertTrue(array.getJSONObject(0).similar(new JSONObject(message.toString())));
+        assertTrue(array.getJSONObject(1).similar(new JSONObject(message.toString())));
+    }
+
+    public void testWriteEventKeepsPropertyTime() {
+        JSONObject props = new JSONObject();
+        props.put("time", 100L);
+        props.put("prop key", "prop value");
+        EventWriter writer = new EventWriter();
+        writer.writeEvent(null, "login", 200L, props);
+
+        JSONObject event = new JSONObject(writer.toString());
+        assertEquals(100L, event.getLong("time"));
+        assertEquals("prop value", event.getString("prop key"));
+        assertFalse(event.has("distinct_id"));
+    }
+
+    public void testTruncateAndReset() {
+        EventWriter writer = new EventWriter();
+        writer.beginArray();
+        writer.beginEvent("first").endEvent();
+        int mark = writer.size();
+        writer.beginEvent("second").endEvent();
+        writer.truncate(mark, true);
+        writer.endArray();
+        assertEquals(1, new JSONArray(writer.toString()).length());
+
+        writer.reset();
+        assertEquals(0, writer.size());
+        writer.beginArray().endArray();
+        assertEquals("[]", writer.toString());
+    }
+
+    public void testTemplatedMessageMatchesFullMessage() {
+        MessageBuilder builder = new MessageBuilder()
+                .setSuperProperties(new JSONObject().put("host", "web \"1\"").put("tags", new JSONArray().put("a")));
+        JSONObject props = new JSONObject().put("item", "Hat");
+        JSONObject templated = builder.templatedEvent("a distinct id", "login", props);
+        assertTrue(templated instanceof TemplatedMessage);
+        assertFalse("Template properties are not copied", templated.has("host"));
+        assertTrue(TemplatedMessage.has(templated, "host"));
+
+        EventWriter writer = new EventWriter();
+        writer.beginArray().writeMessage(templated).writeMessage(templated).endArray();
+        JSONArray array = new JSONArray(writer.toString());
+        JSONObject full = builder.event("a distinct id", "login", props);
+        full.put("time", templated.getLong("time"));
+        assertTrue(array.getJSONObject(0).similar(full));
+        assertTrue(array.getJSONObject(1).similar(full));
+
+        assertFalse("Overlapping properties fall back to a full message",
+                builder.templatedEvent(null, "login", new JSONObject().put("host", "x")) instanceof TemplatedMessage);
+    }
+
+    public void testPutTemplate() {
+        EventTemplate template = new EventTemplate(new JSONObject().put("region", "cn").put("build", 42));
+        EventWriter writer = new EventWriter();
+        writer.beginEvent(null, "login", 1L).putTemplate(template).putLong("cost", 3).endEvent();
+        JSONObject event = new JSONObject(writer.toString());
+        assertEquals("cn", event.getString("region"));
+        assertEquals(42, event.getInt("build"));
+        assertEquals(3, event.getInt("cost"));
+
+        writer.reset();
+        writer.beginEvent(null, "login", 1L).putTemplate(new EventTemplate(null)).endEvent();
+        assertEquals(2, new JSONObject(writer.toString()).length());
+    }
+
+    public void testPutWithoutEvent() {
+        try {
+            new EventWriter().putLong("count", 1);
+            fail("putLong outside an event should fail");
+        } catch (IllegalStateException e) {
+            // ok
+        }
+    }
+
+}
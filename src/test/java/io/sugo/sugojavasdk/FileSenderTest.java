@@ -0,0 +1,138 @@
+package io.sugo.sugojavasdk;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+public class FileSenderTest extends TestCase {
+
+    private File mDir;
+
+    @Override
+    public void setUp() throws IOException {
+        mDir = Files.createTempDirectory("sugo-file").toFile();
+    }
+
+    @Override
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    public void testOneLinePerSend() throws Exception {
+        File file = new File(mDir, "message");
+        SugoAPI.FileSender sender = new SugoAPI.FileSender(file.getPath(), false);
+        try {
+            assertTrue(sender.sendData("[{\"event\":\"a\"}]"));
+            assertTrue(sender.sendData("[{\"event\":\"中文\"}]"));
+            assertFalse(sender.sendData(null));
+        } finally {
+            sender.close();
+        }
+        List<String> lines = readLines(file);
+        assertEquals(2, lines.size());
+        assertEquals("[{\"event\":\"a\"}]", lines.get(0));
+        assertEquals("[{\"event\":\"中文\"}]", lines.get(1));
+    }
+
+    public void testRollBySize() throws Exception {
+        File file = new File(mDir, "message");
+        SugoAPI.FileSender sender = new SugoAPI.FileSender(file.getPath(), "2", "1KB");
+        String line = repeat('x', 399);
+        try {
+            for (int i = 0; i < 10; i++) {
+                assertTrue(sender.sendData(line));
+            }
+        } finally {
+            sender.close();
+        }
+        assertTrue(file.exists());
+        assertTrue(new File(mDir, "message.1").exists());
+        assertTrue(new File(mDir, "message.2").exists());
+        assertFalse("At most maxBackup backups", new File(mDir, "message.3").exists());
+        assertEquals(2, readLines(file).size());
+        assertTrue(file.length() <= 1024);
+    }
+
+    public void testRollByTime() throws Exception {
+        File file = new File(mDir, "message");
+        Files.write(file.toPath(), "old\n".getBytes("UTF-8"));
+        // 2017-04-01 的数据
+        long lastModified = new java.text.SimpleDateFormat("yyyyMMdd").parse("20170401").getTime() + 1000;
+        assertTrue(file.setLastModified(lastModified));
+
+        SugoAPI.FileSender sender = new SugoAPI.FileSender(file.getPath(), true, "yyyyMMdd");
+        try {
+            assertTrue(sender.sendData("new"));
+        } finally {
+            sender.close();
+        }
+        File rolled = new File(mDir, "message.20170401");
+        assertTrue(rolled.exists());
+        assertEquals("old", readLines(rolled).get(0));
+        assertEquals("new", readLines(file).get(0));
+    }
+
+    public void testSendersWriteIndependentFiles() throws Exception {
+        final SugoAPI.FileSender first = new SugoAPI.FileSender(new File(mDir, "first").getPath(), false);
+        final SugoAPI.FileSender second = new SugoAPI.FileSender(new File(mDir, "second").getPath(), false);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final SugoAPI.FileSender sender = i % 2 == 0 ? first : second;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 500; j++) {
+                        sender.sendData("line-" + j);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        first.close();
+        second.close();
+        assertEquals(1000, readLines(new File(mDir, "first")).size());
+        assertEquals(1000, readLines(new File(mDir, "second")).size());
+        for (String line : readLines(new File(mDir, "first"))) {
+            assertTrue("Lines are not interleaved: " + line, line.matches("line-\\d+"));
+        }
+    }
+
+    public void testSyncPolicyAlways() throws Exception {
+        File file = new File(mDir, "message");
+        SugoAPI.FileSender sender = new SugoAPI.FileSender(file.getPath(), "", "", false, "",
+                SugoAPI.FileSender.SyncPolicy.ALWAYS);
+        try {
+            assertTrue(sender.sendData("synced"));
+            assertEquals("synced", readLines(file).get(0));
+        } finally {
+            sender.close();
+        }
+        assertFalse("Closed sender refuses data", sender.sendData("late"));
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        return Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+}
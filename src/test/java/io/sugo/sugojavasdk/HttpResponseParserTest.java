@@ -0,0 +1,69 @@
+package io.sugo.sugojavasdk;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class HttpResponseParserTest extends TestCase {
+
+    private static final String RESPONSES = "HTTP/1.1 100 Continue\r\n\r\n"
+            + "HTTP/1.1 200 OK\r\nContent-Length: 1\r\n\r\n1"
+            + "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n2;ext=1\r\nab\r\n1\r\nc\r\n0\r\nX-Trailer: t\r\n\r\n"
+            + "HTTP/1.1 503 Service Unavailable\r\nConnection: close\r\nContent-Length: 4\r\n\r\nbusy";
+
+    public void testPipelinedResponsesInOneBuffer() throws IOException {
+        assertResponses(parse(RESPONSES.getBytes("US-ASCII"), Integer.MAX_VALUE));
+    }
+
+    public void testResponsesSplitAtEveryByte() throws IOException {
+        assertResponses(parse(RESPONSES.getBytes("US-ASCII"), 1));
+    }
+
+    public void testBodyUntilClose() throws IOException {
+        HttpResponseParser parser = new HttpResponseParser();
+        assertNull(parser.parse(ByteBuffer.wrap("HTTP/1.0 200 OK\r\n\r\n1".getBytes("US-ASCII"))));
+        HttpConnectionPool.Response response = parser.finish();
+        assertEquals("1", response.mBody);
+        assertFalse(response.mKeepAlive);
+        assertNull(parser.finish());
+    }
+
+    public void testMalformedStatusLine() throws IOException {
+        try {
+            new HttpResponseParser().parse(ByteBuffer.wrap("garbage\r\n".getBytes("US-ASCII")));
+            fail("malformed status line");
+        } catch (IOException e) {
+            // ok
+        }
+    }
+
+    private static List<HttpConnectionPool.Response> parse(byte[] data, int fragment) throws IOException {
+        HttpResponseParser parser = new HttpResponseParser();
+        List<HttpConnectionPool.Response> responses = new ArrayList<HttpConnectionPool.Response>();
+        for (int offset = 0; offset < data.length; offset += fragment) {
+            ByteBuffer in = ByteBuffer.wrap(data, offset, Math.min(fragment, data.length - offset));
+            HttpConnectionPool.Response response;
+            while ((response = parser.parse(in)) != null) {
+                responses.add(response);
+            }
+        }
+        assertNull("No partial response left", parser.finish());
+        return responses;
+    }
+
+    private static void assertResponses(List<HttpConnectionPool.Response> responses) {
+        assertEquals(3, responses.size());
+        assertEquals(200, responses.get(0).mStatus);
+        assertNull(responses.get(0).failure());
+        assertEquals("abc", responses.get(1).mBody);
+        assertTrue(responses.get(1).mKeepAlive);
+        assertEquals(503, responses.get(2).mStatus);
+        assertEquals("busy", responses.get(2).mBody);
+        assertFalse(responses.get(2).mKeepAlive);
+        assertEquals(SendFailure.SERVER_ERROR, responses.get(2).failure());
+    }
+
+}
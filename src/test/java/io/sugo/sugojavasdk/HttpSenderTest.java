@@ -0,0 +1,378 @@
+package io.sugo.sugojavasdk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+public class HttpSenderTest extends TestCase {
+
+    private HttpServer mServer;
+    private String mEndpoint;
+    private volatile int mStatus;
+    private volatile String mReply;
+    private final List<String> mReceived = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> mContentEncodings = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> mContentTypes = Collections.synchronizedList(new ArrayList<String>());
+    private final List<byte[]> mRawBodies = Collections.synchronizedList(new ArrayList<byte[]>());
+    private final List<Integer> mBodyLengths = Collections.synchronizedList(new ArrayList<Integer>());
+    private final Set<Integer> mClientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    @Override
+    public void setUp() throws IOException {
+        mStatus = 200;
+        mReply = "1";
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/post", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mClientPorts.add(exchange.getRemoteAddress().getPort());
+                byte[] raw = readAll(exchange.getRequestBody());
+                mBodyLengths.add(raw.length);
+                mRawBodies.add(raw);
+                mContentTypes.add(exchange.getRequestHeaders().getFirst("Content-Type"));
+                InputStream body = new ByteArrayInputStream(raw);
+                String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                if ("gzip".equals(contentEncoding)) {
+                    body = new GZIPInputStream(body);
+                } else if ("deflate".equals(contentEncoding)) {
+                    body = new InflaterInputStream(body);
+                }
+                mContentEncodings.add(String.valueOf(contentEncoding));
+                mReceived.add(new String(readAll(body), "utf-8"));
+                byte[] reply = mReply.getBytes("utf-8");
+                exchange.sendResponseHeaders(mStatus, reply.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(reply);
+                out.close();
+            }
+        });
+        mServer.start();
+        mEndpoint = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/post";
+    }
+
+    @Override
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    public void testSendData() throws Exception {
+        SugoAPI.HttpSender sender = new SugoAPI.HttpSender(mEndpoint);
+        try {
+            assertTrue(sender.sendData("[{\"event\":\"login\"}]"));
+            assertEquals(1, mReceived.size());
+            String body = mReceived.get(0);
+            assertTrue(body.startsWith("data="));
+            String base64 = URLDecoder.decode(body.substring("data=".length()), "utf-8");
+            assertEquals("[{\"event\":\"login\"}]", Base64.decodeString(base64));
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testSendBinary() {
+        SugoAPI.HttpSender sender = new SugoAPI.HttpSender(mEndpoint, 1, SugoAPI.HttpSender.Encoding.GZIP);
+        Metrics metrics = new Metrics();
+        sender.setMetrics(metrics);
+        try {
+            byte[] data = {9, 9, (byte) 0x91, (byte) 0x80, 9};
+            assertTrue(sender.sendBinary(data, 2, 2, BatchCodec.MESSAGE_PACK.getContentType()));
+            assertTrue(Arrays.equals(new byte[]{(byte) 0x91, (byte) 0x80}, mRawBodies.get(0)));
+            assertEquals("application/x-msgpack", mContentTypes.get(0));
+            assertEquals("Binary data is sent as is", "null", mContentEncodings.get(0));
+            assertEquals(2, metrics.getBytesAfterEncoding());
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testConnectionIsReused() {
+        SugoAPI.HttpSender sender = new SugoAPI.HttpSender(mEndpoint, 1);
+        try {
+            for (int i = 0; i < 20; i++) {
+                assertTrue(sender.sendData("[]"));
+            }
+            assertEquals(20, mReceived.size());
+            assertEquals("All requests over one connection", 1, mClientPorts.size());
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testGzipEncoding() {
+        assertCompressedDelivery(SugoAPI.HttpSender.Encoding.GZIP, "gzip");
+    }
+
+    public void testDeflateEncoding() {
+        assertCompressedDelivery(SugoAPI.HttpSender.Encoding.DEFLATE, "deflate");
+    }
+
+    private void assertCompressedDelivery(SugoAPI.HttpSender.Encoding encoding, String contentEncoding) {
+        SugoAPI.HttpSender sender = new SugoAPI.HttpSender(mEndpoint, 1, encoding);
+        Metrics metrics = new Metrics();
+        sender.setMetrics(metrics);
+        try {
+            StringBuilder large = new StringBuilder("[");
+            for (int i = 0; i < 5000; i++) {
+                large.append(i == 0 ? "" : ",").append("{\"event\":\"中文事件\",\"count\":").append(i).append('}');
+            }
+            large.append(']');
+            assertTrue(sender.sendData("[{\"event\":\"login\"}]"));
+            assertTrue(sender.sendData(large.toString()));
+            assertEquals("[{\"event\":\"login\"}]", mReceived.get(0));
+            assertEquals(large.toString(), mReceived.get(1));
+            assertEquals(contentEncoding, mContentEncodings.get(0));
+            assertEquals("Chunked requests keep the connection alive", 1, mClientPorts.size());
+            assertEquals("Compressed bytes reported", mBodyLengths.get(0) + mBodyLengths.get(1),
+                    metrics.getBytesAfterEncoding());
+            assertTrue(metrics.getBytesAfterEncoding() < large.length());
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testRejectedResponse() {
+        SugoAPI.HttpSender sender = new SugoAPI.HttpSender(mEndpoint);
+        try {
+            mReply = "0";
+            assertFalse(sender.sendData("[]"));
+            assertEquals(SendFailure.REJECTED, sender.getLastFailure());
+            mStatus = 500;
+            mReply = "1";
+            assertFalse(sender.sendData("[]"));
+            assertEquals(SendFailure.SERVER_ERROR, sender.getLastFailure());
+            mStatus = 400;
+            assertFalse(sender.sendData("[]"));
+            assertEquals(SendFailure.CLIENT_ERROR, sender.getLastFailure());
+            mStatus = 200;
+            assertTrue(sender.sendData("[]"));
+            assertNull(sender.getLastFailure());
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testUnreachableEndpoint() {
+        mServer.stop(0);
+        SugoAPI.HttpSender sender = new SugoAPI.HttpSender(mEndpoint, 1, 500, 500, 1000);
+        try {
+            assertFalse(sender.sendData("[]"));
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testInvalidEndpoint() {
+        try {
+            new SugoAPI.HttpSender("not a url");
+            fail("HttpSender should reject malformed endpoint");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    public void testStaleConnectionIsRetried() throws Exception {
+        // 第二个请求在复用的连接上没有收到任何字节，换新连接重试
+        RawServer server = new RawServer(OK, null, OK);
+        SugoAPI.HttpSender sender = new SugoAPI.HttpSender(server.endpoint(), 1);
+        try {
+            assertTrue(sender.sendData("[]"));
+            assertTrue(sender.sendData("[]"));
+            assertEquals(3, server.mRequests.get());
+            assertEquals(2, server.mConnections.get());
+        } finally {
+            sender.close();
+            server.close();
+        }
+    }
+
+    public void testPartialResponseIsNotRetried() throws Exception {
+        // 服务端已经开始响应，说明请求已被处理，重试会导致数据重复
+        RawServer server = new RawServer(OK, "HTTP/1.1 200 OK\r\n", OK);
+        SugoAPI.HttpSender sender = new SugoAPI.HttpSender(server.endpoint(), 1);
+        try {
+            assertTrue(sender.sendData("[]"));
+            assertFalse(sender.sendData("[]"));
+            assertEquals(SendFailure.NETWORK, sender.getLastFailure());
+            assertEquals(2, server.mRequests.get());
+        } finally {
+            sender.close();
+            server.close();
+        }
+    }
+
+    public void testMalformedContentLength() throws Exception {
+        RawServer server = new RawServer("HTTP/1.1 200 OK\r\nContent-Length: abc\r\n\r\n1");
+        SugoAPI.HttpSender sender = new SugoAPI.HttpSender(server.endpoint(), 1);
+        try {
+            assertFalse(sender.sendData("[]"));
+            assertEquals(SendFailure.NETWORK, sender.getLastFailure());
+        } finally {
+            sender.close();
+            server.close();
+        }
+    }
+
+    public void testProxy() throws Exception {
+        final RawServer server = new RawServer(OK, "HTTP/1.1 407 Proxy Authentication Required\r\nContent-Length: 0\r\n\r\n");
+        ProxySelector previous = ProxySelector.getDefault();
+        ProxySelector.setDefault(new ProxySelector() {
+            @Override
+            public List<Proxy> select(URI uri) {
+                return Collections.singletonList(new Proxy(Proxy.Type.HTTP,
+                        new InetSocketAddress("127.0.0.1", server.mSocket.getLocalPort())));
+            }
+
+            @Override
+            public void connectFailed(URI uri, SocketAddress address, IOException e) {
+            }
+        });
+        try {
+            SugoAPI.HttpSender sender = new SugoAPI.HttpSender("http://sugo.invalid/post", 1);
+            try {
+                assertTrue(sender.sendData("[]"));
+            } finally {
+                sender.close();
+            }
+            sender = new SugoAPI.HttpSender("https://sugo.invalid/post", 1);
+            try {
+                assertFalse(sender.sendData("[]"));
+            } finally {
+                sender.close();
+            }
+            assertEquals(Arrays.asList("POST http://sugo.invalid/post HTTP/1.1", "CONNECT sugo.invalid:443 HTTP/1.1"),
+                    server.mRequestLines);
+        } finally {
+            ProxySelector.setDefault(previous);
+            server.close();
+        }
+    }
+
+    private static final String OK = "HTTP/1.1 200 OK\r\nContent-Length: 1\r\n\r\n1";
+
+    /**
+     * 按顺序对每个请求返回给定的原始响应，然后关闭连接的 HTTP 服务端；响应为 null 时直接关闭连接
+     */
+    private static class RawServer extends Thread {
+
+        final ServerSocket mSocket;
+        final String[] mReplies;
+        final AtomicInteger mRequests = new AtomicInteger();
+        final AtomicInteger mConnections = new AtomicInteger();
+        final List<String> mRequestLines = Collections.synchronizedList(new ArrayList<String>());
+
+        RawServer(String... replies) throws IOException {
+            mSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            mReplies = replies;
+            setDaemon(true);
+            start();
+        }
+
+        String endpoint() {
+            return "http://127.0.0.1:" + mSocket.getLocalPort() + "/post";
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Socket socket = mSocket.accept();
+                    mConnections.incrementAndGet();
+                    try {
+                        serve(socket);
+                    } finally {
+                        socket.close();
+                    }
+                }
+            } catch (IOException e) {
+                // 关闭
+            }
+        }
+
+        private void serve(Socket socket) throws IOException {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                int contentLength = -1;
+                String line = readLine(in);
+                if (line == null) {
+                    return;
+                }
+                mRequestLines.add(line);
+                while ((line = readLine(in)) != null && line.length() > 0) {
+                    if (line.toLowerCase().startsWith("content-length:")) {
+                        contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+                    }
+                }
+                if (line == null) {
+                    return;
+                }
+                for (int i = 0; i < contentLength; i++) {
+                    in.read();
+                }
+                int index = mRequests.getAndIncrement();
+                String reply = index < mReplies.length ? mReplies[index] : OK;
+                if (reply == null) {
+                    return;
+                }
+                out.write(reply.getBytes("US-ASCII"));
+                out.flush();
+                if (!reply.endsWith("1")) {
+                    return;
+                }
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1 && c != '\n') {
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return c == -1 ? null : line.toString();
+        }
+
+        void close() throws IOException {
+            mSocket.close();
+        }
+
+    }
+
+    static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+}
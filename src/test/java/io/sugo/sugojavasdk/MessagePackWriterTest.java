@@ -0,0 +1,222 @@
+package io.sugo.sugojavasdk;
+
+import junit.framework.TestCase;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MessagePackWriterTest extends TestCase {
+
+    public void testValues() {
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            longText.append("中文");
+        }
+        JSONObject message = new JSONObject();
+        message.put("event", "purchase");
+        message.put("small", 7);
+        message.put("negative", -5);
+        message.put("byte", 200);
+        message.put("short", -1000);
+        message.put("int", 70000);
+        message.put("long", 1512033285534L);
+        message.put("min", Long.MIN_VALUE);
+        message.put("amount", 12.5);
+        message.put("whole", 3.0);
+        message.put("vip", true);
+        message.put("none", JSONObject.NULL);
+        message.put("text", longText.toString());
+        message.put("nested", new JSONObject().put("list", new JSONArray(Arrays.asList(1, "two", false))));
+
+        Map<String, Object> decoded = decodeSingle(encode(message));
+        assertEquals("purchase", decoded.get("event"));
+        assertEquals(7L, decoded.get("small"));
+        assertEquals(-5L, decoded.get("negative"));
+        assertEquals(200L, decoded.get("byte"));
+        assertEquals(-1000L, decoded.get("short"));
+        assertEquals(70000L, decoded.get("int"));
+        assertEquals(1512033285534L, decoded.get("long"));
+        assertEquals(Long.MIN_VALUE, decoded.get("min"));
+        assertEquals(12.5, decoded.get("amount"));
+        assertEquals(3L, decoded.get("whole"));
+        assertEquals(Boolean.TRUE, decoded.get("vip"));
+        assertTrue(decoded.containsKey("none"));
+        assertNull(decoded.get("none"));
+        assertEquals(longText.toString(), decoded.get("text"));
+        Map<?, ?> nested = (Map<?, ?>) decoded.get("nested");
+        assertEquals(Arrays.<Object>asList(1L, "two", false), nested.get("list"));
+    }
+
+    public void testTemplateAndUndo() {
+        JSONObject superProps = new JSONObject().put("app_version", "1.2.3").put("region", "cn");
+        MessageBuilder builder = new MessageBuilder().setSuperProperties(superProps);
+        JSONObject templated = builder.templatedEvent("a distinct id", "login", new JSONObject().put("count", 1));
+        assertTrue(templated instanceof TemplatedMessage);
+
+        BatchWriter writer = BatchCodec.MESSAGE_PACK.newWriter();
+        writer.begin();
+        writer.write(templated);
+        writer.write(new JSONObject().put("event", "dropped"));
+        writer.undoLast();
+        writer.write(new JSONObject().put("event", "kept"));
+        writer.end();
+
+        List<Object> batch = decode(writer);
+        assertEquals(2, batch.size());
+        Map<?, ?> first = (Map<?, ?>) batch.get(0);
+        assertEquals("login", first.get("event"));
+        assertEquals("a distinct id", first.get("distinct_id"));
+        assertEquals(1L, first.get("count"));
+        assertEquals("1.2.3", first.get("app_version"));
+        assertEquals("cn", first.get("region"));
+        assertEquals("kept", ((Map<?, ?>) batch.get(1)).get("event"));
+
+        // 同一个 writer 可以重复使用
+        writer.begin();
+        writer.end();
+        assertEquals(0, decode(writer).size());
+    }
+
+    public void testSmallerThanJson() {
+        BatchWriter json = BatchCodec.JSON.newWriter();
+        BatchWriter msgpack = BatchCodec.MESSAGE_PACK.newWriter();
+        json.begin();
+        msgpack.begin();
+        MessageBuilder builder = new MessageBuilder();
+        for (int i = 0; i < 100; i++) {
+            JSONObject message = builder.event("user" + i, "purchase",
+                    new JSONObject().put("amount", i * 1.5).put("count", i).put("vip", i % 2 == 0));
+            json.write(message);
+            msgpack.write(message);
+        }
+        json.end();
+        msgpack.end();
+        assertEquals(100, new JSONArray(new String(json.buffer(), 0, json.size(), Charset.forName("UTF-8"))).length());
+        assertEquals(100, decode(msgpack).size());
+        assertTrue(msgpack.size() < json.size());
+    }
+
+    private static byte[] encode(JSONObject message) {
+        BatchWriter writer = new MessagePackWriter(16);
+        writer.begin();
+        writer.write(message);
+        writer.end();
+        return Arrays.copyOf(writer.buffer(), writer.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> decodeSingle(byte[] data) {
+        List<Object> batch = (List<Object>) new Decoder(ByteBuffer.wrap(data)).read();
+        assertEquals(1, batch.size());
+        return (Map<String, Object>) batch.get(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> decode(BatchWriter writer) {
+        ByteBuffer buffer = ByteBuffer.wrap(writer.buffer(), 0, writer.size());
+        List<Object> batch = (List<Object>) new Decoder(buffer).read();
+        assertFalse("Trailing bytes", buffer.hasRemaining());
+        return batch;
+    }
+
+    /**
+     * 只支持 MessagePackWriter 会写出的类型
+     */
+    private static class Decoder {
+
+        private final ByteBuffer mBuffer;
+
+        Decoder(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        Object read() {
+            int b = mBuffer.get() & 0xff;
+            if (b < 0x80) {
+                return (long) b;
+            } else if (b >= 0xe0) {
+                return (long) (byte) b;
+            } else if ((b & 0xf0) == 0x80) {
+                return map(b & 0x0f);
+            } else if ((b & 0xf0) == 0x90) {
+                return array(b & 0x0f);
+            } else if ((b & 0xe0) == 0xa0) {
+                return string(b & 0x1f);
+            }
+            switch (b) {
+                case 0xc0:
+                    return null;
+                case 0xc2:
+                    return false;
+                case 0xc3:
+                    return true;
+                case 0xcb:
+                    return mBuffer.getDouble();
+                case 0xcc:
+                    return (long) (mBuffer.get() & 0xff);
+                case 0xcd:
+                    return (long) (mBuffer.getShort() & 0xffff);
+                case 0xce:
+                    return mBuffer.getInt() & 0xffffffffL;
+                case 0xcf:
+                case 0xd3:
+                    return mBuffer.getLong();
+                case 0xd0:
+                    return (long) mBuffer.get();
+                case 0xd1:
+                    return (long) mBuffer.getShort();
+                case 0xd2:
+                    return (long) mBuffer.getInt();
+                case 0xd9:
+                    return string(mBuffer.get() & 0xff);
+                case 0xda:
+                    return string(mBuffer.getShort() & 0xffff);
+                case 0xdb:
+                    return string(mBuffer.getInt());
+                case 0xdc:
+                    return array(mBuffer.getShort() & 0xffff);
+                case 0xdd:
+                    return array(mBuffer.getInt());
+                case 0xde:
+                    return map(mBuffer.getShort() & 0xffff);
+                case 0xdf:
+                    return map(mBuffer.getInt());
+                default:
+                    throw new IllegalArgumentException("Unexpected type 0x" + Integer.toHexString(b));
+            }
+        }
+
+        private String string(int length) {
+            byte[] bytes = new byte[length];
+            mBuffer.get(bytes);
+            return new String(bytes, Charset.forName("UTF-8"));
+        }
+
+        private List<Object> array(int length) {
+            List<Object> list = new ArrayList<Object>(length);
+            for (int i = 0; i < length; i++) {
+                list.add(read());
+            }
+            return list;
+        }
+
+        private Map<String, Object> map(int size) {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < size; i++) {
+                String key = (String) read();
+                assertFalse("Duplicate key " + key, map.containsKey(key));
+                map.put(key, read());
+            }
+            return map;
+        }
+
+    }
+
+}
@@ -0,0 +1,168 @@
+package io.sugo.sugojavasdk;
+
+import junit.framework.TestCase;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class MetricsTest extends TestCase {
+
+    public void testStripedCounterUnderContention() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100000; j++) {
+                        counter.increment();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(800000, counter.sum());
+    }
+
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000);
+        }
+        LatencySnapshot snapshot = histogram.snapshot();
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(10000000, snapshot.getMaxNanos());
+        assertEquals(5000500.0, snapshot.getMeanNanos(), 1);
+        assertWithin(5000000, snapshot.getPercentileNanos(50));
+        assertWithin(9900000, snapshot.getPercentileNanos(99));
+        assertWithin(9990000, snapshot.getPercentileNanos(99.9));
+        assertEquals(10000000, snapshot.getPercentileNanos(100));
+    }
+
+    public void testHistogramUnderContention() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final long nanos = (i + 1) * 1000;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100000; j++) {
+                        histogram.record(nanos);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LatencySnapshot snapshot = histogram.snapshot();
+        assertEquals(800000, snapshot.getCount());
+        assertEquals(8000, snapshot.getMaxNanos());
+        assertEquals(4500.0, snapshot.getMeanNanos(), 0.001);
+        assertWithin(4000, snapshot.getPercentileNanos(50));
+    }
+
+    public void testHistogramBuckets() {
+        // 每个值都落在上界不小于它、且相对误差不超过 1/32 的桶里
+        for (long value = 0; value < 1 << 20; value += 7) {
+            long highest = LatencyHistogram.highestValue(LatencyHistogram.index(value));
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= value / 32 + 1);
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.index(LatencyHistogram.MAX_VALUE));
+    }
+
+    public void testWorkerMetrics() throws InterruptedException {
+        final boolean[] accept = {true};
+        SugoAPI sugoAPI = new SugoAPI(new SugoAPI.Sender() {
+            @Override
+            public boolean sendData(String dataString) {
+                return accept[0];
+            }
+        }, new WorkerConfig().setConsumerCount(1).setBatchSize(5).setLingerMillis(0));
+
+        for (int i = 0; i < 10; i++) {
+            sugoAPI.event("counted", new JSONObject().put("count", i));
+        }
+        waitForSent(sugoAPI, 10);
+        accept[0] = false;
+        sugoAPI.event("refused", null);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sugoAPI.getMetrics().getEventsFailed() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        MetricsSnapshot metrics = sugoAPI.getMetrics();
+        assertEquals(11, metrics.getEventsAccepted());
+        assertEquals(10, metrics.getEventsSent());
+        assertEquals(1, metrics.getEventsFailed());
+        assertEquals(0, metrics.getEventsDropped());
+        assertEquals(metrics.getBatchesSent() + metrics.getBatchesFailed(), metrics.getSendLatency().getCount());
+        assertTrue(metrics.getPayloadBytes() > 0);
+        assertEquals("Sender does not report encoded bytes", 0, metrics.getBytesAfterEncoding());
+        assertEquals(0, metrics.getQueueDepth());
+        assertEquals(SugoConfig.DEFAULT_WORKER_QUEＵE_CAPACITY, metrics.getQueueCapacity());
+    }
+
+    public void testSenderReportsEncodedBytes() throws Exception {
+        File dir = Files.createTempDirectory("sugo-metrics").toFile();
+        File file = new File(dir, "message");
+        SugoAPI.FileSender sender = new SugoAPI.FileSender(file.getPath(), false);
+        try {
+            SugoAPI sugoAPI = new SugoAPI(sender, new WorkerConfig().setLingerMillis(0));
+            sugoAPI.event("written", null);
+            waitForSent(sugoAPI, 1);
+            // FileSender 写出 JSON 加一个换行符
+            MetricsSnapshot metrics = sugoAPI.getMetrics();
+            assertEquals(metrics.getPayloadBytes() + 1, metrics.getBytesAfterEncoding());
+        } finally {
+            sender.close();
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    public void testRegisterMBean() throws Exception {
+        SugoAPI sugoAPI = new SugoAPI(new SugoAPI.Sender() {
+            @Override
+            public boolean sendData(String dataString) {
+                return true;
+            }
+        }, new WorkerConfig().setLingerMillis(0));
+        ObjectName name = sugoAPI.registerMBean("metrics-test");
+        try {
+            sugoAPI.event("counted", null);
+            waitForSent(sugoAPI, 1);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(1L, server.getAttribute(name, "EventsSent"));
+            assertEquals(1L, server.getAttribute(name, "SendCount"));
+        } finally {
+            sugoAPI.unregisterMBean();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    private static void waitForSent(SugoAPI sugoAPI, long events) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sugoAPI.getMetrics().getEventsSent() < events && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(events, sugoAPI.getMetrics().getEventsSent());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 32 + 1);
+    }
+
+}
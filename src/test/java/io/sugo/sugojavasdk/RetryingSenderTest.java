@@ -0,0 +1,168 @@
+package io.sugo.sugojavasdk;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class RetryingSenderTest extends TestCase {
+
+    public void testRetriesUntilSuccess() {
+        ScriptedSender delegate = new ScriptedSender(SendFailure.CONNECT, SendFailure.SERVER_ERROR, null);
+        RetryingSender sender = new RetryingSender(delegate, new RetryPolicy()
+                .setMaxAttempts(3)
+                .setBackoff(1, 10, 2));
+        assertTrue(sender.sendData("batch"));
+        assertEquals(3, delegate.calls.size());
+        assertNull(sender.getLastFailure());
+    }
+
+    public void testGivesUpAfterMaxAttempts() {
+        ScriptedSender delegate = new ScriptedSender(SendFailure.TIMEOUT, SendFailure.TIMEOUT, SendFailure.TIMEOUT,
+                null);
+        RetryingSender sender = new RetryingSender(delegate, new RetryPolicy()
+                .setMaxAttempts(2)
+                .setBackoff(1, 1, 1));
+        assertFalse(sender.sendData("batch"));
+        assertEquals(2, delegate.calls.size());
+        assertEquals(SendFailure.TIMEOUT, sender.getLastFailure());
+    }
+
+    public void testDoesNotRetryRejectedData() {
+        ScriptedSender delegate = new ScriptedSender(SendFailure.REJECTED, null);
+        RetryingSender sender = new RetryingSender(delegate, new RetryPolicy().setBackoff(1, 1, 1));
+        assertFalse(sender.sendData("batch"));
+        assertEquals(1, delegate.calls.size());
+        assertEquals(SendFailure.REJECTED, sender.getLastFailure());
+        assertEquals(RetryingSender.CircuitState.CLOSED, sender.getCircuitState());
+    }
+
+    public void testPlainSenderFailuresAreRetried() {
+        final int[] calls = {0};
+        RetryingSender sender = new RetryingSender(new SugoAPI.Sender() {
+            @Override
+            public boolean sendData(String dataString) {
+                calls[0]++;
+                if (calls[0] == 1) {
+                    throw new IllegalStateException("boom");
+                }
+                return calls[0] == 3;
+            }
+        }, new RetryPolicy().setBackoff(1, 1, 1));
+        assertTrue(sender.sendData("batch"));
+        assertEquals(3, calls[0]);
+    }
+
+    public void testBackoffGrowsWithJitter() {
+        ScriptedSender delegate = new ScriptedSender(SendFailure.NETWORK, SendFailure.NETWORK, SendFailure.NETWORK,
+                null);
+        RetryingSender sender = new RetryingSender(delegate, new RetryPolicy()
+                .setMaxAttempts(4)
+                .setBackoff(20, 1000, 2)
+                .setJitter(0.5));
+        assertTrue(sender.sendData("batch"));
+        // 三次等待分别在 [10, 20]、[20, 40]、[40, 80] 毫秒之间
+        long first = delegate.calls.get(1) - delegate.calls.get(0);
+        long third = delegate.calls.get(3) - delegate.calls.get(2);
+        assertTrue("first backoff " + first, first >= 10);
+        assertTrue("third backoff " + third, third >= 40);
+    }
+
+    public void testCircuitBreakerOpensAndRecovers() throws InterruptedException {
+        ScriptedSender delegate = new ScriptedSender();
+        delegate.fallback = SendFailure.CONNECT;
+        RetryingSender sender = new RetryingSender(delegate, new RetryPolicy()
+                .setMaxAttempts(1)
+                .setCircuitBreaker(3, 100));
+        for (int i = 0; i < 3; i++) {
+            assertFalse(sender.sendData("batch"));
+        }
+        assertEquals(RetryingSender.CircuitState.OPEN, sender.getCircuitState());
+        assertFalse(sender.sendData("batch"));
+        assertEquals(SendFailure.CIRCUIT_OPEN, sender.getLastFailure());
+        assertEquals("Open circuit does not call the delegate", 3, delegate.calls.size());
+
+        Thread.sleep(150);
+        assertFalse("Failed probe", sender.sendData("batch"));
+        assertEquals(4, delegate.calls.size());
+        assertEquals(RetryingSender.CircuitState.OPEN, sender.getCircuitState());
+
+        Thread.sleep(150);
+        delegate.fallback = null;
+        assertTrue("Successful probe", sender.sendData("batch"));
+        assertEquals(RetryingSender.CircuitState.CLOSED, sender.getCircuitState());
+    }
+
+    public void testInterruptedRetryDoesNotHoldProbe() throws InterruptedException {
+        // 第一次失败后熔断器立即打开，openMillis 为 0 时下一次询问就会进入半开状态
+        final ScriptedSender delegate = new ScriptedSender(SendFailure.CONNECT);
+        final RetryingSender sender = new RetryingSender(delegate, new RetryPolicy()
+                .setMaxAttempts(3)
+                .setBackoff(10000, 10000, 1)
+                .setCircuitBreaker(1, 0));
+        final boolean[] result = {true};
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = sender.sendData("[]");
+            }
+        });
+        thread.start();
+        while (delegate.calls.isEmpty()) {
+            Thread.sleep(1);
+        }
+        thread.interrupt();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        assertFalse(result[0]);
+        assertEquals(RetryingSender.CircuitState.OPEN, sender.getCircuitState());
+
+        // 被中断的重试没有占住探测机会，下一次发送可以探测并恢复
+        assertTrue(sender.sendData("[]"));
+        assertEquals(RetryingSender.CircuitState.CLOSED, sender.getCircuitState());
+    }
+
+    public void testHttpSenderClassifiesConnectFailure() {
+        // 没有服务监听的端口
+        SugoAPI.HttpSender http = new SugoAPI.HttpSender("http://127.0.0.1:1/post", 1, 500, 500, 1000);
+        try {
+            RetryingSender sender = new RetryingSender(http, new RetryPolicy().setMaxAttempts(2).setBackoff(1, 1, 1));
+            assertFalse(sender.sendData("[]"));
+            assertEquals(SendFailure.CONNECT, http.getLastFailure());
+            assertEquals(SendFailure.CONNECT, sender.getLastFailure());
+        } finally {
+            http.close();
+        }
+    }
+
+    /**
+     * 按顺序返回给定的结果，null 表示成功，之后一直返回 fallback
+     */
+    private static class ScriptedSender implements SugoAPI.ClassifyingSender {
+
+        final List<Long> calls = Collections.synchronizedList(new ArrayList<Long>());
+        private final SendFailure[] mScript;
+        volatile SendFailure fallback;
+        private SendFailure mLast;
+
+        ScriptedSender(SendFailure... script) {
+            mScript = script;
+        }
+
+        @Override
+        public boolean sendData(String dataString) {
+            int call = calls.size();
+            calls.add(System.currentTimeMillis());
+            mLast = call < mScript.length ? mScript[call] : fallback;
+            return mLast == null;
+        }
+
+        @Override
+        public SendFailure getLastFailure() {
+            return mLast;
+        }
+
+    }
+
+}
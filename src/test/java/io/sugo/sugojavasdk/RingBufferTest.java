@@ -0,0 +1,149 @@
+package io.sugo.sugojavasdk;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public class RingBufferTest extends TestCase {
+
+    public void testFifoAndCapacity() {
+        // 容量不是 2 的幂时也严格按配置的容量
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(3, WorkerConfig.WaitStrategy.PARK);
+        for (int round = 0; round < 5; round++) {
+            assertTrue(buffer.offer(1));
+            assertTrue(buffer.offer(2));
+            assertTrue(buffer.offer(3));
+            assertFalse("Full at capacity", buffer.offer(4));
+            assertEquals(3, buffer.size());
+            assertEquals(Integer.valueOf(1), buffer.poll());
+            assertEquals(Integer.valueOf(2), buffer.poll());
+            assertEquals(Integer.valueOf(3), buffer.poll());
+            assertNull(buffer.poll());
+            assertEquals(0, buffer.size());
+        }
+    }
+
+    public void testCapacityOneIsRejected() {
+        try {
+            new RingBuffer<Integer>(1, WorkerConfig.WaitStrategy.PARK);
+            fail("capacity must be at least 2");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    public void testPollTimesOut() throws InterruptedException {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(4, WorkerConfig.WaitStrategy.PARK);
+        long start = System.nanoTime();
+        assertNull(buffer.poll(50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    public void testPutWaitsForSpace() throws Exception {
+        final RingBuffer<Integer> buffer = new RingBuffer<Integer>(2, WorkerConfig.WaitStrategy.PARK);
+        buffer.put(0);
+        buffer.put(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    buffer.put(2);
+                    done.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        assertFalse("Producer blocked while full", done.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(Integer.valueOf(0), buffer.take());
+        assertTrue("Producer woken by consumer", done.await(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(1), buffer.take());
+        assertEquals(Integer.valueOf(2), buffer.take());
+    }
+
+    public void testConcurrentBusySpin() throws Exception {
+        // 自旋的线程多于 CPU 核数时会互相抢占，这里只用一个生产者
+        runConcurrent(WorkerConfig.WaitStrategy.BUSY_SPIN, 1, 2000);
+    }
+
+    public void testConcurrentYield() throws Exception {
+        runConcurrent(WorkerConfig.WaitStrategy.YIELD, 4, 20000);
+    }
+
+    public void testConcurrentPark() throws Exception {
+        runConcurrent(WorkerConfig.WaitStrategy.PARK, 4, 20000);
+    }
+
+    /**
+     * 多个生产者和消费者并发读写一个小队列，每个元素恰好被取出一次
+     */
+    private void runConcurrent(WorkerConfig.WaitStrategy waitStrategy, int producers, final int perProducer)
+            throws Exception {
+        final RingBuffer<Integer> buffer = new RingBuffer<Integer>(64, waitStrategy);
+        final AtomicIntegerArray seen = new AtomicIntegerArray(producers * perProducer);
+        final AtomicBoolean producing = new AtomicBoolean(true);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+
+        Thread[] producerThreads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            producerThreads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < perProducer; i++) {
+                            buffer.put(base + i);
+                        }
+                    } catch (InterruptedException e) {
+                        failed.set(true);
+                    }
+                }
+            });
+        }
+        Thread[] consumerThreads = new Thread[waitStrategy == WorkerConfig.WaitStrategy.BUSY_SPIN ? 1 : 2];
+        for (int c = 0; c < consumerThreads.length; c++) {
+            consumerThreads[c] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            Integer value = buffer.poll(10, TimeUnit.MILLISECONDS);
+                            if (value != null) {
+                                if (seen.incrementAndGet(value) != 1) {
+                                    failed.set(true);
+                                }
+                            } else if (!producing.get()) {
+                                return;
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        failed.set(true);
+                    }
+                }
+            });
+            consumerThreads[c].start();
+        }
+        for (Thread thread : producerThreads) {
+            thread.start();
+        }
+        for (Thread thread : producerThreads) {
+            thread.join();
+        }
+        producing.set(false);
+        for (Thread thread : consumerThreads) {
+            thread.join();
+        }
+
+        assertFalse("No duplicates or interruptions", failed.get());
+        for (int i = 0; i < seen.length(); i++) {
+            assertEquals("Element " + i + " consumed once", 1, seen.get(i));
+        }
+        assertNull(buffer.poll());
+    }
+
+}
@@ -0,0 +1,255 @@
+package io.sugo.sugojavasdk;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SpoolingSenderTest extends TestCase {
+
+    private File mDir;
+
+    @Override
+    public void setUp() throws IOException {
+        mDir = Files.createTempDirectory("sugo-spool").toFile();
+    }
+
+    @Override
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    public void testReplayAfterOutage() throws Exception {
+        FlakySender delegate = new FlakySender();
+        SpoolingSender sender = new SpoolingSender(delegate, mDir.getPath(), 1024 * 1024, 64, 10);
+        try {
+            delegate.up = false;
+            for (int i = 0; i < 10; i++) {
+                assertTrue("Spooled while collector is down", sender.sendData("batch-" + i));
+            }
+            assertFalse(sender.isSpoolEmpty());
+            assertTrue(delegate.received.isEmpty());
+
+            delegate.up = true;
+            waitForEmptySpool(sender);
+            assertEquals(10, delegate.received.size());
+            for (int i = 0; i < 10; i++) {
+                assertEquals("Replayed in order", "batch-" + i, delegate.received.get(i));
+            }
+            assertTrue("Acknowledged segments deleted", countSegments() <= 1);
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testDirectSendWhenSpoolEmpty() throws Exception {
+        FlakySender delegate = new FlakySender();
+        SpoolingSender sender = new SpoolingSender(delegate, mDir.getPath());
+        try {
+            assertTrue(sender.sendData("batch"));
+            assertEquals(1, delegate.received.size());
+            assertEquals(0, sender.getSpoolBytes());
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testSpoolSurvivesRestart() throws Exception {
+        FlakySender delegate = new FlakySender();
+        delegate.up = false;
+        SpoolingSender sender = new SpoolingSender(delegate, mDir.getPath(), 1024 * 1024, 64, 10);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(sender.sendData("batch-" + i));
+        }
+        sender.close();
+
+        delegate.up = true;
+        SpoolingSender restarted = new SpoolingSender(delegate, mDir.getPath(), 1024 * 1024, 64, 10);
+        try {
+            waitForEmptySpool(restarted);
+            assertEquals(5, delegate.received.size());
+            assertEquals("batch-0", delegate.received.get(0));
+            assertEquals("batch-4", delegate.received.get(4));
+        } finally {
+            restarted.close();
+        }
+    }
+
+    public void testSpoolIsBounded() throws Exception {
+        FlakySender delegate = new FlakySender();
+        delegate.up = false;
+        SpoolingSender sender = new SpoolingSender(delegate, mDir.getPath(), 100, 64, 10);
+        try {
+            int accepted = 0;
+            for (int i = 0; i < 20; i++) {
+                if (sender.sendData("batch-" + i)) {
+                    accepted++;
+                }
+            }
+            assertTrue("Some batches rejected once the spool is full", accepted < 20);
+            assertTrue(sender.getSpoolBytes() <= 100);
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testReplayWaitsForDirectSend() throws Exception {
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger attempts = new AtomicInteger();
+        final SpoolingSender sender = new SpoolingSender(new SugoAPI.Sender() {
+            @Override
+            public boolean sendData(String dataString) {
+                if ("live".equals(dataString)) {
+                    sending.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                } else if (attempts.incrementAndGet() == 1) {
+                    // 第一次直接发送失败，写入 spool
+                    return false;
+                }
+                received.add(dataString);
+                return true;
+            }
+        }, mDir.getPath(), 1024 * 1024, 1024, 10);
+        try {
+            Thread live = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    sender.sendData("live");
+                }
+            });
+            live.start();
+            assertTrue(sending.await(5, TimeUnit.SECONDS));
+            assertTrue(sender.sendData("spooled"));
+            assertEquals(SendOutcome.SPOOLED, sender.getLastOutcome());
+            Thread.sleep(100);
+            assertTrue("Replay waits for the earlier direct send", received.isEmpty());
+            release.countDown();
+            live.join(5000);
+            waitForEmptySpool(sender);
+            assertEquals(Arrays.asList("live", "spooled"), received);
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testAckedBytesAreReusable() throws Exception {
+        FlakySender delegate = new FlakySender();
+        delegate.up = false;
+        // segment 足够大，重新发送之后也不会被删除
+        SpoolingSender sender = new SpoolingSender(delegate, mDir.getPath(), 100, 1024, 10);
+        try {
+            int accepted = 0;
+            while (sender.sendData("batch-" + accepted)) {
+                accepted++;
+            }
+            assertTrue(accepted > 0);
+            delegate.up = true;
+            waitForEmptySpool(sender);
+            assertEquals(0, sender.getSpoolBytes());
+            assertEquals(1, countSegments());
+
+            delegate.up = false;
+            assertTrue("Replayed bytes are free again", sender.sendData("batch-again"));
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testRejectedDataIsNotReplayed() throws Exception {
+        final String poison = "[{\"bad\":1},{\"bad\":2}]";
+        FlakySender delegate = new FlakySender() {
+            @Override
+            public boolean sendData(String dataString) {
+                if (poison.equals(dataString)) {
+                    lastFailure = SendFailure.CLIENT_ERROR;
+                    return false;
+                }
+                return super.sendData(dataString);
+            }
+        };
+        SpoolingSender sender = new SpoolingSender(delegate, mDir.getPath(), 1024 * 1024, 64, 10);
+        Metrics metrics = new Metrics();
+        sender.setMetrics(metrics);
+        try {
+            // spool 为空时不写入 spool，直接返回 delegate 的失败原因
+            assertFalse(sender.sendData(poison));
+            assertEquals(SendFailure.CLIENT_ERROR, sender.getLastFailure());
+            assertTrue(sender.isSpoolEmpty());
+
+            delegate.up = false;
+            assertTrue(sender.sendData("batch-0"));
+            // spool 不为空时排在后面，重新发送被拒绝后丢弃，不挡住之后的数据
+            assertTrue(sender.sendData(poison));
+            assertTrue(sender.sendData("batch-1"));
+            delegate.up = true;
+            waitForEmptySpool(sender);
+            assertEquals(Arrays.asList("batch-0", "batch-1"), delegate.received);
+            assertEquals(2, metrics.getEventsDropped());
+        } finally {
+            sender.close();
+        }
+    }
+
+    private int countSegments() {
+        int count = 0;
+        for (String name : mDir.list()) {
+            if (name.endsWith(".spool")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void waitForEmptySpool(SpoolingSender sender) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!sender.isSpoolEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("Spool drained", sender.isSpoolEmpty());
+    }
+
+    private static class FlakySender implements SugoAPI.ClassifyingSender {
+
+        volatile boolean up = true;
+        volatile SendFailure lastFailure;
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public boolean sendData(String dataString) {
+            if (!up) {
+                lastFailure = SendFailure.CONNECT;
+                return false;
+            }
+            lastFailure = null;
+            received.add(dataString);
+            return true;
+        }
+
+        @Override
+        public SendFailure getLastFailure() {
+            return lastFailure;
+        }
+
+    }
+
+}
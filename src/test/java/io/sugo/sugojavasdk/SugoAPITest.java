@@ -7,8 +7,16 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Unit test for simple App.
@@ -82,6 +90,81 @@ public class SugoAPITest extends TestCase {
         assertTrue(c.isValidMessage(eventMessage));
     }
 
+    public void testEventCopiesProperties() {
+        JSONObject nested = new JSONObject();
+        nested.put("inner", "before");
+        JSONObject props = new JSONObject();
+        props.put("nested", nested);
+        props.put("prop key", "prop value");
+
+        JSONObject event = mBuilder.event("a distinct id", "login", props);
+        props.put("prop key", "changed");
+        nested.put("inner", "after");
+
+        assertEquals("prop value", event.getString("prop key"));
+        assertEquals("before", event.getJSONObject("nested").getString("inner"));
+        assertFalse("Caller's properties are not modified", props.has("event"));
+    }
+
+    public void testSuperPropertiesAndTemplates() {
+        MessageBuilder builder = new MessageBuilder()
+                .setSuperProperties(new JSONObject().put("app_version", "3.2.1").put("region", "cn"))
+                .registerTemplate("purchase", new JSONObject().put("region", "us").put("channel", "web"));
+
+        JSONObject login = builder.event("a distinct id", "login", mSampleProps);
+        assertEquals("3.2.1", login.getString("app_version"));
+        assertEquals("cn", login.getString("region"));
+        assertFalse(login.has("channel"));
+
+        JSONObject purchase = builder.event("purchase", new JSONObject().put("channel", "app"));
+        assertEquals("Template overrides super properties", "us", purchase.getString("region"));
+        assertEquals("Event properties override the template", "app", purchase.getString("channel"));
+        assertEquals("3.2.1", purchase.getString("app_version"));
+
+        builder.setSuperProperties(new JSONObject().put("app_version", "3.3.0"));
+        purchase = builder.event("purchase", null);
+        assertEquals("3.3.0", purchase.getString("app_version"));
+        assertEquals("us", purchase.getString("region"));
+        builder.unregisterTemplate("purchase");
+        assertFalse(builder.event("purchase", null).has("channel"));
+
+        try {
+            builder.setSuperProperties(new JSONObject().put("event", "x"));
+            fail("event is reserved");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    public void testWorkerSplicesSuperProperties() throws Exception {
+        final List<String> batches = Collections.synchronizedList(new ArrayList<String>());
+        SugoAPI api = new SugoAPI(new SugoAPI.Sender() {
+            @Override
+            public boolean sendData(String dataString) {
+                batches.add(dataString);
+                return true;
+            }
+        }, new WorkerConfig().setLingerMillis(0));
+        api.setSuperProperties(new JSONObject().put("host", "web-1"));
+        api.registerTemplate("purchase", new JSONObject().put("channel", "web"));
+        assertTrue(api.eventAsync("purchase", new JSONObject().put("item", "Hat")).get(5, TimeUnit.SECONDS));
+        assertTrue(api.eventAsync("purchase", new JSONObject().put("host", "web-2")).get(5, TimeUnit.SECONDS));
+
+        List<JSONObject> events = new ArrayList<JSONObject>();
+        for (String batch : batches) {
+            JSONArray array = new JSONArray(batch);
+            for (int i = 0; i < array.length(); i++) {
+                events.add(array.getJSONObject(i));
+            }
+        }
+        assertEquals(2, events.size());
+        assertEquals("Hat", events.get(0).getString("item"));
+        assertEquals("web-1", events.get(0).getString("host"));
+        assertEquals("web", events.get(0).getString("channel"));
+        assertEquals("Overlapping properties are not duplicated", "web-2", events.get(1).getString("host"));
+        assertEquals("web", events.get(1).getString("channel"));
+    }
+
     public void testValidate() {
         MessagePackage c = new MessagePackage();
         JSONObject event = mBuilder.event("a distinct id", "login", mSampleProps);
@@ -124,8 +207,7 @@ public class SugoAPITest extends TestCase {
             String eventName = eventSent.getString("event");
             assertTrue("Event name had expected value", "login".equals(eventName));
 
-            JSONObject eventProps = eventSent.getJSONObject("properties");
-            String propValue = eventProps.getString("prop key");
+            String propValue = eventSent.getString("prop key");
             assertTrue("Property had expected value", "prop value".equals(propValue));
         } catch (JSONException e) {
             fail("Data message can't be interpreted as expected: " + mEventsMessages);
@@ -194,6 +276,316 @@ public class SugoAPITest extends TestCase {
         }
     }
 
+    public void testSendMessagesAsyncReportsOutcomePerBatch() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        // 第一批第一次失败，重试后成功；只有一条消息的第二批总是被拒绝
+        SugoAPI.Sender flaky = new SugoAPI.Sender() {
+            @Override
+            public boolean sendData(String dataString) {
+                if (new JSONArray(dataString).length() == 1) {
+                    return false;
+                }
+                return calls.incrementAndGet() > 1;
+            }
+        };
+        RetryPolicy policy = new RetryPolicy().setMaxAttempts(2).setBackoff(1, 1, 1);
+        SugoAPI api = new SugoAPI(new RetryingSender(flaky, policy), true);
+
+        MessagePackage messagePackage = new MessagePackage();
+        for (int i = 0; i < SugoConfig.MAX_MESSAGE_SIZE + 1; i++) {
+            messagePackage.addMessage(mBuilder.event("a distinct id", "counted", null));
+        }
+        List<SendFuture> futures = api.sendMessagesAsync(messagePackage);
+        assertEquals(2, futures.size());
+        assertTrue(futures.get(0).get(5, TimeUnit.SECONDS));
+        assertEquals(SendOutcome.RETRIED, futures.get(0).getOutcome());
+        assertFalse(futures.get(1).get(5, TimeUnit.SECONDS));
+        assertEquals(SendOutcome.REJECTED, futures.get(1).getOutcome());
+        assertEquals(SendFailure.UNKNOWN, futures.get(1).getFailure());
+        assertEquals(1, api.getMetrics().getBatchesSent());
+        assertEquals(1, api.getMetrics().getBatchesFailed());
+    }
+
+    public void testSendMessagesAsyncWithVirtualThreads() throws Exception {
+        // 使用虚拟线程时每一批一个线程，不受 consumerCount 限制
+        final boolean virtual = Threads.isVirtualSupported();
+        final CountDownLatch concurrent = new CountDownLatch(3);
+        SugoAPI.Sender sender = new SugoAPI.Sender() {
+            @Override
+            public boolean sendData(String dataString) {
+                concurrent.countDown();
+                try {
+                    return !virtual || concurrent.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        };
+        SugoAPI api = new SugoAPI(sender, new WorkerConfig().setConsumerCount(1).setVirtualThreads(true));
+        try {
+            List<SendFuture> futures = new ArrayList<SendFuture>();
+            for (int i = 0; i < 3; i++) {
+                MessagePackage messagePackage = new MessagePackage();
+                messagePackage.addMessage(mBuilder.event("a distinct id", "login", mSampleProps));
+                futures.addAll(api.sendMessagesAsync(messagePackage));
+            }
+            for (SendFuture future : futures) {
+                assertTrue(future.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            api.close();
+        }
+    }
+
+    public void testSendMessagesAsyncReportsSpooled() throws Exception {
+        File dir = Files.createTempDirectory("sugo-spool").toFile();
+        SugoAPI.Sender down = new SugoAPI.Sender() {
+            @Override
+            public boolean sendData(String dataString) {
+                return false;
+            }
+        };
+        SpoolingSender sender = new SpoolingSender(down, dir.getPath());
+        try {
+            SugoAPI api = new SugoAPI(sender, true);
+            MessagePackage messagePackage = new MessagePackage();
+            messagePackage.addMessage(mBuilder.event("a distinct id", "login", mSampleProps));
+            SendFuture future = api.sendMessagesAsync(messagePackage).get(0);
+            assertTrue(future.get(5, TimeUnit.SECONDS));
+            assertEquals(SendOutcome.SPOOLED, future.getOutcome());
+        } finally {
+            sender.close();
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    public void testMessagePackCodec() throws Exception {
+        final List<String> contentTypes = Collections.synchronizedList(new ArrayList<String>());
+        final List<Integer> lengths = Collections.synchronizedList(new ArrayList<Integer>());
+        SugoAPI.BinarySender sender = new SugoAPI.BinarySender() {
+            @Override
+            public boolean sendData(String dataString) {
+                fail("JSON should not be sent");
+                return false;
+            }
+
+            @Override
+            public boolean sendBinary(byte[] data, int offset, int length, String contentType) {
+                // array 32 头中的条数
+                assertEquals((byte) 0xdd, data[offset]);
+                lengths.add(ByteBuffer.wrap(data, offset + 1, 4).getInt());
+                contentTypes.add(contentType);
+                return true;
+            }
+        };
+        SugoAPI api = new SugoAPI(new RetryingSender(sender),
+                new WorkerConfig().setCodec(BatchCodec.MESSAGE_PACK).setConsumerCount(1).setBatchSize(1).setLingerMillis(0));
+        try {
+            assertTrue(api.eventAsync("login", mSampleProps).get(5, TimeUnit.SECONDS));
+            MessagePackage messages = new MessagePackage();
+            messages.addMessage(new MessageBuilder().event("logout", null));
+            messages.addMessage(new MessageBuilder().event("login", null));
+            api.sendMessages(messages);
+            assertEquals(Arrays.asList("application/x-msgpack", "application/x-msgpack", "application/x-msgpack"),
+                    contentTypes);
+            assertEquals(Arrays.asList(1, 1, 1), lengths);
+        } finally {
+            api.close();
+        }
+
+        try {
+            new SugoAPI(new SugoAPI.ConsoleSender(), new WorkerConfig().setCodec(BatchCodec.MESSAGE_PACK));
+            fail("MessagePack requires a BinarySender");
+        } catch (IllegalArgumentException e) {
+            // ok
+        }
+    }
+
+    public void testEventAsync() throws Exception {
+        final List<String> sends = Collections.synchronizedList(new ArrayList<String>());
+        SugoAPI api = new SugoAPI(new SugoAPI.Sender() {
+            @Override
+            public boolean sendData(String dataString) {
+                sends.add(dataString);
+                return sends.size() == 1;
+            }
+        }, new WorkerConfig().setConsumerCount(1).setBatchSize(1).setLingerMillis(0));
+
+        SendFuture first = api.eventAsync("login", mSampleProps);
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertEquals(SendOutcome.ACCEPTED, first.getOutcome());
+        SendFuture second = api.eventAsync("logout", null);
+        assertFalse(second.get(5, TimeUnit.SECONDS));
+        assertEquals(SendOutcome.REJECTED, second.getOutcome());
+        assertEquals("logout", new JSONArray(sends.get(1)).getJSONObject(0).getString("event"));
+
+        try {
+            new SugoAPI(new SugoAPI.ConsoleSender(), true).eventAsync("login", null);
+            fail("eventAsync() should not work without the default worker");
+        } catch (SugoMessageException e) {
+            // ok
+        }
+    }
+
+    public void testCloseDrainsQueueInLargeBatches() throws Exception {
+        ClosingSender sender = new ClosingSender();
+        SugoAPI api = new SugoAPI(sender, new WorkerConfig().setConsumerCount(1).setBatchSize(100).setLingerMillis(60000));
+        // Sender 在 close 开始之前不返回，所有批次都由 close 发送完成
+        sender.blockUntilClosed = api;
+        for (int i = 0; i < 250; i++) {
+            api.event("login", mSampleProps);
+        }
+
+        long start = System.nanoTime();
+        DrainReport report = api.close(5, TimeUnit.SECONDS);
+        // 不等待 linger，最后不满一批的 event 也立即发送
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertTrue(report.isComplete());
+        assertEquals(250, report.getDrained());
+        assertEquals(0, report.getAbandoned());
+        int events = 0;
+        for (String send : sender.sends) {
+            events += new JSONArray(send).length();
+        }
+        assertEquals(250, events);
+        assertEquals(3, sender.sends.size());
+        assertTrue(sender.flushed);
+        assertTrue(sender.closed);
+        assertTrue(api.isClosed());
+        assertSame(report, api.close(1, TimeUnit.SECONDS));
+    }
+
+    public void testCloseAbandonsEventsAfterTimeout() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        SugoAPI api = new SugoAPI(new SugoAPI.Sender() {
+            @Override
+            public boolean sendData(String dataString) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        }, new WorkerConfig().setConsumerCount(1).setBatchSize(10).setLingerMillis(0));
+        List<SendFuture> futures = new ArrayList<SendFuture>();
+        futures.add(api.eventAsync("login", null));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 20; i++) {
+            futures.add(api.eventAsync("login", null));
+        }
+
+        DrainReport report = api.close(100, TimeUnit.MILLISECONDS);
+        release.countDown();
+        assertFalse(report.isComplete());
+        assertEquals(0, report.getDrained());
+        assertEquals(21, report.getAbandoned());
+        assertEquals(21, api.getMetrics().getEventsAbandoned());
+        for (SendFuture future : futures.subList(1, futures.size())) {
+            assertFalse(future.get(5, TimeUnit.SECONDS));
+            assertEquals(SendFailure.CLOSED, future.getFailure());
+        }
+    }
+
+    public void testEventAfterClose() throws Exception {
+        SugoAPI api = new SugoAPI(new ClosingSender(), new WorkerConfig().setConsumerCount(1));
+        api.registerShutdownHook(1, TimeUnit.SECONDS);
+        try {
+            api.registerShutdownHook(1, TimeUnit.SECONDS);
+            fail("Shutdown hook registered twice");
+        } catch (IllegalStateException e) {
+            // ok
+        }
+        api.close();
+
+        SendFuture future = api.eventAsync("login", null);
+        assertFalse(future.get(1, TimeUnit.SECONDS));
+        assertEquals(SendFailure.CLOSED, future.getFailure());
+        api.event("login", null);
+        assertEquals(2, api.getMetrics().getEventsDropped());
+        try {
+            api.registerShutdownHook(1, TimeUnit.SECONDS);
+            fail("Shutdown hook registered after close");
+        } catch (IllegalStateException e) {
+            // ok
+        }
+    }
+
+    public void testSendMessagesAsyncAfterClose() throws Exception {
+        ClosingSender sender = new ClosingSender();
+        SugoAPI api = new SugoAPI(sender, new WorkerConfig().setConsumerCount(1));
+        MessagePackage messagePackage = new MessagePackage();
+        messagePackage.addMessage(mBuilder.event("a distinct id", "login", null));
+        // 先启动发送线程，close 会停止它们
+        assertTrue(api.sendMessagesAsync(messagePackage).get(0).get(5, TimeUnit.SECONDS));
+        api.close();
+
+        SendFuture future = api.sendMessagesAsync(messagePackage).get(0);
+        assertTrue(future.isDone());
+        assertFalse(future.get());
+        assertEquals(SendFailure.CLOSED, future.getFailure());
+        assertEquals(1, sender.sends.size());
+    }
+
+    public void testFlushKeepsAccepting() throws Exception {
+        ClosingSender sender = new ClosingSender();
+        SugoAPI api = new SugoAPI(sender, new WorkerConfig().setConsumerCount(1).setLingerMillis(60000));
+        api.event("login", null);
+        DrainReport report = api.flush(5, TimeUnit.SECONDS);
+        assertEquals(1, report.getDrained());
+        assertTrue(sender.flushed);
+        assertFalse(sender.closed);
+
+        SendFuture future = api.eventAsync("logout", null);
+        assertEquals(1, api.flush(5, TimeUnit.SECONDS).getDrained());
+        assertTrue(future.isDone());
+        assertTrue(future.get());
+        api.close();
+    }
+
+    private static class ClosingSender implements SugoAPI.Sender, Flushable, Closeable {
+
+        final List<String> sends = Collections.synchronizedList(new ArrayList<String>());
+        volatile boolean flushed;
+        volatile boolean closed;
+        volatile SugoAPI blockUntilClosed;
+
+        @Override
+        public boolean sendData(String dataString) {
+            SugoAPI api = blockUntilClosed;
+            while (api != null && !api.isClosing()) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            sends.add(dataString);
+            return true;
+        }
+
+        @Override
+        public void flush() {
+            flushed = true;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+    }
+
     public void testEncodeDataString() {
         SugoAPI api = new SugoAPI(new SugoAPI.ConsoleSender()) {
             @Override
@@ -0,0 +1,185 @@
+package io.sugo.sugojavasdk;
+
+import junit.framework.TestCase;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class UdpSenderTest extends TestCase {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private DatagramChannel mAgent;
+    private int mPort;
+
+    @Override
+    public void setUp() throws IOException {
+        mAgent = DatagramChannel.open();
+        mAgent.bind(new InetSocketAddress("127.0.0.1", 0));
+        mPort = ((InetSocketAddress) mAgent.getLocalAddress()).getPort();
+    }
+
+    @Override
+    public void tearDown() throws IOException {
+        mAgent.close();
+    }
+
+    public void testSingleDatagram() throws IOException {
+        UdpSender sender = new UdpSender("127.0.0.1", mPort);
+        try {
+            String batch = "[{\"event\":\"login\",\"text\":\"中文\"}]";
+            assertTrue(sender.sendData(batch));
+            assertEquals(SendOutcome.ACCEPTED, sender.getLastOutcome());
+            assertEquals(batch, receive());
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testPackLargeBatch() throws IOException {
+        UdpSender sender = new UdpSender("127.0.0.1", mPort, null, 200, 1000);
+        Metrics metrics = new Metrics();
+        sender.setMetrics(metrics);
+        try {
+            JSONArray batch = new JSONArray();
+            for (int i = 0; i < 20; i++) {
+                // 字符串中的逗号、括号和转义的引号不是元素的边界
+                batch.put(new JSONObject().put("event", "view").put("i", i)
+                        .put("text", "a,b]}[{\"q\"\\").put("list", new JSONArray().put(i).put(new JSONObject())));
+            }
+            StringBuilder big = new StringBuilder();
+            for (int i = 0; i < 300; i++) {
+                big.append('x');
+            }
+            batch.put(new JSONObject().put("event", "too_big").put("text", big.toString()));
+            batch.put(new JSONObject().put("event", "last"));
+            // 超过上限的 event 记为丢弃，其余的都发出了，这一批算作成功
+            assertTrue(sender.sendData(batch.toString()));
+            assertEquals(SendOutcome.ACCEPTED, sender.getLastOutcome());
+            assertEquals(1, metrics.getEventsDropped());
+
+            List<JSONObject> received = new ArrayList<JSONObject>();
+            while (received.size() < 21) {
+                String datagram = receive();
+                assertTrue(datagram.getBytes(UTF8).length <= 200);
+                JSONArray events = new JSONArray(datagram);
+                assertTrue("Datagrams are packed", events.length() > 1 || received.size() == 20);
+                for (int i = 0; i < events.length(); i++) {
+                    received.add(events.getJSONObject(i));
+                }
+            }
+            for (int i = 0; i < 20; i++) {
+                assertEquals(i, received.get(i).getInt("i"));
+                assertEquals("a,b]}[{\"q\"\\", received.get(i).getString("text"));
+            }
+            // 超过上限的 event 被丢弃
+            assertEquals("last", received.get(20).getString("event"));
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testOversizedEventsGoToFallback() throws IOException {
+        final List<String> fallback = new ArrayList<String>();
+        UdpSender sender = new UdpSender("127.0.0.1", mPort, new SugoAPI.Sender() {
+            @Override
+            public boolean sendData(String dataString) {
+                fallback.add(dataString);
+                return true;
+            }
+        }, 100, 1000);
+        try {
+            StringBuilder big = new StringBuilder();
+            for (int i = 0; i < 150; i++) {
+                big.append('x');
+            }
+            assertTrue(sender.sendData("[1,\"" + big + "\",2,3]"));
+            assertEquals(SendOutcome.SPOOLED, sender.getLastOutcome());
+            assertEquals("[1,2,3]", receive());
+            assertEquals(Collections.singletonList("[\"" + big + "\"]"), fallback);
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testPartialFailureSendsOnlyRestToFallback() throws IOException {
+        final List<String> fallback = new ArrayList<String>();
+        UdpSender sender = new UdpSender("127.0.0.1", mPort, new SugoAPI.Sender() {
+            @Override
+            public boolean sendData(String dataString) {
+                fallback.add(dataString);
+                return true;
+            }
+        }, 40, 1000) {
+            int mPackets = 0;
+
+            @Override
+            void sendPacket(int length) throws IOException {
+                if (++mPackets == 2) {
+                    throw new IOException("second datagram fails");
+                }
+                super.sendPacket(length);
+            }
+        };
+        try {
+            JSONArray batch = new JSONArray();
+            for (int i = 0; i < 20; i++) {
+                batch.put(1000 + i);
+            }
+            assertTrue(sender.sendData(batch.toString()));
+            assertEquals(SendOutcome.SPOOLED, sender.getLastOutcome());
+            JSONArray sent = new JSONArray(receive());
+            assertEquals(1, fallback.size());
+            JSONArray rest = new JSONArray(fallback.get(0));
+            assertEquals("Every event is sent exactly once", batch.length(), sent.length() + rest.length());
+            for (int i = 0; i < batch.length(); i++) {
+                int expected = batch.getInt(i);
+                assertEquals(expected, i < sent.length() ? sent.getInt(i) : rest.getInt(i - sent.length()));
+            }
+        } finally {
+            sender.close();
+        }
+    }
+
+    public void testFallbackWhenAgentStops() throws Exception {
+        final List<String> fallback = Collections.synchronizedList(new ArrayList<String>());
+        UdpSender sender = new UdpSender("127.0.0.1", mPort, new SugoAPI.Sender() {
+            @Override
+            public boolean sendData(String dataString) {
+                fallback.add(dataString);
+                return true;
+            }
+        }, SugoConfig.DEFAULT_UDP_MAX_DATAGRAM_BYTES, 60000);
+        try {
+            assertTrue(sender.sendData("[1]"));
+            assertEquals("[1]", receive());
+            mAgent.close();
+            // ICMP port unreachable 在之后的发送中报告
+            for (int i = 0; i < 100 && fallback.isEmpty(); i++) {
+                assertTrue(sender.sendData("[2]"));
+                Thread.sleep(10);
+            }
+            assertEquals(SendOutcome.SPOOLED, sender.getLastOutcome());
+            assertTrue(sender.sendData("[3]"));
+            assertEquals("[3]", fallback.get(fallback.size() - 1));
+        } finally {
+            sender.close();
+        }
+    }
+
+    private String receive() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(65536);
+        mAgent.receive(buffer);
+        buffer.flip();
+        return UTF8.decode(buffer).toString();
+    }
+
+}
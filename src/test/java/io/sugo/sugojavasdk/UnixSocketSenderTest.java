@@ -0,0 +1,229 @@
+package io.sugo.sugojavasdk;
+
+import junit.framework.TestCase;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ProtocolFamily;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class UnixSocketSenderTest extends TestCase {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private File mDir;
+    private String mPath;
+    private Agent mAgent;
+
+    @Override
+    public void setUp() throws IOException {
+        mDir = Files.createTempDirectory("sugo-uds").toFile();
+        mPath = new File(mDir, "agent.sock").getPath();
+    }
+
+    @Override
+    public void tearDown() {
+        if (mAgent != null) {
+            mAgent.stop();
+        }
+        new File(mPath).delete();
+        mDir.delete();
+    }
+
+    public void testSendFrames() throws Exception {
+        if (!UnixSocketSender.isSupported()) {
+            return;
+        }
+        mAgent = new Agent(mPath);
+        UnixSocketSender sender = new UnixSocketSender(mPath);
+        try {
+            String batch = "[{\"event\":\"login\",\"text\":\"中文😀\"}]";
+            assertTrue(sender.sendData(batch));
+            assertEquals(SendOutcome.ACCEPTED, sender.getLastOutcome());
+            Frame frame = mAgent.next();
+            assertEquals(BatchCodec.JSON.getContentType(), frame.contentType);
+            assertEquals(batch, new String(frame.data, UTF8));
+
+            byte[] binary = {9, 1, 2, 3, 9};
+            assertTrue(sender.sendBinary(binary, 1, 3, "application/x-msgpack"));
+            frame = mAgent.next();
+            assertEquals("application/x-msgpack", frame.contentType);
+            assertEquals(3, frame.data.length);
+            assertEquals(1, frame.data[0]);
+            assertEquals(3, frame.data[2]);
+        } finally {
+            sender.close();
+        }
+        assertFalse(sender.sendData("[]"));
+        assertEquals(SendFailure.CLOSED, sender.getLastFailure());
+    }
+
+    public void testFallbackWhileAgentDown() throws Exception {
+        if (!UnixSocketSender.isSupported()) {
+            return;
+        }
+        RecordingSender fallback = new RecordingSender();
+        UnixSocketSender sender = new UnixSocketSender(mPath, fallback, 60000, 1000);
+        assertTrue(sender.sendData("[1]"));
+        assertEquals(SendOutcome.SPOOLED, sender.getLastOutcome());
+        assertEquals(Collections.singletonList("[1]"), fallback.received);
+        // fallback 不能发送二进制数据
+        assertFalse(sender.sendBinary(new byte[]{1}, 0, 1, "application/x-msgpack"));
+        assertEquals(SendFailure.CONNECT, sender.getLastFailure());
+
+        UnixSocketSender noFallback = new UnixSocketSender(mPath);
+        assertFalse(noFallback.sendData("[1]"));
+        assertEquals(SendFailure.CONNECT, noFallback.getLastFailure());
+        noFallback.close();
+        sender.close();
+        assertTrue("Fallback closed with the sender", fallback.closed);
+    }
+
+    public void testReconnectAfterAgentRestart() throws Exception {
+        if (!UnixSocketSender.isSupported()) {
+            return;
+        }
+        mAgent = new Agent(mPath);
+        RecordingSender fallback = new RecordingSender();
+        UnixSocketSender sender = new UnixSocketSender(mPath, fallback, 0, 1000);
+        try {
+            assertTrue(sender.sendData("[\"before\"]"));
+            assertEquals("[\"before\"]", new String(mAgent.next().data, UTF8));
+
+            mAgent.stop();
+            new File(mPath).delete();
+            // 对端关闭后的写入可能还会成功一次，之后失败并交给 fallback
+            for (int i = 0; i < 100 && fallback.received.isEmpty(); i++) {
+                assertTrue(sender.sendData("[\"during\"]"));
+                Thread.sleep(10);
+            }
+            assertEquals(SendOutcome.SPOOLED, sender.getLastOutcome());
+
+            mAgent = new Agent(mPath);
+            assertTrue(sender.sendData("[\"after\"]"));
+            assertEquals(SendOutcome.ACCEPTED, sender.getLastOutcome());
+            assertEquals("[\"after\"]", new String(mAgent.next().data, UTF8));
+        } finally {
+            sender.close();
+        }
+    }
+
+    private static class Frame {
+
+        final String contentType;
+        final byte[] data;
+
+        Frame(String contentType, byte[] data) {
+            this.contentType = contentType;
+            this.data = data;
+        }
+
+    }
+
+    /**
+     * 进程内的 agent：接受连接并解析 UnixSocketSender 写出的帧
+     */
+    private static class Agent {
+
+        private final ServerSocketChannel mServer;
+        private final List<SocketChannel> mClients = Collections.synchronizedList(new ArrayList<SocketChannel>());
+        private final BlockingQueue<Frame> mFrames = new LinkedBlockingQueue<Frame>();
+
+        Agent(String path) throws Exception {
+            ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+            mServer = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+                    .invoke(null, unix);
+            mServer.bind(UnixSocketSender.address(path));
+            Thread acceptor = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            final SocketChannel client = mServer.accept();
+                            mClients.add(client);
+                            Thread reader = new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    read(client);
+                                }
+                            });
+                            reader.setDaemon(true);
+                            reader.start();
+                        }
+                    } catch (IOException e) {
+                        // 已停止
+                    }
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private void read(SocketChannel client) {
+            try {
+                DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+                while (true) {
+                    int length = in.readInt();
+                    byte[] type = new byte[in.readUnsignedByte()];
+                    in.readFully(type);
+                    byte[] data = new byte[length - 1 - type.length];
+                    in.readFully(data);
+                    mFrames.add(new Frame(new String(type, "US-ASCII"), data));
+                }
+            } catch (IOException e) {
+                // 连接已关闭
+            }
+        }
+
+        Frame next() throws InterruptedException {
+            Frame frame = mFrames.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Frame received", frame);
+            return frame;
+        }
+
+        void stop() {
+            try {
+                mServer.close();
+                synchronized (mClients) {
+                    for (SocketChannel client : mClients) {
+                        client.close();
+                    }
+                }
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+    }
+
+    private static class RecordingSender implements SugoAPI.Sender, java.io.Closeable {
+
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        volatile boolean closed = false;
+
+        @Override
+        public boolean sendData(String dataString) {
+            received.add(dataString);
+            return true;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+    }
+
+}